@@ -69,4 +69,91 @@ public class DisjCPBenchmarks {
 		// interval analysis.
 		error("Unable to prove that loop does not terminate!");
 	}
+
+	/**
+	 * Each condition doubles the number of disjuncts, and proving the checks
+	 * requires keeping each pair of variables in separate disjuncts.
+	 */
+	public void branchyExample(int a) {
+		int s1, t1;
+		if ((a & 1) != 0) {
+			s1 = 1;
+			t1 = 2;
+		} else {
+			s1 = 2;
+			t1 = 1;
+		}
+		int s2, t2;
+		if ((a & 2) != 0) {
+			s2 = 1;
+			t2 = 2;
+		} else {
+			s2 = 2;
+			t2 = 1;
+		}
+		int s3, t3;
+		if ((a & 4) != 0) {
+			s3 = 1;
+			t3 = 2;
+		} else {
+			s3 = 2;
+			t3 = 1;
+		}
+		int s4, t4;
+		if ((a & 8) != 0) {
+			s4 = 1;
+			t4 = 2;
+		} else {
+			s4 = 2;
+			t4 = 1;
+		}
+		int s5, t5;
+		if ((a & 16) != 0) {
+			s5 = 1;
+			t5 = 2;
+		} else {
+			s5 = 2;
+			t5 = 1;
+		}
+		int s6, t6;
+		if ((a & 32) != 0) {
+			s6 = 1;
+			t6 = 2;
+		} else {
+			s6 = 2;
+			t6 = 1;
+		}
+		int s7, t7;
+		if ((a & 64) != 0) {
+			s7 = 1;
+			t7 = 2;
+		} else {
+			s7 = 2;
+			t7 = 1;
+		}
+		int s8, t8;
+		if ((a & 128) != 0) {
+			s8 = 1;
+			t8 = 2;
+		} else {
+			s8 = 2;
+			t8 = 1;
+		}
+		if (s1 + t1 != 3)
+			error("Unable to prove s1+t1==3!");
+		if (s2 + t2 != 3)
+			error("Unable to prove s2+t2==3!");
+		if (s3 + t3 != 3)
+			error("Unable to prove s3+t3==3!");
+		if (s4 + t4 != 3)
+			error("Unable to prove s4+t4==3!");
+		if (s5 + t5 != 3)
+			error("Unable to prove s5+t5==3!");
+		if (s6 + t6 != 3)
+			error("Unable to prove s6+t6==3!");
+		if (s7 + t7 != 3)
+			error("Unable to prove s7+t7==3!");
+		if (s8 + t8 != 3)
+			error("Unable to prove s8+t8==3!");
+	}
 }
\ No newline at end of file
@@ -33,4 +33,30 @@ public class LinBenchmarks {
 		int z = y + 1;
 		// ++x;
 	}
+
+	public void loopExample1(int n) {
+		int i = 0;
+		int j = 0;
+		while (i < n) {
+			i = i + 1;
+			j = j + 2;
+		}
+		if (j != 2 * i)
+			error("j != 2*i");
+	}
+
+	public void loopExample2(int n) {
+		int x = 0;
+		int y = 5;
+		int z = 10;
+		while (x < n) {
+			x = x + 1;
+			y = y + 1;
+			z = z - 1;
+		}
+		if (y + z != 15)
+			error("y+z != 15");
+		if (y - x != 5)
+			error("y-x != 5");
+	}
 }
\ No newline at end of file
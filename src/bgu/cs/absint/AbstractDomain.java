@@ -176,6 +176,19 @@ public abstract class AbstractDomain<StateType, ActionType> {
 		return leq(first, second) || leq(second, first);
 	}
 
+	/**
+	 * Returns the number of disjuncts represented by an element, which is used
+	 * for bounding the size of the solutions of equation systems (see
+	 * {@link bgu.cs.absint.solver.SolverBudget}).
+	 * 
+	 * @param elem
+	 *            An abstract domain element.
+	 * @return The default implementation yields 1.
+	 */
+	public int size(StateType elem) {
+		return 1;
+	}
+
 	/**
 	 * Returns an upper bound of two abstract states that ensures a bound on the
 	 * size of increasing chains combined with this operator.
@@ -19,10 +19,24 @@ public class AnalysisVar<StateType> {
 	 */
 	protected final String name;
 
+	/**
+	 * A dense index assigned by the {@link EquationSystem} containing this
+	 * variable, or -1 if the variable does not participate in a system yet.
+	 */
+	protected int id = -1;
+
 	public AnalysisVar(String name) {
 		this.name = name;
 	}
 
+	/**
+	 * Returns the index of this variable in its equation system, or -1 if the
+	 * variable does not participate in a system yet.
+	 */
+	public int getId() {
+		return id;
+	}
+
 	@Override
 	public String toString() {
 		return name;
@@ -23,6 +23,12 @@ public class Equation<StateType> implements Comparable<Equation<StateType>> {
 	 */
 	public int priority;
 
+	/**
+	 * A dense index assigned by the {@link EquationSystem} containing this
+	 * equation, or -1 if the equation has not been added to a system yet.
+	 */
+	protected int id = -1;
+
 	/**
 	 * The left-hand side of the equation.
 	 */
@@ -38,6 +44,12 @@ public class Equation<StateType> implements Comparable<Equation<StateType>> {
 	 */
 	protected final ArrayList<AnalysisVar<StateType>> args;
 
+	/**
+	 * Holds the values of {@link args} for operations with more than two
+	 * arguments, to avoid allocating a list on every update.
+	 */
+	private ArrayList<StateType> argStates;
+
 	public Equation(AnalysisVar<StateType> lhs, Operation<StateType> op,
 			List<AnalysisVar<StateType>> args) {
 		assert lhs != null && op != null && args != null;
@@ -66,6 +78,14 @@ public class Equation<StateType> implements Comparable<Equation<StateType>> {
 		this.args.add(arg2);
 	}
 
+	/**
+	 * Returns the index of this equation in its equation system, or -1 if the
+	 * equation has not been added to a system yet.
+	 */
+	public int getId() {
+		return id;
+	}
+
 	public AnalysisVar<StateType> getLhs() {
 		return lhs;
 	}
@@ -100,7 +120,9 @@ public class Equation<StateType> implements Comparable<Equation<StateType>> {
 			break;
 		default:
 			// Handle operations with more than two arguments.
-			ArrayList<StateType> argStates = new ArrayList<>();
+			if (argStates == null)
+				argStates = new ArrayList<>(op.arity());
+			argStates.clear();
 			for (int i = 0; i < op.arity(); ++i) {
 				argStates.add(args.get(i).value);
 			}
@@ -110,6 +132,18 @@ public class Equation<StateType> implements Comparable<Equation<StateType>> {
 		lhs.value = newValue;
 	}
 
+	/**
+	 * Updates the equation, given that only the argument at the given position
+	 * has been assigned a new value since the last update. Equations that can
+	 * exploit this override it; by default it is the same as {@link update()}.
+	 * 
+	 * @param changedArg
+	 *            The position of the changed argument in {@link args}.
+	 */
+	public void update(int changedArg) {
+		update();
+	}
+
 	@Override
 	public String toString() {
 		return lhs + " = " + op.toString(args)
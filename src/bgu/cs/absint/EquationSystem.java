@@ -1,55 +1,121 @@
 package bgu.cs.absint;
 
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 /**
- * A system of equations providing an abstract semantics to a program.
- * 
+ * A system of equations providing an abstract semantics to a program.<br>
+ * Variables and equations are assigned dense indices (see
+ * {@link AnalysisVar#getId()} and {@link Equation#getId()}) in the order they
+ * are added to the system. Once the system is queried it is frozen into
+ * compact arrays: a variable array, an operation array, and CSR-encoded
+ * (compressed sparse row) lists of the arguments of each equation and of the
+ * equations containing each variable. Adding an equation thaws the system and
+ * the arrays are recomputed on the next query.
+ *
  * @author romanm
- * 
+ *
  * @param <StateType>
  *            The implementation type of abstract states.
  */
 public class EquationSystem<StateType, ActionType> {
 	/**
-	 * Maps the {@link AnalysisVar} on the left-hand side of an equation to the
-	 * {@link Equation} on its right-hand side.
+	 * The variables of the system, indexed by their ids.
 	 */
-	protected LinkedHashMap<AnalysisVar<StateType>, Equation<StateType>> varToEquation = new LinkedHashMap<>();
+	protected final ArrayList<AnalysisVar<StateType>> vars = new ArrayList<>();
 
 	/**
-	 * Maps a variable to all equations containing it on the right-hand side
-	 * (i.e., as an argument of the operation on its right-hand side).
+	 * The equations of the system, indexed by their ids.
 	 */
-	protected HashMap<AnalysisVar<StateType>, Set<Equation<StateType>>> varToContainingEquations = new HashMap<>();
+	protected final ArrayList<Equation<StateType>> equations = new ArrayList<>();
+
+	/**
+	 * The equation defining each variable (or null), indexed by the variable
+	 * ids.
+	 */
+	protected final ArrayList<Equation<StateType>> definingEquations = new ArrayList<>();
+
+	/**
+	 * Indicates whether the arrays below are up-to-date.
+	 */
+	protected boolean frozen = false;
+
+	/**
+	 * The variables of the system, indexed by their ids.
+	 */
+	protected AnalysisVar<StateType>[] varArray;
+
+	/**
+	 * The operations of the equations, indexed by the equation ids.
+	 */
+	protected Operation<StateType>[] opArray;
+
+	/**
+	 * The id of the left-hand side variable of each equation.
+	 */
+	protected int[] lhsIds;
+
+	/**
+	 * The id of the equation defining each variable, or -1 if there is none.
+	 */
+	protected int[] definingEquationIds;
+
+	/**
+	 * The arguments of equation {@code e} are the variables with the ids
+	 * {@code argIds[argOffsets[e]..argOffsets[e+1]-1]}.
+	 */
+	protected int[] argOffsets;
+	protected int[] argIds;
+
+	/**
+	 * The equations containing variable {@code v} on their right-hand side
+	 * are the equations with the ids
+	 * {@code dependentIds[dependentOffsets[v]..dependentOffsets[v+1]-1]}, in
+	 * ascending order and without duplicates.
+	 */
+	protected int[] dependentOffsets;
+	protected int[] dependentIds;
+
+	/**
+	 * The position of variable {@code v} in the argument list of equation
+	 * {@code dependentIds[i]}, for {@code i} in
+	 * {@code dependentOffsets[v]..dependentOffsets[v+1]-1}, or -1 if the
+	 * variable occurs more than once in that list.
+	 */
+	protected int[] dependentArgPositions;
 
 	/**
 	 * Sets the values of all variables to the given {@link value}.
-	 * 
+	 *
 	 * @param value
 	 *            The value set for all variables.
 	 */
 	public void resetValues(StateType value) {
-		for (AnalysisVar<StateType> var : getAllVars()) {
-			var.value = value;
+		for (int i = 0; i < vars.size(); ++i) {
+			vars.get(i).value = value;
 		}
 	}
 
 	/**
 	 * Assigns the given value to uninitialized values and leaves initialized
 	 * variables with their current values.
-	 * 
+	 *
 	 * @param value
 	 *            An abstract domain element.
 	 */
 	public void initializeValues(StateType value) {
-		for (AnalysisVar<StateType> var : getAllVars()) {
+		for (int i = 0; i < vars.size(); ++i) {
+			AnalysisVar<StateType> var = vars.get(i);
 			if (var.value == null)
 				var.value = value;
 		}
@@ -57,7 +123,7 @@ public class EquationSystem<StateType, ActionType> {
 
 	/**
 	 * Sets the values of all variables to bottom.
-	 * 
+	 *
 	 * @param ops
 	 *            The object supplying the bottom value.
 	 */
@@ -67,12 +133,12 @@ public class EquationSystem<StateType, ActionType> {
 
 	/**
 	 * Checks whether all variables have been initialized.
-	 * 
+	 *
 	 * @return true if all variables have been initialized.
 	 */
 	public boolean allVariablesInitialized() {
-		for (AnalysisVar<StateType> var : getAllVars()) {
-			if (var.value == null)
+		for (int i = 0; i < vars.size(); ++i) {
+			if (vars.get(i).value == null)
 				return false;
 		}
 		return true;
@@ -80,14 +146,15 @@ public class EquationSystem<StateType, ActionType> {
 
 	/**
 	 * Creates a map from each variable to the value set for it.
-	 * 
+	 *
 	 * @return A map from each variable to the value set for it.
 	 */
 	public Map<AnalysisVar<StateType>, StateType> getSolution() {
 		// Build the solution from the values stored in the variables.
 		Map<AnalysisVar<StateType>, StateType> solution = new LinkedHashMap<>(
-				getAllVars().size());
-		for (AnalysisVar<StateType> var : getAllVars()) {
+				2 * vars.size());
+		for (int i = 0; i < vars.size(); ++i) {
+			AnalysisVar<StateType> var = vars.get(i);
 			solution.put(var, var.value);
 		}
 		return solution;
@@ -96,73 +163,76 @@ public class EquationSystem<StateType, ActionType> {
 
 	/**
 	 * Returns the set of equations that do not depend on any variable.
-	 * 
+	 *
 	 * @return The set of equations that do not depend on any variable.
 	 */
 	public Set<Equation<StateType>> getHeads() {
-		Set<Equation<StateType>> result = new HashSet<Equation<StateType>>();
-		for (Equation<StateType> equation : varToEquation.values()) {
-			if (equation.getArgs().isEmpty())
-				result.add(equation);
+		freeze();
+		Set<Equation<StateType>> result = new LinkedHashSet<Equation<StateType>>();
+		for (int e = 0; e < equations.size(); ++e) {
+			if (argOffsets[e] == argOffsets[e + 1])
+				result.add(equations.get(e));
 		}
 		return result;
 	}
 
 	/**
 	 * Adds a new equation to the system.
-	 * 
+	 *
 	 * @param equation
 	 *            An equation.
 	 */
 	public void addEquation(Equation<StateType> equation) {
 		AnalysisVar<StateType> var = equation.lhs;
-		if (varToEquation.containsKey(var)) {
+		Equation<StateType> definingEquation = getDefiningEquation(var);
+		if (definingEquation != null) {
 			throw new Error(
 					String.format(
 							"Attempt to update the defining equation of variable %s from %s to %s!",
-							var, varToEquation.get(var), equation));
+							var, definingEquation, equation));
 
 		}
-		varToEquation.put(var, equation);
-
-		// Update varToContainingEquations.
-		for (AnalysisVar<StateType> argVar : equation.getArgs()) {
-			Set<Equation<StateType>> containingEquations = varToContainingEquations
-					.get(argVar);
-			if (containingEquations == null) {
-				containingEquations = new HashSet<>();
-				varToContainingEquations.put(argVar, containingEquations);
-			}
-			containingEquations.add(equation);
+		if (equation.id != -1)
+			throw new Error("Attempt to add equation " + equation
+					+ " to more than one system!");
+		frozen = false;
+		equation.id = equations.size();
+		equations.add(equation);
+		addVar(var);
+		definingEquations.set(var.id, equation);
+		for (int i = 0; i < equation.args.size(); ++i) {
+			addVar(equation.args.get(i));
 		}
 	}
 
 	/**
 	 * Returns the equation containing {@link var} on its left-hand side if one
 	 * exists.
-	 * 
+	 *
 	 * @param var
 	 *            A variable.
 	 * @return The equation containing {@link var} on its left-hand side if one
 	 *         exists and null otherwise.
 	 */
 	public Equation<StateType> getDefiningEquation(AnalysisVar<StateType> var) {
-		return varToEquation.get(var);
+		if (!contains(var))
+			return null;
+		return definingEquations.get(var.id);
 	}
 
 	/**
 	 * Returns a collection view of the set of all equations in the system.
-	 * 
-	 * @return The set of all equations in the system.
+	 *
+	 * @return The set of all equations in the system, ordered by their ids.
 	 */
 	public Collection<Equation<StateType>> getEquations() {
-		return varToEquation.values();
+		return Collections.unmodifiableList(equations);
 	}
 
 	/**
 	 * Returns the set of all equations containing {@link var} on their
 	 * right-hand side.
-	 * 
+	 *
 	 * @param var
 	 *            A variable participating in this system.
 	 * @return An unmodifiable set of equations containing {@link var} on their
@@ -170,63 +240,313 @@ public class EquationSystem<StateType, ActionType> {
 	 */
 	public Set<Equation<StateType>> getDependentEquations(
 			AnalysisVar<StateType> var) {
-		Set<Equation<StateType>> result = varToContainingEquations.get(var);
-		if (result == null)
+		if (!contains(var))
 			return Collections.emptySet();
-		return Collections.unmodifiableSet(result);
+		freeze();
+		int from = dependentOffsets[var.id];
+		int to = dependentOffsets[var.id + 1];
+		if (from == to)
+			return Collections.emptySet();
+		return new EquationSetView(from, to);
 	}
 
 	/**
 	 * Returns the set of all variables participating in this system.
-	 * 
+	 *
 	 * @return An unmodifiable view of the set of variables in the system.
 	 */
 	public Set<AnalysisVar<StateType>> getAllVars() {
-		Set<AnalysisVar<StateType>> result = new HashSet<>();
-		for (Equation<StateType> equation : varToEquation.values()) {
-			result.add(equation.lhs);
-			result.addAll(equation.args);
-		}
-		return result;
+		return new VarSetView();
 	}
 
 	/**
 	 * Checks whether this system is well-formed according to some structural
 	 * rules, e.g., every variable appears on the left-hand side of exactly one
 	 * equation.
-	 * 
+	 *
 	 * @return true if this system
 	 */
 	public boolean isWellFormed() {
-		boolean result = true;
-		for (AnalysisVar<StateType> var : findAllVars()) {
-			if (!varToEquation.containsKey(var)) {
-				result = false;
-				break;
-			}
+		freeze();
+		for (int i = 0; i < argIds.length; ++i) {
+			if (definingEquationIds[argIds[i]] == -1)
+				return false;
 		}
-		return result;
+		return true;
 	}
 
 	@Override
 	public String toString() {
 		StringBuilder result = new StringBuilder();
-		for (Equation<StateType> equation : varToEquation.values()) {
+		for (Equation<StateType> equation : equations) {
 			result.append(equation.toString() + "\n");
 		}
 		return result.toString();
 	}
 
+	// //////////////////////////////////////////////////////////////////
+	// Access to the dense representation of the system. The returned
+	// arrays are shared with the system and should not be modified.
+
+	/**
+	 * Returns the number of variables in the system.
+	 */
+	public int getNumberOfVars() {
+		return vars.size();
+	}
+
+	/**
+	 * Returns the number of equations in the system.
+	 */
+	public int getNumberOfEquations() {
+		return equations.size();
+	}
+
+	/**
+	 * Returns the variable with the given id.
+	 */
+	public AnalysisVar<StateType> getVar(int id) {
+		return vars.get(id);
+	}
+
+	/**
+	 * Returns the equation with the given id.
+	 */
+	public Equation<StateType> getEquation(int id) {
+		return equations.get(id);
+	}
+
+	/**
+	 * Returns the variables of the system, indexed by their ids.
+	 */
+	public AnalysisVar<StateType>[] getVarArray() {
+		freeze();
+		return varArray;
+	}
+
+	/**
+	 * Returns the operations of the equations, indexed by the equation ids.
+	 */
+	public Operation<StateType>[] getOperationArray() {
+		freeze();
+		return opArray;
+	}
+
+	/**
+	 * Returns the id of the left-hand side variable of each equation.
+	 */
+	public int[] getLhsIds() {
+		freeze();
+		return lhsIds;
+	}
+
+	/**
+	 * Returns the id of the defining equation of each variable (-1 for
+	 * variables without a defining equation).
+	 */
+	public int[] getDefiningEquationIds() {
+		freeze();
+		return definingEquationIds;
+	}
+
+	/**
+	 * Returns the offsets of the argument lists of the equations in
+	 * {@link getArgIds()}. The array has one entry more than the number of
+	 * equations.
+	 */
+	public int[] getArgOffsets() {
+		freeze();
+		return argOffsets;
+	}
+
+	/**
+	 * Returns the concatenated ids of the arguments of all equations.
+	 */
+	public int[] getArgIds() {
+		freeze();
+		return argIds;
+	}
+
+	/**
+	 * Returns the offsets of the lists of equations containing each variable
+	 * in {@link getDependentIds()}. The array has one entry more than the
+	 * number of variables.
+	 */
+	public int[] getDependentOffsets() {
+		freeze();
+		return dependentOffsets;
+	}
+
+	/**
+	 * Returns the concatenated ids of the equations containing each variable
+	 * on their right-hand side.
+	 */
+	public int[] getDependentIds() {
+		freeze();
+		return dependentIds;
+	}
+
+	/**
+	 * Returns the position of each variable in the argument lists of the
+	 * equations in {@link getDependentIds()}, or -1 for a variable that
+	 * occurs more than once in the argument list of an equation.
+	 */
+	public int[] getDependentArgPositions() {
+		freeze();
+		return dependentArgPositions;
+	}
+
 	/**
-	 * Traverses the equations and collects all variables found in them.
-	 * 
-	 * @return The set of variables found in the system.
+	 * Computes the dense representation of the system, unless it is already
+	 * up-to-date.
 	 */
-	protected Set<AnalysisVar<StateType>> findAllVars() {
-		Set<AnalysisVar<StateType>> result = new HashSet<AnalysisVar<StateType>>();
-		for (Equation<StateType> equation : varToEquation.values()) {
-			result.addAll(equation.getArgs());
+	@SuppressWarnings("unchecked")
+	public void freeze() {
+		if (frozen)
+			return;
+		int numVars = vars.size();
+		int numEquations = equations.size();
+		varArray = vars
+				.toArray((AnalysisVar<StateType>[]) new AnalysisVar<?>[numVars]);
+		opArray = (Operation<StateType>[]) new Operation<?>[numEquations];
+		lhsIds = new int[numEquations];
+		definingEquationIds = new int[numVars];
+		Arrays.fill(definingEquationIds, -1);
+		argOffsets = new int[numEquations + 1];
+		for (int e = 0; e < numEquations; ++e) {
+			Equation<StateType> equation = equations.get(e);
+			opArray[e] = equation.op;
+			lhsIds[e] = equation.lhs.id;
+			definingEquationIds[equation.lhs.id] = e;
+			argOffsets[e + 1] = argOffsets[e] + equation.args.size();
+		}
+
+		// Fill the argument lists and count the dependents of each variable,
+		// ignoring repeated occurrences of a variable in the same equation.
+		argIds = new int[argOffsets[numEquations]];
+		dependentOffsets = new int[numVars + 1];
+		int[] lastEquation = new int[numVars];
+		Arrays.fill(lastEquation, -1);
+		for (int e = 0; e < numEquations; ++e) {
+			ArrayList<AnalysisVar<StateType>> args = equations.get(e).args;
+			for (int i = 0; i < args.size(); ++i) {
+				int argId = args.get(i).id;
+				argIds[argOffsets[e] + i] = argId;
+				if (lastEquation[argId] != e) {
+					lastEquation[argId] = e;
+					++dependentOffsets[argId + 1];
+				}
+			}
+		}
+		for (int v = 0; v < numVars; ++v)
+			dependentOffsets[v + 1] += dependentOffsets[v];
+
+		// Fill the dependent lists in ascending order of equation ids.
+		dependentIds = new int[dependentOffsets[numVars]];
+		dependentArgPositions = new int[dependentOffsets[numVars]];
+		int[] next = Arrays.copyOf(dependentOffsets, numVars);
+		Arrays.fill(lastEquation, -1);
+		for (int e = 0; e < numEquations; ++e) {
+			for (int i = argOffsets[e]; i < argOffsets[e + 1]; ++i) {
+				int argId = argIds[i];
+				if (lastEquation[argId] != e) {
+					lastEquation[argId] = e;
+					dependentArgPositions[next[argId]] = i - argOffsets[e];
+					dependentIds[next[argId]++] = e;
+				} else {
+					dependentArgPositions[next[argId] - 1] = -1;
+				}
+			}
+		}
+		frozen = true;
+	}
+
+	/**
+	 * Assigns an id to the given variable unless it already participates in
+	 * this system.
+	 */
+	protected void addVar(AnalysisVar<StateType> var) {
+		if (contains(var))
+			return;
+		if (var.id != -1)
+			throw new Error("Attempt to add variable " + var
+					+ " to more than one system!");
+		var.id = vars.size();
+		vars.add(var);
+		definingEquations.add(null);
+	}
+
+	/**
+	 * Checks whether the given variable participates in this system.
+	 */
+	protected boolean contains(Object o) {
+		if (!(o instanceof AnalysisVar))
+			return false;
+		AnalysisVar<?> var = (AnalysisVar<?>) o;
+		return var.id >= 0 && var.id < vars.size() && vars.get(var.id) == var;
+	}
+
+	/**
+	 * A view of the variables of the system as a set.
+	 */
+	protected class VarSetView extends AbstractSet<AnalysisVar<StateType>> {
+		@Override
+		public boolean contains(Object o) {
+			return EquationSystem.this.contains(o);
+		}
+
+		@Override
+		public Iterator<AnalysisVar<StateType>> iterator() {
+			return Collections.unmodifiableList(vars).iterator();
+		}
+
+		@Override
+		public int size() {
+			return vars.size();
+		}
+	}
+
+	/**
+	 * A view of a range of {@link dependentIds} as a set of equations.
+	 */
+	protected class EquationSetView extends AbstractSet<Equation<StateType>> {
+		private final List<Equation<StateType>> list;
+
+		public EquationSetView(final int from, final int to) {
+			final int[] ids = dependentIds;
+			this.list = new AbstractList<Equation<StateType>>() {
+				@Override
+				public Equation<StateType> get(int index) {
+					if (index < 0 || from + index >= to)
+						throw new IndexOutOfBoundsException();
+					return equations.get(ids[from + index]);
+				}
+
+				@Override
+				public int size() {
+					return to - from;
+				}
+			};
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Equation))
+				return false;
+			Equation<?> equation = (Equation<?>) o;
+			return equation.id >= 0 && equation.id < equations.size()
+					&& equations.get(equation.id) == equation
+					&& list.contains(equation);
+		}
+
+		@Override
+		public Iterator<Equation<StateType>> iterator() {
+			return list.iterator();
+		}
+
+		@Override
+		public int size() {
+			return list.size();
 		}
-		return result;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,170 @@
+package bgu.cs.absint;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The values of the variables of an {@link EquationSystem} at some point,
+ * indexed by the variable ids, which can be assigned back to the system or to
+ * a system with the same structure, e.g., in order to start solving from a
+ * previously computed solution.<br>
+ * The binary format stores each distinct value once, followed by the index of
+ * the value of each variable, so the many variables sharing equal values take
+ * a few bytes each.
+ *
+ * @param <StateType>
+ *            The implementation type of abstract states.
+ */
+public class EquationSystemSnapshot<StateType> {
+	/**
+	 * Identifies snapshots.
+	 */
+	private static final int MAGIC = 0xAB5E5A9E;
+
+	private static final int VERSION = 1;
+
+	protected final int numberOfEquations;
+
+	/**
+	 * The value of each variable, indexed by the variable ids.
+	 */
+	protected final List<StateType> values;
+
+	protected EquationSystemSnapshot(int numberOfEquations,
+			List<StateType> values) {
+		this.numberOfEquations = numberOfEquations;
+		this.values = values;
+	}
+
+	/**
+	 * Records the current values of the variables of the given system.
+	 */
+	public static <StateType> EquationSystemSnapshot<StateType> of(
+			EquationSystem<StateType, ?> system) {
+		assert system.allVariablesInitialized();
+		List<StateType> values = new ArrayList<>(system.getNumberOfVars());
+		for (int i = 0; i < system.getNumberOfVars(); ++i) {
+			values.add(system.getVar(i).value);
+		}
+		return new EquationSystemSnapshot<>(system.getNumberOfEquations(),
+				values);
+	}
+
+	/**
+	 * Checks whether this snapshot has the same number of variables and
+	 * equations as the given system.
+	 */
+	public boolean matches(EquationSystem<StateType, ?> system) {
+		return system.getNumberOfVars() == values.size()
+				&& system.getNumberOfEquations() == numberOfEquations;
+	}
+
+	/**
+	 * Assigns the recorded values to the variables of the given system.
+	 */
+	public void restore(EquationSystem<StateType, ?> system) {
+		if (!matches(system))
+			throw new Error("Attempt to restore a snapshot of "
+					+ values.size() + " variables to a system of "
+					+ system.getNumberOfVars() + " variables!");
+		for (int i = 0; i < values.size(); ++i) {
+			system.getVar(i).value = values.get(i);
+		}
+	}
+
+	/**
+	 * Returns the recorded value of the variable with the given id.
+	 */
+	public StateType getValue(int id) {
+		return values.get(id);
+	}
+
+	public int getNumberOfVars() {
+		return values.size();
+	}
+
+	/**
+	 * Writes this snapshot, using the given codec for the distinct values.
+	 */
+	public void write(DataOutput out, StateCodec<StateType> codec)
+			throws IOException {
+		Map<StateType, Integer> valueToIndex = new HashMap<>();
+		List<StateType> distinctValues = new ArrayList<>();
+		int[] indices = new int[values.size()];
+		for (int i = 0; i < values.size(); ++i) {
+			StateType value = values.get(i);
+			Integer index = valueToIndex.get(value);
+			if (index == null) {
+				index = distinctValues.size();
+				valueToIndex.put(value, index);
+				distinctValues.add(value);
+			}
+			indices[i] = index;
+		}
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		writeVarInt(out, numberOfEquations);
+		writeVarInt(out, distinctValues.size());
+		for (StateType value : distinctValues)
+			codec.write(value, out);
+		writeVarInt(out, indices.length);
+		for (int index : indices)
+			writeVarInt(out, index);
+	}
+
+	/**
+	 * Reads a snapshot written by {@link #write}.
+	 */
+	public static <StateType> EquationSystemSnapshot<StateType> read(
+			DataInput in, StateCodec<StateType> codec) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION)
+			throw new IOException("Unexpected snapshot format!");
+		int numberOfEquations = readVarInt(in);
+		int numDistinctValues = readVarInt(in);
+		List<StateType> distinctValues = new ArrayList<>(numDistinctValues);
+		for (int i = 0; i < numDistinctValues; ++i)
+			distinctValues.add(codec.read(in));
+		int numVars = readVarInt(in);
+		List<StateType> values = new ArrayList<>(numVars);
+		for (int i = 0; i < numVars; ++i) {
+			int index = readVarInt(in);
+			if (index >= numDistinctValues)
+				throw new IOException("Illegal value index " + index + "!");
+			values.add(distinctValues.get(index));
+		}
+		return new EquationSystemSnapshot<>(numberOfEquations, values);
+	}
+
+	/**
+	 * Writes a non-negative integer using 7 bits per byte.
+	 */
+	protected static void writeVarInt(DataOutput out, int value)
+			throws IOException {
+		assert value >= 0;
+		while ((value & ~0x7f) != 0) {
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	protected static int readVarInt(DataInput in) throws IOException {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			result |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				if (result < 0)
+					throw new IOException("Illegal integer encoding!");
+				return result;
+			}
+		}
+		throw new IOException("Illegal integer encoding!");
+	}
+}
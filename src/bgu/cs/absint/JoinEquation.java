@@ -0,0 +1,149 @@
+package bgu.cs.absint;
+
+import java.util.List;
+
+/**
+ * An equation joining the values of several variables, which updates its
+ * value incrementally.<br>
+ * The equation caches the contribution of each argument in the leaves of a
+ * binary tree whose inner nodes hold the joins of their children, and whose
+ * root is the value of the equation. When some of the arguments change, only
+ * the nodes on the paths from their leaves to the root are recomputed, which
+ * takes a logarithmic number of joins per changed argument instead of a join
+ * for every argument.<br>
+ * Changed arguments are detected by comparing the value of each argument to
+ * its cached contribution by reference, which is sound since abstract states
+ * are not modified once they are assigned to a variable.
+ *
+ * @param <StateType>
+ *            The implementation type of abstract states.
+ */
+public class JoinEquation<StateType> extends Equation<StateType> {
+	/**
+	 * The binary upper bound operation used to combine contributions.
+	 */
+	protected final BinaryOperation<StateType> join;
+
+	/**
+	 * The number of arguments.
+	 */
+	protected final int size;
+
+	/**
+	 * The cached contributions of the arguments are stored at the positions
+	 * {@code size..2*size-1} and the join of the nodes {@code 2*i} and
+	 * {@code 2*i+1} is stored at position {@code i}, so the join of all
+	 * contributions is stored at position 1.
+	 */
+	protected final Object[] tree;
+
+	/**
+	 * Marks the inner nodes of {@link tree} that need to be recomputed.
+	 */
+	protected final boolean[] staleNodes;
+
+	/**
+	 * Indicates whether the tree has been computed.
+	 */
+	protected boolean initialized = false;
+
+	/**
+	 * Constructs a join equation.
+	 *
+	 * @param lhs
+	 *            The variable defined by the equation.
+	 * @param op
+	 *            An operation joining all of the arguments, used for
+	 *            displaying the equation and by clients of {@link getOp}.
+	 * @param join
+	 *            The binary upper bound operation used to incrementally
+	 *            compute the value of the equation.
+	 * @param args
+	 *            At least two variables.
+	 */
+	public JoinEquation(AnalysisVar<StateType> lhs, Operation<StateType> op,
+			BinaryOperation<StateType> join, List<AnalysisVar<StateType>> args) {
+		super(lhs, op, args);
+		assert join != null && args.size() >= 2;
+		this.join = join;
+		this.size = args.size();
+		this.tree = new Object[2 * size];
+		this.staleNodes = new boolean[size];
+	}
+
+	/**
+	 * Recomputes the contributions of the changed arguments and the nodes
+	 * depending on them. The changed arguments are found by comparing every
+	 * argument to its cached contribution; solvers that know the changed
+	 * argument call {@link #update(int)} instead.
+	 */
+	@Override
+	public void update() {
+		if (!initialized) {
+			for (int i = 0; i < size; ++i) {
+				StateType argValue = args.get(i).value;
+				assert argValue != null;
+				tree[size + i] = argValue;
+			}
+			for (int node = size - 1; node >= 1; --node) {
+				tree[node] = join.apply(node(2 * node), node(2 * node + 1));
+			}
+			initialized = true;
+		} else {
+			boolean changed = false;
+			for (int i = 0; i < size; ++i) {
+				StateType argValue = args.get(i).value;
+				assert argValue != null;
+				if (tree[size + i] != argValue) {
+					tree[size + i] = argValue;
+					for (int node = (size + i) >>> 1; node >= 1
+							&& !staleNodes[node]; node >>>= 1) {
+						staleNodes[node] = true;
+					}
+					changed = true;
+				}
+			}
+			if (changed) {
+				for (int node = size - 1; node >= 1; --node) {
+					if (staleNodes[node]) {
+						staleNodes[node] = false;
+						tree[node] = join.apply(node(2 * node),
+								node(2 * node + 1));
+					}
+				}
+			}
+		}
+		StateType newValue = node(1);
+		assert newValue != null;
+		lhs.value = newValue;
+	}
+
+	/**
+	 * Recomputes the contribution of the given argument and the nodes on the
+	 * path from its leaf to the root, without comparing the other arguments
+	 * to their cached contributions.
+	 */
+	@Override
+	public void update(int changedArg) {
+		if (!initialized) {
+			update();
+			return;
+		}
+		StateType argValue = args.get(changedArg).value;
+		assert argValue != null;
+		if (tree[size + changedArg] != argValue) {
+			tree[size + changedArg] = argValue;
+			for (int node = (size + changedArg) >>> 1; node >= 1; node >>>= 1) {
+				tree[node] = join.apply(node(2 * node), node(2 * node + 1));
+			}
+		}
+		StateType newValue = node(1);
+		assert newValue != null;
+		lhs.value = newValue;
+	}
+
+	@SuppressWarnings("unchecked")
+	private StateType node(int index) {
+		return (StateType) tree[index];
+	}
+}
@@ -0,0 +1,30 @@
+package bgu.cs.absint;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts abstract states to and from a binary representation, which is used
+ * to store the values of equation systems (see {@link EquationSystemSnapshot}).
+ *
+ * @param <StateType>
+ *            The implementation type of abstract states.
+ */
+public interface StateCodec<StateType> {
+	/**
+	 * Writes the given state to the given output.
+	 *
+	 * @throws IOException
+	 *             If the state cannot be represented or written.
+	 */
+	public void write(StateType state, DataOutput out) throws IOException;
+
+	/**
+	 * Reads a state written by {@link #write}.
+	 *
+	 * @throws IOException
+	 *             If the input does not represent a valid state.
+	 */
+	public StateType read(DataInput in) throws IOException;
+}
@@ -1,15 +1,18 @@
 package bgu.cs.absint.analyses;
 
+import soot.Body;
 import soot.Local;
 import soot.PackManager;
 import soot.Transform;
 import soot.Unit;
 import bgu.cs.absint.analyses.ae.AEDomain;
+import bgu.cs.absint.analyses.ae.AEFactoid;
 import bgu.cs.absint.analyses.cp.CPDomain;
 import bgu.cs.absint.analyses.ve.VEDomain;
 import bgu.cs.absint.constructor.CartesianDomain;
 import bgu.cs.absint.constructor.ProductState;
 import bgu.cs.absint.soot.BaseAnalysis;
+import bgu.cs.absint.soot.FactoidUniverse;
 
 /**
  * Adds the Cartesian product of Constant Propagation (CP), Variable Equalities
@@ -28,8 +31,18 @@ public class CPVEAEMain {
 			BaseAnalysis<ProductState, CartesianDomain<Unit, Local>> {
 		public CPVEAEAnalysis() {
 			super(new CartesianDomain<Unit, Local>(CPDomain.v(), VEDomain.v(),
-					AEDomain.v()));
+					new AEDomain(new FactoidUniverse<AEFactoid>())));
 			useWidening(false);
 		}
+
+		/**
+		 * Returns a domain whose available expressions are numbered per
+		 * method.
+		 */
+		@Override
+		protected CartesianDomain<Unit, Local> getDomain(Body b) {
+			return new CartesianDomain<Unit, Local>(CPDomain.v(), VEDomain.v(),
+					new AEDomain(new FactoidUniverse<AEFactoid>()));
+		}
 	}
 }
\ No newline at end of file
@@ -1,32 +1,131 @@
 package bgu.cs.absint.analyses;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeMap;
+
 import soot.PackManager;
 import soot.Transform;
 import soot.Unit;
 import bgu.cs.absint.analyses.cp.CPDomain;
+import bgu.cs.absint.analyses.cp.CPFactoid;
 import bgu.cs.absint.analyses.cp.CPState;
+import bgu.cs.absint.constructor.BoundedDisjunctiveDomain;
 import bgu.cs.absint.constructor.DisjunctiveDomain;
 import bgu.cs.absint.constructor.DisjunctiveState;
+import bgu.cs.absint.constructor.PartitionDistance;
 import bgu.cs.absint.soot.BaseAnalysis;
 
 /**
  * The disjunctive completion of Constant Propagation (CP) with the Cartesian
  * join at loop heads.
- * 
+ *
  * @author romanm
  */
 public class DisjCPMain {
 	public static void main(String[] args) {
+		DisjCPAnalysis analysis = new DisjCPAnalysis();
 		PackManager.v().getPack("jtp")
-				.add(new Transform("jtp.DisjCPAnalysis", new DisjCPAnalysis()));
+				.add(new Transform("jtp.DisjCPAnalysis", analysis));
 		soot.Main.main(args);
+		if (analysis.getMerges() >= 0)
+			System.err.println("Number of disjuncts merged due to the bound: "
+					+ analysis.getMerges());
 	}
 
 	public static class DisjCPAnalysis
 			extends
 			BaseAnalysis<DisjunctiveState<CPState>, DisjunctiveDomain<CPState, Unit>> {
+		/**
+		 * Set this property to a positive number to bound the number of
+		 * disjuncts of each state.
+		 */
+		public static final String MAX_DISJUNCTS_PROPERTY = "absint.disjcp.maxDisjuncts";
+
+		/**
+		 * Set this property to a comma-separated list of variable names to
+		 * merge the disjuncts that agree on the values of these variables
+		 * first, when the number of disjuncts is bounded.
+		 */
+		public static final String PARTITION_PROPERTY = "absint.disjcp.partition";
+
+		protected final int maxDisjuncts;
+		protected final String partitionVars;
+
 		public DisjCPAnalysis() {
-			super(new DisjunctiveDomain<>(CPDomain.v(), true));
+			this(Integer.getInteger(MAX_DISJUNCTS_PROPERTY, 0), System
+					.getProperty(PARTITION_PROPERTY));
+		}
+
+		/**
+		 * Constructs an analysis whose states have at most the given number of
+		 * disjuncts.
+		 *
+		 * @param maxDisjuncts
+		 *            The maximal number of disjuncts, or 0 for no bound.
+		 * @param partitionVars
+		 *            A comma-separated list of the names of the variables
+		 *            whose values partition the disjuncts, or null.
+		 */
+		public DisjCPAnalysis(int maxDisjuncts, String partitionVars) {
+			super(newDomain(maxDisjuncts, partitionVars));
+			this.maxDisjuncts = maxDisjuncts;
+			this.partitionVars = partitionVars;
+		}
+
+		/**
+		 * Describes the bound and the partition, which determine the domain.
+		 */
+		@Override
+		protected String getConfiguration() {
+			if (maxDisjuncts <= 0)
+				return "unbounded";
+			else
+				return "maxDisjuncts=" + maxDisjuncts + ",partition="
+						+ partitionVars;
+		}
+
+		/**
+		 * Returns the number of pairs of disjuncts merged due to the bound, or
+		 * -1 if the number of disjuncts is not bounded.
+		 */
+		public long getMerges() {
+			if (domain instanceof BoundedDisjunctiveDomain)
+				return ((BoundedDisjunctiveDomain<CPState, Unit>) domain)
+						.getMerges();
+			else
+				return -1;
+		}
+
+		protected static DisjunctiveDomain<CPState, Unit> newDomain(
+				int maxDisjuncts, String partitionVars) {
+			if (maxDisjuncts <= 0)
+				return new DisjunctiveDomain<>(CPDomain.v(), true);
+			else if (partitionVars == null)
+				return new BoundedDisjunctiveDomain<>(CPDomain.v(), true,
+						maxDisjuncts);
+			Set<String> names = new HashSet<>(Arrays.asList(partitionVars
+					.split(",")));
+			return new BoundedDisjunctiveDomain<>(CPDomain.v(), true,
+					maxDisjuncts, new PartitionDistance<CPState>(
+							state -> getValues(state, names), CPDomain.v()));
+		}
+
+		/**
+		 * Returns the constant values of the variables with the given names in
+		 * the given state.
+		 */
+		protected static Object getValues(CPState state, Set<String> names) {
+			TreeMap<String, String> result = new TreeMap<>();
+			if (state != CPState.bottom) {
+				for (CPFactoid factoid : state.factoids) {
+					if (names.contains(factoid.lhs.getName()))
+						result.put(factoid.lhs.getName(),
+								factoid.rhs.toString());
+				}
+			}
+			return result;
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,109 @@
+package bgu.cs.absint.analyses;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import soot.IntType;
+import soot.Local;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import bgu.cs.absint.UnaryOperation;
+import bgu.cs.absint.analyses.lin.LinFactoid;
+import bgu.cs.absint.analyses.lin.LinState;
+import bgu.cs.absint.soot.ForgetVarTransformer;
+
+/**
+ * A microbenchmark for {@link ForgetVarTransformer}, which compares removing
+ * the factoids of a variable via the variable index of the state with
+ * scanning all the factoids of the state, as was done before the index was
+ * introduced.<br>
+ * The states are chains of linear relations {@code x_i=1*x_{i-1}+i} and
+ * constants {@code x_i=i}, and each round forgets every variable once.
+ */
+public class ForgetVarBenchmark {
+	/**
+	 * Entry point to the benchmark.
+	 *
+	 * @param args
+	 *            Optionally the number of variables and the number of rounds.
+	 */
+	public static void main(String[] args) {
+		int numVars = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+		List<Local> vars = new ArrayList<>();
+		for (int i = 0; i < numVars; ++i)
+			vars.add(Jimple.v().newLocal("x" + i, IntType.v()));
+		LinState state = new LinState();
+		for (int i = 0; i < numVars; ++i) {
+			Local var = vars.get(i);
+			state.add(new LinFactoid(var, IntConstant.v(i)));
+			if (i > 0)
+				state.add(new LinFactoid(var, vars.get(i - 1), IntConstant
+						.v(1), IntConstant.v(i)));
+		}
+
+		List<UnaryOperation<LinState>> indexed = new ArrayList<>();
+		List<UnaryOperation<LinState>> scanning = new ArrayList<>();
+		for (Local var : vars) {
+			indexed.add(new ForgetVarTransformer<LinFactoid, LinState>(var));
+			scanning.add(new ScanningForgetVarTransformer(var));
+		}
+
+		System.out.println("Forgetting each of " + numVars
+				+ " variables from a state with " + state.getFactoids().size()
+				+ " factoids, " + rounds + " rounds");
+		// Warm up both implementations before measuring them.
+		run(scanning, state, rounds);
+		run(indexed, state, rounds);
+		long scanningTime = run(scanning, state, rounds);
+		long indexedTime = run(indexed, state, rounds);
+		System.out.println("Scanning all factoids: " + scanningTime / 1000000
+				+ "ms");
+		System.out.println("Variable index: " + indexedTime / 1000000 + "ms");
+	}
+
+	/**
+	 * Applies each transformer to the given state for the given number of
+	 * rounds and returns the elapsed time in nanoseconds.
+	 */
+	protected static long run(List<UnaryOperation<LinState>> transformers,
+			LinState state, int rounds) {
+		int checksum = 0;
+		long start = System.nanoTime();
+		for (int round = 0; round < rounds; ++round) {
+			for (UnaryOperation<LinState> transformer : transformers)
+				checksum += transformer.apply(state).getFactoids().size();
+		}
+		long time = System.nanoTime() - start;
+		// Use the results, so the transformers are not optimized away.
+		if (checksum < 0)
+			System.out.println(checksum);
+		return time;
+	}
+
+	/**
+	 * Removes the factoids of a variable by checking every factoid of a copy
+	 * of the input state.
+	 */
+	protected static class ScanningForgetVarTransformer extends
+			UnaryOperation<LinState> {
+		protected final Local lhs;
+
+		public ScanningForgetVarTransformer(Local lhs) {
+			this.lhs = lhs;
+		}
+
+		@Override
+		public LinState apply(LinState input) {
+			LinState result = new LinState(input.factoids);
+			for (Iterator<LinFactoid> iter = input.iterator(); iter.hasNext();) {
+				LinFactoid factoid = iter.next();
+				if (factoid.hasVar(lhs))
+					result.remove(factoid);
+			}
+			return result;
+		}
+	}
+}
@@ -17,6 +17,7 @@ import bgu.cs.absint.IdOperation;
 import bgu.cs.absint.UnaryOperation;
 import bgu.cs.absint.constructor.EqualityRefiner;
 import bgu.cs.absint.soot.ExprContainsLocal;
+import bgu.cs.absint.soot.FactoidUniverse;
 import bgu.cs.absint.soot.ForgetVarTransformer;
 import bgu.cs.absint.soot.IsPureExpr;
 import bgu.cs.absint.soot.TransformerMatcher;
@@ -32,61 +33,58 @@ import bgu.cs.util.Pair;
 public class AEDomain extends AbstractDomain<AEState, Unit> implements
 		EqualityRefiner<Local> {
 	/**
-	 * Singleton value.
+	 * Assigns identifiers to the factoids of the states of this domain.
 	 */
-	private static final AEDomain v = new AEDomain();
+	protected final FactoidUniverse<AEFactoid> universe;
 
-	protected AEMatcher matcher = new AEMatcher();
-
-	public static final AEDomain v() {
-		return v;
-	}
+	protected final AEState bottom;
+	protected final AEState top;
 
 	@Override
 	public AEState getBottom() {
-		return AEState.bottom;
+		return bottom;
 	}
 
 	@Override
 	public AEState getTop() {
-		return AEState.top;
+		return top;
 	}
 
 	@Override
 	public AEState ub(AEState first, AEState second) {
-		if (first == AEState.bottom) {
+		if (first == bottom) {
 			return second;
-		} else if (second == AEState.bottom) {
+		} else if (second == bottom) {
 			return first;
 		} else {
 			// Compute the intersection of the two sets of varToFactoid.
-			AEState result = new AEState(first);
-			result.factoids.retainAll(second.factoids);
+			AEState result = copy(first);
+			result.retainAll(second);
 			return result;
 		}
 	}
 
 	@Override
 	public AEState lb(AEState first, AEState second) {
-		if (first == AEState.bottom || second == AEState.bottom) {
-			return AEState.bottom;
+		if (first == bottom || second == bottom) {
+			return bottom;
 		} else {
 			// Compute the union of the two sets of varToFactoid.
-			AEState result = new AEState(first);
-			result.factoids.addAll(second.factoids);
+			AEState result = copy(first);
+			result.addAll(second);
 			return result;
 		}
 	}
 
 	@Override
 	public boolean leq(AEState first, AEState second) {
-		if (first == AEState.bottom) {
+		if (first == bottom) {
 			return true;
-		} else if (second == AEState.bottom) {
+		} else if (second == bottom) {
 			// first != bottom
 			return false;
 		} else {
-			return first.factoids.containsAll(second.factoids);
+			return first.containsAll(second);
 		}
 	}
 
@@ -100,7 +98,7 @@ public class AEDomain extends AbstractDomain<AEState, Unit> implements
 		AEState result = state.copy();
 		boolean change = false;
 		for (Pair<Local, Local> equality : equalities) {
-			for (AEFactoid factoid : state.factoids) {
+			for (AEFactoid factoid : state.getFactoids()) {
 				if (factoid.hasVar(equality.first)) {
 					if (factoid.lhs.equals(equality.first)) {
 						// Substitute the left-hand side variable of the factoid
@@ -141,8 +139,8 @@ public class AEDomain extends AbstractDomain<AEState, Unit> implements
 			return Collections.emptyList();
 
 		HashSet<Pair<Local, Local>> result = new HashSet<>();
-		for (AEFactoid factoid1 : state.factoids) {
-			for (AEFactoid factoid2 : state.factoids) {
+		for (AEFactoid factoid1 : state.getFactoids()) {
+			for (AEFactoid factoid2 : state.getFactoids()) {
 				if (factoid1 != factoid2 && factoid1.rhs.equivTo(factoid2.rhs)) {
 					result.add(new Pair<>(factoid1.lhs, factoid2.lhs));
 				}
@@ -153,7 +151,7 @@ public class AEDomain extends AbstractDomain<AEState, Unit> implements
 
 	@Override
 	public UnaryOperation<AEState> getTransformer(Unit stmt) {
-		UnaryOperation<AEState> vanillaTransformer = matcher
+		UnaryOperation<AEState> vanillaTransformer = new AEMatcher()
 				.getTransformer(stmt);
 		return ComposedOperation.compose(vanillaTransformer,
 				getReductionOperation());
@@ -167,10 +165,30 @@ public class AEDomain extends AbstractDomain<AEState, Unit> implements
 		return IdOperation.v();
 	}
 
+	public FactoidUniverse<AEFactoid> getUniverse() {
+		return universe;
+	}
+
 	/**
-	 * Singleton pattern.
+	 * Returns a modifiable copy of the given state over the universe of this
+	 * domain.
 	 */
-	private AEDomain() {
+	protected AEState copy(AEState state) {
+		if (state.getUniverse() == universe)
+			return state.copy();
+		AEState result = new AEState(universe);
+		result.addAll(state);
+		return result;
+	}
+
+	/**
+	 * Constructs a domain whose states are bitsets over the given universe of
+	 * factoids, which is usually specific to the analyzed method.
+	 */
+	public AEDomain(FactoidUniverse<AEFactoid> universe) {
+		this.universe = universe;
+		this.bottom = AEState.newBottom(universe);
+		this.top = AEState.newTop(universe);
 	}
 
 	/**
@@ -211,7 +229,7 @@ public class AEDomain extends AbstractDomain<AEState, Unit> implements
 		}
 	}
 
-	protected static class AssignExprToVarTransformer extends
+	protected class AssignExprToVarTransformer extends
 			UnaryOperation<AEState> {
 		/**
 		 * The variable being modified by the concrete semantics.
@@ -224,22 +242,20 @@ public class AEDomain extends AbstractDomain<AEState, Unit> implements
 		public AssignExprToVarTransformer(Local lhs, Expr rhs) {
 			this.lhs = lhs;
 			newFactoid = new AEFactoid(lhs, rhs);
+			universe.intern(newFactoid);
 		}
 
 		@Override
 		public AEState apply(AEState input) {
 			// Special treatment for bottom.
-			if (input.equals(AEState.bottom))
-				return AEState.bottom;
+			if (input == bottom)
+				return bottom;
 
-			AEState result = new AEState();
-			for (AEFactoid factoid : input.factoids) {
-				if (!factoid.hasVar(lhs)) {
-					result.factoids.add(factoid);
-				}
-			}
-			if (newFactoid != null)
-				result.factoids.add(newFactoid);
+			// Kill the factoids of the variable via its mask and generate the
+			// new factoid.
+			AEState result = copy(input);
+			result.removeVar(lhs);
+			result.add(newFactoid);
 			return result;
 		}
 	}
@@ -1,11 +1,10 @@
 package bgu.cs.absint.analyses.ae;
 
-import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import soot.Local;
 import soot.jimple.Expr;
-import bgu.cs.absint.soot.ExprVisitor;
 import bgu.cs.absint.soot.LocalsInExpr;
 import bgu.cs.absint.soot.SootFactoid;
 
@@ -18,9 +17,17 @@ public class AEFactoid extends SootFactoid {
 	public final Local lhs;
 	public final Expr rhs;
 
+	/**
+	 * The local variables of the right-hand side expression.
+	 */
+	protected final Local[] rhsVars;
+
 	public AEFactoid(Local lhs, Expr rhs) {
 		this.lhs = lhs;
 		this.rhs = rhs;
+		Set<Local> vars = new LinkedHashSet<>();
+		new LocalsInExpr().get(rhs, vars);
+		this.rhsVars = vars.toArray(new Local[vars.size()]);
 	}
 
 	/**
@@ -30,23 +37,20 @@ public class AEFactoid extends SootFactoid {
 	@Override
 	public boolean hasVar(final Local var) {
 		assert var != null;
-		boolean result = false;
-		result |= lhs.equivTo(var);
-		final ArrayList<Local> exprLocals = new ArrayList<>();
-		rhs.apply(new ExprVisitor() {
-			@Override
-			public void caseLocal(Local v) {
-				exprLocals.add(v);
-			}
-		});
-		result |= exprLocals.contains(var);
-		return result;
+		if (lhs.equivTo(var))
+			return true;
+		for (Local rhsVar : rhsVars) {
+			if (rhsVar.equals(var))
+				return true;
+		}
+		return false;
 	}
 
 	@Override
 	public void addVarsTo(Set<Local> c) {
 		c.add(lhs);
-		LocalsInExpr.v.get(rhs, c);
+		for (Local rhsVar : rhsVars)
+			c.add(rhsVar);
 	}
 
 	@Override
@@ -1,6 +1,8 @@
 package bgu.cs.absint.analyses.ae;
 
+import soot.Body;
 import bgu.cs.absint.soot.BaseAnalysis;
+import bgu.cs.absint.soot.FactoidUniverse;
 import bgu.cs.absint.soot.SimpleAnalysisRunner;
 
 /**
@@ -28,7 +30,15 @@ public class AEMain {
 	public static class AvailableExpressionsAnalysis extends
 			BaseAnalysis<AEState, AEDomain> {
 		public AvailableExpressionsAnalysis() {
-			super(AEDomain.v());
+			super(new AEDomain(new FactoidUniverse<AEFactoid>()));
+		}
+
+		/**
+		 * Returns a domain whose factoids are numbered per method.
+		 */
+		@Override
+		protected AEDomain getDomain(Body b) {
+			return new AEDomain(new FactoidUniverse<AEFactoid>());
 		}
 	}
 }
\ No newline at end of file
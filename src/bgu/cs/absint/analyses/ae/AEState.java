@@ -2,80 +2,115 @@ package bgu.cs.absint.analyses.ae;
 
 import soot.Local;
 import soot.jimple.Expr;
-import bgu.cs.absint.constructor.ConjunctiveState;
+import bgu.cs.absint.soot.BitsetState;
+import bgu.cs.absint.soot.FactoidUniverse;
 
 /**
  * A conjunctive set of factoids of the form {@code x=y+z} for three local
- * variables.
+ * variables, represented as a bitset over a universe of factoids.
  * 
  * @author romanm
  */
-public class AEState extends ConjunctiveState<Local, AEFactoid> {
+public class AEState extends BitsetState<AEFactoid> {
 	/**
-	 * An immutable bottom element.
+	 * Returns an immutable bottom element over the given universe.
 	 */
-	public static final AEState bottom = new AEState(false) {
-		@Override
-		public boolean addFactoid(Local lhs, Expr rhs) {
-			throw new Error("Attempt to modify " + toString());
-		}
-
-		@Override
-		public boolean add(AEFactoid factoid) {
-			throw new Error("Attempt to modify " + toString());
-		}
-
-		@Override
-		public boolean removeVar(Local lhs) {
-			throw new Error("Attempt to modify " + toString());
-		}
-	};
+	public static AEState newBottom(FactoidUniverse<AEFactoid> universe) {
+		return new AEState(universe, false) {
+			@Override
+			public boolean addFactoid(Local lhs, Expr rhs) {
+				throw new Error("Attempt to modify " + toString());
+			}
+
+			@Override
+			public boolean add(AEFactoid factoid) {
+				throw new Error("Attempt to modify " + toString());
+			}
+
+			@Override
+			public boolean removeVar(Local lhs) {
+				throw new Error("Attempt to modify " + toString());
+			}
+
+			@Override
+			public boolean removeAll(long[] mask) {
+				throw new Error("Attempt to modify " + toString());
+			}
+
+			@Override
+			public boolean retainAll(BitsetState<AEFactoid> other) {
+				throw new Error("Attempt to modify " + toString());
+			}
+
+			@Override
+			public boolean addAll(BitsetState<AEFactoid> other) {
+				throw new Error("Attempt to modify " + toString());
+			}
+		};
+	}
 
 	/**
-	 * An immutable top element.
+	 * Returns an immutable top element over the given universe.
 	 */
-	public static final AEState top = new AEState() {
-		@Override
-		public boolean addFactoid(Local lhs, Expr rhs) {
-			throw new Error("Attempt to modify " + toString());
-		}
-
-		@Override
-		public boolean add(AEFactoid factoid) {
-			throw new Error("Attempt to modify " + toString());
-		}
-
-		@Override
-		public boolean removeVar(Local lhs) {
-			throw new Error("Attempt to modify " + toString());
-		}
-	};
-
-	public AEState() {
-		super();
+	public static AEState newTop(FactoidUniverse<AEFactoid> universe) {
+		return new AEState(universe) {
+			@Override
+			public boolean addFactoid(Local lhs, Expr rhs) {
+				throw new Error("Attempt to modify " + toString());
+			}
+
+			@Override
+			public boolean add(AEFactoid factoid) {
+				throw new Error("Attempt to modify " + toString());
+			}
+
+			@Override
+			public boolean removeVar(Local lhs) {
+				throw new Error("Attempt to modify " + toString());
+			}
+
+			@Override
+			public boolean removeAll(long[] mask) {
+				throw new Error("Attempt to modify " + toString());
+			}
+
+			@Override
+			public boolean retainAll(BitsetState<AEFactoid> other) {
+				throw new Error("Attempt to modify " + toString());
+			}
+
+			@Override
+			public boolean addAll(BitsetState<AEFactoid> other) {
+				throw new Error("Attempt to modify " + toString());
+			}
+		};
+	}
+
+	public AEState(FactoidUniverse<AEFactoid> universe) {
+		super(universe);
 	}
 
 	@Override
 	public AEState copy() {
-		if (this == bottom)
-			return bottom;
+		if (bits == null)
+			return this;
 		else
 			return new AEState(this);
 	}
 
 	public boolean addFactoid(Local lhs, Expr rhs) {
-		return factoids.add(new AEFactoid(lhs, rhs));
+		return add(new AEFactoid(lhs, rhs));
 	}
 
 	protected AEState(AEState copyFrom) {
-		super(copyFrom.factoids);
+		super(copyFrom);
 	}
 
 	/**
 	 * A constructor just for initializing factoids to null, used to represent
 	 * the bottom state.
 	 */
-	protected AEState(boolean dummy) {
-		super(false);
+	protected AEState(FactoidUniverse<AEFactoid> universe, boolean dummy) {
+		super(universe, false);
 	}
-}
\ No newline at end of file
+}
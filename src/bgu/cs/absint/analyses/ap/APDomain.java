@@ -35,8 +35,6 @@ import bgu.cs.util.Pair;
 public class APDomain extends
 		ConjunctiveDomain<Local, APFactoid, APState, Unit> implements
 		EqualityRefiner<Local> {
-	protected APMatcher matcher = new APMatcher();
-
 	/**
 	 * Singleton value.
 	 */
@@ -248,7 +246,7 @@ public class APDomain extends
 
 	@Override
 	public UnaryOperation<APState> getTransformer(Unit stmt) {
-		return matcher.getTransformer(stmt);
+		return new APMatcher().getTransformer(stmt);
 	}
 
 	/**
@@ -16,7 +16,9 @@ import soot.jimple.IntConstant;
 import bgu.cs.absint.AbstractDomain;
 import bgu.cs.absint.IdOperation;
 import bgu.cs.absint.UnaryOperation;
+import bgu.cs.absint.constructor.DisjunctDistance;
 import bgu.cs.absint.constructor.EqualityRefiner;
+import bgu.cs.absint.constructor.SubsumptionSignature;
 import bgu.cs.absint.soot.Assume;
 import bgu.cs.absint.soot.ForgetVarTransformer;
 import bgu.cs.absint.soot.TransformerMatcher;
@@ -30,14 +32,13 @@ import bgu.cs.util.Pair;
  * 
  */
 public class CPDomain extends AbstractDomain<CPState, Unit> implements
-		EqualityRefiner<Local> {
+		EqualityRefiner<Local>, SubsumptionSignature<CPState>,
+		DisjunctDistance<CPState> {
 	/**
 	 * Singleton value.
 	 */
 	private static final CPDomain v = new CPDomain();
 
-	protected CPMatcher matcher = new CPMatcher();
-
 	public static final CPDomain v() {
 		return v;
 	}
@@ -61,7 +62,7 @@ public class CPDomain extends AbstractDomain<CPState, Unit> implements
 		} else {
 			// Compute the intersection of the two sets of varToFactoid.
 			CPState result = new CPState(first);
-			result.factoids.retainAll(second.factoids);
+			result.retainAll(second);
 			return result;
 		}
 	}
@@ -73,7 +74,7 @@ public class CPDomain extends AbstractDomain<CPState, Unit> implements
 		} else {
 			// Compute the union of the two sets of varToFactoid.
 			CPState result = new CPState(first);
-			result.factoids.addAll(second.factoids);
+			result.addAll(second);
 			return result;
 		}
 	}
@@ -86,7 +87,7 @@ public class CPDomain extends AbstractDomain<CPState, Unit> implements
 			// first != bottom
 			return false;
 		} else {
-			return first.factoids.containsAll(second.factoids);
+			return first.containsAll(second);
 		}
 	}
 
@@ -139,6 +140,49 @@ public class CPDomain extends AbstractDomain<CPState, Unit> implements
 		return result;
 	}
 
+	/**
+	 * Returns the mask of the variables that have constant values in the
+	 * given state, where a variable sets the bit of its number modulo 64.
+	 */
+	@Override
+	public Object getSignature(CPState state) {
+		if (state == getBottom())
+			return null;
+
+		long mask = 0;
+		for (CPFactoid factoid : state.factoids)
+			mask |= 1L << factoid.lhs.getNumber();
+		return mask;
+	}
+
+	/**
+	 * A state is less than or equal to another state only if it contains the
+	 * factoids of the other state, and therefore all of its variables.
+	 */
+	@Override
+	public boolean mayBeLeq(Object signature1, Object signature2) {
+		long mask1 = (Long) signature1;
+		long mask2 = (Long) signature2;
+		return (mask2 & ~mask1) == 0;
+	}
+
+	/**
+	 * Returns the number of factoids that are lost by the upper bound of the
+	 * given states, i.e., the factoids that are in exactly one of them.
+	 */
+	@Override
+	public int distance(CPState first, CPState second) {
+		if (first == getBottom() || second == getBottom())
+			return 0;
+
+		int common = 0;
+		for (CPFactoid factoid : first.factoids) {
+			if (second.factoids.contains(factoid))
+				++common;
+		}
+		return first.factoids.size() + second.factoids.size() - 2 * common;
+	}
+
 	/**
 	 * Returns the identity operation to increase efficiency.
 	 */
@@ -149,7 +193,7 @@ public class CPDomain extends AbstractDomain<CPState, Unit> implements
 
 	@Override
 	public UnaryOperation<CPState> getTransformer(Unit stmt) {
-		UnaryOperation<CPState> vanillaTransformer = matcher
+		UnaryOperation<CPState> vanillaTransformer = new CPMatcher()
 				.getTransformer(stmt);
 		return vanillaTransformer;
 	}
@@ -270,7 +314,7 @@ public class CPDomain extends AbstractDomain<CPState, Unit> implements
 				return CPState.bottom;
 
 			if (isConcreteExpr(input, rhs)) {
-				Constant resultVal = CPExprEval.v.eval(input, rhs);
+				Constant resultVal = CPExprEval.v().eval(input, rhs);
 				if (resultVal != null) {
 					CPState result = new CPState(input);
 					result.removeVar(lhs);
@@ -320,7 +364,7 @@ public class CPDomain extends AbstractDomain<CPState, Unit> implements
 			Constant value = input.getConstantForVar(rhs);
 			if (value != null) {
 				CPFactoid newFactoid = new CPFactoid(lhs, value);
-				result.factoids.add(newFactoid);
+				result.add(newFactoid);
 			}
 			return result;
 		}
@@ -386,7 +430,7 @@ public class CPDomain extends AbstractDomain<CPState, Unit> implements
 				return CPState.bottom;
 
 			if (isConcreteExpr(input, expr)) {
-				Constant resultVal = CPExprEval.v.eval(input, expr);
+				Constant resultVal = CPExprEval.v().eval(input, expr);
 				if (resultVal != null) {
 					boolean conditionHolds = resultVal.equals(IntConstant.v(1));
 					if (conditionHolds == polarity)
@@ -432,15 +476,12 @@ public class CPDomain extends AbstractDomain<CPState, Unit> implements
 			if (input.equals(CPState.bottom))
 				return CPState.bottom;
 
-			CPState result = new CPState();
-			// Apply the preservation rule to each factoid.
-			for (CPFactoid factoid : input.factoids) {
-				if (!factoid.hasVar(this.lhs)) {
-					result.factoids.add(factoid);
-				}
-			}
+			// Apply the preservation rule to the factoids that do not contain
+			// the variable.
+			CPState result = new CPState(input);
+			result.removeVar(lhs);
 			// Apply the new factoid rule.
-			result.factoids.add(newFactoid);
+			result.add(newFactoid);
 			return result;
 		}
 	}
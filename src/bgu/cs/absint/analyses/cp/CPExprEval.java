@@ -12,9 +12,22 @@ import soot.jimple.*;
  */
 public class CPExprEval extends ExprVisitor {
 	/**
-	 * The one and only instance of this this class (singleton pattern).
+	 * One instance of this class per thread, since evaluation stores
+	 * intermediate results in fields.
 	 */
-	public static final CPExprEval v = new CPExprEval();
+	private static final ThreadLocal<CPExprEval> v = new ThreadLocal<CPExprEval>() {
+		@Override
+		protected CPExprEval initialValue() {
+			return new CPExprEval();
+		}
+	};
+
+	/**
+	 * Returns the instance of this class for the current thread.
+	 */
+	public static CPExprEval v() {
+		return v.get();
+	}
 
 	public boolean divByZero;
 
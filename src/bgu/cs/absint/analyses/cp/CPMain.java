@@ -1,7 +1,9 @@
 package bgu.cs.absint.analyses.cp;
 
+import soot.Body;
 import soot.PackManager;
 import soot.Transform;
+import bgu.cs.absint.StateCodec;
 import bgu.cs.absint.soot.BaseAnalysis;
 
 /**
@@ -20,5 +22,10 @@ public class CPMain {
 		public CPAnalysis() {
 			super(CPDomain.v());
 		}
+
+		@Override
+		protected StateCodec<CPState> getStateCodec(Body b) {
+			return new CPStateCodec(b);
+		}
 	}
 }
\ No newline at end of file
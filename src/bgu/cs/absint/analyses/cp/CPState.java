@@ -1,10 +1,5 @@
 package bgu.cs.absint.analyses.cp;
 
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
-
 import soot.Local;
 import soot.jimple.Constant;
 import bgu.cs.absint.constructor.ConjunctiveState;
@@ -59,13 +54,8 @@ public class CPState extends ConjunctiveState<Local, CPFactoid> {
 		}
 	};
 
-	/**
-	 * An element is a set of varToFactoid.
-	 */
-	protected final Set<CPFactoid> factoids;
-
 	public CPState() {
-		factoids = new HashSet<>();
+		super();
 	}
 
 	@Override
@@ -76,20 +66,15 @@ public class CPState extends ConjunctiveState<Local, CPFactoid> {
 			return new CPState(this);
 	}
 
-	@Override
-	public Collection<CPFactoid> getFactoids() {
-		return factoids;
-	}
-
 	public boolean addFactoid(Local lhs, Constant rhs) {
 		assert getConstantForVar(lhs) == null;
-		return factoids.add(new CPFactoid(lhs, rhs));
+		return super.add(new CPFactoid(lhs, rhs));
 	}
 
 	@Override
 	public boolean add(CPFactoid factoid) {
 		assert getConstantForVar(factoid.lhs) == null;
-		return factoids.add(factoid);
+		return super.add(factoid);
 	}
 
 	/**
@@ -102,31 +87,11 @@ public class CPState extends ConjunctiveState<Local, CPFactoid> {
 	 *         is none.
 	 */
 	public Constant getConstantForVar(Local lhs) {
-		for (CPFactoid factoid : factoids) {
-			if (factoid.lhs.equals(lhs))
-				return factoid.rhs;
-		}
+		for (CPFactoid factoid : getVarFactoids(lhs))
+			return factoid.rhs;
 		return null;
 	}
 
-	/**
-	 * Removes any factoid containing the given variable.
-	 * 
-	 * @param lhs
-	 *            The variable to be removed from the state.
-	 */
-	@Override
-	public boolean removeVar(Local lhs) {
-		for (Iterator<CPFactoid> iter = factoids.iterator(); iter.hasNext();) {
-			CPFactoid factoid = iter.next();
-			if (factoid.hasVar(lhs)) {
-				iter.remove();
-				return true;
-			}
-		}
-		return false;
-	}
-
 	/**
 	 * Checks whether this state is equivalent to bottom. That is, if it
 	 * contains two facts 'x=a' and 'x=b' where 'a' and 'b' are different
@@ -148,13 +113,13 @@ public class CPState extends ConjunctiveState<Local, CPFactoid> {
 	}
 
 	protected CPState(CPState copyFrom) {
-		factoids = new HashSet<>(copyFrom.factoids);
+		super(copyFrom);
 	}
 
 	/**
 	 * A constructor just for initializing varToFactoid to null.
 	 */
 	protected CPState(boolean dummy) {
-		this.factoids = null;
+		super(false);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+package bgu.cs.absint.analyses.cp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import soot.Body;
+import soot.Local;
+import soot.jimple.Constant;
+import soot.jimple.DoubleConstant;
+import soot.jimple.FloatConstant;
+import soot.jimple.IntConstant;
+import soot.jimple.LongConstant;
+import soot.jimple.NullConstant;
+import soot.jimple.StringConstant;
+import bgu.cs.absint.StateCodec;
+
+/**
+ * Converts constant propagation states of a given body to and from a binary
+ * representation, where local variables are identified by their names.
+ */
+public class CPStateCodec implements StateCodec<CPState> {
+	private static final byte BOTTOM = 0;
+	private static final byte TOP = 1;
+	private static final byte FACTOIDS = 2;
+
+	private static final byte INT = 0;
+	private static final byte LONG = 1;
+	private static final byte FLOAT = 2;
+	private static final byte DOUBLE = 3;
+	private static final byte STRING = 4;
+	private static final byte NULL = 5;
+
+	protected final Map<String, Local> nameToLocal = new HashMap<>();
+
+	public CPStateCodec(Body b) {
+		for (Local local : b.getLocals())
+			nameToLocal.put(local.getName(), local);
+	}
+
+	@Override
+	public void write(CPState state, DataOutput out) throws IOException {
+		if (state == CPState.bottom) {
+			out.writeByte(BOTTOM);
+		} else if (state == CPState.top) {
+			out.writeByte(TOP);
+		} else {
+			out.writeByte(FACTOIDS);
+			out.writeInt(state.getFactoids().size());
+			for (CPFactoid factoid : state) {
+				out.writeUTF(factoid.lhs.getName());
+				writeConstant(factoid.rhs, out);
+			}
+		}
+	}
+
+	@Override
+	public CPState read(DataInput in) throws IOException {
+		byte kind = in.readByte();
+		switch (kind) {
+		case BOTTOM:
+			return CPState.bottom;
+		case TOP:
+			return CPState.top;
+		case FACTOIDS:
+			CPState result = new CPState();
+			int size = in.readInt();
+			for (int i = 0; i < size; ++i) {
+				String name = in.readUTF();
+				Local lhs = nameToLocal.get(name);
+				if (lhs == null)
+					throw new IOException("Unknown local " + name + "!");
+				Constant rhs = readConstant(in);
+				if (result.getConstantForVar(lhs) != null)
+					throw new IOException("Duplicate factoid for " + name
+							+ "!");
+				result.addFactoid(lhs, rhs);
+			}
+			return result;
+		default:
+			throw new IOException("Unexpected state kind " + kind + "!");
+		}
+	}
+
+	protected void writeConstant(Constant c, DataOutput out) throws IOException {
+		if (c instanceof IntConstant) {
+			out.writeByte(INT);
+			out.writeInt(((IntConstant) c).value);
+		} else if (c instanceof LongConstant) {
+			out.writeByte(LONG);
+			out.writeLong(((LongConstant) c).value);
+		} else if (c instanceof FloatConstant) {
+			out.writeByte(FLOAT);
+			out.writeFloat(((FloatConstant) c).value);
+		} else if (c instanceof DoubleConstant) {
+			out.writeByte(DOUBLE);
+			out.writeDouble(((DoubleConstant) c).value);
+		} else if (c instanceof StringConstant) {
+			out.writeByte(STRING);
+			out.writeUTF(((StringConstant) c).value);
+		} else if (c instanceof NullConstant) {
+			out.writeByte(NULL);
+		} else {
+			throw new IOException("Unsupported constant " + c + "!");
+		}
+	}
+
+	protected Constant readConstant(DataInput in) throws IOException {
+		byte kind = in.readByte();
+		switch (kind) {
+		case INT:
+			return IntConstant.v(in.readInt());
+		case LONG:
+			return LongConstant.v(in.readLong());
+		case FLOAT:
+			return FloatConstant.v(in.readFloat());
+		case DOUBLE:
+			return DoubleConstant.v(in.readDouble());
+		case STRING:
+			return StringConstant.v(in.readUTF());
+		case NULL:
+			return NullConstant.v();
+		default:
+			throw new IOException("Unexpected constant kind " + kind + "!");
+		}
+	}
+}
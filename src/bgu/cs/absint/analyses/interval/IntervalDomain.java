@@ -2,9 +2,9 @@ package bgu.cs.absint.analyses.interval;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Set;
 
 import soot.Local;
+import soot.LongType;
 import soot.Unit;
 import soot.Value;
 import soot.jimple.AddExpr;
@@ -14,6 +14,7 @@ import soot.jimple.Expr;
 import soot.jimple.IdentityStmt;
 import soot.jimple.IfStmt;
 import soot.jimple.IntConstant;
+import soot.jimple.LongConstant;
 import soot.jimple.NumericConstant;
 import soot.jimple.ParameterRef;
 import soot.jimple.ThisRef;
@@ -23,6 +24,7 @@ import bgu.cs.absint.AbstractDomain;
 import bgu.cs.absint.IdOperation;
 import bgu.cs.absint.UnaryOperation;
 import bgu.cs.absint.constructor.EqualityRefiner;
+import bgu.cs.absint.soot.LocalNumbering;
 import bgu.cs.absint.soot.TransformerMatcher;
 import bgu.cs.util.Pair;
 
@@ -40,12 +42,16 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 	 */
 	private static final IntervalDomain v = new IntervalDomain();
 
-	protected IntervalMatcher matcher = new IntervalMatcher();
-
 	public static final IntervalDomain v() {
 		return v;
 	}
 
+	/**
+	 * The numbering of the variables used by the states created by this
+	 * domain.
+	 */
+	protected final LocalNumbering numbering;
+
 	@Override
 	public IntervalState getBottom() {
 		return IntervalState.bottom;
@@ -63,36 +69,19 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 		} else if (second == IntervalState.bottom) {
 			return first;
 		} else {
-			IntervalState result = new IntervalState();
-			Set<Local> vars = first.getVars();
-			vars.addAll(second.getVars());
-
-			for (Local var : vars) {
-				NumericConstant lb1 = first.getLB(var);
-				NumericConstant lb2 = second.getLB(var);
-				NumericConstant jointLB;
-				if (lb1 == null || lb2 == null)
-					jointLB = null;
-				else if (lb1.lessThanOrEqual(lb2).equivTo(IntConstant.v(1)))
-					jointLB = lb1;
-				else
-					jointLB = lb2;
-				if (jointLB != null)
-					result.addLBFactoid(var, jointLB);
-
-				NumericConstant ub1 = first.getUB(var);
-				NumericConstant ub2 = second.getUB(var);
-				NumericConstant jointUB;
-				if (ub1 == null || ub2 == null)
-					jointUB = null;
-				else if (ub1.lessThanOrEqual(ub2).equivTo(IntConstant.v(1)))
-					jointUB = ub2;
-				else
-					jointUB = ub1;
-				if (jointUB != null)
-					result.addUBFactoid(var, jointUB);
+			LocalNumbering numbering = getNumbering(first, second);
+			first = first.alignTo(numbering);
+			second = second.alignTo(numbering);
+			// Variables without bounds in either state have no bounds in the
+			// result.
+			int length = Math.min(first.lo.length, second.lo.length);
+			long[] lo = new long[length];
+			long[] hi = new long[length];
+			for (int i = 0; i < length; ++i) {
+				lo[i] = Math.min(first.lo[i], second.lo[i]);
+				hi[i] = Math.max(first.hi[i], second.hi[i]);
 			}
-			return result;
+			return new IntervalState(numbering, lo, hi);
 		}
 	}
 
@@ -101,51 +90,19 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 		if (first == IntervalState.bottom || second == IntervalState.bottom) {
 			return IntervalState.bottom;
 		} else {
-			IntervalState result = new IntervalState();
-			Set<Local> vars = first.getVars();
-			vars.addAll(second.getVars());
-
-			for (Local var : vars) {
-				// Handle the lower-bound.
-				NumericConstant lb1 = first.getLB(var);
-				NumericConstant lb2 = second.getLB(var);
-				NumericConstant jointLB;
-				if (lb1 == null) {
-					jointLB = lb2;
-				} else if (lb2 == null) {
-					jointLB = lb1;
-				} else {
-					if (lb1.lessThanOrEqual(lb2).equivTo(IntConstant.v(1)))
-						jointLB = lb2;
-					else
-						jointLB = lb1;
-				}
-				if (jointLB != null)
-					result.addLBFactoid(var, jointLB);
-
-				// Handle the upper-bound.
-				NumericConstant ub1 = first.getUB(var);
-				NumericConstant ub2 = second.getUB(var);
-				NumericConstant jointUB;
-
-				if (ub1 == null) {
-					jointUB = ub2;
-				} else if (ub2 == null) {
-					jointUB = ub1;
-				} else {
-					if (ub1.lessThanOrEqual(ub2).equivTo(IntConstant.v(1)))
-						jointUB = ub1;
-					else
-						jointUB = ub2;
-				}
-
-				if (jointUB != null)
-					result.addUBFactoid(var, jointUB);
+			LocalNumbering numbering = getNumbering(first, second);
+			first = first.alignTo(numbering);
+			second = second.alignTo(numbering);
+			int length = Math.max(first.lo.length, second.lo.length);
+			long[] lo = new long[length];
+			long[] hi = new long[length];
+			for (int i = 0; i < length; ++i) {
+				lo[i] = Math.max(first.lo(i), second.lo(i));
+				hi[i] = Math.min(first.hi(i), second.hi(i));
+				if (hi[i] < lo[i])
+					return getBottom();
 			}
-			if (!result.isConsistent())
-				return getBottom();
-			else
-				return result;
+			return new IntervalState(numbering, lo, hi);
 		}
 	}
 
@@ -157,27 +114,13 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 			// first != bottom
 			return false;
 		} else {
-			Set<Local> vars = first.getVars();
-			vars.addAll(second.getVars());
-			for (Local var : vars) {
-				// Handle the lower-bounds.
-				NumericConstant lb1 = first.getLB(var);
-				NumericConstant lb2 = second.getLB(var);
-				if (lb2 == null || lb1 != null
-						&& lb2.lessThanOrEqual(lb1).equivTo(IntConstant.v(1))) {
-				} else {
+			LocalNumbering numbering = getNumbering(first, second);
+			first = first.alignTo(numbering);
+			second = second.alignTo(numbering);
+			int length = Math.max(first.lo.length, second.lo.length);
+			for (int i = 0; i < length; ++i) {
+				if (first.lo(i) < second.lo(i) || first.hi(i) > second.hi(i))
 					return false;
-				}
-
-				// Handle the upper-bounds.
-				NumericConstant ub1 = first.getUB(var);
-				NumericConstant ub2 = second.getUB(var);
-				if (ub2 == null || ub1 != null
-						&& ub1.lessThanOrEqual(ub2).equivTo(IntConstant.v(1))) {
-				} else {
-					return false;
-				}
-
 			}
 			return true;
 		}
@@ -190,44 +133,20 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 		} else if (second == IntervalState.bottom) {
 			return first;
 		} else {
-			IntervalState result = new IntervalState();
-			Set<Local> vars = first.getVars();
-			vars.addAll(second.getVars());
-
-			for (Local var : vars) {
-				// Handle the lower-bound.
-				NumericConstant lb1 = first.getLB(var);
-				NumericConstant lb2 = second.getLB(var);
-				NumericConstant jointLB;
-				if (lb1 == null || lb2 == null)
-					jointLB = null;
-				else if (lb1.lessThanOrEqual(lb2).equivTo(IntConstant.v(1))) {
-					jointLB = lb1;
-				} else {
-					// widen the lower-bound to -infinity by
-					// dropping the lower-bound constraint.
-					jointLB = null;
-				}
-				if (jointLB != null)
-					result.addLBFactoid(var, jointLB);
-
-				// Handle the upper-bound.
-				NumericConstant ub1 = first.getUB(var);
-				NumericConstant ub2 = second.getUB(var);
-				NumericConstant jointUB;
-				if (ub1 == null || ub2 == null)
-					jointUB = null;
-				else if (ub2.lessThanOrEqual(ub1).equivTo(IntConstant.v(1))) {
-					jointUB = ub1;
-				} else {
-					// widen the upper-bound to infinity by
-					// dropping the upper-bound constraint.
-					jointUB = null;
-				}
-				if (jointUB != null)
-					result.addUBFactoid(var, jointUB);
+			LocalNumbering numbering = getNumbering(first, second);
+			first = first.alignTo(numbering);
+			second = second.alignTo(numbering);
+			int length = Math.min(first.lo.length, second.lo.length);
+			long[] lo = new long[length];
+			long[] hi = new long[length];
+			for (int i = 0; i < length; ++i) {
+				// Widen unstable bounds to infinity by dropping them.
+				lo[i] = first.lo[i] <= second.lo[i] ? first.lo[i]
+						: IntervalState.NO_LB;
+				hi[i] = second.hi[i] <= first.hi[i] ? first.hi[i]
+						: IntervalState.NO_UB;
 			}
-			return result;
+			return new IntervalState(numbering, lo, hi);
 		}
 	}
 
@@ -238,40 +157,26 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 		} else if (second == IntervalState.bottom) {
 			return first;
 		} else {
-			IntervalState result = new IntervalState();
-			Set<Local> vars = first.getVars();
-			vars.addAll(second.getVars());
-
-			for (Local var : vars) {
-				// Handle the lower-bound.
-				NumericConstant lb1 = first.getLB(var);
-				NumericConstant lb2 = second.getLB(var);
-				NumericConstant jointLB;
-				if (lb1 == null)
-					jointLB = lb2;
-				else
-					jointLB = lb1;
-				if (jointLB != null)
-					result.addLBFactoid(var, jointLB);
-
-				// Handle the upper-bound.
-				NumericConstant ub1 = first.getUB(var);
-				NumericConstant ub2 = second.getUB(var);
-				NumericConstant jointUB;
-				if (ub1 == null)
-					jointUB = ub2;
-				else
-					jointUB = ub1;
-				if (jointUB != null)
-					result.addUBFactoid(var, jointUB);
+			LocalNumbering numbering = getNumbering(first, second);
+			first = first.alignTo(numbering);
+			second = second.alignTo(numbering);
+			int length = Math.max(first.lo.length, second.lo.length);
+			long[] lo = new long[length];
+			long[] hi = new long[length];
+			for (int i = 0; i < length; ++i) {
+				// Refine infinite bounds.
+				lo[i] = first.lo(i) == IntervalState.NO_LB ? second.lo(i)
+						: first.lo(i);
+				hi[i] = first.hi(i) == IntervalState.NO_UB ? second.hi(i)
+						: first.hi(i);
 			}
-			return result;
+			return new IntervalState(numbering, lo, hi);
 		}
 	}
 
 	@Override
 	public UnaryOperation<IntervalState> getTransformer(Unit stmt) {
-		UnaryOperation<IntervalState> vanillaTransformer = matcher
+		UnaryOperation<IntervalState> vanillaTransformer = new IntervalMatcher()
 				.getTransformer(stmt);
 		return ComposedOperation.compose(vanillaTransformer,
 				getReductionOperation());
@@ -295,35 +200,23 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 
 		// Apply the following rule: {x=a} and {x=y} implies {y=a}.
 		IntervalState result = istate.copy();
+		boolean changed = false;
 		for (Pair<Local, Local> pair : equalities) {
-			LBFactoid firstLb = result.getLBFactoid(pair.first);
-			UBFactoid firstUb = result.getUBFactoid(pair.first);
-			LBFactoid secondLb = result.getLBFactoid(pair.second);
-			UBFactoid secondUb = result.getUBFactoid(pair.second);
-
-			IntervalState meetState = new IntervalState();
-			if (secondLb != null) {
-				LBFactoid newFirstLB = new LBFactoid(pair.first, secondLb.rhs);
-				meetState.add(newFirstLB);
-			}
-			if (secondUb != null) {
-				UBFactoid newFirstUB = new UBFactoid(pair.first, secondUb.rhs);
-				meetState.add(newFirstUB);
-			}
-			if (firstLb != null) {
-				LBFactoid newSecondLB = new LBFactoid(pair.second, firstLb.rhs);
-				meetState.add(newSecondLB);
-			}
-			if (firstUb != null) {
-				UBFactoid newSecondUB = new UBFactoid(pair.second, firstUb.rhs);
-				meetState.add(newSecondUB);
-			}
-			result = lb(result, meetState);
+			long lb = Math.max(result.getLowerBound(pair.first),
+					result.getLowerBound(pair.second));
+			long ub = Math.min(result.getUpperBound(pair.first),
+					result.getUpperBound(pair.second));
+			if (ub < lb)
+				return getBottom();
+			changed |= result.setLB(pair.first, lb);
+			changed |= result.setUB(pair.first, ub);
+			changed |= result.setLB(pair.second, lb);
+			changed |= result.setUB(pair.second, ub);
 		}
-		if (eq(istate, result))
-			return null;
-		else
+		if (changed)
 			return result;
+		else
+			return null;
 	}
 
 	@Override
@@ -335,19 +228,118 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 			return result;
 
 		// Look for {x=a, y=a} and return x=y.
-		for (IntervalFactoid f1 : istate.getConstantFactoids()) {
-			for (IntervalFactoid f2 : istate.getConstantFactoids()) {
-				if (f1.rhs.equivTo(f2.rhs) && !f1.lhs.equivTo(f2.rhs))
-					result.add(new Pair<Local, Local>(f1.lhs, f2.lhs));
+		for (int i = 0; i < istate.lo.length; ++i) {
+			if (istate.lo[i] == IntervalState.NO_LB
+					|| istate.lo[i] != istate.hi[i])
+				continue;
+			Local x = istate.numbering.get(i);
+			for (int j = 0; j < istate.lo.length; ++j) {
+				if (j == i || istate.lo[j] != istate.lo[i]
+						|| istate.hi[j] != istate.lo[i])
+					continue;
+				Local y = istate.numbering.get(j);
+				if (IntervalState.toConstant(x, istate.lo[i]).equivTo(
+						IntervalState.toConstant(y, istate.lo[j])))
+					result.add(new Pair<Local, Local>(x, y));
 			}
 		}
 		return result;
 	}
 
+	/**
+	 * Constructs a domain whose states number the variables by the given
+	 * numbering, which is typically shared by the states of a single method.
+	 */
+	public IntervalDomain(LocalNumbering numbering) {
+		this.numbering = numbering;
+	}
+
 	/**
 	 * Singleton pattern.
 	 */
 	private IntervalDomain() {
+		this(new LocalNumbering());
+	}
+
+	/**
+	 * Returns the numbering by which the result of an operation over the given
+	 * states is indexed.
+	 */
+	protected LocalNumbering getNumbering(IntervalState first,
+			IntervalState second) {
+		if (first.numbering != null)
+			return first.numbering;
+		else if (second.numbering != null)
+			return second.numbering;
+		else
+			return numbering;
+	}
+
+	/**
+	 * Returns a copy of the given state, which numbers the variables by the
+	 * numbering of this domain if the given state has no numbering.
+	 */
+	protected IntervalState copy(IntervalState state) {
+		if (state.numbering == null)
+			return new IntervalState(numbering);
+		else
+			return state.copy();
+	}
+
+	/**
+	 * Returns the state obtained by intersecting the bounds of the given
+	 * variable with the given bounds, which is the given state if the bounds
+	 * do not change.
+	 */
+	protected IntervalState meet(IntervalState input, Local var, long lb,
+			long ub) {
+		// Special treatment for bottom.
+		if (input == IntervalState.bottom)
+			return IntervalState.bottom;
+
+		long oldLB = input.getLowerBound(var);
+		long oldUB = input.getUpperBound(var);
+		long newLB = Math.max(oldLB, lb);
+		long newUB = Math.min(oldUB, ub);
+		if (newUB < newLB)
+			return IntervalState.bottom;
+		if (newLB == oldLB && newUB == oldUB)
+			return input;
+		IntervalState result = copy(input);
+		result.setLB(var, newLB);
+		result.setUB(var, newUB);
+		return result;
+	}
+
+	/**
+	 * Checks whether the given constant can be represented by a bound.
+	 */
+	protected static boolean isIntegral(Constant c) {
+		return c instanceof IntConstant || c instanceof LongConstant;
+	}
+
+	/**
+	 * Returns the sum of two bounds, or the given infinite bound if either of
+	 * the bounds is infinite.
+	 */
+	protected static long add(long c1, long c2, long infinity) {
+		if (c1 == infinity || c2 == infinity)
+			return infinity;
+		return c1 + c2;
+	}
+
+	/**
+	 * Checks whether the sum of two finite bounds overflows the type of the
+	 * given variable.
+	 */
+	protected static boolean overflows(Local var, long c1, long c2,
+			long infinity) {
+		if (c1 == infinity || c2 == infinity)
+			return false;
+		long sum = c1 + c2;
+		if (((c1 ^ sum) & (c2 ^ sum)) < 0)
+			return true;
+		return !(var.getType() instanceof LongType) && sum != (int) sum;
 	}
 
 	/**
@@ -392,7 +384,7 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 			if (lhs.equals(rhs)) {
 				transformer = IdOperation.v();
 			} else {
-				if (rhs instanceof NumericConstant)
+				if (isIntegral(rhs))
 					transformer = new AssignConstantToVarTransformer(lhs,
 							(NumericConstant) rhs);
 				else
@@ -422,24 +414,27 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 		public void matchAssumeLocalLtConstant(IfStmt stmt, boolean polarity,
 				Local lhs, Constant rhs) {
 			assert rhs instanceof NumericConstant;
-			transformer = new AssumeLocalLtConstantTransformer(polarity, lhs,
-					(NumericConstant) rhs);
+			if (isIntegral(rhs))
+				transformer = new AssumeLocalLtConstantTransformer(polarity,
+						lhs, (NumericConstant) rhs);
 		}
 
 		@Override
 		public void matchAssumeLocalGtConstant(IfStmt stmt, boolean polarity,
 				Local lhs, Constant rhs) {
 			assert rhs instanceof NumericConstant;
-			transformer = new AssumeLocalGtConstantTransformer(polarity, lhs,
-					(NumericConstant) rhs);
+			if (isIntegral(rhs))
+				transformer = new AssumeLocalGtConstantTransformer(polarity,
+						lhs, (NumericConstant) rhs);
 		}
 
 		@Override
 		public void matchAssumeLocalEqConstant(IfStmt stmt, boolean polarity,
 				Local lhs, Constant rhs) {
 			assert rhs instanceof NumericConstant;
-			transformer = new AssumeLocalEqConstantTransformer(polarity, lhs,
-					(NumericConstant) rhs);
+			if (isIntegral(rhs))
+				transformer = new AssumeLocalEqConstantTransformer(polarity,
+						lhs, (NumericConstant) rhs);
 		}
 	}
 
@@ -450,7 +445,7 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 	 * 
 	 * @author romanm
 	 */
-	protected static class AssignAddExprToVarTransformer extends
+	protected class AssignAddExprToVarTransformer extends
 			UnaryOperation<IntervalState> {
 		/**
 		 * The variable being modified by the concrete semantics.
@@ -466,71 +461,48 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 		@Override
 		public IntervalState apply(IntervalState input) {
 			// Special treatment for bottom.
-			if (input.equals(IntervalState.bottom))
+			if (input == IntervalState.bottom)
 				return IntervalState.bottom;
 
-			IntervalState result = input.copy();
-			result.removeVar(lhs);
-
-			// Compute the lower and upper bounds of the addition expression,
-			// create the corresponding varToFactoid, and add them to the output
-			// state.
-			NumericConstant lbLhs = null;
-			NumericConstant ubLhs = null;
-
+			// Compute the lower and upper bounds of the addition expression
+			// and set them as the bounds of the assigned variable.
 			Value op1 = rhs.getOp1();
 			Value op2 = rhs.getOp2();
-
-			// Handle the lower bound
-			NumericConstant c1, c2;
-			if (op1 instanceof Local) {
-				Local op1Local = (Local) op1;
-				c1 = input.getLB(op1Local);
-			} else if (op1 instanceof NumericConstant) {
-				c1 = (NumericConstant) op1;
-			} else {
-				c1 = null;
-			}
-
-			if (op2 instanceof Local) {
-				Local op2Local = (Local) op2;
-				c2 = input.getLB(op2Local);
-			} else if (op2 instanceof NumericConstant) {
-				c2 = (NumericConstant) op2;
+			long lb1 = getLB(input, op1), lb2 = getLB(input, op2);
+			long ub1 = getUB(input, op1), ub2 = getUB(input, op2);
+			long lbLhs, ubLhs;
+			if (overflows(lhs, lb1, lb2, IntervalState.NO_LB)
+					|| overflows(lhs, ub1, ub2, IntervalState.NO_UB)) {
+				// Some sums wrap around, so the result may be any value.
+				lbLhs = IntervalState.NO_LB;
+				ubLhs = IntervalState.NO_UB;
 			} else {
-				c2 = null;
+				lbLhs = add(lb1, lb2, IntervalState.NO_LB);
+				ubLhs = add(ub1, ub2, IntervalState.NO_UB);
 			}
 
-			if (c1 != null && c2 != null) {
-				lbLhs = c1.add(c2);
-				result.addLBFactoid(lhs, lbLhs);
-			}
-
-			// Handle the upper bound
-			if (op1 instanceof Local) {
-				Local op1Local = (Local) op1;
-				c1 = input.getUB(op1Local);
-			} else if (op1 instanceof NumericConstant) {
-				c1 = (NumericConstant) op1;
-			} else {
-				c1 = null;
-			}
-
-			if (op2 instanceof Local) {
-				Local op2Local = (Local) op2;
-				c2 = input.getUB(op2Local);
-			} else if (op2 instanceof NumericConstant) {
-				c2 = (NumericConstant) op2;
-			} else {
-				c2 = null;
-			}
+			IntervalState result = copy(input);
+			result.setLB(lhs, lbLhs);
+			result.setUB(lhs, ubLhs);
+			return result;
+		}
 
-			if (c1 != null && c2 != null) {
-				ubLhs = c1.add(c2);
-				result.addUBFactoid(lhs, ubLhs);
-			}
+		private long getLB(IntervalState input, Value op) {
+			if (op instanceof Local)
+				return input.getLowerBound((Local) op);
+			else if (op instanceof Constant && isIntegral((Constant) op))
+				return IntervalState.toLong((NumericConstant) op);
+			else
+				return IntervalState.NO_LB;
+		}
 
-			return result;
+		private long getUB(IntervalState input, Value op) {
+			if (op instanceof Local)
+				return input.getUpperBound((Local) op);
+			else if (op instanceof Constant && isIntegral((Constant) op))
+				return IntervalState.toLong((NumericConstant) op);
+			else
+				return IntervalState.NO_UB;
 		}
 	}
 
@@ -540,7 +512,7 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 	 * 
 	 * @author romanm
 	 */
-	protected static class AssignVarToVarTransformer extends
+	protected class AssignVarToVarTransformer extends
 			UnaryOperation<IntervalState> {
 		/**
 		 * The variable being modified by the concrete semantics.
@@ -556,19 +528,12 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 		@Override
 		public IntervalState apply(IntervalState input) {
 			// Special treatment for bottom.
-			if (input.equals(IntervalState.bottom))
+			if (input == IntervalState.bottom)
 				return IntervalState.bottom;
 
-			IntervalState result = input.copy();
-			result.removeVar(lhs);
-
-			NumericConstant lbRhs = input.getLB(rhs);
-			NumericConstant ubRhs = input.getUB(rhs);
-			if (lbRhs != null)
-				result.addLBFactoid(lhs, lbRhs);
-			if (ubRhs != null)
-				result.addUBFactoid(lhs, ubRhs);
-
+			IntervalState result = copy(input);
+			result.setLB(lhs, input.getLowerBound(rhs));
+			result.setUB(lhs, input.getUpperBound(rhs));
 			return result;
 		}
 	}
@@ -579,28 +544,28 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 	 * 
 	 * @author romanm
 	 */
-	protected static class AssignConstantToVarTransformer extends
+	protected class AssignConstantToVarTransformer extends
 			UnaryOperation<IntervalState> {
 		protected final Local lhs;
 		protected final NumericConstant rhs;
+		protected final long value;
 
 		public AssignConstantToVarTransformer(Local lhs, NumericConstant rhs) {
 			this.lhs = lhs;
 			this.rhs = rhs;
+			this.value = IntervalState.toLong(rhs);
 			assert !lhs.equals(rhs);
 		}
 
 		@Override
 		public IntervalState apply(IntervalState input) {
 			// Special treatment for bottom.
-			if (input.equals(IntervalState.bottom))
+			if (input == IntervalState.bottom)
 				return IntervalState.bottom;
 
-			IntervalState result = new IntervalState(input);
-			result.removeVar(lhs);
-			result.addLBFactoid(lhs, rhs);
-			result.addUBFactoid(lhs, rhs);
-
+			IntervalState result = copy(input);
+			result.setLB(lhs, value);
+			result.setUB(lhs, value);
 			return result;
 		}
 	}
@@ -612,7 +577,7 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 	 * 
 	 * @author romanm
 	 */
-	protected static class ForgetVarTransformer extends
+	protected class ForgetVarTransformer extends
 			UnaryOperation<IntervalState> {
 		/**
 		 * The variable being modified by the concrete semantics.
@@ -632,20 +597,11 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 		@Override
 		public IntervalState apply(IntervalState input) {
 			// Special treatment for bottom.
-			if (input.equals(IntervalState.bottom))
+			if (input == IntervalState.bottom)
 				return IntervalState.bottom;
 
-			IntervalState result = new IntervalState();
-			for (LBFactoid factoid : input.lbFactoids) {
-				if (!factoid.hasVar(lhs)) {
-					result.lbFactoids.add(factoid);
-				}
-			}
-			for (UBFactoid factoid : input.ubFactoids) {
-				if (!factoid.hasVar(lhs)) {
-					result.ubFactoids.add(factoid);
-				}
-			}
+			IntervalState result = copy(input);
+			result.removeVar(lhs);
 			return result;
 		}
 	}
@@ -664,19 +620,14 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 			AssumeTransformer<IntervalState> {
 		protected final Local lhs;
 		protected final NumericConstant rhs;
-		protected final IntervalState conditionInterval;
+		protected final long value;
 
 		public AssumeLocalLtConstantTransformer(boolean polarity, Local lhs,
 				NumericConstant rhs) {
 			super(polarity);
 			this.lhs = lhs;
 			this.rhs = rhs;
-			conditionInterval = new IntervalState();
-			if (polarity)
-				conditionInterval.addUBFactoid(lhs,
-						rhs.subtract(IntConstant.v(1)));
-			else
-				conditionInterval.addLBFactoid(lhs, rhs);
+			this.value = IntervalState.toLong(rhs);
 			assert !lhs.equals(rhs);
 		}
 
@@ -692,8 +643,10 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 
 		@Override
 		public IntervalState apply(IntervalState input) {
-			IntervalState result = lb(conditionInterval, input);
-			return result;
+			if (polarity)
+				return meet(input, lhs, IntervalState.NO_LB, value - 1);
+			else
+				return meet(input, lhs, value, IntervalState.NO_UB);
 		}
 	}
 
@@ -707,20 +660,14 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 			AssumeTransformer<IntervalState> {
 		protected final Local lhs;
 		protected final NumericConstant rhs;
-		protected final IntervalState conditionInterval;
+		protected final long value;
 
 		public AssumeLocalGtConstantTransformer(boolean polarity, Local lhs,
 				NumericConstant rhs) {
 			super(polarity);
 			this.lhs = lhs;
 			this.rhs = rhs;
-			conditionInterval = new IntervalState();
-
-			if (polarity)
-				conditionInterval.addLBFactoid(lhs, rhs.add(IntConstant.v(1)));
-			else
-				conditionInterval.addUBFactoid(lhs, rhs);
-
+			this.value = IntervalState.toLong(rhs);
 			assert !lhs.equals(rhs);
 		}
 
@@ -736,8 +683,10 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 
 		@Override
 		public IntervalState apply(IntervalState input) {
-			IntervalState result = lb(conditionInterval, input);
-			return result;
+			if (polarity)
+				return meet(input, lhs, value + 1, IntervalState.NO_UB);
+			else
+				return meet(input, lhs, IntervalState.NO_LB, value);
 		}
 	}
 
@@ -751,16 +700,14 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 			AssumeTransformer<IntervalState> {
 		protected final Local lhs;
 		protected final NumericConstant rhs;
-		protected final IntervalState conditionInterval;
+		protected final long value;
 
 		public AssumeLocalEqConstantTransformer(boolean polarity, Local lhs,
 				NumericConstant rhs) {
 			super(polarity);
 			this.lhs = lhs;
 			this.rhs = rhs;
-			conditionInterval = new IntervalState();
-			conditionInterval.addLBFactoid(lhs, rhs);
-			conditionInterval.addUBFactoid(lhs, rhs);
+			this.value = IntervalState.toLong(rhs);
 		}
 
 		@Override
@@ -776,25 +723,21 @@ public class IntervalDomain extends AbstractDomain<IntervalState, Unit> implemen
 		@Override
 		public IntervalState apply(IntervalState input) {
 			if (polarity) {
-				IntervalState result = lb(conditionInterval, input);
-				return result;
+				return meet(input, lhs, value, value);
 			} else {
-				IntervalState result = input.copy();
-				if (input.getLB(lhs) != null && input.getLB(lhs).equivTo(rhs)) {
-					// Update the lower bound by incrementing it by one.
-					IntervalState newLBInterval = new IntervalState();
-					newLBInterval.addLBFactoid(lhs, rhs.add(IntConstant.v(1)));
-					result = lb(newLBInterval, result);
-				}
-				if (input.getUB(lhs) != null && input.getUB(lhs).equivTo(rhs)) {
-					// Update the upper bound by decrementing it by one.
-					IntervalState newUBInterval = new IntervalState();
-					newUBInterval.addUBFactoid(lhs,
-							rhs.subtract(IntConstant.v(1)));
-					result = lb(newUBInterval, result);
-				}
+				// Special treatment for bottom.
+				if (input == IntervalState.bottom)
+					return IntervalState.bottom;
+
+				IntervalState result = input;
+				// Update the lower bound by incrementing it by one.
+				if (input.getLowerBound(lhs) == value)
+					result = meet(result, lhs, value + 1, IntervalState.NO_UB);
+				// Update the upper bound by decrementing it by one.
+				if (input.getUpperBound(lhs) == value)
+					result = meet(result, lhs, IntervalState.NO_LB, value - 1);
 				return result;
 			}
 		}
 	}
-}
\ No newline at end of file
+}
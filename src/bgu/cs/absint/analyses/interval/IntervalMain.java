@@ -1,8 +1,11 @@
 package bgu.cs.absint.analyses.interval;
 
+import soot.Body;
+import soot.Local;
 import soot.PackManager;
 import soot.Transform;
 import bgu.cs.absint.soot.BaseAnalysis;
+import bgu.cs.absint.soot.LocalNumbering;
 
 /**
  * Adds the Interval analysis transform to Soot.
@@ -25,5 +28,15 @@ public class IntervalMain {
 			super(IntervalDomain.v());
 			useWidening(true);
 		}
+
+		/**
+		 * Returns a domain whose states are indexed by the locals of the given
+		 * body.
+		 */
+		@Override
+		protected IntervalDomain getDomain(Body b) {
+			return new IntervalDomain(new LocalNumbering(b.getLocals().toArray(
+					new Local[0])));
+		}
 	}
 }
\ No newline at end of file
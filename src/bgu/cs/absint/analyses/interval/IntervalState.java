@@ -1,26 +1,46 @@
 package bgu.cs.absint.analyses.interval;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
 
 import soot.Local;
+import soot.LongType;
 import soot.jimple.IntConstant;
+import soot.jimple.LongConstant;
 import soot.jimple.NumericConstant;
 import bgu.cs.absint.constructor.ConjunctiveState;
+import bgu.cs.absint.soot.LocalNumbering;
 
 /**
- * A set of varToFactoid of the form {@code x=c} for a local variable 'x' and a
- * constant 'c'. There is at most one factoid for any given variable. The
- * (symbolic) meaning of a state is given by the conjunction of the
- * varToFactoid.
- * 
+ * A set of varToFactoid of the form {@code x>=c} and {@code x<=c} for a local
+ * variable 'x' and a constant 'c'. There is at most one factoid of each form
+ * for any given variable. The (symbolic) meaning of a state is given by the
+ * conjunction of the varToFactoid.<br>
+ * The bounds are stored in two arrays indexed by the numbers that a
+ * {@link LocalNumbering} assigns to the variables. Copies of a state share the
+ * arrays until one of them is modified, and the factoids are only created for
+ * printing and tagging.
+ *
  * @author romanm
- * 
+ *
  */
 public class IntervalState extends ConjunctiveState<Local, IntervalFactoid> {
+	/**
+	 * Denotes a missing lower bound.
+	 */
+	public static final long NO_LB = Long.MIN_VALUE;
+
+	/**
+	 * Denotes a missing upper bound.
+	 */
+	public static final long NO_UB = Long.MAX_VALUE;
+
+	private static final long[] EMPTY = new long[0];
+
 	/**
 	 * An immutable bottom element.
 	 */
@@ -31,17 +51,12 @@ public class IntervalState extends ConjunctiveState<Local, IntervalFactoid> {
 		}
 
 		@Override
-		public boolean addLBFactoid(Local lhs, NumericConstant rhs) {
+		public boolean setLB(Local lhs, long lb) {
 			throw new Error("Attempt to modify " + toString());
 		}
 
 		@Override
-		public boolean addUBFactoid(Local lhs, NumericConstant rhs) {
-			throw new Error("Attempt to modify " + toString());
-		}
-
-		@Override
-		public boolean add(IntervalFactoid factoid) {
+		public boolean setUB(Local lhs, long ub) {
 			throw new Error("Attempt to modify " + toString());
 		}
 
@@ -61,17 +76,12 @@ public class IntervalState extends ConjunctiveState<Local, IntervalFactoid> {
 	 */
 	public static final IntervalState top = new IntervalState() {
 		@Override
-		public boolean addLBFactoid(Local lhs, NumericConstant rhs) {
-			throw new Error("Attempt to modify " + toString());
-		}
-
-		@Override
-		public boolean addUBFactoid(Local lhs, NumericConstant rhs) {
+		public boolean setLB(Local lhs, long lb) {
 			throw new Error("Attempt to modify " + toString());
 		}
 
 		@Override
-		public boolean add(IntervalFactoid factoid) {
+		public boolean setUB(Local lhs, long ub) {
 			throw new Error("Attempt to modify " + toString());
 		}
 
@@ -87,14 +97,53 @@ public class IntervalState extends ConjunctiveState<Local, IntervalFactoid> {
 	};
 
 	/**
-	 * An element is a set of varToFactoid.
+	 * Orders factoids the same way as {@link IntervalFactoid#compareTo}.
 	 */
-	protected final Set<LBFactoid> lbFactoids;
-	protected final Set<UBFactoid> ubFactoids;
+	private static final Comparator<Local> varOrder = (x, y) -> y.getNumber()
+			- x.getNumber();
+
+	/**
+	 * The numbering of the variables that indexes the bounds, or null if the
+	 * state has never had any bounds.
+	 */
+	protected LocalNumbering numbering;
+
+	/**
+	 * The lower and upper bounds of the variables, which are {@link #NO_LB}
+	 * and {@link #NO_UB} for variables without bounds. Variables whose number
+	 * is beyond the length of the arrays have no bounds.
+	 */
+	protected long[] lo;
+	protected long[] hi;
+
+	/**
+	 * Indicates that the arrays may be shared with another state, and should
+	 * therefore be copied before they are modified.
+	 */
+	private volatile boolean shared;
 
 	public IntervalState() {
-		lbFactoids = new TreeSet<>();
-		ubFactoids = new TreeSet<>();
+		lo = hi = EMPTY;
+	}
+
+	/**
+	 * Constructs a state without bounds, which numbers its variables by the
+	 * given numbering.
+	 */
+	public IntervalState(LocalNumbering numbering) {
+		this();
+		this.numbering = numbering;
+	}
+
+	/**
+	 * Constructs a state with the given bounds. The state takes ownership of
+	 * the arrays.
+	 */
+	protected IntervalState(LocalNumbering numbering, long[] lo, long[] hi) {
+		assert lo.length == hi.length;
+		this.numbering = numbering;
+		this.lo = lo;
+		this.hi = hi;
 	}
 
 	@Override
@@ -105,101 +154,132 @@ public class IntervalState extends ConjunctiveState<Local, IntervalFactoid> {
 			return new IntervalState(this);
 	}
 
-	public Collection<LBFactoid> getLBFactoids() {
-		return lbFactoids;
+	public LocalNumbering getNumbering() {
+		return numbering;
 	}
 
-	public Collection<UBFactoid> getUBFactoids() {
-		return ubFactoids;
+	/**
+	 * Returns the lower bound of the variable with the given number.
+	 */
+	public long lo(int var) {
+		return var < lo.length ? lo[var] : NO_LB;
 	}
 
-	public boolean addLBFactoid(Local lhs, NumericConstant rhs) {
-		return lbFactoids.add(new LBFactoid(lhs, rhs));
+	/**
+	 * Returns the upper bound of the variable with the given number.
+	 */
+	public long hi(int var) {
+		return var < hi.length ? hi[var] : NO_UB;
 	}
 
-	public boolean addLBFactoid(LBFactoid factoid) {
-		return lbFactoids.add(factoid);
+	/**
+	 * Returns the lower bound of the given variable, or {@link #NO_LB}.
+	 */
+	public long getLowerBound(Local var) {
+		int index = numbering == null ? -1 : numbering.find(var);
+		return index < 0 ? NO_LB : lo(index);
 	}
 
-	public boolean addUBFactoid(Local lhs, NumericConstant rhs) {
-		return ubFactoids.add(new UBFactoid(lhs, rhs));
+	/**
+	 * Returns the upper bound of the given variable, or {@link #NO_UB}.
+	 */
+	public long getUpperBound(Local var) {
+		int index = numbering == null ? -1 : numbering.find(var);
+		return index < 0 ? NO_UB : hi(index);
 	}
 
-	public boolean addUBFactoid(UBFactoid factoid) {
-		return ubFactoids.add(factoid);
+	public NumericConstant getLB(Local lhs) {
+		long lb = getLowerBound(lhs);
+		return lb == NO_LB ? null : toConstant(lhs, lb);
 	}
 
 	public NumericConstant getUB(Local lhs) {
-		NumericConstant result = null;
-		for (Iterator<UBFactoid> iter = ubFactoids.iterator(); iter.hasNext();) {
-			UBFactoid factoid = iter.next();
-			if (factoid.lhs.equals(lhs)) {
-				return factoid.rhs;
-			}
-		}
-		return result;
+		long ub = getUpperBound(lhs);
+		return ub == NO_UB ? null : toConstant(lhs, ub);
 	}
 
-	public NumericConstant getLB(Local lhs) {
-		NumericConstant result = null;
-		for (Iterator<LBFactoid> iter = lbFactoids.iterator(); iter.hasNext();) {
-			LBFactoid factoid = iter.next();
-			if (factoid.lhs.equals(lhs)) {
-				return factoid.rhs;
-			}
-		}
-		return result;
+	public LBFactoid getLBFactoid(Local lhs) {
+		NumericConstant lb = getLB(lhs);
+		return lb == null ? null : new LBFactoid(lhs, lb);
 	}
 
-	public LBFactoid getLBFactoid(Local lhs) {
-		LBFactoid result = null;
-		for (Iterator<LBFactoid> iter = lbFactoids.iterator(); iter.hasNext();) {
-			LBFactoid factoid = iter.next();
-			if (factoid.lhs.equals(lhs)) {
-				return factoid;
-			}
-		}
+	public UBFactoid getUBFactoid(Local lhs) {
+		NumericConstant ub = getUB(lhs);
+		return ub == null ? null : new UBFactoid(lhs, ub);
+	}
+
+	public Collection<LBFactoid> getLBFactoids() {
+		ArrayList<LBFactoid> result = new ArrayList<>();
+		for (Local var : getSortedVars(lo, NO_LB))
+			result.add(getLBFactoid(var));
 		return result;
 	}
 
-	public UBFactoid getUBFactoid(Local lhs) {
-		UBFactoid result = null;
-		for (Iterator<UBFactoid> iter = ubFactoids.iterator(); iter.hasNext();) {
-			UBFactoid factoid = iter.next();
-			if (factoid.lhs.equals(lhs)) {
-				return factoid;
-			}
-		}
+	public Collection<UBFactoid> getUBFactoids() {
+		ArrayList<UBFactoid> result = new ArrayList<>();
+		for (Local var : getSortedVars(hi, NO_UB))
+			result.add(getUBFactoid(var));
 		return result;
 	}
 
+	/**
+	 * Sets the lower bound of the given variable, replacing its current lower
+	 * bound.
+	 *
+	 * @return true if the lower bound has changed.
+	 */
+	public boolean setLB(Local lhs, long lb) {
+		if (getLowerBound(lhs) == lb)
+			return false;
+		int index = prepareForWrite(lhs);
+		lo[index] = lb;
+		return true;
+	}
+
+	/**
+	 * Sets the upper bound of the given variable, replacing its current upper
+	 * bound.
+	 *
+	 * @return true if the upper bound has changed.
+	 */
+	public boolean setUB(Local lhs, long ub) {
+		if (getUpperBound(lhs) == ub)
+			return false;
+		int index = prepareForWrite(lhs);
+		hi[index] = ub;
+		return true;
+	}
+
+	public boolean addLBFactoid(Local lhs, NumericConstant rhs) {
+		return setLB(lhs, toLong(rhs));
+	}
+
+	public boolean addLBFactoid(LBFactoid factoid) {
+		return addLBFactoid(factoid.lhs, factoid.rhs);
+	}
+
+	public boolean addUBFactoid(Local lhs, NumericConstant rhs) {
+		return setUB(lhs, toLong(rhs));
+	}
+
+	public boolean addUBFactoid(UBFactoid factoid) {
+		return addUBFactoid(factoid.lhs, factoid.rhs);
+	}
+
 	/**
 	 * Removes any factoid containing the given variable.
-	 * 
+	 *
 	 * @param lhs
 	 *            The variable to be removed out of the state.
 	 */
 	@Override
 	public boolean removeVar(Local lhs) {
-		boolean result = false;
-		for (Iterator<LBFactoid> iter = lbFactoids.iterator(); iter.hasNext();) {
-			LBFactoid factoid = iter.next();
-			if (factoid.lhs.equals(lhs)) {
-				iter.remove();
-				result = true;
-				break;
-			}
-		}
-
-		for (Iterator<UBFactoid> iter = ubFactoids.iterator(); iter.hasNext();) {
-			UBFactoid factoid = iter.next();
-			if (factoid.lhs.equals(lhs)) {
-				iter.remove();
-				result = true;
-				break;
-			}
-		}
-		return result;
+		if (getLowerBound(lhs) == NO_LB && getUpperBound(lhs) == NO_UB)
+			return false;
+		int index = prepareForWrite(lhs);
+		lo[index] = NO_LB;
+		hi[index] = NO_UB;
+		return true;
 	}
 
 	@Override
@@ -217,8 +297,8 @@ public class IntervalState extends ConjunctiveState<Local, IntervalFactoid> {
 			return null;
 
 		ArrayList<IntervalFactoid> result = new ArrayList<>();
-		result.addAll(lbFactoids);
-		result.addAll(ubFactoids);
+		result.addAll(getLBFactoids());
+		result.addAll(getUBFactoids());
 		return result;
 	}
 
@@ -231,23 +311,16 @@ public class IntervalState extends ConjunctiveState<Local, IntervalFactoid> {
 			return null;
 
 		ArrayList<IntervalFactoid> result = new ArrayList<>();
-		for (LBFactoid lbFactoid : lbFactoids) {
-			for (UBFactoid ubFactoid : ubFactoids) {
-				if (!lbFactoid.lhs.equivTo(ubFactoid.lhs))
-					continue;
-				if (ubFactoid.rhs.equivTo(lbFactoid.rhs))
-					result.add(lbFactoid);
-			}
+		for (int i = 0; i < lo.length; ++i) {
+			if (lo[i] != NO_LB && lo[i] == hi[i])
+				result.add(getLBFactoid(numbering.get(i)));
 		}
 		return result;
 	}
 
 	public boolean isConsistent() {
-		for (Local var : getVars()) {
-			NumericConstant lb = getLB(var);
-			NumericConstant ub = getUB(var);
-			if (lb != null && ub != null
-					&& ub.lessThan(lb).equivTo(IntConstant.v(1)))
+		for (int i = 0; i < lo.length; ++i) {
+			if (lo[i] != NO_LB && hi[i] != NO_UB && hi[i] < lo[i])
 				return false;
 		}
 		return true;
@@ -255,11 +328,11 @@ public class IntervalState extends ConjunctiveState<Local, IntervalFactoid> {
 
 	@Override
 	public String toString() {
-		if (lbFactoids.isEmpty() && ubFactoids.isEmpty())
+		Set<Local> vars = getVars();
+		if (vars.isEmpty())
 			return "true";
 
 		StringBuilder result = new StringBuilder("and(");
-		Set<Local> vars = getVars();
 		int size = vars.size();
 		for (Local var : vars) {
 			NumericConstant lb = getLB(var);
@@ -284,18 +357,100 @@ public class IntervalState extends ConjunctiveState<Local, IntervalFactoid> {
 		return result.toString();
 	}
 
+	/**
+	 * Returns a state with the bounds of this state whose arrays are indexed
+	 * by the given numbering, which is this state if it already uses the
+	 * numbering.
+	 */
+	public IntervalState alignTo(LocalNumbering numbering) {
+		if (this.numbering == numbering || lo.length == 0)
+			return this;
+		IntervalState result = new IntervalState(numbering);
+		for (int i = 0; i < lo.length; ++i) {
+			Local var = this.numbering.get(i);
+			if (lo[i] != NO_LB)
+				result.setLB(var, lo[i]);
+			if (hi[i] != NO_UB)
+				result.setUB(var, hi[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Converts a bound of the given variable to a constant of the type of the
+	 * variable.
+	 */
+	public static NumericConstant toConstant(Local var, long value) {
+		if (var.getType() instanceof LongType || value != (int) value)
+			return LongConstant.v(value);
+		else
+			return IntConstant.v((int) value);
+	}
+
+	/**
+	 * Converts an integral constant to a bound.
+	 */
+	public static long toLong(NumericConstant c) {
+		if (c instanceof IntConstant)
+			return ((IntConstant) c).value;
+		else if (c instanceof LongConstant)
+			return ((LongConstant) c).value;
+		else
+			throw new Error("Unsupported constant " + c + "!");
+	}
+
+	/**
+	 * Makes the arrays of this state private and large enough to hold the
+	 * bounds of the given variable.
+	 *
+	 * @return The number of the variable.
+	 */
+	protected int prepareForWrite(Local var) {
+		if (numbering == null)
+			numbering = new LocalNumbering();
+		int index = numbering.indexOf(var);
+		if (shared || index >= lo.length) {
+			int length = index < lo.length ? lo.length : Math.max(index + 1,
+					numbering.size());
+			lo = grow(lo, length, NO_LB);
+			hi = grow(hi, length, NO_UB);
+			shared = false;
+		}
+		return index;
+	}
+
+	private static long[] grow(long[] array, int length, long fill) {
+		long[] result = Arrays.copyOf(array, length);
+		if (length > array.length)
+			Arrays.fill(result, array.length, length, fill);
+		return result;
+	}
+
+	private List<Local> getSortedVars(long[] bounds, long none) {
+		ArrayList<Local> result = new ArrayList<>();
+		for (int i = 0; i < bounds.length; ++i) {
+			if (bounds[i] != none)
+				result.add(numbering.get(i));
+		}
+		result.sort(varOrder);
+		return result;
+	}
+
 	protected IntervalState(IntervalState copyFrom) {
-		lbFactoids = new TreeSet<>();
-		ubFactoids = new TreeSet<>();
-		this.lbFactoids.addAll(copyFrom.lbFactoids);
-		this.ubFactoids.addAll(copyFrom.ubFactoids);
+		this.numbering = copyFrom.numbering;
+		this.lo = copyFrom.lo;
+		this.hi = copyFrom.hi;
+		if (lo.length > 0) {
+			this.shared = true;
+			copyFrom.shared = true;
+		}
 	}
 
 	/**
 	 * A constructor just for initializing varToFactoid to null.
 	 */
 	protected IntervalState(boolean dummy) {
-		this.lbFactoids = null;
-		this.ubFactoids = null;
+		super(false);
+		lo = hi = EMPTY;
 	}
-}
\ No newline at end of file
+}
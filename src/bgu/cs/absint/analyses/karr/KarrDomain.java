@@ -0,0 +1,580 @@
+package bgu.cs.absint.analyses.karr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import soot.IntegerType;
+import soot.Local;
+import soot.LongType;
+import soot.Type;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.AddExpr;
+import soot.jimple.AssignStmt;
+import soot.jimple.BinopExpr;
+import soot.jimple.Constant;
+import soot.jimple.Expr;
+import soot.jimple.IdentityStmt;
+import soot.jimple.IfStmt;
+import soot.jimple.IntConstant;
+import soot.jimple.LongConstant;
+import soot.jimple.MulExpr;
+import soot.jimple.NegExpr;
+import soot.jimple.ParameterRef;
+import soot.jimple.SubExpr;
+import soot.jimple.ThisRef;
+import bgu.cs.absint.AbstractDomain;
+import bgu.cs.absint.AssumeTransformer;
+import bgu.cs.absint.IdOperation;
+import bgu.cs.absint.UnaryOperation;
+import bgu.cs.absint.constructor.EqualityRefiner;
+import bgu.cs.absint.soot.LocalNumbering;
+import bgu.cs.absint.soot.TransformerMatcher;
+import bgu.cs.util.Pair;
+
+/**
+ * Implementation of Karr's abstract domain of affine equalities, where a state
+ * is a conjunction of equalities of the form {@code a1*x1+...+an*xn+c=0} over
+ * integral local variables.<br>
+ * Unlike {@link bgu.cs.absint.analyses.lin.LinDomain}, which relates pairs of
+ * variables, the domain relates any number of variables, and its join is the
+ * affine hull of the two states, which is computed in polynomial time.
+ * Assignments of affine expressions are handled exactly, including invertible
+ * assignments such as {@code x=x+1}. The domain has finite height (a strictly
+ * increasing chain of states is at most as long as the number of variables),
+ * so no widening is needed.
+ */
+public class KarrDomain extends AbstractDomain<KarrState, Unit> implements
+		EqualityRefiner<Local> {
+	/**
+	 * Singleton value.
+	 */
+	private static final KarrDomain v = new KarrDomain();
+
+	public static final KarrDomain v() {
+		return v;
+	}
+
+	/**
+	 * The numbering of the variables used by the states created by this
+	 * domain.
+	 */
+	protected final LocalNumbering numbering;
+
+	@Override
+	public KarrState getBottom() {
+		return KarrState.bottom;
+	}
+
+	@Override
+	public KarrState getTop() {
+		return KarrState.top;
+	}
+
+	/**
+	 * Returns the affine hull of the two states.
+	 */
+	@Override
+	public KarrState ub(KarrState first, KarrState second) {
+		if (first == KarrState.bottom) {
+			return second;
+		} else if (second == KarrState.bottom) {
+			return first;
+		} else if (first.size() == 0) {
+			return first;
+		} else if (second.size() == 0) {
+			return second;
+		} else if (leq(first, second)) {
+			return second;
+		} else if (leq(second, first)) {
+			return first;
+		} else {
+			assert first.numbering == second.numbering;
+			try {
+				return hull(first, second);
+			} catch (ArithmeticException e) {
+				// Fall back to the equalities of the first state that are
+				// implied by the second state.
+				KarrState result = new KarrState(first.numbering);
+				for (long[] row : first.rows) {
+					if (second.implies(row))
+						result.addEquality(row);
+				}
+				return result;
+			}
+		}
+	}
+
+	@Override
+	public KarrState lb(KarrState first, KarrState second) {
+		if (first == KarrState.bottom || second == KarrState.bottom) {
+			return KarrState.bottom;
+		} else if (second.size() == 0) {
+			return first;
+		} else if (first.size() == 0) {
+			return second;
+		} else {
+			KarrState result = first.copy();
+			for (long[] row : second.rows)
+				result.addEquality(row);
+			return result.isConsistent() ? result : KarrState.bottom;
+		}
+	}
+
+	@Override
+	public boolean leq(KarrState first, KarrState second) {
+		if (first == KarrState.bottom) {
+			return true;
+		} else if (second == KarrState.bottom) {
+			// first != bottom
+			return false;
+		} else {
+			for (long[] row : second.rows) {
+				if (!first.implies(row))
+					return false;
+			}
+			return true;
+		}
+	}
+
+	@Override
+	public UnaryOperation<KarrState> getTransformer(Unit stmt) {
+		return new KarrMatcher().getTransformer(stmt);
+	}
+
+	@Override
+	public Object refineByEqualities(Object state,
+			Collection<Pair<Local, Local>> equalities) {
+		KarrState kstate = (KarrState) state;
+		// Special treatment for bottom.
+		if (kstate == getBottom())
+			return getBottom();
+
+		KarrState result = null;
+		for (Pair<Local, Local> pair : equalities) {
+			if (!isIntegral(pair.first.getType())
+					|| !isIntegral(pair.second.getType()))
+				continue;
+			long[] row = equalityRow(pair.first, pair.second);
+			if (kstate.implies(row))
+				continue;
+			if (result == null)
+				result = copy(kstate);
+			result.addEquality(row);
+			if (!result.isConsistent())
+				return getBottom();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the equalities between pairs of variables that are implied by
+	 * the state. A variable that is not the pivot of a row can only be equal
+	 * to a pivot variable whose row has the form {@code x-y=0}, and two pivot
+	 * variables are equal when their rows agree on all other columns, up to
+	 * the ratio of their pivots.
+	 */
+	@Override
+	public Collection<Pair<Local, Local>> inferEqualities(Object state) {
+		KarrState kstate = (KarrState) state;
+		ArrayList<Pair<Local, Local>> result = new ArrayList<>();
+		// Special treatment for bottom.
+		if (kstate == getBottom())
+			return result;
+
+		long[][] rows = kstate.rows;
+		for (int i = 0; i < rows.length; ++i) {
+			long[] row = rows[i];
+			int pivot = KarrState.pivot(row);
+			Local x = kstate.numbering.get(pivot - 1);
+			int other = -1;
+			int nonZeros = 0;
+			for (int col = 0; col < row.length; ++col) {
+				if (row[col] != 0 && col != pivot) {
+					other = col;
+					++nonZeros;
+				}
+			}
+			if (nonZeros == 1 && other > 0 && row[pivot] == 1
+					&& row[other] == -1)
+				result.add(new Pair<Local, Local>(x, kstate.numbering
+						.get(other - 1)));
+
+			for (int j = i + 1; j < rows.length; ++j) {
+				long[] otherRow = rows[j];
+				int otherPivot = KarrState.pivot(otherRow);
+				if (equalExceptPivots(row, pivot, otherRow, otherPivot))
+					result.add(new Pair<Local, Local>(x, kstate.numbering
+							.get(otherPivot - 1)));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Constructs a domain whose states number the variables by the given
+	 * numbering, which is typically shared by the states of a single method.
+	 */
+	public KarrDomain(LocalNumbering numbering) {
+		this.numbering = numbering;
+	}
+
+	/**
+	 * Singleton pattern.
+	 */
+	private KarrDomain() {
+		this(new LocalNumbering());
+	}
+
+	/**
+	 * Computes the affine hull of two states by intersecting the spaces
+	 * spanned by their rows (including the constant column), using the
+	 * Zassenhaus algorithm: the matrix {@code [U U; W 0]} is brought to
+	 * row-echelon form, and the right halves of the rows whose left half is
+	 * zero span the intersection.
+	 *
+	 * @throws ArithmeticException
+	 *             if the computation overflows.
+	 */
+	protected KarrState hull(KarrState first, KarrState second) {
+		int width = 0;
+		for (long[] row : first.rows)
+			width = Math.max(width, row.length);
+		for (long[] row : second.rows)
+			width = Math.max(width, row.length);
+		long[][] matrix = new long[first.size() + second.size()][];
+		for (int i = 0; i < first.size(); ++i) {
+			long[] row = first.rows[i];
+			matrix[i] = new long[2 * width];
+			System.arraycopy(row, 0, matrix[i], 0, row.length);
+			System.arraycopy(row, 0, matrix[i], width, row.length);
+		}
+		for (int i = 0; i < second.size(); ++i) {
+			long[] row = second.rows[i];
+			matrix[first.size() + i] = new long[2 * width];
+			System.arraycopy(row, 0, matrix[first.size() + i], 0, row.length);
+		}
+
+		int rank = 0;
+		for (int col = 0; col < width && rank < matrix.length; ++col) {
+			int pivotRow = rank;
+			while (pivotRow < matrix.length && matrix[pivotRow][col] == 0)
+				++pivotRow;
+			if (pivotRow == matrix.length)
+				continue;
+			long[] tmp = matrix[rank];
+			matrix[rank] = matrix[pivotRow];
+			matrix[pivotRow] = tmp;
+			long[] pivot = matrix[rank];
+			for (int i = rank + 1; i < matrix.length; ++i) {
+				if (matrix[i][col] != 0)
+					matrix[i] = KarrState.normalize(KarrState.combine(
+							matrix[i], pivot[col], pivot, matrix[i][col]));
+			}
+			++rank;
+		}
+
+		KarrState result = new KarrState(first.numbering);
+		for (int i = rank; i < matrix.length; ++i) {
+			long[] row = new long[width];
+			System.arraycopy(matrix[i], width, row, 0, width);
+			result.addEquality(row);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a copy of the given state, which numbers the variables by the
+	 * numbering of this domain if the given state has no numbering.
+	 */
+	protected KarrState copy(KarrState state) {
+		if (state.numbering == null)
+			return new KarrState(numbering);
+		else
+			return state.copy();
+	}
+
+	/**
+	 * Returns the column of the given variable.
+	 */
+	protected int column(Local var) {
+		return 1 + numbering.indexOf(var);
+	}
+
+	/**
+	 * Returns the row of the equality {@code x-y=0}.
+	 */
+	protected long[] equalityRow(Local x, Local y) {
+		int xCol = column(x);
+		int yCol = column(y);
+		long[] result = new long[Math.max(xCol, yCol) + 1];
+		result[xCol] = 1;
+		result[yCol] -= 1;
+		return result;
+	}
+
+	/**
+	 * Returns the row of the equality {@code x-c=0}.
+	 */
+	protected long[] equalityRow(Local x, long c) {
+		int xCol = column(x);
+		long[] result = new long[xCol + 1];
+		result[0] = -c;
+		result[xCol] = 1;
+		return result;
+	}
+
+	/**
+	 * Returns the given value as an affine expression (see
+	 * {@link KarrState#assign}), or null if the value is not an affine
+	 * expression over integral variables.
+	 */
+	protected long[] toAffine(Value value) {
+		try {
+			if (value instanceof Local) {
+				Local var = (Local) value;
+				if (!isIntegral(var.getType()))
+					return null;
+				long[] result = new long[column(var) + 1];
+				result[column(var)] = 1;
+				return result;
+			} else if (value instanceof IntConstant) {
+				return new long[] { ((IntConstant) value).value };
+			} else if (value instanceof LongConstant) {
+				return new long[] { ((LongConstant) value).value };
+			} else if (value instanceof AddExpr || value instanceof SubExpr) {
+				BinopExpr expr = (BinopExpr) value;
+				long[] op1 = toAffine(expr.getOp1());
+				long[] op2 = toAffine(expr.getOp2());
+				if (op1 == null || op2 == null)
+					return null;
+				return KarrState.combine(op1, 1, op2,
+						value instanceof AddExpr ? -1 : 1);
+			} else if (value instanceof MulExpr) {
+				MulExpr expr = (MulExpr) value;
+				long[] op1 = toAffine(expr.getOp1());
+				long[] op2 = toAffine(expr.getOp2());
+				if (op1 == null || op2 == null)
+					return null;
+				if (KarrState.pivot(op2) < 0)
+					return KarrState.combine(op1, op2[0], op1, 0);
+				else if (KarrState.pivot(op1) < 0)
+					return KarrState.combine(op2, op1[0], op2, 0);
+				else
+					return null;
+			} else if (value instanceof NegExpr) {
+				long[] op = toAffine(((NegExpr) value).getOp());
+				return op == null ? null : KarrState.combine(op, -1, op, 0);
+			} else {
+				return null;
+			}
+		} catch (ArithmeticException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks whether the domain tracks variables of the given type.
+	 */
+	protected static boolean isIntegral(Type type) {
+		return type instanceof IntegerType || type instanceof LongType;
+	}
+
+	/**
+	 * Checks whether two rows with the given pivots express the same affine
+	 * expression for their pivot variables, i.e., whether
+	 * {@code row1*row2[pivot2]} and {@code row2*row1[pivot1]} agree on all
+	 * columns except for the pivots.
+	 */
+	private static boolean equalExceptPivots(long[] row1, int pivot1,
+			long[] row2, int pivot2) {
+		try {
+			int length = Math.max(row1.length, row2.length);
+			for (int col = 0; col < length; ++col) {
+				if (col == pivot1 || col == pivot2)
+					continue;
+				if (Math.multiplyExact(KarrState.entry(row1, col), row2[pivot2]) != Math
+						.multiplyExact(KarrState.entry(row2, col), row1[pivot1]))
+					return false;
+			}
+			return true;
+		} catch (ArithmeticException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * A helper class for matching transformers to statements.
+	 */
+	protected class KarrMatcher extends TransformerMatcher<KarrState> {
+		@Override
+		public void matchAssignToLocal(AssignStmt stmt, Local lhs) {
+			super.matchAssignToLocal(stmt, lhs);
+			if (transformer == null)
+				transformer = new ForgetVarTransformer(lhs);
+		}
+
+		@Override
+		public void matchIdentityStmt(IdentityStmt stmt, Local lhs,
+				ParameterRef rhs) {
+			transformer = new ForgetVarTransformer(lhs);
+		}
+
+		@Override
+		public void matchIdentityStmt(IdentityStmt stmt, Local lhs, ThisRef rhs) {
+			transformer = new ForgetVarTransformer(lhs);
+		}
+
+		@Override
+		public void matchAssignLocalToLocal(AssignStmt stmt, Local lhs,
+				Local rhs) {
+			if (lhs.equals(rhs))
+				transformer = IdOperation.v();
+			else
+				matchAffine(lhs, rhs);
+		}
+
+		@Override
+		public void matchAssignConstantToLocal(AssignStmt stmt, Local lhs,
+				Constant rhs) {
+			matchAffine(lhs, rhs);
+		}
+
+		/**
+		 * Handles statements of the form {@code x=a+b}, {@code x=a-b},
+		 * {@code x=a*c}, and {@code x=-a} where 'a' and 'b' are either
+		 * variables or constants and 'c' is a constant.
+		 */
+		@Override
+		public void matchAssignExprToLocal(AssignStmt stmt, Local lhs, Expr rhs) {
+			matchAffine(lhs, rhs);
+		}
+
+		@Override
+		public void matchAssumeLocalEqLocal(IfStmt stmt, boolean polarity,
+				Local lhs, Local rhs) {
+			if (isIntegral(lhs.getType()) && isIntegral(rhs.getType()))
+				transformer = new AssumeEqualityTransformer(polarity,
+						equalityRow(lhs, rhs), lhs + "==" + rhs);
+		}
+
+		@Override
+		public void matchAssumeLocalEqConstant(IfStmt stmt, boolean polarity,
+				Local lhs, Constant rhs) {
+			long[] value = toAffine(rhs);
+			if (value != null && isIntegral(lhs.getType()))
+				transformer = new AssumeEqualityTransformer(polarity,
+						equalityRow(lhs, value[0]), lhs + "==" + rhs);
+		}
+
+		private void matchAffine(Local lhs, Value rhs) {
+			long[] expr = isIntegral(lhs.getType()) ? toAffine(rhs) : null;
+			if (expr == null)
+				transformer = new ForgetVarTransformer(lhs);
+			else
+				transformer = new AssignAffineTransformer(lhs, expr);
+		}
+	}
+
+	/**
+	 * A transformer for statements of the form {@code x=e} for a variable 'x'
+	 * and an affine expression 'e'.
+	 */
+	protected class AssignAffineTransformer extends UnaryOperation<KarrState> {
+		/**
+		 * The variable being modified by the concrete semantics.
+		 */
+		protected final Local lhs;
+
+		/**
+		 * The assigned expression, in the form used by
+		 * {@link KarrState#assign}.
+		 */
+		protected final long[] expr;
+
+		public AssignAffineTransformer(Local lhs, long[] expr) {
+			this.lhs = lhs;
+			this.expr = expr;
+		}
+
+		@Override
+		public KarrState apply(KarrState input) {
+			// Special treatment for bottom.
+			if (input == KarrState.bottom)
+				return KarrState.bottom;
+
+			KarrState result = copy(input);
+			result.assign(lhs, expr);
+			return result;
+		}
+	}
+
+	/**
+	 * A transformer that projects a given variable out of the equalities. It
+	 * can be used to conservatively handle any statement that has the effect
+	 * of modifying a given local variable (and only it).
+	 */
+	protected class ForgetVarTransformer extends UnaryOperation<KarrState> {
+		/**
+		 * The variable being modified by the concrete semantics.
+		 */
+		protected final Local lhs;
+
+		public ForgetVarTransformer(Local lhs) {
+			this.lhs = lhs;
+		}
+
+		@Override
+		public KarrState apply(KarrState input) {
+			// Special treatment for bottom.
+			if (input == KarrState.bottom)
+				return KarrState.bottom;
+
+			KarrState result = copy(input);
+			if (result.removeVar(lhs))
+				return result;
+			else
+				return input;
+		}
+	}
+
+	/**
+	 * A transformer for statements of the form {@code if (e==0)} and
+	 * {@code if (e!=0)} for an affine expression 'e'. The negative branch
+	 * is only refined when the state implies {@code e==0}.
+	 */
+	protected class AssumeEqualityTransformer extends
+			AssumeTransformer<KarrState> {
+		protected final long[] row;
+		protected final String description;
+
+		public AssumeEqualityTransformer(boolean polarity, long[] row,
+				String description) {
+			super(polarity);
+			this.row = row;
+			this.description = description;
+		}
+
+		@Override
+		public String toString() {
+			return "Karr[" + (polarity ? "" : "!") + description + "]";
+		}
+
+		@Override
+		public KarrState apply(KarrState input) {
+			// Special treatment for bottom.
+			if (input == KarrState.bottom)
+				return KarrState.bottom;
+
+			if (polarity) {
+				if (input.implies(row))
+					return input;
+				KarrState result = copy(input);
+				result.addEquality(row);
+				return result.isConsistent() ? result : KarrState.bottom;
+			} else {
+				return input.implies(row) ? KarrState.bottom : input;
+			}
+		}
+	}
+}
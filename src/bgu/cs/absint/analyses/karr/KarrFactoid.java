@@ -0,0 +1,97 @@
+package bgu.cs.absint.analyses.karr;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import soot.Local;
+import bgu.cs.absint.soot.SootFactoid;
+
+/**
+ * An affine equality of the form {@code a1*x1+...+an*xn+c=0} where 'x1',...,
+ * 'xn' are local variables and 'a1',...,'an', 'c' are integer constants. The
+ * first variable is the pivot of the equality, and its coefficient is
+ * positive.
+ */
+public class KarrFactoid extends SootFactoid {
+	protected final Local[] vars;
+	protected final long[] coefficients;
+	protected final long constant;
+
+	public KarrFactoid(Local[] vars, long[] coefficients, long constant) {
+		assert vars.length == coefficients.length && vars.length > 0;
+		assert coefficients[0] > 0;
+		this.vars = vars;
+		this.coefficients = coefficients;
+		this.constant = constant;
+	}
+
+	@Override
+	public boolean hasVar(Local var) {
+		for (Local v : vars) {
+			if (v == var)
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public void addVarsTo(Set<Local> c) {
+		for (Local v : vars)
+			c.add(v);
+	}
+
+	/**
+	 * Prints the equality by solving it for the pivot, e.g.,
+	 * {@code x=2*y-z+1}.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		if (coefficients[0] != 1)
+			result.append(coefficients[0] + "*");
+		result.append(vars[0] + "=");
+		boolean first = true;
+		for (int i = 1; i < vars.length; ++i) {
+			appendTerm(result, -coefficients[i], vars[i].toString(), first);
+			first = false;
+		}
+		if (constant != 0 || first)
+			appendTerm(result, -constant, null, first);
+		return result.toString();
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + Arrays.hashCode(vars);
+		result = prime * result + Arrays.hashCode(coefficients);
+		result = prime * result + (int) (constant ^ (constant >>> 32));
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		KarrFactoid other = (KarrFactoid) obj;
+		return constant == other.constant
+				&& Arrays.equals(coefficients, other.coefficients)
+				&& Arrays.equals(vars, other.vars);
+	}
+
+	private static void appendTerm(StringBuilder result, long coefficient,
+			String var, boolean first) {
+		if (coefficient < 0)
+			result.append("-");
+		else if (!first)
+			result.append("+");
+		long abs = Math.abs(coefficient);
+		if (var == null)
+			result.append(abs);
+		else if (abs == 1)
+			result.append(var);
+		else
+			result.append(abs + "*" + var);
+	}
+}
@@ -0,0 +1,35 @@
+package bgu.cs.absint.analyses.karr;
+
+import soot.Body;
+import soot.Local;
+import soot.PackManager;
+import soot.Transform;
+import bgu.cs.absint.soot.BaseAnalysis;
+import bgu.cs.absint.soot.LocalNumbering;
+
+/**
+ * Adds the Karr affine-equality analysis transform to Soot.
+ */
+public class KarrMain {
+	public static void main(String[] args) {
+		PackManager.v().getPack("jtp")
+				.add(new Transform("jtp.KarrAnalysis", new KarrAnalysis()));
+		soot.Main.main(args);
+	}
+
+	public static class KarrAnalysis extends BaseAnalysis<KarrState, KarrDomain> {
+		public KarrAnalysis() {
+			super(KarrDomain.v());
+		}
+
+		/**
+		 * Returns a domain whose states are indexed by the locals of the given
+		 * body.
+		 */
+		@Override
+		protected KarrDomain getDomain(Body b) {
+			return new KarrDomain(new LocalNumbering(b.getLocals().toArray(
+					new Local[0])));
+		}
+	}
+}
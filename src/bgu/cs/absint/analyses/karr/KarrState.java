@@ -0,0 +1,446 @@
+package bgu.cs.absint.analyses.karr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import soot.Local;
+import bgu.cs.absint.constructor.ConjunctiveState;
+import bgu.cs.absint.soot.LocalNumbering;
+
+/**
+ * A conjunction of affine equalities over local variables, represented by a
+ * matrix in reduced row-echelon form (Karr's representation).<br>
+ * Each row {@code r} stands for the equality
+ * {@code r[0]+r[1]*x0+...+r[n]*x(n-1)=0}, where the variables are numbered by
+ * a {@link LocalNumbering}. The pivot of a row is its first non-zero
+ * variable column, the rows are sorted by their pivots, and the pivot column
+ * of each row is zero in all other rows. Each row is normalized so that the
+ * greatest common divisor of its entries is 1 and its pivot is positive,
+ * which makes the representation of a given affine space unique.<br>
+ * Arithmetic is done with exact long operations. An equality whose
+ * computation overflows is dropped, which is sound since it only loses
+ * information.<br>
+ * Rows are never modified in place, so copies of a state share them, and the
+ * factoids are only created for printing, tagging and comparison.
+ */
+public class KarrState extends ConjunctiveState<Local, KarrFactoid> {
+	private static final long[][] NO_ROWS = new long[0][];
+
+	/**
+	 * An immutable bottom element.
+	 */
+	public static final KarrState bottom = new KarrState(false) {
+		@Override
+		public boolean addEquality(long[] row) {
+			throw new Error("Attempt to modify " + toString());
+		}
+
+		@Override
+		public boolean removeVar(Local lhs) {
+			throw new Error("Attempt to modify " + toString());
+		}
+
+		@Override
+		public String toString() {
+			return "false";
+		}
+	};
+
+	/**
+	 * An immutable top element.
+	 */
+	public static final KarrState top = new KarrState() {
+		@Override
+		public boolean addEquality(long[] row) {
+			throw new Error("Attempt to modify " + toString());
+		}
+
+		@Override
+		public boolean removeVar(Local lhs) {
+			throw new Error("Attempt to modify " + toString());
+		}
+
+		@Override
+		public String toString() {
+			return "true";
+		}
+	};
+
+	/**
+	 * The numbering of the variables that indexes the columns, or null if the
+	 * state has never had any rows.
+	 */
+	protected LocalNumbering numbering;
+
+	/**
+	 * The rows of the matrix. Columns beyond the end of a row are considered
+	 * to be zero.
+	 */
+	protected long[][] rows;
+
+	/**
+	 * Set when an inconsistent equality is added to the state.
+	 */
+	protected boolean consistent = true;
+
+	/**
+	 * The factoids of the rows, or null if they have not been created yet.
+	 */
+	private volatile List<KarrFactoid> cachedFactoids;
+
+	public KarrState() {
+		super(false);
+		rows = NO_ROWS;
+	}
+
+	/**
+	 * Constructs a state without equalities, which numbers its variables by
+	 * the given numbering.
+	 */
+	public KarrState(LocalNumbering numbering) {
+		this();
+		this.numbering = numbering;
+	}
+
+	@Override
+	public KarrState copy() {
+		if (this == bottom)
+			return bottom;
+		else
+			return new KarrState(this);
+	}
+
+	public LocalNumbering getNumbering() {
+		return numbering;
+	}
+
+	/**
+	 * The number of (linearly independent) equalities in the state.
+	 */
+	public int size() {
+		return rows.length;
+	}
+
+	/**
+	 * Returns the column of the given variable.
+	 */
+	public int column(Local var) {
+		return 1 + numbering.indexOf(var);
+	}
+
+	public boolean isConsistent() {
+		return consistent;
+	}
+
+	/**
+	 * Checks whether the given equality is implied by the equalities of this
+	 * state. Returns false if the check overflows.
+	 */
+	public boolean implies(long[] row) {
+		if (this == bottom)
+			return true;
+		try {
+			long[] reduced = reduce(row);
+			return pivot(reduced) < 0 && reduced[0] == 0;
+		} catch (ArithmeticException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Conjoins the given equality to the state. If the equality contradicts
+	 * the state, the state becomes inconsistent (see {@link #isConsistent()}).
+	 *
+	 * @return true if the state has changed.
+	 */
+	public boolean addEquality(long[] row) {
+		if (!consistent)
+			return false;
+		long[] newRow;
+		try {
+			newRow = reduce(row);
+		} catch (ArithmeticException e) {
+			return false;
+		}
+		int pivot = pivot(newRow);
+		if (pivot < 0) {
+			if (newRow[0] == 0)
+				return false;
+			consistent = false;
+			setRows(NO_ROWS);
+			return true;
+		}
+
+		// Eliminate the pivot of the new row from the other rows, dropping
+		// the rows whose elimination overflows.
+		ArrayList<long[]> newRows = new ArrayList<>(rows.length + 1);
+		boolean added = false;
+		for (long[] other : rows) {
+			if (!added && pivot(other) > pivot) {
+				newRows.add(newRow);
+				added = true;
+			}
+			long otherEntry = entry(other, pivot);
+			if (otherEntry == 0) {
+				newRows.add(other);
+			} else {
+				try {
+					newRows.add(normalize(combine(other, newRow[pivot],
+							newRow, otherEntry)));
+				} catch (ArithmeticException e) {
+				}
+			}
+		}
+		if (!added)
+			newRows.add(newRow);
+		setRows(newRows.toArray(new long[newRows.size()][]));
+		return true;
+	}
+
+	/**
+	 * Removes the given variable by projecting it out of the equalities.
+	 *
+	 * @param lhs
+	 *            The variable to be removed from the state.
+	 */
+	@Override
+	public boolean removeVar(Local lhs) {
+		if (numbering == null)
+			return false;
+		int col = numbering.find(lhs);
+		if (col < 0)
+			return false;
+		++col;
+		// Use the row with the greatest pivot among the rows containing the
+		// variable to eliminate the variable from the other rows. This keeps
+		// the pivots of the other rows, and the pivot of the eliminated row
+		// is no longer a pivot.
+		int eliminator = -1;
+		for (int i = 0; i < rows.length; ++i) {
+			if (entry(rows[i], col) != 0)
+				eliminator = i;
+		}
+		if (eliminator < 0)
+			return false;
+		long[] eliminatorRow = rows[eliminator];
+		long eliminatorEntry = eliminatorRow[col];
+		ArrayList<long[]> newRows = new ArrayList<>(rows.length - 1);
+		for (int i = 0; i < rows.length; ++i) {
+			long entry = entry(rows[i], col);
+			if (i == eliminator) {
+				continue;
+			} else if (entry == 0) {
+				newRows.add(rows[i]);
+			} else {
+				try {
+					// Multiply by a positive number to keep the pivot
+					// positive.
+					if (eliminatorEntry > 0)
+						newRows.add(normalize(combine(rows[i],
+								eliminatorEntry, eliminatorRow, entry)));
+					else
+						newRows.add(normalize(combine(rows[i],
+								-eliminatorEntry, eliminatorRow, -entry)));
+				} catch (ArithmeticException e) {
+				}
+			}
+		}
+		setRows(newRows.toArray(new long[newRows.size()][]));
+		return true;
+	}
+
+	/**
+	 * Applies the assignment {@code x:=e} where 'e' is the affine expression
+	 * given by a row, i.e., {@code e=expr[0]+expr[1]*x0+...}.
+	 */
+	public void assign(Local lhs, long[] expr) {
+		int col = column(lhs);
+		long lhsCoefficient = entry(expr, col);
+		if (lhsCoefficient == 0) {
+			removeVar(lhs);
+			long[] row = Arrays.copyOf(expr, Math.max(expr.length, col + 1));
+			try {
+				for (int i = 0; i < row.length; ++i)
+					row[i] = Math.negateExact(row[i]);
+			} catch (ArithmeticException e) {
+				return;
+			}
+			row[col] = 1;
+			addEquality(row);
+		} else {
+			// The assignment is invertible: the old value of 'x' is
+			// (x-(e-a*x))/a, where 'a' is the coefficient of 'x' in 'e'.
+			// Substituting it into a row r and multiplying by 'a' yields
+			// r'[x]=r[x] and r'[j]=a*r[j]-r[x]*e[j] for j!=x.
+			long[][] oldRows = rows;
+			setRows(NO_ROWS);
+			for (long[] row : oldRows) {
+				long rowEntry = entry(row, col);
+				if (rowEntry == 0) {
+					addEquality(row);
+					continue;
+				}
+				try {
+					long[] newRow = combine(row, lhsCoefficient, expr, rowEntry);
+					newRow[col] = rowEntry;
+					addEquality(newRow);
+				} catch (ArithmeticException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the given row after eliminating the pivots of this state from
+	 * it.
+	 *
+	 * @throws ArithmeticException
+	 *             if the computation overflows.
+	 */
+	public long[] reduce(long[] row) {
+		long[] result = row;
+		for (long[] other : rows) {
+			int pivot = pivot(other);
+			long entry = entry(result, pivot);
+			if (entry != 0)
+				result = normalize(combine(result, other[pivot], other, entry));
+		}
+		if (result == row)
+			result = row.clone();
+		return normalize(result);
+	}
+
+	/**
+	 * Returns the factoids of the rows.
+	 */
+	@Override
+	public Collection<KarrFactoid> getFactoids() {
+		if (this == bottom || !consistent)
+			return null;
+		List<KarrFactoid> result = cachedFactoids;
+		if (result == null) {
+			result = new ArrayList<>(rows.length);
+			for (long[] row : rows)
+				result.add(toFactoid(row));
+			cachedFactoids = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the factoid of the given row.
+	 */
+	protected KarrFactoid toFactoid(long[] row) {
+		int size = 0;
+		for (int i = 1; i < row.length; ++i) {
+			if (row[i] != 0)
+				++size;
+		}
+		Local[] vars = new Local[size];
+		long[] coefficients = new long[size];
+		int j = 0;
+		for (int i = 1; i < row.length; ++i) {
+			if (row[i] != 0) {
+				vars[j] = numbering.get(i - 1);
+				coefficients[j] = row[i];
+				++j;
+			}
+		}
+		return new KarrFactoid(vars, coefficients, row[0]);
+	}
+
+	/**
+	 * Returns the entry of the given row at the given column.
+	 */
+	public static long entry(long[] row, int col) {
+		return col < row.length ? row[col] : 0;
+	}
+
+	/**
+	 * Returns the first non-zero variable column of the given row, or -1 if
+	 * all of the variable columns are zero.
+	 */
+	public static int pivot(long[] row) {
+		for (int i = 1; i < row.length; ++i) {
+			if (row[i] != 0)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns {@code c1*row1-c2*row2}.
+	 *
+	 * @throws ArithmeticException
+	 *             if the computation overflows.
+	 */
+	public static long[] combine(long[] row1, long c1, long[] row2, long c2) {
+		long[] result = new long[Math.max(row1.length, row2.length)];
+		for (int i = 0; i < result.length; ++i)
+			result[i] = Math.subtractExact(
+					Math.multiplyExact(c1, entry(row1, i)),
+					Math.multiplyExact(c2, entry(row2, i)));
+		return result;
+	}
+
+	/**
+	 * Divides the given row by the greatest common divisor of its entries and
+	 * negates it if its pivot is negative. The row is modified in place.
+	 *
+	 * @throws ArithmeticException
+	 *             if the computation overflows.
+	 */
+	public static long[] normalize(long[] row) {
+		long gcd = 0;
+		for (long entry : row)
+			gcd = gcd(gcd, Math.abs(entry));
+		int pivot = pivot(row);
+		if (pivot >= 0 && row[pivot] < 0)
+			gcd = Math.negateExact(gcd);
+		if (gcd > 1 || gcd < 0) {
+			for (int i = 0; i < row.length; ++i)
+				row[i] /= gcd;
+		}
+		return row;
+	}
+
+	private static long gcd(long a, long b) {
+		if (a < 0 || b < 0)
+			throw new ArithmeticException("long overflow");
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	/**
+	 * Replaces the rows of this state with the given rows, which the state
+	 * takes ownership of.
+	 */
+	protected void setRows(long[][] rows) {
+		this.rows = rows;
+		cachedFactoids = null;
+	}
+
+	protected KarrState(LocalNumbering numbering, long[][] rows) {
+		this(numbering);
+		this.rows = rows;
+	}
+
+	protected KarrState(KarrState copyFrom) {
+		this(copyFrom.numbering, copyFrom.rows);
+		this.cachedFactoids = copyFrom.cachedFactoids;
+	}
+
+	/**
+	 * A constructor just for initializing the rows to null, used to represent
+	 * the bottom state.
+	 */
+	protected KarrState(boolean dummy) {
+		super(false);
+	}
+}
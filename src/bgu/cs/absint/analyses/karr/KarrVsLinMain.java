@@ -0,0 +1,53 @@
+package bgu.cs.absint.analyses.karr;
+
+import java.util.Map;
+
+import soot.Body;
+import soot.BodyTransformer;
+import soot.PackManager;
+import soot.Transform;
+import bgu.cs.absint.analyses.karr.KarrMain.KarrAnalysis;
+import bgu.cs.absint.analyses.lin.LinMain.LinAnalysis;
+import bgu.cs.absint.soot.BaseAnalysis;
+
+/**
+ * Runs both the Lin analysis and the Karr analysis on each method and reports
+ * the time spent by each of them, e.g., on {@code examples/LinBenchmarks.java}.
+ */
+public class KarrVsLinMain {
+	public static void main(String[] args) {
+		TimedAnalysis lin = new TimedAnalysis(new LinAnalysis());
+		TimedAnalysis karr = new TimedAnalysis(new KarrAnalysis());
+		PackManager.v().getPack("jtp")
+				.add(new Transform("jtp.LinAnalysis", lin));
+		PackManager.v().getPack("jtp")
+				.add(new Transform("jtp.KarrAnalysis", karr));
+		soot.Main.main(args);
+		System.err.println("Lin analysis time: " + lin.time / 1000000 + "ms");
+		System.err.println("Karr analysis time: " + karr.time / 1000000 + "ms");
+	}
+
+	/**
+	 * Measures the time spent analyzing the bodies with a given analysis.
+	 */
+	protected static class TimedAnalysis extends BodyTransformer {
+		protected final BaseAnalysis<?, ?> analysis;
+
+		/**
+		 * The total time spent in the analysis, in nanoseconds.
+		 */
+		protected long time;
+
+		public TimedAnalysis(BaseAnalysis<?, ?> analysis) {
+			this.analysis = analysis;
+		}
+
+		@Override
+		protected void internalTransform(Body b, String phaseName,
+				@SuppressWarnings("rawtypes") Map options) {
+			long start = System.nanoTime();
+			analysis.analyze(b);
+			time += System.nanoTime() - start;
+		}
+	}
+}
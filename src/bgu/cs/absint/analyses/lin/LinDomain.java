@@ -35,8 +35,6 @@ public class LinDomain extends
 	 */
 	static final LinDomain v = new LinDomain();
 
-	protected LinMatcher matcher = new LinMatcher();
-
 	public static final LinDomain v() {
 		return v;
 	}
@@ -273,7 +271,7 @@ public class LinDomain extends
 
 	@Override
 	public UnaryOperation<LinState> getTransformer(Unit stmt) {
-		return matcher.getTransformer(stmt);
+		return new LinMatcher().getTransformer(stmt);
 	}
 
 	/**
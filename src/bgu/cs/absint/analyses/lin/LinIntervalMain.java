@@ -1,5 +1,6 @@
 package bgu.cs.absint.analyses.lin;
 
+import soot.Body;
 import soot.Local;
 import soot.PackManager;
 import soot.Transform;
@@ -8,6 +9,7 @@ import bgu.cs.absint.analyses.interval.IntervalDomain;
 import bgu.cs.absint.constructor.CartesianDomain;
 import bgu.cs.absint.constructor.ProductState;
 import bgu.cs.absint.soot.BaseAnalysis;
+import bgu.cs.absint.soot.LocalNumbering;
 
 /**
  * Adds the analysis combining Linear Relations (Lin) with Intervals as a
@@ -32,5 +34,16 @@ public class LinIntervalMain {
 					IntervalDomain.v()));
 			useWidening(true);
 		}
+
+		/**
+		 * Returns a domain whose interval states are indexed by the locals of
+		 * the given body.
+		 */
+		@Override
+		protected CartesianDomain<Unit, Local> getDomain(Body b) {
+			return new CartesianDomain<Unit, Local>(LinDomain.v(),
+					new IntervalDomain(new LocalNumbering(b.getLocals()
+							.toArray(new Local[0]))));
+		}
 	}
 }
\ No newline at end of file
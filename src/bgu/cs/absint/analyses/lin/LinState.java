@@ -3,7 +3,6 @@ package bgu.cs.absint.analyses.lin;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 
 import soot.Local;
@@ -59,23 +58,18 @@ public class LinState extends ConjunctiveState<Local, LinFactoid> {
 		}
 	};
 
-	/**
-	 * An element is a set of varToFactoid.
-	 */
-	protected final Set<LinFactoid> factoids;
-
 	/**
 	 * Constructs a state with an empty set of varToFactoid (top).
 	 */
 	public LinState() {
-		this.factoids = new HashSet<>();
+		super();
 	}
 
 	/**
 	 * Constructs a state containing the given set of varToFactoid.
 	 */
 	public LinState(Collection<LinFactoid> factoids) {
-		this.factoids = new HashSet<>(factoids);
+		super(factoids);
 	}
 
 	@Override
@@ -115,7 +109,7 @@ public class LinState extends ConjunctiveState<Local, LinFactoid> {
 	 * variable and right-hand side variable.
 	 */
 	public LinFactoid getLinFactoid(Local lhs, Local rhs) {
-		for (LinFactoid f : this) {
+		for (LinFactoid f : getVarFactoids(lhs)) {
 			if (f.lvar.equivTo(lhs) && f.rvar.equivTo(rhs) && f.isLinear())
 				return f;
 		}
@@ -128,7 +122,7 @@ public class LinState extends ConjunctiveState<Local, LinFactoid> {
 	 */
 	public Set<LinFactoid> getLinFactoids(Local lhs) {
 		HashSet<LinFactoid> result = new HashSet<>();
-		for (LinFactoid f : this) {
+		for (LinFactoid f : getVarFactoids(lhs)) {
 			if (f.lvar.equivTo(lhs) && f.isLinear())
 				result.add(f);
 		}
@@ -143,27 +137,10 @@ public class LinState extends ConjunctiveState<Local, LinFactoid> {
 			assert factoid.additive.equivTo(IntConstant.v(0));
 			return false;
 		} else {
-			return factoids.add(factoid);
+			return super.add(factoid);
 		}
 	}
 
-	public boolean remove(LinFactoid f) {
-		return factoids.remove(f);
-	}
-
-	@Override
-	public boolean removeVar(Local lhs) {
-		boolean result = false;
-		for (Iterator<LinFactoid> iter = factoids.iterator(); iter.hasNext();) {
-			LinFactoid factoid = iter.next();
-			if (factoid.hasVar(lhs)) {
-				iter.remove();
-				result = true;
-			}
-		}
-		return result;
-	}
-
 	/**
 	 * Returns the set of varToFactoid defining the given variable.
 	 * 
@@ -174,7 +151,7 @@ public class LinState extends ConjunctiveState<Local, LinFactoid> {
 	 */
 	public Set<LinFactoid> getFactoids(Local var) {
 		HashSet<LinFactoid> result = new HashSet<>();
-		for (LinFactoid f : this) {
+		for (LinFactoid f : getVarFactoids(var)) {
 			if (f.lvar.equivTo(var))
 				result.add(f);
 		}
@@ -200,8 +177,8 @@ public class LinState extends ConjunctiveState<Local, LinFactoid> {
 	 * state.
 	 */
 	public LinFactoid getConstantFactoid(Local var) {
-		for (LinFactoid constantF : getConstantFactoids()) {
-			if (constantF.hasVar(var))
+		for (LinFactoid constantF : getVarFactoids(var)) {
+			if (constantF.isConstant())
 				return constantF;
 		}
 		return null;
@@ -212,13 +189,13 @@ public class LinState extends ConjunctiveState<Local, LinFactoid> {
 	 * state.
 	 */
 	protected LinState(LinState copyFrom) {
-		factoids = new HashSet<>(copyFrom.factoids);
+		super(copyFrom);
 	}
 
 	/**
 	 * A constructor just for initializing varToFactoid to null.
 	 */
 	protected LinState(boolean dummy) {
-		this.factoids = null;
+		super(false);
 	}
 }
\ No newline at end of file
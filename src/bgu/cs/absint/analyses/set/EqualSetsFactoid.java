@@ -1,5 +1,7 @@
 package bgu.cs.absint.analyses.set;
 
+import java.util.Set;
+
 import soot.Local;
 
 /**
@@ -19,6 +21,36 @@ public class EqualSetsFactoid extends SetFactoid {
 		assert setLhs != null && setRhs != null : "Sets must not be null";
 	}
 
+	@Override
+	public boolean hasVar(Local var) {
+		assert var != null;
+		return this.setLhs.equivTo(var) || this.setRhs.equivTo(var);
+	}
+
+	@Override
+	public void addVarsTo(Set<Local> c) {
+		c.add(setLhs);
+		c.add(setRhs);
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = EqualSetsFactoid.class.hashCode();
+		result = prime * result + setLhs.hashCode();
+		result = prime * result + setRhs.hashCode();
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof EqualSetsFactoid))
+			return false;
+		EqualSetsFactoid other = (EqualSetsFactoid) obj;
+		return this.setLhs.equivTo(other.setLhs)
+				&& this.setRhs.equivTo(other.setRhs);
+	}
+
 	@Override
 	public String toString() {
 		return setLhs.toString() + "~" + setRhs.toString();
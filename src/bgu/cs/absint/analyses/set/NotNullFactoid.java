@@ -1,5 +1,7 @@
 package bgu.cs.absint.analyses.set;
 
+import java.util.Set;
+
 import soot.Local;
 
 /**
@@ -16,6 +18,30 @@ public class NotNullFactoid extends SetFactoid {
 		assert var != null : "Set must not be null";
 	}
 
+	@Override
+	public boolean hasVar(Local var) {
+		assert var != null;
+		return this.var.equivTo(var);
+	}
+
+	@Override
+	public void addVarsTo(Set<Local> c) {
+		c.add(var);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * getClass().hashCode() + var.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof NotNullFactoid))
+			return false;
+		NotNullFactoid other = (NotNullFactoid) obj;
+		return this.var.equivTo(other.var);
+	}
+
 	@Override
 	public String toString() {
 		return var + "!=null";
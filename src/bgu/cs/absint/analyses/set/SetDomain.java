@@ -9,62 +9,91 @@ import soot.jimple.InvokeStmt;
 import soot.jimple.VirtualInvokeExpr;
 import bgu.cs.absint.AbstractDomain;
 import bgu.cs.absint.UnaryOperation;
+import bgu.cs.absint.soot.FactoidUniverse;
 import bgu.cs.absint.soot.TransformerMatcher;
 
 public class SetDomain extends AbstractDomain<SetState, Unit> {
-	protected SetMatcher matcher = new SetMatcher();
+	/**
+	 * Assigns identifiers to the factoids of the states of this domain.
+	 */
+	protected final FactoidUniverse<SetFactoid> universe;
+
+	protected final SetState bottom;
+	protected final SetState top;
+
+	/**
+	 * Constructs a domain whose states are bitsets over the given universe of
+	 * factoids, which is usually specific to the analyzed method.
+	 */
+	public SetDomain(FactoidUniverse<SetFactoid> universe) {
+		this.universe = universe;
+		this.bottom = SetState.newBottom(universe);
+		this.top = SetState.newTop(universe);
+	}
 
 	@Override
 	public SetState getBottom() {
-		return SetState.bottom;
+		return bottom;
 	}
 
 	@Override
 	public SetState getTop() {
-		return SetState.top;
+		return top;
 	}
 
 	@Override
 	public SetState ub(SetState elem1, SetState elem2) {
-		if (elem1 == SetState.bottom) {
+		if (elem1 == bottom) {
 			return elem2;
-		} else if (elem2 == SetState.bottom) {
+		} else if (elem2 == bottom) {
 			return elem1;
 		} else {
 			// Compute the intersection of the two sets of varToFactoid.
-			SetState result = new SetState(elem1);
-			result.factoids.retainAll(elem2.factoids);
+			SetState result = copy(elem1);
+			result.retainAll(elem2);
 			return result;
 		}
 	}
 
 	@Override
 	public SetState lb(SetState first, SetState second) {
-		if (first == SetState.bottom || second == SetState.bottom) {
-			return SetState.bottom;
+		if (first == bottom || second == bottom) {
+			return bottom;
 		} else {
 			// Compute the union of the two sets of varToFactoid.
-			SetState result = new SetState(first);
-			result.factoids.addAll(second.factoids);
+			SetState result = copy(first);
+			result.addAll(second);
 			return result;
 		}
 	}
 
 	@Override
 	public boolean leq(SetState first, SetState second) {
-		if (first == SetState.bottom) {
+		if (first == bottom) {
 			return true;
-		} else if (second == SetState.bottom) {
+		} else if (second == bottom) {
 			// first != bottom
 			return false;
 		} else {
-			return first.factoids.containsAll(second.factoids);
+			return first.containsAll(second);
 		}
 	}
 
 	@Override
 	public UnaryOperation<SetState> getTransformer(Unit stmt) {
-		return matcher.getTransformer(stmt);
+		return new SetMatcher().getTransformer(stmt);
+	}
+
+	/**
+	 * Returns a modifiable copy of the given state over the universe of this
+	 * domain.
+	 */
+	protected SetState copy(SetState state) {
+		if (state.getUniverse() == universe)
+			return state.copy();
+		SetState result = new SetState(universe);
+		result.addAll(state);
+		return result;
 	}
 
 	/**
@@ -146,7 +175,7 @@ public class SetDomain extends AbstractDomain<SetState, Unit> {
 
 		@Override
 		public SetState apply(SetState input) {
-			SetState result = new SetState();
+			SetState result = new SetState(universe);
 			for (EmptyFactoid f : input.getEmptyFactoids()) {
 				result.add(f);
 			}
@@ -170,7 +199,7 @@ public class SetDomain extends AbstractDomain<SetState, Unit> {
 
 		@Override
 		public SetState apply(SetState input) {
-			SetState result = new SetState();
+			SetState result = new SetState(universe);
 			for (NotNullFactoid f : input.getNotNullFactoids()) {
 				result.add(f);
 			}
@@ -209,7 +238,7 @@ public class SetDomain extends AbstractDomain<SetState, Unit> {
 
 		@Override
 		public SetState apply(SetState input) {
-			SetState result = new SetState();
+			SetState result = new SetState(universe);
 			// pre { Union(t, s, d) } post { EqualSets(s, t) }
 			for (UnionFactoid f : input.getUnionFactoids()) {
 				if (f.setRhs.equivTo(set) && f.data.equivTo(data)) {
@@ -1,8 +1,10 @@
 package bgu.cs.absint.analyses.set;
 
+import soot.Body;
 import soot.PackManager;
 import soot.Transform;
 import bgu.cs.absint.soot.BaseAnalysis;
+import bgu.cs.absint.soot.FactoidUniverse;
 
 /**
  * Adds the static analysis of sets to Soot.
@@ -19,7 +21,15 @@ public class SetMain {
 	public static class SetAnalysis extends
 			BaseAnalysis<SetState, SetDomain> {
 		public SetAnalysis() {
-			super(new SetDomain());
+			super(new SetDomain(new FactoidUniverse<SetFactoid>()));
+		}
+
+		/**
+		 * Returns a domain whose factoids are numbered per method.
+		 */
+		@Override
+		protected SetDomain getDomain(Body b) {
+			return new SetDomain(new FactoidUniverse<SetFactoid>());
 		}
 	}
 }
\ No newline at end of file
@@ -2,73 +2,96 @@ package bgu.cs.absint.analyses.set;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
 
 import soot.Local;
-import bgu.cs.absint.constructor.ConjunctiveState;
+import bgu.cs.absint.soot.BitsetState;
+import bgu.cs.absint.soot.FactoidUniverse;
 
 /**
  * A set of varToFactoid representing SetAnalysis. The (symbolic) meaning of a
- * state is given by the conjunction of the varToFactoid.
+ * state is given by the conjunction of the varToFactoid. The set is
+ * represented as a bitset over a universe of factoids.
  * 
  * @author romanm
  * 
  */
-public class SetState extends ConjunctiveState<Local, SetFactoid> {
+public class SetState extends BitsetState<SetFactoid> {
 	/**
-	 * An immutable bottom element.
+	 * Returns an immutable bottom element over the given universe.
 	 */
-	public static final SetState bottom = new SetState(false) {
-		@Override
-		public boolean add(SetFactoid factoid) {
-			throw new Error("Attempt to modify " + toString());
-		}
+	public static SetState newBottom(FactoidUniverse<SetFactoid> universe) {
+		return new SetState(universe, false) {
+			@Override
+			public boolean add(SetFactoid factoid) {
+				throw new Error("Attempt to modify " + toString());
+			}
 
-		@Override
-		public boolean removeVar(Local lhs) {
-			throw new Error("Attempt to modify " + toString());
-		}
-	};
+			@Override
+			public boolean removeVar(Local lhs) {
+				throw new Error("Attempt to modify " + toString());
+			}
 
-	/**
-	 * An immutable top element.
-	 */
-	public static final SetState top = new SetState() {
-		@Override
-		public boolean add(SetFactoid factoid) {
-			throw new Error("Attempt to modify " + toString());
-		}
+			@Override
+			public boolean removeAll(long[] mask) {
+				throw new Error("Attempt to modify " + toString());
+			}
 
-		@Override
-		public boolean removeVar(Local lhs) {
-			throw new Error("Attempt to modify " + toString());
-		}
-	};
+			@Override
+			public boolean retainAll(BitsetState<SetFactoid> other) {
+				throw new Error("Attempt to modify " + toString());
+			}
+
+			@Override
+			public boolean addAll(BitsetState<SetFactoid> other) {
+				throw new Error("Attempt to modify " + toString());
+			}
+		};
+	}
 
 	/**
-	 * An element is a set of varToFactoid.
+	 * Returns an immutable top element over the given universe.
 	 */
-	protected final Set<SetFactoid> factoids;
+	public static SetState newTop(FactoidUniverse<SetFactoid> universe) {
+		return new SetState(universe) {
+			@Override
+			public boolean add(SetFactoid factoid) {
+				throw new Error("Attempt to modify " + toString());
+			}
+
+			@Override
+			public boolean removeVar(Local lhs) {
+				throw new Error("Attempt to modify " + toString());
+			}
+
+			@Override
+			public boolean removeAll(long[] mask) {
+				throw new Error("Attempt to modify " + toString());
+			}
 
-	public SetState() {
-		factoids = new HashSet<>();
+			@Override
+			public boolean retainAll(BitsetState<SetFactoid> other) {
+				throw new Error("Attempt to modify " + toString());
+			}
+
+			@Override
+			public boolean addAll(BitsetState<SetFactoid> other) {
+				throw new Error("Attempt to modify " + toString());
+			}
+		};
+	}
+
+	public SetState(FactoidUniverse<SetFactoid> universe) {
+		super(universe);
 	}
 
 	@Override
 	public SetState copy() {
-		if (this == bottom)
-			return bottom;
+		if (bits == null)
+			return this;
 		else
 			return new SetState(this);
 	}
 
-	@Override
-	public Collection<SetFactoid> getFactoids() {
-		return factoids;
-	}
-
 	public Collection<EmptyFactoid> getEmptyFactoids() {
 		ArrayList<EmptyFactoid> result = new ArrayList<>();
 		for (SetFactoid f : getFactoids()) {
@@ -105,38 +128,14 @@ public class SetState extends ConjunctiveState<Local, SetFactoid> {
 		return result;
 	}
 
-	@Override
-	public boolean add(SetFactoid factoid) {
-		assert factoid != null;
-		return factoids.add(factoid);
-	}
-
-	/**
-	 * Removes any factoid containing the given variable.
-	 * 
-	 * @param lhs
-	 *            The variable to be removed from the state.
-	 */
-	@Override
-	public boolean removeVar(Local lhs) {
-		for (Iterator<SetFactoid> iter = factoids.iterator(); iter.hasNext();) {
-			SetFactoid factoid = iter.next();
-			if (factoid.hasVar(lhs)) {
-				iter.remove();
-				return true;
-			}
-		}
-		return false;
-	}
-
 	protected SetState(SetState copyFrom) {
-		factoids = new HashSet<>(copyFrom.factoids);
+		super(copyFrom);
 	}
 
 	/**
 	 * A constructor just for initializing varToFactoid to null.
 	 */
-	protected SetState(boolean dummy) {
-		this.factoids = null;
+	protected SetState(FactoidUniverse<SetFactoid> universe, boolean dummy) {
+		super(universe, false);
 	}
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package bgu.cs.absint.analyses.set;
 
+import java.util.Set;
+
 import soot.Local;
 
 /**
@@ -22,6 +24,16 @@ public class UnionFactoid extends SetFactoid {
 		assert setLhs != null && setRhs != null && data != null : "Given Sets and data must not be null";
 	}
 	
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = UnionFactoid.class.hashCode();
+		result = prime * result + setLhs.hashCode();
+		result = prime * result + setRhs.hashCode();
+		result = prime * result + data.hashCode();
+		return result;
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (!(obj instanceof UnionFactoid))
@@ -36,6 +48,13 @@ public class UnionFactoid extends SetFactoid {
 		return this.setLhs.equivTo(var) || this.setRhs.equivTo(var) || this.data.equivTo(var);
 	}
 	
+	@Override
+	public void addVarsTo(Set<Local> c) {
+		c.add(setLhs);
+		c.add(setRhs);
+		c.add(data);
+	}
+
 	@Override
 	public String toString() {
 		//Union(s,t,d)
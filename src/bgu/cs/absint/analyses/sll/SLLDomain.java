@@ -42,14 +42,10 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	protected DisjunctiveState<SLLGraph> top;
 
 	/**
-	 * The set of local variables in the current method body.
+	 * The set of local variables in the method body analyzed by the current
+	 * thread.
 	 */
-	protected Set<Local> locals;
-
-	/**
-	 * A helper object that matches statements to transformers.
-	 */
-	protected SLLMatcher matcher = new SLLMatcher();
+	protected final ThreadLocal<Set<Local>> locals = new ThreadLocal<>();
 
 	/**
 	 * The name of the list class.
@@ -62,7 +58,7 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	private String listClassField;
 
 	public void setBodyLocals(Collection<Local> locals) {
-		this.locals = new LinkedHashSet<>(locals);
+		this.locals.set(new LinkedHashSet<>(locals));
 	}
 
 	public void setListClass(String listClassName, String listClassField) {
@@ -120,6 +116,11 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 		return result;
 	}
 
+	@Override
+	public int size(DisjunctiveState<SLLGraph> elem) {
+		return elem == getTop() ? 1 : elem.size();
+	}
+
 	@Override
 	public boolean leq(DisjunctiveState<SLLGraph> first,
 			DisjunctiveState<SLLGraph> second) {
@@ -134,7 +135,7 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 
 	@Override
 	public UnaryOperation<DisjunctiveState<SLLGraph>> getTransformer(Unit stmt) {
-		return matcher.getTransformer(stmt);
+		return new SLLMatcher().getTransformer(stmt);
 	}
 
 	// ////////////////////////////////////////////////////////////////////////////
@@ -162,6 +163,14 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	 * Creates a shape graph where all list variables point to null.
 	 */
 	public SLLGraph makeAllNullsGraph() {
+		return makeAllNullsGraph(locals.get());
+	}
+
+	/**
+	 * Creates a shape graph where all list variables among the given local
+	 * variables point to null.
+	 */
+	public SLLGraph makeAllNullsGraph(Collection<Local> locals) {
 		SLLGraph allNullsGraph = new SLLGraph();
 		for (Local var : locals) {
 			if (isListRefType(var))
@@ -175,8 +184,16 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	 * to null.
 	 */
 	public DisjunctiveState<SLLGraph> initNulls() {
+		return initNulls(locals.get());
+	}
+
+	/**
+	 * Creates a state containing a shape graph where all list variables among
+	 * the given local variables point to null.
+	 */
+	public DisjunctiveState<SLLGraph> initNulls(Collection<Local> locals) {
 		DisjunctiveState<SLLGraph> result = new DisjunctiveState<>(
-				makeAllNullsGraph());
+				makeAllNullsGraph(locals));
 		return result;
 	}
 
@@ -186,18 +203,26 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	 * size >= 0.
 	 */
 	public DisjunctiveState<SLLGraph> initAcyclic(Local x) {
-		SLLGraph graph1 = makeAllNullsGraph();
+		return initAcyclic(x, locals.get());
+	}
+
+	/**
+	 * Same as {@link initAcyclic} for the given local variables.
+	 */
+	public DisjunctiveState<SLLGraph> initAcyclic(Local x,
+			Collection<Local> locals) {
+		SLLGraph graph1 = makeAllNullsGraph(locals);
 		Node ptXOne = new Node(graph1.nullNode, AbsLen.ONE);
 		graph1.addNode(ptXOne);
 		graph1.mapLocal(x, ptXOne);
 
-		SLLGraph graph2 = makeAllNullsGraph();
+		SLLGraph graph2 = makeAllNullsGraph(locals);
 		Node ptXGt1 = new Node(graph2.nullNode, AbsLen.GTONE);
 		graph2.addNode(ptXGt1);
 		graph2.mapLocal(x, ptXGt1);
 
 		DisjunctiveState<SLLGraph> result = new DisjunctiveState<>(
-				makeAllNullsGraph(), graph1, graph2);
+				makeAllNullsGraph(locals), graph1, graph2);
 		return result;
 	}
 
@@ -209,7 +234,7 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	 */
 	public SLLGraph focusOne(SLLGraph graph, Local var) {
 		SLLGraph result = graph.copy();
-		result.pointsTo(var).edgeLen = AbsLen.ONE;
+		result.getWritableNode(result.pointsTo(var)).edgeLen = AbsLen.ONE;
 		return result;
 	}
 
@@ -221,7 +246,7 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	 */
 	public SLLGraph focusGtOne(SLLGraph graph, Local var) {
 		SLLGraph result = graph.copy();
-		Node rhsNode = result.pointsTo(var);
+		Node rhsNode = result.getWritableNode(result.pointsTo(var));
 		Node rhsNextNode = rhsNode.next;
 		Node newNextNode = new Node(rhsNextNode, AbsLen.GTONE);
 		result.addNode(newNextNode);
@@ -235,24 +260,13 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	 * list segment of length >1 and then removes garbage nodes.
 	 */
 	public SLLGraph generalize(SLLGraph graph) {
-		SLLGraph result = graph;
+		SLLGraph result = graph.copy();
 
-		boolean change = true;
-		while (change) {
-			change = false;
-			result = result.copy();
+		// Only copy the nodes if some segment is not maximal.
+		while (hasNonMaximalSegment(result)) {
+			result.makeNodesWritable();
 			for (Node n : result.nodes) {
-				if (n == result.nullNode)
-					continue;
-				// Self-loops are a special case.
-				if (n.next == n)
-					continue;
-				if (n.next == result.nullNode)
-					continue;
-				boolean isNextInterruption = !n.next.pointedBy.isEmpty()
-						|| result.getPreds(n.next).size() > 1;
-				if (!isNextInterruption) {
-					change = true;
+				if (isNonMaximalSegment(result, n)) {
 					n.next = n.next.next;
 					n.edgeLen = AbsLen.GTONE;
 				}
@@ -263,6 +277,31 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 		return result;
 	}
 
+	/**
+	 * Checks whether the list segment outgoing from the given node can be
+	 * merged with the segment outgoing from its next node.
+	 */
+	protected boolean isNonMaximalSegment(SLLGraph graph, Node n) {
+		if (n == graph.nullNode)
+			return false;
+		// Self-loops are a special case.
+		if (n.next == n)
+			return false;
+		if (n.next == graph.nullNode)
+			return false;
+		boolean isNextInterruption = graph.isPointed(n.next)
+				|| graph.getPreds(n.next).size() > 1;
+		return !isNextInterruption;
+	}
+
+	protected boolean hasNonMaximalSegment(SLLGraph graph) {
+		for (Node n : graph.nodes) {
+			if (isNonMaximalSegment(graph, n))
+				return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Singleton pattern.
 	 */
@@ -551,11 +590,12 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 		public DisjunctiveState<SLLGraph> apply(DisjunctiveState<SLLGraph> input) {
 			Set<SLLGraph> disjuncts = new HashSet<>();
 			for (SLLGraph graph : input) {
-				Node lhsNode = graph.pointsTo(lhs);
-				if (lhsNode == graph.nullNode) {
+				if (graph.pointsTo(lhs) == graph.nullNode) {
 					// Skip this graph as it raises a NullPointerException.
 				} else {
 					SLLGraph disjunct = graph.copy();
+					Node lhsNode = disjunct.getWritableNode(disjunct
+							.pointsTo(lhs));
 					lhsNode.next = disjunct.nullNode;
 					lhsNode.edgeLen = AbsLen.ONE;
 					disjuncts.add(disjunct);
@@ -590,7 +630,8 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 					// Skip this graph as it raises a NullPointerException.
 				} else {
 					SLLGraph disjunct = graph.copy();
-					Node lhsNode = disjunct.pointsTo(lhs);
+					Node lhsNode = disjunct.getWritableNode(disjunct
+							.pointsTo(lhs));
 					Node rhsNode = disjunct.pointsTo(rhs);
 					lhsNode.next = rhsNode;
 					lhsNode.edgeLen = AbsLen.ONE;
@@ -611,9 +652,11 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	 */
 	protected class InitAllNullsTransformer extends
 			UnaryOperation<DisjunctiveState<SLLGraph>> {
+		protected final Set<Local> bodyLocals = locals.get();
+
 		@Override
 		public DisjunctiveState<SLLGraph> apply(DisjunctiveState<SLLGraph> input) {
-			return initNulls();
+			return initNulls(bodyLocals);
 		}
 	}
 
@@ -627,6 +670,7 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	protected class InitAcyclicTransformer extends
 			UnaryOperation<DisjunctiveState<SLLGraph>> {
 		protected final Local var;
+		protected final Set<Local> bodyLocals = locals.get();
 
 		public InitAcyclicTransformer(Local var) {
 			this.var = var;
@@ -634,7 +678,7 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 
 		@Override
 		public DisjunctiveState<SLLGraph> apply(DisjunctiveState<SLLGraph> input) {
-			return initAcyclic(var);
+			return initAcyclic(var, bodyLocals);
 		}
 	}
 
@@ -1,11 +1,14 @@
 package bgu.cs.absint.analyses.sll;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
 
 import bgu.cs.absint.soot.LocalComparator;
@@ -15,65 +18,79 @@ import soot.Local;
 /**
  * An abstract element representing the abstraction of a bounded number of
  * interacting singly-linked lists (bounded by the number of local variables).
+ * <br>
+ * Graphs are compared via their canonical form (see
+ * {@link #getCanonicalForm()}), which is computed when it is first needed and
+ * discarded when the graph is modified.<br>
+ * Copies of a graph share its nodes, which are copied on demand: a node must
+ * be obtained via {@link #getWritableNode(Node)} or
+ * {@link #makeNodesWritable()} before it is modified directly, and nodes must
+ * not be modified once the graph has been hashed or compared.
  * 
  * @author romanm
  */
 public class SLLGraph {
-	public final Node nullNode = new Node(null, null);
+	public final Node nullNode;
 
-	protected Collection<Node> nodes = new ArrayList<Node>();
-	protected Map<Local, Node> pointsTo = new TreeMap<Local, Node>(new LocalComparator());
+	protected Collection<Node> nodes;
+	protected Map<Local, Node> pointsTo;
+
+	/**
+	 * Set when {@link #nodes} is shared with another graph, and must
+	 * therefore be copied before it is modified.
+	 */
+	private boolean nodesShared;
+
+	/**
+	 * Set when {@link #pointsTo} is shared with another graph, and must
+	 * therefore be copied before it is modified.
+	 */
+	private boolean pointsToShared;
+
+	/**
+	 * The token marking the nodes that this graph may modify in place. It is
+	 * replaced when the graph is copied, since from then on all of its nodes
+	 * are shared with the copy.
+	 */
+	private Object owner = new Object();
+
+	/**
+	 * The nodes in canonical order, or null if the canonical form has not been
+	 * computed since the graph was last modified.
+	 */
+	private volatile Node[] canonicalOrder;
+
+	/**
+	 * The canonical form of the graph, or null if it has not been computed
+	 * since the graph was last modified.
+	 */
+	private volatile int[] canonicalForm;
+
+	private int canonicalHash;
 
 	public SLLGraph() {
+		nullNode = new Node(null, null);
+		nodes = new ArrayList<Node>();
+		pointsTo = new TreeMap<Local, Node>(new LocalComparator());
 		nodes.add(nullNode);
 	}
 
 	public SLLGraph dropLocals(Collection<Local> locals) {
 		SLLGraph simpler = this.copy();
 		for (Local local : locals) {
-			simpler.pointsTo.remove(local);
+			simpler.unmapLocal(local);
 		}
 		return simpler;
 	}
 
 	/**
-	 * Creates an isomorphic shape graph.
+	 * Creates an isomorphic shape graph, which shares its nodes with this
+	 * graph until either graph modifies them.
 	 * 
 	 * @return A shape graph that is isomorphic to this one.
 	 */
 	public SLLGraph copy() {
-		SLLGraph result = new SLLGraph();
-		// Matches a node in this graph to a node in the result graph.
-		Map<Node, Node> matching = new HashMap<>(nodes.size());
-		for (Node node : nodes) {
-			if (node == nullNode)
-				continue;
-			Node newNode = new Node();
-			newNode.pointedBy = new HashSet<>(node.pointedBy);
-			matching.put(node, newNode);
-			result.addNode(newNode);
-		}
-		// Match the null node separately.
-		matching.put(nullNode, result.nullNode);
-
-		// Now update the next pointers.
-		for (Map.Entry<Node, Node> entry : matching.entrySet()) {
-			Node thisNode = entry.getKey();
-			Node otherNode = entry.getValue();
-			if (thisNode.next != null) {
-				otherNode.next = matching.get(thisNode.next);
-			}
-			otherNode.edgeLen = thisNode.edgeLen;
-		}
-
-		// Finally, update the pointsTo map.
-		for (Map.Entry<Local, Node> entry : pointsTo.entrySet()) {
-			Local var = entry.getKey();
-			Node node = entry.getValue();
-			Node otherNode = matching.get(node);
-			result.pointsTo.put(var, otherNode);
-		}
-
+		SLLGraph result = new SLLGraph(this);
 		return result;
 	}
 
@@ -94,30 +111,42 @@ public class SLLGraph {
 		return pointsTo.get(v);
 	}
 
+	/**
+	 * Checks whether some local variable points to the given node.
+	 */
+	public boolean isPointed(Node n) {
+		return pointsTo.containsValue(n);
+	}
+
 	public void addNode(Node n) {
 		assert !nodes.contains(n);
 		if (n.next != null)
 			assert nodes.contains(n.next) : "Attempt to add a node where the next node is not part of the same graph!";
+		ownNodes();
 		nodes.add(n);
+		n.owner = owner;
+		invalidateCanonicalForm();
 	}
 
 	public void removeNode(Node n) {
 		assert n != nullNode;
+		ownNodes();
 		nodes.remove(n);
+		invalidateCanonicalForm();
 	}
 
 	public void mapLocal(Local v, Node n) {
 		assert nodes.contains(n);
-		unmapLocal(v);
-		n.addLocal(v);
+		ownPointsTo();
 		pointsTo.put(v, n);
+		invalidateCanonicalForm();
 	}
 
 	public void unmapLocal(Local v) {
-		Node n = pointsTo(v);
-		if (n != null) {
-			n.removeLocal(v);
+		if (pointsTo.containsKey(v)) {
+			ownPointsTo();
 			pointsTo.remove(v);
+			invalidateCanonicalForm();
 		}
 	}
 
@@ -133,81 +162,222 @@ public class SLLGraph {
 				workset.add(next);
 			}
 		}
-		nodes.retainAll(reachable);
+		if (reachable.containsAll(nodes))
+			return;
+		ArrayList<Node> live = new ArrayList<>(reachable.size());
+		for (Node n : nodes) {
+			if (reachable.contains(n))
+				live.add(n);
+		}
+		nodes = live;
+		nodesShared = false;
+		invalidateCanonicalForm();
+	}
+
+	/**
+	 * Returns the node of this graph that corresponds to the given node and
+	 * may be modified in place. If the node is shared with other graphs, it
+	 * is replaced by a copy, along with the shared nodes from which it is
+	 * reachable, since their 'next' pointers must lead to the copy. All other
+	 * nodes remain shared.
+	 */
+	public Node getWritableNode(Node n) {
+		assert n != nullNode;
+		if (n.owner == owner)
+			return n;
+		Map<Node, List<Node>> preds = new HashMap<>(nodes.size() * 2);
+		for (Node p : nodes) {
+			if (p.next != null) {
+				List<Node> nextPreds = preds.get(p.next);
+				if (nextPreds == null) {
+					nextPreds = new ArrayList<>(1);
+					preds.put(p.next, nextPreds);
+				}
+				nextPreds.add(p);
+			}
+		}
+		Map<Node, Node> copies = new HashMap<>();
+		ArrayList<Node> workset = new ArrayList<>();
+		copies.put(n, n.copy());
+		workset.add(n);
+		while (!workset.isEmpty()) {
+			List<Node> nodePreds = preds.get(workset.remove(workset.size() - 1));
+			if (nodePreds == null)
+				continue;
+			for (Node p : nodePreds) {
+				if (p.owner != owner && !copies.containsKey(p)) {
+					copies.put(p, p.copy());
+					workset.add(p);
+				}
+			}
+		}
+		replaceNodes(copies);
+		return copies.get(n);
 	}
 
-	@Override
-	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + nodes.size();
-		for (Node n : pointsTo.values()) {
-			result = prime * result + n.pointedBy.hashCode();
+	/**
+	 * Replaces all nodes that are shared with other graphs by copies, which
+	 * is cheaper than {@link #getWritableNode(Node)} when many nodes are
+	 * about to be modified.
+	 */
+	public void makeNodesWritable() {
+		Map<Node, Node> copies = new HashMap<>(nodes.size() * 2);
+		for (Node n : nodes) {
+			if (n != nullNode && n.owner != owner)
+				copies.put(n, n.copy());
+		}
+		if (!copies.isEmpty())
+			replaceNodes(copies);
+	}
+
+	/**
+	 * Replaces nodes of this graph by the given copies, which this graph
+	 * takes ownership of, and redirects the 'next' pointers and the
+	 * variables to the copies.
+	 */
+	private void replaceNodes(Map<Node, Node> copies) {
+		ArrayList<Node> newNodes = new ArrayList<>(nodes.size());
+		for (Node n : nodes) {
+			Node copy = copies.get(n);
+			if (copy != null) {
+				copy.owner = owner;
+				n = copy;
+			}
+			if (n.next != null && copies.containsKey(n.next)) {
+				assert n.owner == owner;
+				n.next = copies.get(n.next);
+			}
+			newNodes.add(n);
+		}
+		nodes = newNodes;
+		nodesShared = false;
+		ownPointsTo();
+		for (Map.Entry<Local, Node> entry : pointsTo.entrySet()) {
+			Node copy = copies.get(entry.getValue());
+			if (copy != null)
+				entry.setValue(copy);
+		}
+		invalidateCanonicalForm();
+	}
+
+	/**
+	 * Copies the list of nodes if it is shared with another graph.
+	 */
+	private void ownNodes() {
+		if (nodesShared) {
+			nodes = new ArrayList<>(nodes);
+			nodesShared = false;
+		}
+	}
+
+	/**
+	 * Copies the points-to map if it is shared with another graph.
+	 */
+	private void ownPointsTo() {
+		if (pointsToShared) {
+			pointsTo = new TreeMap<>((SortedMap<Local, Node>) pointsTo);
+			pointsToShared = false;
+		}
+	}
+
+	/**
+	 * Returns the nodes of the graph in canonical order. The null node comes
+	 * first, followed by the nodes reached by following the 'next' chains from
+	 * the nodes pointed to by the local variables, taking the variables in the
+	 * order of {@link #pointsTo}, and finally the unreachable nodes.
+	 */
+	public Node[] getCanonicalOrder() {
+		Node[] result = canonicalOrder;
+		if (result == null) {
+			canonicalize();
+			result = canonicalOrder;
 		}
 		return result;
 	}
 
 	/**
-	 * Checks whether this graph is isomorphic to the given one.
+	 * Returns the canonical form of the graph: the number of nodes, then the
+	 * number and canonical node index of each variable, in the order of the
+	 * variables, and then the index of the next node and the length of the
+	 * outgoing edge of each node, in canonical order. Two graphs are
+	 * isomorphic if and only if their canonical forms are equal.
 	 */
-	@Override
-	public boolean equals(Object o) {
-		SLLGraph other = (SLLGraph) o;
+	public int[] getCanonicalForm() {
+		int[] result = canonicalForm;
+		if (result == null) {
+			canonicalize();
+			result = canonicalForm;
+		}
+		return result;
+	}
 
-		if (nodes.size() != other.nodes.size())
-			return false;
+	/**
+	 * Discards the canonical form after the graph is modified.
+	 */
+	protected void invalidateCanonicalForm() {
+		canonicalForm = null;
+		canonicalOrder = null;
+	}
 
-		// Attempt to create an initial matching of nodes based on
-		// the pointed-by sets.
-		Map<Node, Node> matching = new HashMap<>();
-		for (Map.Entry<Local, Node> entry : pointsTo.entrySet()) {
-			Local v = entry.getKey();
-			Node n = entry.getValue();
-			assert n != null;
-			Node otherNode = other.pointsTo(v);
-			if (otherNode == null)
-				return false;
-			if (!n.pointedBy.equals(otherNode.pointedBy))
-				return false;
-			matching.put(n, otherNode);
-		}
-
-		// Complete the matching based on the 'next' relation.
-		HashSet<Node> workset = new HashSet<>();
-		workset.addAll(matching.keySet());
-		while (!workset.isEmpty()) {
-			Node nodeToCheck = workset.iterator().next();
-			workset.remove(nodeToCheck);
-			Node matchedNodeToCheck = matching.get(nodeToCheck);
-			assert matchedNodeToCheck != null;
-			Node nextNode = nodeToCheck.next;
-			if (nextNode != null) {
-				matching.put(nextNode, matchedNodeToCheck.next);
-				if (!matching.containsKey(nextNode)) {
-					workset.add(nextNode);
-				}
+	/**
+	 * Computes the canonical order and canonical form of the graph in time
+	 * linear in its size.
+	 */
+	private void canonicalize() {
+		Map<Node, Integer> index = new HashMap<>(nodes.size() * 2);
+		ArrayList<Node> order = new ArrayList<>(nodes.size());
+		index.put(nullNode, 0);
+		order.add(nullNode);
+		for (Node n : pointsTo.values()) {
+			while (n != null && !index.containsKey(n)) {
+				index.put(n, order.size());
+				order.add(n);
+				n = n.next;
 			}
 		}
-
-		// Finally, check that the matching preserves the 'next' relation.
-		for (Map.Entry<Node, Node> entry : matching.entrySet()) {
-			Node thisNode = entry.getKey();
-			Node otherNode = entry.getValue();
-			if (thisNode.edgeLen != otherNode.edgeLen)
-				return false;
-			if (thisNode.next == null) {
-				if (otherNode.next != null)
-					return false;
-			} else {
-				Node matchedNextNode = matching.get(thisNode.next);
-				if (matchedNextNode == null)
-					return false;
-				if (matchedNextNode != otherNode.next)
-					return false;
+		for (Node n : nodes) {
+			if (!index.containsKey(n)) {
+				index.put(n, order.size());
+				order.add(n);
 			}
 		}
 
-		return true;
+		int[] form = new int[1 + 2 * pointsTo.size() + 2 * order.size()];
+		int i = 0;
+		form[i++] = order.size();
+		for (Map.Entry<Local, Node> entry : pointsTo.entrySet()) {
+			form[i++] = entry.getKey().getNumber();
+			form[i++] = entry.getValue() == null ? -1 : index.get(entry
+					.getValue());
+		}
+		for (Node n : order) {
+			form[i++] = n.next == null ? -1 : index.get(n.next);
+			form[i++] = n.edgeLen == null ? -1 : n.edgeLen.ordinal();
+		}
+
+		canonicalHash = Arrays.hashCode(form);
+		canonicalOrder = order.toArray(new Node[order.size()]);
+		canonicalForm = form;
+	}
+
+	@Override
+	public int hashCode() {
+		getCanonicalForm();
+		return canonicalHash;
+	}
+
+	/**
+	 * Checks whether this graph is isomorphic to the given one by comparing
+	 * their canonical forms.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		SLLGraph other = (SLLGraph) o;
+		if (hashCode() != other.hashCode())
+			return false;
+		return Arrays.equals(getCanonicalForm(), other.getCanonicalForm());
 	}
 
 	@Override
@@ -252,4 +422,25 @@ public class SLLGraph {
 		result.append("}");
 		return result.toString();
 	}
+
+	/**
+	 * Constructs a graph that shares its nodes, its points-to map and its
+	 * canonical form with the given graph.
+	 */
+	private SLLGraph(SLLGraph shareFrom) {
+		nullNode = shareFrom.nullNode;
+		nodes = shareFrom.nodes;
+		pointsTo = shareFrom.pointsTo;
+		nodesShared = true;
+		pointsToShared = true;
+		shareFrom.nodesShared = true;
+		shareFrom.pointsToShared = true;
+		shareFrom.owner = new Object();
+		int[] form = shareFrom.canonicalForm;
+		if (form != null) {
+			canonicalHash = shareFrom.canonicalHash;
+			canonicalOrder = shareFrom.canonicalOrder;
+			canonicalForm = form;
+		}
+	}
 }
\ No newline at end of file
@@ -1,12 +1,11 @@
 package bgu.cs.absint.analyses.sllSize;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import soot.Local;
 
 /**
- * A node in an {@link SLLGraph}.
+ * A node in an {@link SLLGraph}. Nodes are shared between graphs that are
+ * copies of each other, so a node may only be modified by the graph that owns
+ * it (see {@link SLLGraph#getWritableNode(Node)}).
  * 
  * @author romanm
  */
@@ -14,7 +13,11 @@ public class Node {
 	protected Node next;
 	protected Local edgeLen;
 
-	protected Set<Local> pointedBy = new HashSet<>();
+	/**
+	 * The token of the graph that may modify this node in place, or null if
+	 * the node has not been added to a graph yet.
+	 */
+	protected Object owner;
 
 	public Node() {		
 	}
@@ -26,15 +29,6 @@ public class Node {
 
 	public Node copy() {
 		Node result = new Node(this.next, this.edgeLen);
-		result.pointedBy = new HashSet<>(this.pointedBy);
 		return result;
 	}
-
-	public boolean addLocal(Local var) {
-		return pointedBy.add(var);
-	}
-
-	public void removeLocal(Local var) {
-		pointedBy.remove(var);
-	}
 }
\ No newline at end of file
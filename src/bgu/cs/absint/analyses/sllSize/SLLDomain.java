@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -18,6 +19,7 @@ import bgu.cs.absint.analyses.zone.ZoneDomain;
 import bgu.cs.absint.analyses.zone.ZoneFactoid;
 import bgu.cs.absint.analyses.zone.ZoneState;
 import bgu.cs.absint.constructor.DisjunctiveState;
+import bgu.cs.absint.constructor.ParallelDisjuncts;
 import bgu.cs.absint.soot.TransformerMatcher;
 import soot.IntType;
 import soot.Local;
@@ -52,14 +54,10 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	protected DisjunctiveState<SLLGraph> top;
 
 	/**
-	 * The set of local variables in the current method body.
+	 * The set of local variables in the method body analyzed by the current
+	 * thread.
 	 */
-	protected Set<Local> locals;
-
-	/**
-	 * A helper object that matches statements to transformers.
-	 */
-	protected SLLMatcher matcher = new SLLMatcher();
+	protected final ThreadLocal<Set<Local>> locals = new ThreadLocal<>();
 
 	/**
 	 * The name of the list class.
@@ -72,8 +70,14 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	private String listClassField;
 	private static int counter=0;
 
+	/**
+	 * Applies transformers to the graphs of large states in parallel, or null
+	 * if transformers are applied sequentially.
+	 */
+	protected ParallelDisjuncts parallel = ParallelDisjuncts.fromProperty();
+
 	public void setBodyLocals(Collection<Local> locals) {
-		this.locals = new LinkedHashSet<>(locals);
+		this.locals.set(new LinkedHashSet<>(locals));
 	}
 
 	public void setListClass(String listClassName, String listClassField) {
@@ -81,6 +85,14 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 		this.listClassField = listClassField;
 	}
 
+	/**
+	 * Sets the object used to apply transformers to the graphs of large states
+	 * in parallel, or null to apply them sequentially.
+	 */
+	public void setParallel(ParallelDisjuncts parallel) {
+		this.parallel = parallel;
+	}
+
 	@Override
 	public DisjunctiveState<SLLGraph> getBottom() {
 		return bottom;
@@ -102,35 +114,46 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	private interface Operation{
 		ZoneState run(ZoneState zs1, ZoneState zs2);
 	}
+	/**
+	 * Applies the given operation to the sizes of the graphs of both inputs
+	 * that have the same shape, and keeps the other graphs of both inputs.
+	 * The graphs of the second input are grouped by their shapes, so each
+	 * graph of the first input is matched by a single lookup, and only the
+	 * matched graphs are copied.
+	 */
 	private DisjunctiveState<SLLGraph> operation(DisjunctiveState<SLLGraph> elem1,
 			DisjunctiveState<SLLGraph> elem2, Operation op){
 		if (elem1 == getTop() || elem2 == getTop())
 			return getTop();
-		
-		Set<SLLGraph> graphSet1 = new HashSet<>();
-		Set<SLLGraph> graphSet2 = new HashSet<>();
-		for(SLLGraph graph:elem1.getDisjuncts())
-			graphSet1.add(graph.copy());
-		for(SLLGraph graph:elem2.getDisjuncts())
-			graphSet2.add(graph.copy());
-				
-		for(SLLGraph graph1:graphSet1){
-			graph1.normalize();
-			for(SLLGraph graph2: graphSet2){
-				graph2.normalize();
-			}
-			for(SLLGraph graph2: graphSet2){
-				if(graph1.equals(graph2)){
-					ZoneState joinedState = op.run(graph1.sizes, graph2.sizes);
-					graph1.sizes = joinedState;
-					graph1.sizes = joinedState;
-				}
+		if (elem1.size() == 0)
+			return elem2;
+		if (elem2.size() == 0)
+			return elem1;
+
+		// Graphs are equal when their shapes are isomorphic, and each input
+		// has at most one graph of each shape.
+		Map<SLLGraph, SLLGraph> shapes2 = new HashMap<>(elem2.size() * 2);
+		for (SLLGraph graph2 : elem2)
+			shapes2.put(graph2, graph2);
+		Set<SLLGraph> disjuncts = new HashSet<>();
+		for (SLLGraph graph1 : elem1) {
+			SLLGraph graph2 = shapes2.remove(graph1);
+			if (graph2 == null) {
+				disjuncts.add(graph1);
+			} else {
+				SLLGraph joined = graph1.copy();
+				joined.normalize();
+				joined.sizes = op.run(joined.sizes,
+						graph2.getNormalizedSizes());
+				disjuncts.add(joined);
 			}
-		}		
+		}
+		disjuncts.addAll(shapes2.keySet());
 		DisjunctiveState<SLLGraph> result = new DisjunctiveState<SLLGraph>(
-				graphSet1, graphSet2);
+				disjuncts);
 		return result;
 	}
+
 	@Override
 	public DisjunctiveState<SLLGraph> widen(DisjunctiveState<SLLGraph> elem1,
 			DisjunctiveState<SLLGraph> elem2) {
@@ -182,6 +205,11 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 		return result;
 	}
 
+	@Override
+	public int size(DisjunctiveState<SLLGraph> elem) {
+		return elem == getTop() ? 1 : elem.size();
+	}
+
 	@Override
 	public boolean leq(DisjunctiveState<SLLGraph> first,
 			DisjunctiveState<SLLGraph> second) {
@@ -194,9 +222,23 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 			return second.getDisjuncts().containsAll(first.getDisjuncts());
 	}
 
+	/**
+	 * Returns the transformer matching the given statement. When a
+	 * {@link ParallelDisjuncts} object is set, transformers that handle each
+	 * graph separately are applied to the graphs of large states in parallel.
+	 */
 	@Override
 	public UnaryOperation<DisjunctiveState<SLLGraph>> getTransformer(Unit stmt) {
-		return matcher.getTransformer(stmt);
+		UnaryOperation<DisjunctiveState<SLLGraph>> transformer = new SLLMatcher()
+				.getTransformer(stmt);
+		// The remaining transformers ignore their input.
+		if (parallel == null || transformer instanceof IdOperation
+				|| transformer instanceof InitAllNullsTransformer
+				|| transformer instanceof InitAcyclicTransformer
+				|| transformer instanceof AnalysisError)
+			return transformer;
+		else
+			return new ParallelTransformer(transformer, parallel);
 	}
 
 	// ////////////////////////////////////////////////////////////////////////////
@@ -224,6 +266,14 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	 * Creates a shape graph where all list variables point to null.
 	 */
 	public SLLGraph makeAllNullsGraph() {
+		return makeAllNullsGraph(locals.get());
+	}
+
+	/**
+	 * Creates a shape graph where all list variables among the given local
+	 * variables point to null.
+	 */
+	public SLLGraph makeAllNullsGraph(Collection<Local> locals) {
 		SLLGraph allNullsGraph = new SLLGraph();
 		allNullsGraph.sizes = new ZoneState();
 		for (Local var : locals) {
@@ -238,8 +288,16 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	 * to null.
 	 */
 	public DisjunctiveState<SLLGraph> initNulls() {
+		return initNulls(locals.get());
+	}
+
+	/**
+	 * Creates a state containing a shape graph where all list variables among
+	 * the given local variables point to null.
+	 */
+	public DisjunctiveState<SLLGraph> initNulls(Collection<Local> locals) {
 		DisjunctiveState<SLLGraph> result = new DisjunctiveState<>(
-				makeAllNullsGraph());
+				makeAllNullsGraph(locals));
 		
 		return result;
 	}
@@ -250,7 +308,7 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	 * size >= 0.
 	 */
 	static int num = 1;
-	public static Local makeLocal()//TODO
+	public static synchronized Local makeLocal()//TODO
 	{
 		JimpleLocal  j =  new JimpleLocal("loc_var"+counter,IntType.v());
 		if(counter == 2){
@@ -265,7 +323,15 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 //		return j;
 //	}
 	public DisjunctiveState<SLLGraph> initAcyclic(Local x) {
-		SLLGraph graph1 = makeAllNullsGraph();
+		return initAcyclic(x, locals.get());
+	}
+
+	/**
+	 * Same as {@link initAcyclic} for the given local variables.
+	 */
+	public DisjunctiveState<SLLGraph> initAcyclic(Local x,
+			Collection<Local> locals) {
+		SLLGraph graph1 = makeAllNullsGraph(locals);
 		Local local1 = makeLocal();
 		graph1.sizes.addFactoid(local1, ZoneFactoid.ZERO_VAR, IntConstant.v(1));
 		Node ptXOne = new Node(graph1.nullNode, local1);//TODO
@@ -273,7 +339,7 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 		graph1.addNode(ptXOne);
 		graph1.mapLocal(x, ptXOne);
 
-		SLLGraph graph2 = makeAllNullsGraph();
+		SLLGraph graph2 = makeAllNullsGraph(locals);
 		Local local2 = makeLocal();
 		graph1.sizes.addFactoid(ZoneFactoid.ZERO_VAR, local2, IntConstant.v(-2));
 		Node ptXGt1 = new Node(graph2.nullNode, local2); //SUPER TODO
@@ -283,7 +349,7 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 		graph2.mapLocal(x, ptXGt1);
 
 		DisjunctiveState<SLLGraph> result = new DisjunctiveState<>(
-				makeAllNullsGraph(), graph1, graph2);
+				makeAllNullsGraph(locals), graph1, graph2);
 		return result;
 	}
 
@@ -300,9 +366,10 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 		result.sizes.addFactoid(local1, ZoneFactoid.ZERO_VAR, IntConstant.v(1));	
 		result.sizes.removeVar(var);
 		result.sizes.addFactoid(var, ZoneFactoid.ZERO_VAR, IntConstant.v(1));
-		Node rhsNode = result.pointsTo(var);
+		Node rhsNode = result.getWritableNode(result.pointsTo(var));
 		Node rhsNextNode = rhsNode.next;
 		Node node = new Node(rhsNextNode, local1); 
+		result.addNode(node);
 		rhsNode.next = node;
 		
 		
@@ -330,10 +397,11 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 			throw new RuntimeException("FCK");
 		result.sizes.removeVar(var);
 		result.sizes.addFactoid(var, ZoneFactoid.ZERO_VAR, IntConstant.v(1));
-		Node rhsNode = result.pointsTo(var);
+		Node rhsNode = result.getWritableNode(result.pointsTo(var));
 		Node rhsNextNode = rhsNode.next;
 		
 		Node node = new Node(rhsNextNode, local1); 
+		result.addNode(node);
 		rhsNode.next = node;
 			
 		
@@ -345,24 +413,13 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	 * list segment of length >1 and then removes garbage nodes.
 	 */
 	public SLLGraph generalize(SLLGraph graph) {
-		SLLGraph result = graph;
+		SLLGraph result = graph.copy();
 
-		boolean change = true;
-		while (change) {
-			change = false;
-			result = result.copy();
+		// Only copy the nodes if some segment is not maximal.
+		while (hasNonMaximalSegment(result)) {
+			result.makeNodesWritable();
 			for (Node n : result.nodes) {
-				if (n == result.nullNode)
-					continue;
-				// Self-loops are a special case.
-				if (n.next == n)
-					continue;
-				if (n.next == result.nullNode)
-					continue;
-				boolean isNextInterruption = !n.next.pointedBy.isEmpty()
-						|| result.getPreds(n.next).size() > 1;
-				if (!isNextInterruption) {
-					change = true;
+				if (isNonMaximalSegment(result, n)) {
 					Local a = n.edgeLen;
 					Local b = n.next.edgeLen;
 					n.next = n.next.next;				
@@ -386,6 +443,31 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 		return result;
 	}
 	
+	/**
+	 * Checks whether the list segment outgoing from the given node can be
+	 * merged with the segment outgoing from its next node.
+	 */
+	protected boolean isNonMaximalSegment(SLLGraph graph, Node n) {
+		if (n == graph.nullNode)
+			return false;
+		// Self-loops are a special case.
+		if (n.next == n)
+			return false;
+		if (n.next == graph.nullNode)
+			return false;
+		boolean isNextInterruption = graph.isPointed(n.next)
+				|| graph.getPreds(n.next).size() > 1;
+		return !isNextInterruption;
+	}
+
+	protected boolean hasNonMaximalSegment(SLLGraph graph) {
+		for (Node n : graph.nodes) {
+			if (isNonMaximalSegment(graph, n))
+				return true;
+		}
+		return false;
+	}
+
 	private IntConstant getConstant(SLLGraph graph, Local a, Local b){
 		for(ZoneFactoid zf: graph.sizes.getFactoids()){
 			if(zf.lhs==a && zf.rhs == b)
@@ -551,6 +633,47 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 		}
 	}
 
+	/**
+	 * Applies a transformer to each graph of the input separately, on the pool
+	 * of a {@link ParallelDisjuncts} object, and returns the union of the
+	 * outputs. If the output for some graph is an error state, that output is
+	 * returned.
+	 */
+	protected class ParallelTransformer extends
+			UnaryOperation<DisjunctiveState<SLLGraph>> {
+		protected final UnaryOperation<DisjunctiveState<SLLGraph>> transformer;
+		protected final ParallelDisjuncts parallel;
+
+		public ParallelTransformer(
+				UnaryOperation<DisjunctiveState<SLLGraph>> transformer,
+				ParallelDisjuncts parallel) {
+			this.transformer = transformer;
+			this.parallel = parallel;
+		}
+
+		@Override
+		public DisjunctiveState<SLLGraph> apply(DisjunctiveState<SLLGraph> input) {
+			if (input == getTop() || !parallel.isParallel(input.size()))
+				return transformer.apply(input);
+			List<DisjunctiveState<SLLGraph>> outputs = parallel.map(
+					input.getDisjuncts(),
+					graph -> transformer.apply(new DisjunctiveState<>(graph)));
+			for (DisjunctiveState<SLLGraph> output : outputs) {
+				if (output instanceof ErrorState || output == getTop())
+					return output;
+			}
+			DisjunctiveState<SLLGraph> result = new DisjunctiveState<>(
+					parallel.flatMapToSet(outputs,
+							DisjunctiveState::getDisjuncts));
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return transformer.toString();
+		}
+	}
+
 	/**
 	 * A transformer for statements of the form {@code x=new SLLBenchmarks()}.
 	 * 
@@ -804,11 +927,12 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 		public DisjunctiveState<SLLGraph> apply(DisjunctiveState<SLLGraph> input) {
 			Set<SLLGraph> disjuncts = new HashSet<>();
 			for (SLLGraph graph : input) {
-				Node lhsNode = graph.pointsTo(lhs);
-				if (lhsNode == graph.nullNode) {
+				if (graph.pointsTo(lhs) == graph.nullNode) {
 					// Skip this graph as it raises a NullPointerException.
 				} else {
 					SLLGraph disjunct = graph.copy();
+					Node lhsNode = disjunct.getWritableNode(disjunct
+							.pointsTo(lhs));
 					lhsNode.next = disjunct.nullNode;
 					lhsNode.edgeLen = makeLocal();//TODO//TODO
 					disjunct.sizes.addFactoid(lhsNode.edgeLen, ZoneFactoid.ZERO_VAR, IntConstant.v(1));
@@ -844,7 +968,8 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 					// Skip this graph as it raises a NullPointerException.
 				} else {
 					SLLGraph disjunct = graph.copy();
-					Node lhsNode = disjunct.pointsTo(lhs);
+					Node lhsNode = disjunct.getWritableNode(disjunct
+							.pointsTo(lhs));
 					Node rhsNode = disjunct.pointsTo(rhs);
 					lhsNode.next = rhsNode;
 					lhsNode.edgeLen = makeLocal();//TODO
@@ -866,9 +991,11 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	 */
 	protected class InitAllNullsTransformer extends
 			UnaryOperation<DisjunctiveState<SLLGraph>> {
+		protected final Set<Local> bodyLocals = locals.get();
+
 		@Override
 		public DisjunctiveState<SLLGraph> apply(DisjunctiveState<SLLGraph> input) {
-			return initNulls();
+			return initNulls(bodyLocals);
 		}
 	}
 
@@ -882,6 +1009,7 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 	protected class InitAcyclicTransformer extends
 			UnaryOperation<DisjunctiveState<SLLGraph>> {
 		protected final Local var;
+		protected final Set<Local> bodyLocals = locals.get();
 
 		public InitAcyclicTransformer(Local var) {
 			this.var = var;
@@ -889,7 +1017,7 @@ public class SLLDomain extends AbstractDomain<DisjunctiveState<SLLGraph>, Unit>
 
 		@Override
 		public DisjunctiveState<SLLGraph> apply(DisjunctiveState<SLLGraph> input) {
-			return initAcyclic(var);
+			return initAcyclic(var, bodyLocals);
 		}
 	}
 
@@ -1,13 +1,14 @@
 package bgu.cs.absint.analyses.sllSize;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
 
 import bgu.cs.absint.analyses.zone.ZoneFactoid;
@@ -25,74 +26,84 @@ import soot.jimple.internal.JimpleLocal;
  * variables).<br>
  * Each list segment is associated with a numeric variable that represents its
  * size and the numeric relations between these variables is represented by an
- * element of the Zone domain.
+ * element of the Zone domain.<br>
+ * Graphs are compared by their shape, via its canonical form (see
+ * {@link #getCanonicalForm()}), which is computed when it is first needed and
+ * discarded when the graph is modified.<br>
+ * Copies of a graph share its nodes, which are copied on demand: a node must
+ * be obtained via {@link #getWritableNode(Node)} or
+ * {@link #makeNodesWritable()} before it is modified directly, and nodes must
+ * not be modified once the graph has been hashed or compared.
  * 
  * @author romanm
  */
 public class SLLGraph {
-	public final Node nullNode = new Node(null, null);
+	public final Node nullNode;
 
-	protected Collection<Node> nodes = new ArrayList<Node>();
-	protected Map<Local, Node> pointsTo = new TreeMap<Local, Node>(new LocalComparator());
+	protected Collection<Node> nodes;
+	protected Map<Local, Node> pointsTo;
 
 	/**
 	 * Maintains numeric relations between all list segments.
 	 */
 	protected ZoneState sizes;
 
+	/**
+	 * Set when {@link #nodes} is shared with another graph, and must
+	 * therefore be copied before it is modified.
+	 */
+	private boolean nodesShared;
+
+	/**
+	 * Set when {@link #pointsTo} is shared with another graph, and must
+	 * therefore be copied before it is modified.
+	 */
+	private boolean pointsToShared;
+
+	/**
+	 * The token marking the nodes that this graph may modify in place. It is
+	 * replaced when the graph is copied, since from then on all of its nodes
+	 * are shared with the copy.
+	 */
+	private Object owner = new Object();
+
+	/**
+	 * The nodes in canonical order, or null if the canonical form has not been
+	 * computed since the graph was last modified.
+	 */
+	private volatile Node[] canonicalOrder;
+
+	/**
+	 * The canonical form of the graph, or null if it has not been computed
+	 * since the graph was last modified.
+	 */
+	private volatile int[] canonicalForm;
+
+	private int canonicalHash;
+
 	public SLLGraph() {
+		nullNode = new Node(null, null);
+		nodes = new ArrayList<Node>();
+		pointsTo = new TreeMap<Local, Node>(new LocalComparator());
 		nodes.add(nullNode);
 	}
 
-	
-	
 	public SLLGraph dropLocals(Collection<Local> locals) {
 		SLLGraph simpler = this.copy();
 		for (Local local : locals) {
-			simpler.pointsTo.remove(local);
+			simpler.unmapLocal(local);
 		}
 		return simpler;
 	}
 
-	
 	/**
-	 * Creates an isomorphic shape graph.
+	 * Creates an isomorphic shape graph, which shares its nodes with this
+	 * graph until either graph modifies them.
 	 * 
 	 * @return A shape graph that is isomorphic to this one.
 	 */
 	public SLLGraph copy() {
-		SLLGraph result = new SLLGraph();
-		// Matches a node in this graph to a node in the result graph.
-		Map<Node, Node> matching = new HashMap<>(nodes.size());
-		for (Node node : nodes) {
-			if (node == nullNode)
-				continue;
-			Node newNode = new Node();
-			newNode.pointedBy = new HashSet<>(node.pointedBy);
-			matching.put(node, newNode);
-			result.addNode(newNode);
-		}
-		// Match the null node separately.
-		matching.put(nullNode, result.nullNode);
-
-		// Now update the next pointers.
-		for (Map.Entry<Node, Node> entry : matching.entrySet()) {
-			Node thisNode = entry.getKey();
-			Node otherNode = entry.getValue();
-			if (thisNode.next != null) {
-				otherNode.next = matching.get(thisNode.next);
-			}
-			otherNode.edgeLen = thisNode.edgeLen;
-		}
-
-		// Finally, update the pointsTo map.
-		for (Map.Entry<Local, Node> entry : pointsTo.entrySet()) {
-			Local var = entry.getKey();
-			Node node = entry.getValue();
-			Node otherNode = matching.get(node);
-			result.pointsTo.put(var, otherNode);
-		}
-		result.sizes = this.sizes.copy();
+		SLLGraph result = new SLLGraph(this);
 		return result;
 	}
 
@@ -115,30 +126,42 @@ public class SLLGraph {
 		return pointsTo.get(v);
 	}
 
+	/**
+	 * Checks whether some local variable points to the given node.
+	 */
+	public boolean isPointed(Node n) {
+		return pointsTo.containsValue(n);
+	}
+
 	public void addNode(Node n) {
 		assert !nodes.contains(n);
 		if (n.next != null)
 			assert nodes.contains(n.next) : "Attempt to add a node where the next node is not part of the same graph!";
+		ownNodes();
 		nodes.add(n);
+		n.owner = owner;
+		invalidateCanonicalForm();
 	}
 
 	public void removeNode(Node n) {
 		assert n != nullNode;
+		ownNodes();
 		nodes.remove(n);
+		invalidateCanonicalForm();
 	}
 
 	public void mapLocal(Local v, Node n) {
 		assert nodes.contains(n);
-		unmapLocal(v);
-		n.addLocal(v);
+		ownPointsTo();
 		pointsTo.put(v, n);
+		invalidateCanonicalForm();
 	}
 
 	public void unmapLocal(Local v) {
-		Node n = pointsTo(v);
-		if (n != null) {
-			n.removeLocal(v);
+		if (pointsTo.containsKey(v)) {
+			ownPointsTo();
 			pointsTo.remove(v);
+			invalidateCanonicalForm();
 		}
 	}
 
@@ -154,83 +177,232 @@ public class SLLGraph {
 				workset.add(next);
 			}
 		}
-		nodes.retainAll(reachable);
+		if (reachable.containsAll(nodes))
+			return;
+		ArrayList<Node> live = new ArrayList<>(reachable.size());
+		for (Node n : nodes) {
+			if (reachable.contains(n))
+				live.add(n);
+		}
+		nodes = live;
+		nodesShared = false;
+		invalidateCanonicalForm();
 	}
 
-	@Override
-	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + nodes.size();
-		for (Node n : pointsTo.values()) {
-			result = prime * result + n.pointedBy.hashCode();
+	/**
+	 * Returns the node of this graph that corresponds to the given node and
+	 * may be modified in place. If the node is shared with other graphs, it
+	 * is replaced by a copy, along with the shared nodes from which it is
+	 * reachable, since their 'next' pointers must lead to the copy. All other
+	 * nodes remain shared.
+	 */
+	public Node getWritableNode(Node n) {
+		assert n != nullNode;
+		if (n.owner == owner)
+			return n;
+		Map<Node, List<Node>> preds = new HashMap<>(nodes.size() * 2);
+		for (Node p : nodes) {
+			if (p.next != null) {
+				List<Node> nextPreds = preds.get(p.next);
+				if (nextPreds == null) {
+					nextPreds = new ArrayList<>(1);
+					preds.put(p.next, nextPreds);
+				}
+				nextPreds.add(p);
+			}
 		}
-		return result;
+		Map<Node, Node> copies = new HashMap<>();
+		ArrayList<Node> workset = new ArrayList<>();
+		copies.put(n, n.copy());
+		workset.add(n);
+		while (!workset.isEmpty()) {
+			List<Node> nodePreds = preds.get(workset.remove(workset.size() - 1));
+			if (nodePreds == null)
+				continue;
+			for (Node p : nodePreds) {
+				if (p.owner != owner && !copies.containsKey(p)) {
+					copies.put(p, p.copy());
+					workset.add(p);
+				}
+			}
+		}
+		replaceNodes(copies);
+		return copies.get(n);
 	}
 
 	/**
-	 * Checks whether this graph is isomorphic to the given one.
+	 * Replaces all nodes that are shared with other graphs by copies, which
+	 * is cheaper than {@link #getWritableNode(Node)} when many nodes are
+	 * about to be modified.
 	 */
-	@Override
-	public boolean equals(Object o) {
-		SLLGraph other = (SLLGraph) o;
-		this.normalize();
-		other.normalize();
-		if (nodes.size() != other.nodes.size())
-			return false;
-		
-		// Attempt to create an initial matching of nodes based on
-		// the pointed-by sets.
-		Map<Node, Node> matching = new HashMap<>();
-		for (Map.Entry<Local, Node> entry : pointsTo.entrySet()) {
-			Local v = entry.getKey();
-			Node n = entry.getValue();
-			assert n != null;
-			Node otherNode = other.pointsTo(v);
-			if (otherNode == null)
-				return false;
-			if (!n.pointedBy.equals(otherNode.pointedBy))
-				return false;
-			matching.put(n, otherNode);
+	public void makeNodesWritable() {
+		Map<Node, Node> copies = new HashMap<>(nodes.size() * 2);
+		for (Node n : nodes) {
+			if (n != nullNode && n.owner != owner)
+				copies.put(n, n.copy());
 		}
+		if (!copies.isEmpty())
+			replaceNodes(copies);
+	}
 
-		// Complete the matching based on the 'next' relation.
-		HashSet<Node> workset = new HashSet<>();
-		workset.addAll(matching.keySet());
-		while (!workset.isEmpty()) {
-			Node nodeToCheck = workset.iterator().next();
-			workset.remove(nodeToCheck);
-			Node matchedNodeToCheck = matching.get(nodeToCheck);
-			assert matchedNodeToCheck != null;
-			Node nextNode = nodeToCheck.next;
-			if (nextNode != null) {
-				matching.put(nextNode, matchedNodeToCheck.next);
-				if (!matching.containsKey(nextNode)) {
-					workset.add(nextNode);
-				}
+	/**
+	 * Replaces nodes of this graph by the given copies, which this graph
+	 * takes ownership of, and redirects the 'next' pointers and the
+	 * variables to the copies.
+	 */
+	private void replaceNodes(Map<Node, Node> copies) {
+		ArrayList<Node> newNodes = new ArrayList<>(nodes.size());
+		for (Node n : nodes) {
+			Node copy = copies.get(n);
+			if (copy != null) {
+				copy.owner = owner;
+				n = copy;
+			}
+			if (n.next != null && copies.containsKey(n.next)) {
+				assert n.owner == owner;
+				n.next = copies.get(n.next);
 			}
+			newNodes.add(n);
 		}
+		nodes = newNodes;
+		nodesShared = false;
+		ownPointsTo();
+		for (Map.Entry<Local, Node> entry : pointsTo.entrySet()) {
+			Node copy = copies.get(entry.getValue());
+			if (copy != null)
+				entry.setValue(copy);
+		}
+		invalidateCanonicalForm();
+	}
 
-		// Finally, check that the matching preserves the 'next' relation.
-		for (Map.Entry<Node, Node> entry : matching.entrySet()) {
-			Node thisNode = entry.getKey();
-			Node otherNode = entry.getValue();
-			//TODO: 
-			if (thisNode.edgeLen != otherNode.edgeLen)
-				return false;
-			if (thisNode.next == null) {
-				if (otherNode.next != null)
-					return false;
-			} else {
-				Node matchedNextNode = matching.get(thisNode.next);
-				if (matchedNextNode == null)
-					return false;
-				if (matchedNextNode != otherNode.next)
-					return false;
+	/**
+	 * Copies the list of nodes if it is shared with another graph.
+	 */
+	private void ownNodes() {
+		if (nodesShared) {
+			nodes = new ArrayList<>(nodes);
+			nodesShared = false;
+		}
+	}
+
+	/**
+	 * Copies the points-to map if it is shared with another graph.
+	 */
+	private void ownPointsTo() {
+		if (pointsToShared) {
+			pointsTo = new TreeMap<>((SortedMap<Local, Node>) pointsTo);
+			pointsToShared = false;
+		}
+	}
+
+	/**
+	 * Returns the nodes of the graph in canonical order. The null node comes
+	 * first, followed by the nodes reached by following the 'next' chains from
+	 * the nodes pointed to by the local variables, taking the variables in the
+	 * order of {@link #pointsTo}, and finally the unreachable nodes.
+	 */
+	public Node[] getCanonicalOrder() {
+		Node[] result = canonicalOrder;
+		if (result == null) {
+			canonicalize();
+			result = canonicalOrder;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the canonical form of the shape of the graph: the number of
+	 * nodes, then the number and canonical node index of each variable, in the
+	 * order of the variables, and then the index of the next node of each
+	 * node, in canonical order. The sizes of the list segments are not part of
+	 * the form. Two graphs have isomorphic shapes if and only if their
+	 * canonical forms are equal.
+	 */
+	public int[] getCanonicalForm() {
+		int[] result = canonicalForm;
+		if (result == null) {
+			canonicalize();
+			result = canonicalForm;
+		}
+		return result;
+	}
+
+	/**
+	 * Discards the canonical form after the graph is modified.
+	 */
+	protected void invalidateCanonicalForm() {
+		canonicalForm = null;
+		canonicalOrder = null;
+	}
+
+	/**
+	 * Computes the canonical order and canonical form of the graph in time
+	 * linear in its size.
+	 */
+	private void canonicalize() {
+		Map<Node, Integer> index = new HashMap<>(nodes.size() * 2);
+		ArrayList<Node> order = new ArrayList<>(nodes.size());
+		index.put(nullNode, 0);
+		order.add(nullNode);
+		for (Node n : pointsTo.values()) {
+			while (n != null && !index.containsKey(n)) {
+				index.put(n, order.size());
+				order.add(n);
+				n = n.next;
+			}
+		}
+		for (Node n : nodes) {
+			if (!index.containsKey(n)) {
+				index.put(n, order.size());
+				order.add(n);
 			}
 		}
 
-		return true;
+		int[] form = new int[1 + 2 * pointsTo.size() + order.size()];
+		int i = 0;
+		form[i++] = order.size();
+		for (Map.Entry<Local, Node> entry : pointsTo.entrySet()) {
+			form[i++] = entry.getKey().getNumber();
+			form[i++] = index.get(entry.getValue());
+		}
+		for (Node n : order)
+			form[i++] = n.next == null ? -1 : index.get(n.next);
+
+		// The hash combines the number of nodes with the variables pointing to
+		// each node, in the order of the variables. Upper bounds keep the
+		// first of several graphs with equal shapes, so the order in which
+		// graphs are visited, which follows their hashes, affects results.
+		Map<Node, Integer> pointedByHash = new HashMap<>(pointsTo.size() * 2);
+		for (Map.Entry<Local, Node> entry : pointsTo.entrySet())
+			pointedByHash.merge(entry.getValue(), entry.getKey().hashCode(),
+					Integer::sum);
+		int hash = 31 + nodes.size();
+		for (Node n : pointsTo.values())
+			hash = 31 * hash + pointedByHash.get(n);
+
+		canonicalHash = hash;
+		canonicalOrder = order.toArray(new Node[order.size()]);
+		canonicalForm = form;
+	}
+
+	@Override
+	public int hashCode() {
+		getCanonicalForm();
+		return canonicalHash;
+	}
+
+	/**
+	 * Checks whether the shape of this graph is isomorphic to the shape of the
+	 * given one by comparing their canonical forms.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		SLLGraph other = (SLLGraph) o;
+		if (hashCode() != other.hashCode())
+			return false;
+		return Arrays.equals(getCanonicalForm(), other.getCanonicalForm());
 	}
 	
 	@Override
@@ -256,7 +428,7 @@ public class SLLGraph {
 				continue;
 			assert n.next != null;
 			String nextNodeName = nodeToName.get(n.next);
-			int len = getConstant(this, n.edgeLen, ZoneFactoid.ZERO_VAR).value;
+			int len = getConstant(sizes, n.edgeLen, ZoneFactoid.ZERO_VAR).value;
 			String edgeLenStr = len == 1 ?
 					".next=" 
 					: "~["+len+"]~>";
@@ -276,7 +448,7 @@ public class SLLGraph {
 	static ArrayList<Local> vars;
 	
 
-	public static Local nextLocal(int index){
+	public static synchronized Local nextLocal(int index){
 		
 		if(vars==null)
 		{
@@ -291,95 +463,73 @@ public class SLLGraph {
 		return vars.get(index);
 		
 	}
-	HashMap<Integer,Node> mapper = new HashMap<Integer,Node>(); 
-	public void normalize()
-	{
-//		SLLGraph res = new SLLGraph();
-		
-		Iterator<Node> iter = this.nodes.iterator();
-		int numOfNodes =this.nodes.size();
-//		if(numOfNodes>1)
-//			System.out.println("");
-		for(int i=0;i<numOfNodes;i++){		
-			mapper.put(i,iter.next());
-		}
-		DFS(0,numOfNodes);
-		
+	/**
+	 * Renames the length variables of the list segments after the canonical
+	 * indices of their source nodes, so that corresponding segments of graphs
+	 * with isomorphic shapes have the same length variables.
+	 */
+	public void normalize() {
+		makeNodesWritable();
+		Node[] order = getCanonicalOrder();
+		normalizeSizes(sizes, order);
+		for (int i = 1; i < order.length; ++i)
+			order[i].edgeLen = nextLocal(i);
 	}
-	
-	public int revMap(Node n)
-	{
-		for(Entry<Integer, Node> a : mapper.entrySet())
-		{
-			if(a.getValue().equals(n))
-				return a.getKey();
-		}
-		return -1;
+
+	/**
+	 * Returns the sizes that the graph would have after {@link #normalize()},
+	 * without modifying the graph.
+	 */
+	public ZoneState getNormalizedSizes() {
+		ZoneState result = sizes.copy();
+		normalizeSizes(result, getCanonicalOrder());
+		return result;
 	}
-	int DFSUtil(int v,boolean visited[])
-    {
-        // Mark the current node as visited and print it
-		if(v>=visited.length)
-			return v;
-        visited[v] = true;
-        
-//        System.out.println("Visited " + v);
-//        Node n = this.mapper.get(v).next;
-        Node n = this.mapper.get(v);
-        if(n != nullNode)
-        {
-	        
-	        Local oldLen = n.edgeLen;
-	        IntConstant intConst = getConstant(this, oldLen, ZoneFactoid.ZERO_VAR);
-	        this.sizes.removeVar(oldLen);
-	        n.edgeLen=nextLocal(v);
-	        v++;
-	        this.sizes.addFactoid(n.edgeLen, ZoneFactoid.ZERO_VAR, intConst);	        
-//	        v = revMap(n.next);
-	        
-	        if (v<visited.length && !visited[v])
-	            v = DFSUtil(v, visited);
-        }
-        else v++;
-        return v;
-    }
-	private IntConstant getConstant(SLLGraph graph, Local a, Local b){
-		for(ZoneFactoid zf: graph.sizes.getFactoids()){
+
+	/**
+	 * Replaces the length variables of the given nodes in the given sizes by
+	 * the variables of their indices.
+	 */
+	private void normalizeSizes(ZoneState target, Node[] order) {
+		IntConstant[] lengths = new IntConstant[order.length];
+		for (int i = 1; i < order.length; ++i)
+			lengths[i] = getConstant(target, order[i].edgeLen,
+					ZoneFactoid.ZERO_VAR);
+		// Remove all old variables before adding the new ones, since a new
+		// variable may be the old variable of another segment.
+		for (int i = 1; i < order.length; ++i)
+			target.removeVar(order[i].edgeLen);
+		for (int i = 1; i < order.length; ++i)
+			target.addFactoid(nextLocal(i), ZoneFactoid.ZERO_VAR, lengths[i]);
+	}
+
+	private IntConstant getConstant(ZoneState sizes, Local a, Local b){
+		for(ZoneFactoid zf: sizes.getFactoids()){
 			if(zf.lhs==a && zf.rhs == b)
 				return zf.bound;
 		}
 		return IntConstant.v(1);
 	}
 
- 
-    // The function to do DFS traversal. It uses recursive DFSUtil()
-    void DFS(int v,int size)
-    {
-        // Mark all the vertices as not visited(set as
-        // false by default in java)
-        boolean visited[] = new boolean[size];
- 
-        for(boolean b:visited){
-        	if(!b)
-        		v = DFSUtil(v, visited);
-        }
-        // Call the recursive helper function to print DFS traversal
-        
-    }
-	
-	
-	
-	
-	
-	
-	
-	
-	
-	
-	
-	
-	
-	
-	
-	
+	/**
+	 * Constructs a graph that shares its nodes, its points-to map and its
+	 * canonical form with the given graph, and has a copy of its sizes.
+	 */
+	private SLLGraph(SLLGraph shareFrom) {
+		nullNode = shareFrom.nullNode;
+		nodes = shareFrom.nodes;
+		pointsTo = shareFrom.pointsTo;
+		nodesShared = true;
+		pointsToShared = true;
+		shareFrom.nodesShared = true;
+		shareFrom.pointsToShared = true;
+		shareFrom.owner = new Object();
+		int[] form = shareFrom.canonicalForm;
+		if (form != null) {
+			canonicalHash = shareFrom.canonicalHash;
+			canonicalOrder = shareFrom.canonicalOrder;
+			canonicalForm = form;
+		}
+		sizes = shareFrom.sizes.copy();
+	}
 }
\ No newline at end of file
@@ -3,6 +3,8 @@ package bgu.cs.absint.analyses.ve;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import soot.Local;
 import soot.Unit;
@@ -34,8 +36,6 @@ public class VEDomain extends AbstractDomain<VEState, Unit> implements
 	 */
 	private static final VEDomain v = new VEDomain();
 
-	protected VEMatcher matcher = new VEMatcher();
-
 	public static final VEDomain v() {
 		return v;
 	}
@@ -57,9 +57,22 @@ public class VEDomain extends AbstractDomain<VEState, Unit> implements
 		} else if (second == VEState.bottom) {
 			return first;
 		} else {
-			// Compute the intersection of the two sets of {@link VEFactois}.
-			VEState result = new VEState(first);
-			result.factoids.retainAll(second.factoids);
+			// Compute the intersection of the two partitions: two variables
+			// are equal in the result if they are equal in both states.
+			VEState result = new VEState();
+			// Maps the representatives of a variable in both states to the
+			// first variable encountered with these representatives.
+			Map<Local, Map<Local, Local>> repsToVar = new HashMap<>();
+			for (Map.Entry<Local, Local> entry : first.varToRep.entrySet()) {
+				Local var = entry.getKey();
+				Local secondRep = second.varToRep.get(var);
+				if (secondRep == null)
+					continue;
+				Local other = repsToVar.computeIfAbsent(entry.getValue(),
+						rep -> new HashMap<>()).putIfAbsent(secondRep, var);
+				if (other != null)
+					result.addFactoid(other, var);
+			}
 			return result;
 		}
 	}
@@ -69,9 +82,10 @@ public class VEDomain extends AbstractDomain<VEState, Unit> implements
 		if (first == VEState.bottom || second == VEState.bottom) {
 			return VEState.bottom;
 		} else {
-			// Compute the union of the two sets of varToFactoid.
-			VEState result = new VEState(first);
-			result.factoids.addAll(second.factoids);
+			// Compute the union of the two partitions.
+			VEState result = first.copy();
+			for (Map.Entry<Local, Local> entry : second.varToRep.entrySet())
+				result.addFactoid(entry.getKey(), entry.getValue());
 			return result;
 		}
 	}
@@ -84,13 +98,19 @@ public class VEDomain extends AbstractDomain<VEState, Unit> implements
 			// first != bottom
 			return false;
 		} else {
-			return first.factoids.containsAll(second.factoids);
+			// Check that the variables of each class of the second state are
+			// equal in the first state.
+			for (Map.Entry<Local, Local> entry : second.varToRep.entrySet()) {
+				if (!first.areEqual(entry.getKey(), entry.getValue()))
+					return false;
+			}
+			return true;
 		}
 	}
 
 	@Override
 	public UnaryOperation<VEState> getTransformer(Unit stmt) {
-		UnaryOperation<VEState> vanillaTransformer = matcher
+		UnaryOperation<VEState> vanillaTransformer = new VEMatcher()
 				.getTransformer(stmt);
 		if (vanillaTransformer.equals(IdOperation.v())) {
 			// An optimization - no need to run a reduction after an identity
@@ -102,66 +122,24 @@ public class VEDomain extends AbstractDomain<VEState, Unit> implements
 		}
 	}
 
+	/**
+	 * Returns the identity operation, since the union-find representation of
+	 * states keeps the equalities transitively closed.
+	 */
+	@Override
+	public UnaryOperation<VEState> getReductionOperation() {
+		return IdOperation.v();
+	}
+
 	/**
 	 * A reduction operator (we called it Explicate in class) for the variable
-	 * equalities abstract domain. The operator adds varToFactoid by computing
-	 * the transitive closure of the equality relation.
+	 * equalities abstract domain, which adds the factoids obtained by the
+	 * transitive closure of the equality relation. States are always closed,
+	 * so the input is returned.
 	 */
 	@Override
 	public VEState reduce(VEState input) {
-		// Special treatment for bottom.
-		if (input.equals(VEState.bottom))
-			return VEState.bottom;
-		if (input.equals(VEState.top))
-			return VEState.top;
-
-		VEState result = new VEState(input);
-		boolean change = true;
-		while (change) {
-			change = false;
-			for (VEFactoid factoid1 : result.factoids) {
-				for (VEFactoid factoid2 : result.factoids) {
-					if (factoid1.equals(factoid2))
-						continue;
-
-					// Check whether there is a common variable, which means
-					// we may apply the transitive closure rule and get a
-					// new factoid.
-					if (factoid2.hasVar(factoid1.lhs)
-							|| factoid2.hasVar(factoid1.rhs)) {
-						Local lhs = null;
-						Local rhs = null;
-						if (factoid1.lhs != factoid2.lhs) {
-							lhs = factoid1.lhs;
-							rhs = factoid2.lhs;
-						} else if (factoid1.lhs != factoid2.rhs) {
-							lhs = factoid1.lhs;
-							rhs = factoid2.rhs;
-						} else if (factoid1.rhs != factoid2.lhs) {
-							lhs = factoid1.rhs;
-							rhs = factoid2.lhs;
-						} else if (factoid1.rhs != factoid2.rhs) {
-							lhs = factoid1.rhs;
-							rhs = factoid2.rhs;
-						}
-
-						if (lhs != rhs) {
-							VEFactoid newFactoid = new VEFactoid(lhs, rhs);
-							if (!result.factoids.contains(newFactoid)) {
-								result.factoids.add(newFactoid);
-								change = true;
-							}
-						}
-					}
-					if (change) // Avoids concurrent modification
-								// exceptions.
-						break;
-				}
-				if (change) // Avoids concurrent modification exceptions.
-					break;
-			}
-		}
-		return result;
+		return input;
 	}
 
 	@Override
@@ -182,6 +160,10 @@ public class VEDomain extends AbstractDomain<VEState, Unit> implements
 			return null;
 	}
 
+	/**
+	 * Returns an equality between each variable and the representative of its
+	 * class, which implies all the equalities of the state.
+	 */
 	@Override
 	public Collection<Pair<Local, Local>> inferEqualities(Object input) {
 		VEState state = (VEState) input;
@@ -189,8 +171,9 @@ public class VEDomain extends AbstractDomain<VEState, Unit> implements
 			return Collections.emptyList();
 
 		ArrayList<Pair<Local, Local>> result = new ArrayList<>();
-		for (VEFactoid factoid : state.factoids) {
-			result.add(new Pair<>(factoid.lhs, factoid.rhs));
+		for (Map.Entry<Local, Local> entry : state.varToRep.entrySet()) {
+			if (entry.getKey() != entry.getValue())
+				result.add(new Pair<>(entry.getKey(), entry.getValue()));
 		}
 		return result;
 	}
@@ -280,10 +263,10 @@ public class VEDomain extends AbstractDomain<VEState, Unit> implements
 		@Override
 		public VEState apply(VEState input) {
 			// Special treatment for bottom.
-			if (input.equals(VEState.bottom))
+			if (input == VEState.bottom)
 				return VEState.bottom;
 
-			if (input.factoids.contains(checkedFactoid))
+			if (input.areEqual(lhs, rhs))
 				return VEState.bottom;
 			else
 				return input;
@@ -318,18 +301,14 @@ public class VEDomain extends AbstractDomain<VEState, Unit> implements
 		@Override
 		public VEState apply(VEState input) {
 			// Special treatment for bottom.
-			if (input.equals(VEState.bottom))
+			if (input == VEState.bottom)
 				return VEState.bottom;
 
-			VEState result = new VEState();
+			VEState result = input.copy();
 			// Apply the preservation rule to each factoid.
-			for (VEFactoid factoid : input.factoids) {
-				if (!factoid.hasVar(lhs)) {
-					result.factoids.add(factoid);
-				}
-			}
+			result.removeVar(lhs);
 			// Apply the new factoid rule.
-			result.factoids.add(newFactoid);
+			result.add(newFactoid);
 
 			return result;
 		}
@@ -360,12 +339,12 @@ public class VEDomain extends AbstractDomain<VEState, Unit> implements
 		@Override
 		public VEState apply(VEState input) {
 			// Special treatment for bottom.
-			if (input.equals(VEState.bottom))
+			if (input == VEState.bottom)
 				return VEState.bottom;
 
 			VEState result = input.copy();
 			// Apply the new factoid rule.
-			result.factoids.add(newFactoid);
+			result.add(newFactoid);
 
 			return result;
 		}
@@ -398,15 +377,11 @@ public class VEDomain extends AbstractDomain<VEState, Unit> implements
 		@Override
 		public VEState apply(VEState input) {
 			// Special treatment for bottom.
-			if (input.equals(VEState.bottom))
+			if (input == VEState.bottom)
 				return VEState.bottom;
 
-			VEState result = new VEState();
-			for (VEFactoid factoid : input.factoids) {
-				if (!factoid.hasVar(lhs)) {
-					result.factoids.add(factoid);
-				}
-			}
+			VEState result = input.copy();
+			result.removeVar(lhs);
 			return result;
 		}
 	}
@@ -1,5 +1,11 @@
 package bgu.cs.absint.analyses.ve;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import soot.Local;
 import bgu.cs.absint.constructor.ConjunctiveState;
 
@@ -8,10 +14,16 @@ import bgu.cs.absint.constructor.ConjunctiveState;
  * The (symbolic) meaning of a state is given by the conjunction of the
  * {@link VEFactoid}s. The set does not contain symmetric {@link VEFactoid}s
  * (i.e., if {@code x=y} is in the set then {@code y=x} is not in the set) and
- * trivial {@link VEFactoid}s (i.e., {@code x=x}).
- * 
+ * trivial {@link VEFactoid}s (i.e., {@code x=x}).<br>
+ * The state is represented by a union-find partition of the variables into
+ * equivalence classes, so the set of factoids is always transitively closed.
+ * Each variable of a class maps to the representative of the class, and only
+ * classes with at least two variables are stored. Copies of a state share the
+ * partition until one of them is modified, and the set of factoids is only
+ * created when it is requested.
+ *
  * @author romanm
- * 
+ *
  */
 public class VEState extends ConjunctiveState<Local, VEFactoid> {
 	/**
@@ -54,8 +66,32 @@ public class VEState extends ConjunctiveState<Local, VEFactoid> {
 		}
 	};
 
+	/**
+	 * Maps each variable that is equal to another variable to the
+	 * representative of its class.
+	 */
+	protected Map<Local, Local> varToRep;
+
+	/**
+	 * Maps the representative of each class to the variables of the class.
+	 */
+	protected Map<Local, List<Local>> repToClass;
+
+	/**
+	 * Indicates that the partition may be shared with another state, and
+	 * should therefore be copied before it is modified.
+	 */
+	private volatile boolean shared;
+
+	/**
+	 * Indicates whether {@link factoids} holds the factoids of the partition.
+	 */
+	private volatile boolean factoidsValid = true;
+
 	public VEState() {
 		super();
+		varToRep = new HashMap<>();
+		repToClass = new HashMap<>();
 	}
 
 	@Override
@@ -66,8 +102,143 @@ public class VEState extends ConjunctiveState<Local, VEFactoid> {
 			return new VEState(this);
 	}
 
+	/**
+	 * Returns the representative of the class of the given variable.
+	 */
+	public Local find(Local var) {
+		Local rep = varToRep.get(var);
+		return rep == null ? var : rep;
+	}
+
+	/**
+	 * Checks whether the given variables are known to be equal.
+	 */
+	public boolean areEqual(Local lhs, Local rhs) {
+		return lhs == rhs || find(lhs) == find(rhs);
+	}
+
+	/**
+	 * Returns the classes of equal variables, which contain at least two
+	 * variables each.
+	 */
+	public Collection<List<Local>> getClasses() {
+		return repToClass.values();
+	}
+
+	/**
+	 * Merges the classes of the given variables.
+	 *
+	 * @return true if the classes were different.
+	 */
 	public boolean addFactoid(Local lhs, Local rhs) {
-		return factoids.add(new VEFactoid(lhs, rhs));
+		Local lhsRep = find(lhs);
+		Local rhsRep = find(rhs);
+		if (lhsRep == rhsRep)
+			return false;
+		prepareForWrite();
+		List<Local> lhsClass = getOrCreateClass(lhsRep);
+		List<Local> rhsClass = getOrCreateClass(rhsRep);
+		// Move the variables of the smaller class to the larger one.
+		if (lhsClass.size() < rhsClass.size()) {
+			List<Local> tmpClass = lhsClass;
+			lhsClass = rhsClass;
+			rhsClass = tmpClass;
+			Local tmpRep = lhsRep;
+			lhsRep = rhsRep;
+			rhsRep = tmpRep;
+		}
+		for (Local var : rhsClass) {
+			varToRep.put(var, lhsRep);
+			lhsClass.add(var);
+		}
+		repToClass.remove(rhsRep);
+		factoidsValid = false;
+		return true;
+	}
+
+	@Override
+	public boolean add(VEFactoid factoid) {
+		return addFactoid(factoid.lhs, factoid.rhs);
+	}
+
+	/**
+	 * Removes any factoid containing the given variable.
+	 *
+	 * @param lhs
+	 *            The variable to be removed from the state.
+	 */
+	@Override
+	public boolean removeVar(Local lhs) {
+		Local rep = varToRep.get(lhs);
+		if (rep == null)
+			return false;
+		prepareForWrite();
+		List<Local> varClass = repToClass.remove(rep);
+		varToRep.remove(lhs);
+		varClass.remove(lhs);
+		if (varClass.size() == 1) {
+			varToRep.remove(varClass.get(0));
+		} else {
+			Local newRep = varClass.get(0);
+			if (newRep != rep) {
+				for (Local var : varClass)
+					varToRep.put(var, newRep);
+			}
+			repToClass.put(newRep, varClass);
+		}
+		factoidsValid = false;
+		return true;
+	}
+
+	/**
+	 * Returns the factoids relating each two variables of the same class.
+	 */
+	@Override
+	public Collection<VEFactoid> getFactoids() {
+		if (this == bottom)
+			return null;
+		if (!factoidsValid) {
+			synchronized (factoids) {
+				if (!factoidsValid) {
+					factoids.clear();
+					for (List<Local> varClass : repToClass.values()) {
+						for (int i = 0; i < varClass.size(); ++i) {
+							for (int j = i + 1; j < varClass.size(); ++j)
+								factoids.add(new VEFactoid(varClass.get(i),
+										varClass.get(j)));
+						}
+					}
+					factoidsValid = true;
+				}
+			}
+		}
+		return factoids;
+	}
+
+	private List<Local> getOrCreateClass(Local rep) {
+		List<Local> result = repToClass.get(rep);
+		if (result == null) {
+			result = new ArrayList<>(2);
+			result.add(rep);
+			varToRep.put(rep, rep);
+			repToClass.put(rep, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Makes the partition of this state private.
+	 */
+	private void prepareForWrite() {
+		if (shared) {
+			varToRep = new HashMap<>(varToRep);
+			Map<Local, List<Local>> newRepToClass = new HashMap<>();
+			for (Map.Entry<Local, List<Local>> entry : repToClass.entrySet())
+				newRepToClass.put(entry.getKey(),
+						new ArrayList<>(entry.getValue()));
+			repToClass = newRepToClass;
+			shared = false;
+		}
 	}
 
 	protected VEState(boolean dummy) {
@@ -75,6 +246,16 @@ public class VEState extends ConjunctiveState<Local, VEFactoid> {
 	}
 
 	protected VEState(VEState copyFrom) {
-		super(copyFrom.factoids);
+		super();
+		if (copyFrom.repToClass.isEmpty()) {
+			varToRep = new HashMap<>();
+			repToClass = new HashMap<>();
+		} else {
+			varToRep = copyFrom.varToRep;
+			repToClass = copyFrom.repToClass;
+			shared = true;
+			copyFrom.shared = true;
+			factoidsValid = false;
+		}
 	}
-}
\ No newline at end of file
+}
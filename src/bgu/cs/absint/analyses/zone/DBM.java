@@ -0,0 +1,591 @@
+package bgu.cs.absint.analyses.zone;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import soot.Local;
+import soot.jimple.IntConstant;
+import bgu.cs.absint.soot.LocalNumbering;
+
+/**
+ * A difference-bound matrix (DBM), which represents a conjunction of
+ * constraints of the form {@code x - y <= c} as a primitive matrix.<br>
+ * Variables are identified by their numbers in a {@link LocalNumbering}, where
+ * {@link ZoneFactoid#ZERO_VAR} is numbered 0. The matrix only has rows and
+ * columns for the variables that were added to it, ordered by their numbers,
+ * so the row of {@link ZoneFactoid#ZERO_VAR} is always the first one, and
+ * {@link #INF} stands for the absence of a constraint.<br>
+ * A matrix is closed if every entry holds the tightest bound implied by the
+ * whole matrix. The closure is computed by {@link #close} in O(n^3), and
+ * restored by {@link #assume} and {@link #closeVar} in O(n^2) after changing
+ * the constraints of a single variable.
+ */
+public class DBM {
+	/**
+	 * Stands for the absence of a bound.
+	 */
+	public static final int INF = Integer.MAX_VALUE;
+
+	/**
+	 * The numbering shared by the matrices of one method.
+	 */
+	public final LocalNumbering numbering;
+
+	/**
+	 * The numbers of the variables of the matrix, in increasing order.
+	 */
+	protected int[] vars;
+
+	/**
+	 * The bound on {@code vars[i] - vars[j]} is stored in {@code m[i * n + j]}.
+	 */
+	protected int[] m;
+
+	/**
+	 * The number of variables.
+	 */
+	protected int n;
+
+	protected boolean closed;
+
+	/**
+	 * Constructs an unconstrained matrix with a new numbering.
+	 */
+	public DBM() {
+		this(new LocalNumbering(ZoneFactoid.ZERO_VAR));
+	}
+
+	/**
+	 * Constructs an unconstrained matrix with the given numbering.
+	 */
+	public DBM(LocalNumbering numbering) {
+		assert numbering.find(ZoneFactoid.ZERO_VAR) == 0;
+		this.numbering = numbering;
+		this.n = 1;
+		this.vars = new int[] { 0 };
+		this.m = new int[] { 0 };
+		this.closed = true;
+	}
+
+	public DBM(DBM copyFrom) {
+		this.numbering = copyFrom.numbering;
+		this.n = copyFrom.n;
+		this.vars = copyFrom.vars.clone();
+		this.m = copyFrom.m.clone();
+		this.closed = copyFrom.closed;
+	}
+
+	protected DBM(LocalNumbering numbering, int[] vars, int[] m, boolean closed) {
+		assert vars[0] == 0 && m.length == vars.length * vars.length;
+		this.numbering = numbering;
+		this.n = vars.length;
+		this.vars = vars;
+		this.m = m;
+		this.closed = closed;
+	}
+
+	/**
+	 * Returns the number of variables, including
+	 * {@link ZoneFactoid#ZERO_VAR}.
+	 */
+	public int size() {
+		return n;
+	}
+
+	public Local getVar(int i) {
+		return numbering.get(vars[i]);
+	}
+
+	/**
+	 * Returns the bound on the difference between the i-th and j-th variables.
+	 */
+	public int get(int i, int j) {
+		return m[i * n + j];
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Returns true if the matrix has no constraints.
+	 */
+	public boolean isTop() {
+		for (int i = 0; i < m.length; ++i) {
+			if (m[i] != INF && i % (n + 1) != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the position of the given variable or -1 if the matrix has no
+	 * row for it.
+	 */
+	public int find(Local var) {
+		int id = numbering.find(var);
+		if (id < 0)
+			return -1;
+		int pos = Arrays.binarySearch(vars, id);
+		return pos < 0 ? -1 : pos;
+	}
+
+	/**
+	 * Returns the position of the given variable, adding an unconstrained row
+	 * and column for it if needed. Note that adding a variable shifts the
+	 * positions of the variables with greater numbers.
+	 */
+	public int add(Local var) {
+		int id = numbering.indexOf(var);
+		int pos = Arrays.binarySearch(vars, id);
+		if (pos >= 0)
+			return pos;
+		pos = -pos - 1;
+		int newN = n + 1;
+		int[] newVars = new int[newN];
+		System.arraycopy(vars, 0, newVars, 0, pos);
+		newVars[pos] = id;
+		System.arraycopy(vars, pos, newVars, pos + 1, n - pos);
+		int[] newM = new int[newN * newN];
+		Arrays.fill(newM, INF);
+		for (int i = 0; i < n; ++i) {
+			int newI = i < pos ? i : i + 1;
+			System.arraycopy(m, i * n, newM, newI * newN, pos);
+			System.arraycopy(m, i * n + pos, newM, newI * newN + pos + 1, n
+					- pos);
+		}
+		newM[pos * newN + pos] = 0;
+		vars = newVars;
+		m = newM;
+		n = newN;
+		return pos;
+	}
+
+	/**
+	 * Removes all constraints on the given variable.
+	 *
+	 * @return true if the matrix had a row for the variable.
+	 */
+	public boolean forget(Local var) {
+		int pos = find(var);
+		if (pos < 0)
+			return false;
+		assert pos > 0 : "Attempt to forget " + ZoneFactoid.ZERO_VAR + "!";
+		int newN = n - 1;
+		int[] newVars = new int[newN];
+		System.arraycopy(vars, 0, newVars, 0, pos);
+		System.arraycopy(vars, pos + 1, newVars, pos, newN - pos);
+		int[] newM = new int[newN * newN];
+		for (int i = 0; i < n; ++i) {
+			if (i == pos)
+				continue;
+			int newI = i < pos ? i : i - 1;
+			System.arraycopy(m, i * n, newM, newI * newN, pos);
+			System.arraycopy(m, i * n + pos + 1, newM, newI * newN + pos,
+					newN - pos);
+		}
+		vars = newVars;
+		m = newM;
+		n = newN;
+		return true;
+	}
+
+	/**
+	 * Conjoins the constraint {@code x_i - x_j <= c} without restoring the
+	 * closure.
+	 *
+	 * @return true if the bound was tightened.
+	 */
+	public boolean addConstraint(int i, int j, int c) {
+		int index = i * n + j;
+		if (c >= m[index])
+			return false;
+		m[index] = c;
+		closed = false;
+		return true;
+	}
+
+	/**
+	 * Conjoins the constraint {@code x_i - x_j <= c} to a closed matrix and
+	 * restores the closure in O(n^2).
+	 *
+	 * @return false if the resulting matrix is empty.
+	 */
+	public boolean assume(int i, int j, int c) {
+		assert closed;
+		if (c >= m[i * n + j])
+			return true;
+		if (add(m[j * n + i], c) < 0)
+			return false;
+		m[i * n + j] = c;
+		for (int a = 0; a < n; ++a) {
+			int ai = m[a * n + i];
+			if (ai == INF)
+				continue;
+			int aj = add(ai, c);
+			int row = a * n;
+			int rowJ = j * n;
+			for (int b = 0; b < n; ++b) {
+				int bound = add(aj, m[rowJ + b]);
+				if (bound < m[row + b])
+					m[row + b] = bound;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Assigns {@code y + c} to {@code x}, where {@code x} and {@code y} are
+	 * distinct. The matrix remains closed if it was closed.
+	 */
+	public void assign(Local x, Local y, int c) {
+		assert x != y;
+		forget(x);
+		add(y);
+		int px = add(x);
+		int py = find(y);
+		for (int j = 0; j < n; ++j) {
+			m[px * n + j] = add(m[py * n + j], c);
+			m[j * n + px] = add(m[j * n + py], negate(c));
+		}
+		m[px * n + px] = 0;
+	}
+
+	/**
+	 * Assigns {@code x + c} to {@code x}. The matrix remains closed if it was
+	 * closed.
+	 */
+	public void increment(Local x, int c) {
+		int px = find(x);
+		if (px < 0)
+			return;
+		for (int j = 0; j < n; ++j) {
+			if (j == px)
+				continue;
+			m[px * n + j] = add(m[px * n + j], c);
+			m[j * n + px] = add(m[j * n + px], negate(c));
+		}
+	}
+
+	/**
+	 * Computes the closure using the Floyd-Warshall algorithm.
+	 *
+	 * @return false if the matrix is empty.
+	 */
+	public boolean close() {
+		if (closed)
+			return true;
+		for (int k = 0; k < n; ++k) {
+			int rowK = k * n;
+			for (int i = 0; i < n; ++i) {
+				int ik = m[i * n + k];
+				if (ik == INF)
+					continue;
+				int row = i * n;
+				for (int j = 0; j < n; ++j) {
+					int bound = add(ik, m[rowK + j]);
+					if (bound < m[row + j])
+						m[row + j] = bound;
+				}
+			}
+		}
+		for (int i = 0; i < n; ++i) {
+			if (m[i * n + i] < 0)
+				return false;
+		}
+		closed = true;
+		return true;
+	}
+
+	/**
+	 * Restores the closure of a matrix after the constraints of the x-th
+	 * variable have changed, provided that the constraints among the other
+	 * variables are closed, in O(n^2).
+	 *
+	 * @return false if the matrix is empty.
+	 */
+	public boolean closeVar(int x) {
+		int rowX = x * n;
+		// Tighten the row and the column of x through a single intermediate
+		// variable.
+		for (int k = 0; k < n; ++k) {
+			if (k == x)
+				continue;
+			int xk = m[rowX + k];
+			if (xk != INF) {
+				int rowK = k * n;
+				for (int j = 0; j < n; ++j) {
+					int bound = add(xk, m[rowK + j]);
+					if (j != x && bound < m[rowX + j])
+						m[rowX + j] = bound;
+				}
+			}
+		}
+		for (int k = 0; k < n; ++k) {
+			if (k == x)
+				continue;
+			int kx = m[k * n + x];
+			if (kx != INF) {
+				for (int i = 0; i < n; ++i) {
+					int bound = add(m[i * n + k], kx);
+					if (i != x && bound < m[i * n + x])
+						m[i * n + x] = bound;
+				}
+			}
+		}
+		for (int k = 0; k < n; ++k) {
+			if (add(m[rowX + k], m[k * n + x]) < 0)
+				return false;
+		}
+		// Tighten the other entries through x.
+		for (int i = 0; i < n; ++i) {
+			int ix = m[i * n + x];
+			if (ix == INF)
+				continue;
+			int row = i * n;
+			for (int j = 0; j < n; ++j) {
+				int bound = add(ix, m[rowX + j]);
+				if (bound < m[row + j])
+					m[row + j] = bound;
+			}
+		}
+		closed = true;
+		return true;
+	}
+
+	/**
+	 * Returns the entry-wise maximum of the two matrices, which is their join
+	 * if both are closed.
+	 */
+	public DBM join(DBM other) {
+		other = other.alignTo(numbering);
+		int[] otherPos = positionsIn(other);
+		int[] pos = commonPositions(otherPos);
+		int k = pos.length;
+		int[] resultVars = new int[k];
+		int[] resultM = new int[k * k];
+		for (int i = 0; i < k; ++i) {
+			resultVars[i] = vars[pos[i]];
+			int row = pos[i] * n;
+			int otherRow = otherPos[pos[i]] * other.n;
+			for (int j = 0; j < k; ++j) {
+				resultM[i * k + j] = Math.max(m[row + pos[j]], other.m[otherRow
+						+ otherPos[pos[j]]]);
+			}
+		}
+		return new DBM(numbering, resultVars, resultM, closed && other.closed);
+	}
+
+	/**
+	 * Returns the standard widening of this matrix by the given one, which
+	 * drops the bounds of this matrix that are not stable.
+	 */
+	public DBM widen(DBM other) {
+		other = other.alignTo(numbering);
+		int[] otherPos = positionsIn(other);
+		int[] pos = commonPositions(otherPos);
+		int k = pos.length;
+		int[] resultVars = new int[k];
+		int[] resultM = new int[k * k];
+		for (int i = 0; i < k; ++i) {
+			resultVars[i] = vars[pos[i]];
+			int row = pos[i] * n;
+			int otherRow = otherPos[pos[i]] * other.n;
+			for (int j = 0; j < k; ++j) {
+				int bound = m[row + pos[j]];
+				resultM[i * k + j] = other.m[otherRow + otherPos[pos[j]]] <= bound ? bound
+						: INF;
+			}
+		}
+		return new DBM(numbering, resultVars, resultM, false);
+	}
+
+	/**
+	 * Returns the standard narrowing of this matrix by the given one, which
+	 * only refines the missing bounds of this matrix.
+	 */
+	public DBM narrow(DBM other) {
+		DBM result = union(other);
+		other = other.alignTo(numbering);
+		for (int i = 0; i < other.n; ++i) {
+			int resultI = Arrays.binarySearch(result.vars, other.vars[i]);
+			for (int j = 0; j < other.n; ++j) {
+				int resultJ = Arrays.binarySearch(result.vars, other.vars[j]);
+				int index = resultI * result.n + resultJ;
+				if (result.m[index] == INF)
+					result.m[index] = other.m[i * other.n + j];
+			}
+		}
+		result.closed = false;
+		return result;
+	}
+
+	/**
+	 * Returns the conjunction of the two matrices, which is not closed.
+	 */
+	public DBM meet(DBM other) {
+		DBM result = union(other);
+		other = other.alignTo(numbering);
+		for (int i = 0; i < other.n; ++i) {
+			int resultI = Arrays.binarySearch(result.vars, other.vars[i]);
+			for (int j = 0; j < other.n; ++j) {
+				int resultJ = Arrays.binarySearch(result.vars, other.vars[j]);
+				result.addConstraint(resultI, resultJ, other.m[i * other.n + j]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns true if every constraint of the given matrix is implied by the
+	 * corresponding constraint of this matrix, which means that this matrix is
+	 * included in the given one when this matrix is closed.
+	 */
+	public boolean leq(DBM other) {
+		other = other.alignTo(numbering);
+		int[] pos = other.positionsIn(this);
+		for (int i = 0; i < other.n; ++i) {
+			int row = pos[i] * n;
+			int otherRow = i * other.n;
+			for (int j = 0; j < other.n; ++j) {
+				int otherBound = other.m[otherRow + j];
+				if (otherBound == INF || i == j)
+					continue;
+				if (pos[i] < 0 || pos[j] < 0 || m[row + pos[j]] > otherBound)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a matrix with the same constraints as this one, whose variables
+	 * are numbered by the given numbering.
+	 */
+	public DBM alignTo(LocalNumbering target) {
+		if (target == numbering)
+			return this;
+		int[] ids = new int[n];
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; ++i) {
+			ids[i] = target.indexOf(getVar(i));
+			order[i] = i;
+		}
+		Arrays.sort(order, (i1, i2) -> Integer.compare(ids[i1], ids[i2]));
+		int[] resultVars = new int[n];
+		int[] resultM = new int[n * n];
+		for (int i = 0; i < n; ++i) {
+			resultVars[i] = ids[order[i]];
+			int row = order[i] * n;
+			for (int j = 0; j < n; ++j)
+				resultM[i * n + j] = m[row + order[j]];
+		}
+		return new DBM(target, resultVars, resultM, closed);
+	}
+
+	/**
+	 * Adds a {@link ZoneFactoid} for each bound in the matrix.
+	 */
+	public void addFactoidsTo(Collection<ZoneFactoid> result) {
+		for (int i = 0; i < n; ++i) {
+			for (int j = 0; j < n; ++j) {
+				int bound = m[i * n + j];
+				if (i != j && bound != INF)
+					result.add(new ZoneFactoid(getVar(i), getVar(j),
+							IntConstant.v(bound)));
+			}
+		}
+	}
+
+	/**
+	 * Returns the sum of two bounds, where {@link #INF} absorbs any bound.
+	 */
+	public static int add(int bound1, int bound2) {
+		if (bound1 == INF || bound2 == INF)
+			return INF;
+		return round((long) bound1 + bound2);
+	}
+
+	/**
+	 * Returns {@code -c}, rounded like {@link #add}.
+	 */
+	public static int negate(int c) {
+		return round(-(long) c);
+	}
+
+	/**
+	 * Rounds bounds that do not fit in an int away from zero, to a weaker
+	 * bound.
+	 */
+	private static int round(long bound) {
+		if (bound >= INF)
+			return INF;
+		else if (bound < Integer.MIN_VALUE)
+			return Integer.MIN_VALUE;
+		else
+			return (int) bound;
+	}
+
+	/**
+	 * Returns, for each variable of this matrix, its position in the given
+	 * matrix, which has the same numbering, or -1.
+	 */
+	protected int[] positionsIn(DBM other) {
+		assert other.numbering == numbering;
+		int[] result = new int[n];
+		int j = 0;
+		for (int i = 0; i < n; ++i) {
+			while (j < other.n && other.vars[j] < vars[i])
+				++j;
+			result[i] = j < other.n && other.vars[j] == vars[i] ? j : -1;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the positions of the variables of this matrix that are also
+	 * variables of another matrix, given the result of {@link #positionsIn}.
+	 */
+	protected int[] commonPositions(int[] otherPos) {
+		int k = 0;
+		for (int i = 0; i < n; ++i) {
+			if (otherPos[i] >= 0)
+				++k;
+		}
+		int[] result = new int[k];
+		k = 0;
+		for (int i = 0; i < n; ++i) {
+			if (otherPos[i] >= 0)
+				result[k++] = i;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a copy of this matrix with unconstrained rows and columns for
+	 * the variables of the given matrix that are missing from this one.
+	 */
+	protected DBM union(DBM other) {
+		DBM result = new DBM(this);
+		for (int i = 0; i < other.n; ++i)
+			result.add(other.getVar(i));
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < n; ++i) {
+			for (int j = 0; j < n; ++j) {
+				int bound = m[i * n + j];
+				if (i != j && bound != INF) {
+					if (result.length() > 0)
+						result.append(", ");
+					result.append(getVar(i)).append('-').append(getVar(j))
+							.append("<=").append(bound);
+				}
+			}
+		}
+		return "[" + result + "]";
+	}
+}
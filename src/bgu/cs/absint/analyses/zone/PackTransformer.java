@@ -0,0 +1,39 @@
+package bgu.cs.absint.analyses.zone;
+
+import bgu.cs.absint.UnaryOperation;
+
+/**
+ * Applies a transformer to the state of a single pack of a
+ * {@link PackedZoneState}, which holds all the variables of the statement.
+ */
+class PackTransformer extends UnaryOperation<ZoneState> {
+	protected final ZonePacking packing;
+	protected final int pack;
+	protected final UnaryOperation<ZoneState> transformer;
+
+	public PackTransformer(ZonePacking packing, int pack,
+			UnaryOperation<ZoneState> transformer) {
+		assert pack >= 0;
+		this.packing = packing;
+		this.pack = pack;
+		this.transformer = transformer;
+	}
+
+	@Override
+	public ZoneState apply(ZoneState input) {
+		// Special treatment for bottom.
+		if (input == ZoneState.bottom)
+			return ZoneState.bottom;
+
+		PackedZoneState packed = ZoneDomain.toPacked(input, packing);
+		ZoneState result = transformer.apply(packed.getPack(pack));
+		if (result == ZoneState.bottom)
+			return ZoneState.bottom;
+		return packed.withPack(pack, result);
+	}
+
+	@Override
+	public String toString() {
+		return transformer.toString();
+	}
+}
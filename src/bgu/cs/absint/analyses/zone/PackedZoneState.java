@@ -0,0 +1,132 @@
+package bgu.cs.absint.analyses.zone;
+
+import java.util.Collection;
+
+import soot.Local;
+import soot.jimple.IntConstant;
+
+/**
+ * A zone state that is the product of an independent zone state for each pack
+ * of a {@link ZonePacking}. The meaning of the state is the conjunction of the
+ * states of the packs, so factoids relating variables of different packs
+ * cannot be represented, and are dropped when added.
+ */
+public class PackedZoneState extends ZoneState {
+	public final ZonePacking packing;
+
+	/**
+	 * The state of each pack, which is never bottom. The states of the packs
+	 * may be shared by several packed states, and are therefore never
+	 * modified.
+	 */
+	protected final ZoneState[] packs;
+
+	/**
+	 * Constructs a state without factoids.
+	 */
+	public PackedZoneState(ZonePacking packing) {
+		this.packing = packing;
+		this.packs = new ZoneState[packing.getNumberOfPacks()];
+		for (int i = 0; i < packs.length; ++i)
+			packs[i] = ZoneState.top;
+	}
+
+	/**
+	 * Constructs a state with the factoids of the given unpacked state whose
+	 * variables belong to the same pack.
+	 */
+	public PackedZoneState(ZonePacking packing, ZoneState unpacked) {
+		this(packing);
+		for (ZoneFactoid factoid : unpacked.getFactoids())
+			add(factoid);
+	}
+
+	protected PackedZoneState(ZonePacking packing, ZoneState[] packs) {
+		assert packs.length == packing.getNumberOfPacks();
+		this.packing = packing;
+		this.packs = packs;
+		invalidateFactoids();
+	}
+
+	public ZoneState getPack(int pack) {
+		return packs[pack];
+	}
+
+	/**
+	 * Returns a state where the state of the given pack is replaced with the
+	 * given state.
+	 */
+	public PackedZoneState withPack(int pack, ZoneState state) {
+		assert state != ZoneState.bottom;
+		ZoneState[] resultPacks = packs.clone();
+		resultPacks[pack] = state;
+		return new PackedZoneState(packing, resultPacks);
+	}
+
+	@Override
+	public PackedZoneState copy() {
+		return new PackedZoneState(packing, packs.clone());
+	}
+
+	@Override
+	public DBM copyClosedDBM() {
+		throw new Error("Packed states have a matrix per pack!");
+	}
+
+	@Override
+	public boolean equivToBottom() {
+		for (ZoneState pack : packs) {
+			if (pack.equivToBottom())
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean addFactoid(Local lhs, Local rhs, IntConstant bound) {
+		int pack = getPack(lhs, rhs);
+		if (pack < 0)
+			return false;
+		ZoneState packState = packs[pack].copy();
+		boolean result = packState.addFactoid(lhs, rhs, bound);
+		if (result) {
+			packs[pack] = packState;
+			invalidateFactoids();
+		}
+		return result;
+	}
+
+	@Override
+	public boolean removeVar(Local lhs) {
+		int pack = packing.getPack(lhs);
+		if (pack < 0 || packs[pack].getDBM() == null
+				|| packs[pack].getDBM().find(lhs) < 0)
+			return false;
+		ZoneState packState = packs[pack].copy();
+		packState.removeVar(lhs);
+		packs[pack] = packState;
+		invalidateFactoids();
+		return true;
+	}
+
+	@Override
+	protected void addFactoidsTo(Collection<ZoneFactoid> result) {
+		for (ZoneState pack : packs)
+			result.addAll(pack.getFactoids());
+	}
+
+	/**
+	 * Returns the pack of a factoid over the given variables, or -1 if the
+	 * variables belong to different packs.
+	 */
+	protected int getPack(Local lhs, Local rhs) {
+		int lhsPack = lhs == ZoneFactoid.ZERO_VAR ? -1 : packing.getPack(lhs);
+		int rhsPack = rhs == ZoneFactoid.ZERO_VAR ? -1 : packing.getPack(rhs);
+		if (lhsPack < 0)
+			return rhsPack;
+		else if (rhsPack < 0 || rhsPack == lhsPack)
+			return lhsPack;
+		else
+			return -1;
+	}
+}
@@ -28,20 +28,15 @@ class TransformerAssignAddLocalConstantToLocal extends
 	@Override
 	public ZoneState apply(ZoneState input) {
 		// Special treatment for bottom.
-		if (input.equals(ZoneState.bottom))
+		if (input == ZoneState.bottom)
+			return ZoneState.bottom;
+		DBM result = input.copyClosedDBM();
+		if (result == null)
 			return ZoneState.bottom;
 
-		ZoneState result = new ZoneState();
-		// Apply the preservation rule to each factoid.
-		for (ZoneFactoid factoid : input.factoids) {
-			if (!factoid.hasVar(lhs)) {
-				result.factoids.add(factoid);
-			}
-		}
-		// Apply the new factoid rule.
-		result.factoids.add(new ZoneFactoid(lhs, op1, op2));
-		result.factoids.add(new ZoneFactoid(op1, lhs, IntConstant.v(-op2.value)));
-
-		return result;
+		// Remove the factoids of lhs and relate it to op1 and to each variable
+		// related to op1.
+		result.assign(lhs, op1, op2.value);
+		return new ZoneState(result);
 	}
 }
\ No newline at end of file
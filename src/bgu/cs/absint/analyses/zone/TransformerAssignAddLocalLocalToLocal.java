@@ -27,38 +27,28 @@ class TransformerAssignAddLocalLocalToLocal extends
 	@Override
 	public ZoneState apply(ZoneState input) {
 		// Special treatment for bottom.
-		if (input.equals(ZoneState.bottom))
+		if (input == ZoneState.bottom)
+			return ZoneState.bottom;
+		DBM result = input.copyClosedDBM();
+		if (result == null)
 			return ZoneState.bottom;
 
-		ZoneState result = new ZoneState();
-		// Apply the preservation rule to each factoid - thats the only thing to do since we dont know anything about constants
-		for (ZoneFactoid f : input.factoids) {
-			if (!f.hasVar(lhs)) {
-				result.factoids.add(f);
-			}
-		}
-		ZoneState essentialRes = ZoneDomain.essential(result);
-		//check if y<=c or z<=d exists here and add x-z<=c and z-y<=d in respect.
-		// x-z=y  && y <= c --> x-z <=c
-		for(ZoneFactoid f : essentialRes.factoids){
-			if(f.rhs.equals(ZoneFactoid.ZERO_VAR)){
-				if(f.lhs.equals(op1)){ //y<=c 
-					result.factoids.add(new ZoneFactoid(lhs, op2, f.bound));
-				} else if(f.lhs.equals(op2)) {  //z<=d
-					result.factoids.add(new ZoneFactoid(lhs, op1, f.bound));
-				}
-			}
-
-			// x-z=y  && y >= -c --> x-z >= -c ---> z-x <= c
-			if(f.lhs.equals(ZoneFactoid.ZERO_VAR)){
-				if(f.rhs.equals(op1)){ //y>=c 
-					result.factoids.add(new ZoneFactoid(op2, lhs, f.bound));
-				} else if(f.rhs.equals(op2)) {  //z>=d
-					result.factoids.add(new ZoneFactoid(op1, lhs, f.bound));
-				}
-			}
-		}
-
-		return ZoneDomain.essential(result);
+		// Apply the preservation rule to each factoid - lhs is distinct from op1
+		// and op2, so their bounds remain the same.
+		result.forget(lhs);
+		result.add(op1);
+		result.add(op2);
+		int x = result.add(lhs);
+		int y = result.find(op1);
+		int z = result.find(op2);
+		// x-z=y && y <= c --> x-z <= c
+		result.addConstraint(x, z, result.get(y, 0));
+		// x-y=z && z <= d --> x-y <= d
+		result.addConstraint(x, y, result.get(z, 0));
+		// x-z=y && y >= -c --> x-z >= -c ---> z-x <= c
+		result.addConstraint(z, x, result.get(0, y));
+		// x-y=z && z >= -d --> y-x <= d
+		result.addConstraint(y, x, result.get(0, z));
+		return result.closeVar(x) ? new ZoneState(result) : ZoneState.bottom;
 	}
 }
\ No newline at end of file
@@ -23,20 +23,15 @@ class TransformerAssignConstantToVar extends UnaryOperation<ZoneState> {
 	@Override
 	public ZoneState apply(ZoneState input) {
 		// Special treatment for bottom.
-		if (input.equals(ZoneState.bottom))
+		if (input == ZoneState.bottom)
+			return ZoneState.bottom;
+		DBM result = input.copyClosedDBM();
+		if (result == null)
 			return ZoneState.bottom;
 
-		ZoneState result = new ZoneState();
-		// Apply the preservation rule to each factoid.
-		for (ZoneFactoid factoid : input.factoids) {
-			if (!factoid.hasVar(lhs)) {
-				result.factoids.add(factoid);
-			}
-		}
-		// Apply the new factoid rule.
-		result.add(new ZoneFactoid(lhs, ZoneFactoid.ZERO_VAR, rhs));
-		result.add(new ZoneFactoid(ZoneFactoid.ZERO_VAR, lhs, IntConstant.v(-rhs.value)));
-
-		return result;
+		// Remove the factoids of lhs and add lhs-V0<=c and V0-lhs<=-c, along
+		// with their consequences.
+		result.assign(lhs, ZoneFactoid.ZERO_VAR, rhs.value);
+		return new ZoneState(result);
 	}
 }
\ No newline at end of file
@@ -24,20 +24,14 @@ class TransformerAssignIncrementLocalByConstant extends UnaryOperation<ZoneState
 	@Override
 	public ZoneState apply(ZoneState input) {
 		// Special treatment for bottom.
-		if (input.equals(ZoneState.bottom))
+		if (input == ZoneState.bottom)
+			return ZoneState.bottom;
+		DBM result = input.copyClosedDBM();
+		if (result == null)
 			return ZoneState.bottom;
 
-		ZoneState result = new ZoneState();
-		// Apply the preservation rule to each factoid.
-		for (ZoneFactoid factoid : input.factoids) {
-			if (!factoid.hasVar(lhs)) {
-				result.factoids.add(factoid);
-			} else if(factoid.rhs.equals(lhs)){ // Transform each relevant factoid.
-				result.add(new ZoneFactoid(factoid.lhs, factoid.rhs, (IntConstant)factoid.bound.subtract(op2)));
-			} else {
-				result.add(new ZoneFactoid(factoid.lhs, factoid.rhs, (IntConstant)factoid.bound.add(op2)));
-			}
-		}
-		return ZoneDomain.essential(result);
+		// Transform each relevant factoid.
+		result.increment(lhs, op2.value);
+		return new ZoneState(result);
 	}
 }
\ No newline at end of file
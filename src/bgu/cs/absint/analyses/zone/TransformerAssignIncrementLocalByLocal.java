@@ -2,7 +2,6 @@ package bgu.cs.absint.analyses.zone;
 
 import bgu.cs.absint.UnaryOperation;
 import soot.Local;
-import soot.jimple.IntConstant;
 
 /**
  * A transformer for statements of the form {@code x=x+y} for
@@ -26,45 +25,38 @@ class TransformerAssignIncrementLocalByLocal extends
 	@Override
 	public ZoneState apply(ZoneState input) {
 		// Special treatment for bottom.
-		if (input.equals(ZoneState.bottom))
+		if (input == ZoneState.bottom)
+			return ZoneState.bottom;
+		DBM result = input.copyClosedDBM();
+		if (result == null)
 			return ZoneState.bottom;
 
-		ZoneState result = new ZoneState();
-		// Apply the preservation rule to each factoid.
-		for (ZoneFactoid factoid : input.factoids) {
-			if (!factoid.hasVar(lhs)) {
-				result.factoids.add(factoid);
-			}
-		}
+		result.add(op2);
+		int x = result.add(lhs);
+		int y = result.find(op2);
+		int n = result.size();
 		/* Apply the new factoid rule.
 		 * if x-z<c and y<d -> x+y-z (==x'-z)< c+d
-		 * if z-x<c and y>d -> z-x-y (==x'-z)< c+d
+		 * if z-x<c and y>d -> z-x-y (==z-x')< c+d
+		 * and x'-y==x, y-x'==-x.
 		 */
-		IntConstant min = null;
-		IntConstant negMin = null;
-		for(ZoneFactoid f : result.getFactoids()){
-			if(f.lhs.equals(op2) && f.rhs.equals(ZoneFactoid.ZERO_VAR)){
-				min = f.min(result).bound;
-			}
-			if(f.rhs.equals(op2) && f.lhs.equals(ZoneFactoid.ZERO_VAR)){
-				negMin = f.min(result).bound;
-			}
-		}		
-
-		if(min!= null){
-			for (ZoneFactoid f : input.factoids) {
-				if (f.lhs.equals(lhs)) { //if x-z<c and y<d -> x+y-z (==x'-z)< c+d
-					result.add(new ZoneFactoid(f.lhs, f.rhs, (IntConstant)f.bound.add(min)));
-				}
-			}
+		int[] row = new int[n];
+		int[] column = new int[n];
+		for (int j = 0; j < n; ++j) {
+			row[j] = DBM.add(result.get(x, j), result.get(y, 0));
+			column[j] = DBM.add(result.get(j, x), result.get(0, y));
 		}
-		if(negMin!= null){
-			for (ZoneFactoid f : input.factoids) {
-				if (f.rhs.equals(lhs)) { //if z-x<c and y>d -> z-x-y (==x'-z)< c+d
-					result.add(new ZoneFactoid(f.lhs, f.rhs, (IntConstant)f.bound.add(negMin)));
-				}
+		row[y] = Math.min(row[y], result.get(x, 0));
+		column[y] = Math.min(column[y], result.get(0, x));
+
+		result.forget(lhs);
+		x = result.add(lhs);
+		for (int j = 0; j < n; ++j) {
+			if (j != x) {
+				result.addConstraint(x, j, row[j]);
+				result.addConstraint(j, x, column[j]);
 			}
 		}
-		return result;
+		return result.closeVar(x) ? new ZoneState(result) : ZoneState.bottom;
 	}
 }
\ No newline at end of file
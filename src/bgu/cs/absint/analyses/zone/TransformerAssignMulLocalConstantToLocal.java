@@ -28,18 +28,16 @@ class TransformerAssignMulLocalConstantToLocal extends
 	@Override
 	public ZoneState apply(ZoneState input) {
 		// Special treatment for bottom.
-		if (input.equals(ZoneState.bottom))
+		if (input == ZoneState.bottom)
+			return ZoneState.bottom;
+		DBM result = input.copyClosedDBM();
+		if (result == null)
 			return ZoneState.bottom;
 
-		ZoneState result = new ZoneState();
 		// Apply the preservation rule to each factoid.
-		for (ZoneFactoid factoid : input.factoids) {
-			if (!factoid.hasVar(lhs)) {
-				result.factoids.add(factoid);
-			}
-		}
+		result.forget(lhs);
 		// do we have any new facts to add? i dont think so
 
-		return result;
+		return new ZoneState(result);
 	}
 }
\ No newline at end of file
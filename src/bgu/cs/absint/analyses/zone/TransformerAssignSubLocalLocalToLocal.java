@@ -27,26 +27,23 @@ class TransformerAssignSubLocalLocalToLocal extends
 	@Override
 	public ZoneState apply(ZoneState input) {
 		// Special treatment for bottom.
-		if (input.equals(ZoneState.bottom))
+		if (input == ZoneState.bottom)
+			return ZoneState.bottom;
+		DBM result = input.copyClosedDBM();
+		if (result == null)
 			return ZoneState.bottom;
 
-		ZoneState result = new ZoneState();
-		// Apply the preservation rule to each factoid - thats the only thing to do since we dont know anything about constants
-		for (ZoneFactoid f : input.factoids) {
-			if (!f.hasVar(lhs)) {
-				result.factoids.add(f);
-			}
-		}
-		
-		//check if y-z <=c or z-y <=d exists here and add x<=c or x<=d
-		for(ZoneFactoid f : input.factoids){
-			if(f.lhs.equals(op1) && f.rhs.equals(op2)){ //y-z<=c -> x<=c
-				result.add(new ZoneFactoid(lhs, ZoneFactoid.ZERO_VAR, f.bound));
-			} else if(f.lhs.equals(op2) && f.rhs.equals(op1)) { //y-z<=d -> -x<=d 
-				result.add(new ZoneFactoid(ZoneFactoid.ZERO_VAR, lhs, f.bound));
-			}
-		}
+		//check if y-z <=c or z-y <=d exists here and add x<=c or -x<=d
+		int y = result.find(op1);
+		int z = result.find(op2);
+		int upper = y < 0 || z < 0 ? DBM.INF : result.get(y, z);
+		int lower = y < 0 || z < 0 ? DBM.INF : result.get(z, y);
 
-		return ZoneDomain.essential(result);
+		// Apply the preservation rule to each factoid.
+		result.forget(lhs);
+		int x = result.add(lhs);
+		result.addConstraint(x, 0, upper);
+		result.addConstraint(0, x, lower);
+		return result.closeVar(x) ? new ZoneState(result) : ZoneState.bottom;
 	}
 }
\ No newline at end of file
@@ -33,23 +33,28 @@ class TransformerAssumeLocalEqConstant extends
 	@Override
 	public ZoneState apply(ZoneState input) {
 		// Special treatment for bottom.
-		if (input.equals(ZoneState.bottom))
+		if (input == ZoneState.bottom)
+			return ZoneState.bottom;
+		DBM result = input.copyClosedDBM();
+		if (result == null)
 			return ZoneState.bottom;
 
-		ZoneState result = new ZoneState(input);
 		if (polarity) {
-			result.factoids.add(new ZoneFactoid(lhs, ZoneFactoid.ZERO_VAR, rhs));
-			result.factoids.add(new ZoneFactoid(ZoneFactoid.ZERO_VAR, lhs, IntConstant.v(-rhs.value)));
+			int x = result.add(lhs);
+			if (!result.assume(x, 0, rhs.value)
+					|| !result.assume(0, x, DBM.negate(rhs.value)))
+				return ZoneState.bottom;
 		} else { //if lhs!=rhs, we'll see if lhs<=rhs and change that to lhr<rhs. same for lhs>=rhs
-			for (ZoneFactoid f : input.factoids) {
-				if (f.lhs.equals(lhs) && f.rhs.equals(ZoneFactoid.ZERO_VAR) && f.bound.equals(rhs)){
-					result.factoids.add(new ZoneFactoid(f.lhs, f.rhs, IntConstant.v(rhs.value-1)));
-				}
-				if (f.lhs.equals(ZoneFactoid.ZERO_VAR) && f.rhs.equals(lhs) && f.bound.equals(IntConstant.v(-rhs.value))){
-					result.factoids.add(new ZoneFactoid(f.lhs, f.rhs, IntConstant.v(rhs.value+1)));
-				}
-			}
+			int x = result.find(lhs);
+			if (x < 0)
+				return input;
+			if (result.get(x, 0) == rhs.value
+					&& !result.assume(x, 0, DBM.add(rhs.value, -1)))
+				return ZoneState.bottom;
+			if (result.get(0, x) == DBM.negate(rhs.value)
+					&& !result.assume(0, x, DBM.add(result.get(0, x), -1)))
+				return ZoneState.bottom;
 		}
-		return ZoneDomain.essential(result);
+		return new ZoneState(result);
 	}
 }
\ No newline at end of file
@@ -31,26 +31,23 @@ class TransformerAssumeLocalEqLocal extends
 
 	@Override
 	public ZoneState apply(ZoneState input) {
-		ZoneState result = new ZoneState(input);
-		if (polarity) {
-			for (ZoneFactoid factoid : input.factoids) {
-				//we might try to add existing items to the set - but disregard taht
-				if (factoid.rhs.equals(rhs)){
-					result.factoids.add(new ZoneFactoid(factoid.lhs, lhs, factoid.bound));
-				}
-				if(factoid.lhs.equals(rhs)){
-					result.factoids.add(new ZoneFactoid(lhs, factoid.rhs, factoid.bound));
-				}
-				if (factoid.rhs.equals(lhs)){
-					result.factoids.add(new ZoneFactoid(factoid.lhs, rhs, factoid.bound));
-				}
-				if(factoid.lhs.equals(lhs)){
-					result.factoids.add(new ZoneFactoid(rhs, factoid.rhs, factoid.bound));
-				}
-			}
-		} else {
+		// Special treatment for bottom.
+		if (input == ZoneState.bottom)
+			return ZoneState.bottom;
+		if (!polarity) {
 			// is there anything to do here??
+			return input;
 		}
-		return ZoneDomain.essential(result);
+		DBM result = input.copyClosedDBM();
+		if (result == null)
+			return ZoneState.bottom;
+
+		result.add(lhs);
+		result.add(rhs);
+		int x = result.find(lhs);
+		int y = result.find(rhs);
+		if (!result.assume(x, y, 0) || !result.assume(y, x, 0))
+			return ZoneState.bottom;
+		return new ZoneState(result);
 	}
 }
\ No newline at end of file
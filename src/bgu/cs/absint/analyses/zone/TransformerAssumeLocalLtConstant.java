@@ -32,12 +32,20 @@ class TransformerAssumeLocalLtConstant extends
 
 	@Override
 	public ZoneState apply(ZoneState input) {
-		ZoneState res = new ZoneState(input);
+		// Special treatment for bottom.
+		if (input == ZoneState.bottom)
+			return ZoneState.bottom;
+		DBM result = input.copyClosedDBM();
+		if (result == null)
+			return ZoneState.bottom;
+
+		int x = result.add(lhs);
+		boolean feasible;
 		if (polarity) { //x<c -> x <= c-1
-			res.add(new ZoneFactoid(lhs, ZoneFactoid.ZERO_VAR, IntConstant.v(c.value-1)));
+			feasible = result.assume(x, 0, DBM.add(c.value, -1));
 		} else { //x>=c -> V0-x <= -c
-			res.add(new ZoneFactoid(ZoneFactoid.ZERO_VAR, lhs, IntConstant.v(-c.value)));
+			feasible = result.assume(0, x, DBM.negate(c.value));
 		}
-		return res;
+		return feasible ? new ZoneState(result) : ZoneState.bottom;
 	}
 }
\ No newline at end of file
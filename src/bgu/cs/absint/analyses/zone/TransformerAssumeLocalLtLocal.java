@@ -2,7 +2,6 @@ package bgu.cs.absint.analyses.zone;
 
 import bgu.cs.absint.AssumeTransformer;
 import soot.Local;
-import soot.jimple.IntConstant;
 
 /**
  * A transformer for statements of the form {@code if (x<y)} and
@@ -32,12 +31,23 @@ class TransformerAssumeLocalLtLocal extends
 
 	@Override
 	public ZoneState apply(ZoneState input) {
-		ZoneState res = new ZoneState(input);
+		// Special treatment for bottom.
+		if (input == ZoneState.bottom)
+			return ZoneState.bottom;
+		DBM result = input.copyClosedDBM();
+		if (result == null)
+			return ZoneState.bottom;
+
+		result.add(lhs);
+		result.add(rhs);
+		int x = result.find(lhs);
+		int y = result.find(rhs);
+		boolean feasible;
 		if (polarity) { //x<y -> x-y<0 --> x-y<= -1
-			res.add(new ZoneFactoid(lhs, rhs, IntConstant.v(-1)));
+			feasible = result.assume(x, y, -1);
 		} else { //x>=y -> y-x <=0
-			res.add(new ZoneFactoid(rhs, lhs, IntConstant.v(0)));
+			feasible = result.assume(y, x, 0);
 		}
-		return res;
+		return feasible ? new ZoneState(result) : ZoneState.bottom;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,31 @@
+package bgu.cs.absint.analyses.zone;
+
+import bgu.cs.absint.UnaryOperation;
+import soot.Local;
+
+/**
+ * A transformer for statements that assign an unknown value to a variable,
+ * e.g., {@code x=foo()}.
+ */
+class TransformerForgetLocal extends UnaryOperation<ZoneState> {
+	/**
+	 * The variable being modified by the concrete semantics.
+	 */
+	protected final Local lhs;
+
+	public TransformerForgetLocal(Local lhs) {
+		this.lhs = lhs;
+	}
+
+	@Override
+	public ZoneState apply(ZoneState input) {
+		// Special treatment for bottom and top.
+		if (input == ZoneState.bottom || input.getDBM() == null
+				|| input.getDBM().find(lhs) < 0)
+			return input;
+
+		DBM result = new DBM(input.getDBM());
+		result.forget(lhs);
+		return new ZoneState(result);
+	}
+}
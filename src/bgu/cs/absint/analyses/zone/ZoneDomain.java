@@ -3,13 +3,13 @@ package bgu.cs.absint.analyses.zone;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.function.BinaryOperator;
 
 import bgu.cs.absint.ComposedOperation;
 import bgu.cs.absint.AbstractDomain;
 import bgu.cs.absint.IdOperation;
 import bgu.cs.absint.UnaryOperation;
 import bgu.cs.absint.constructor.EqualityRefiner;
-import bgu.cs.absint.soot.ForgetVarTransformer;
 import bgu.cs.absint.soot.TransformerMatcher;
 import bgu.cs.util.Pair;
 import soot.Local;
@@ -24,7 +24,8 @@ import soot.jimple.ThisRef;
 
 /**
  * Implementation of abstract operations for a static analysis for the Zone
- * abstract domain.
+ * abstract domain. The operations work on the difference-bound matrices
+ * ({@link DBM}) of the states.
  * 
  * @author ???
  * 
@@ -37,13 +38,22 @@ public class ZoneDomain extends AbstractDomain<ZoneState, Unit> implements Equal
 	 */
 	private static final ZoneDomain v = new ZoneDomain();
 
+	public static final ZoneDomain v() {
+		return v;
+	}
+
 	/**
-	 * Matches statements to transformers.
+	 * The packing of the variables of the analyzed method, or null if any two
+	 * variables may be related.
 	 */
-	protected ZonesMatcher matcher = new ZonesMatcher();
+	protected final ZonePacking packing;
 
-	public static final ZoneDomain v() {
-		return v;
+	/**
+	 * Constructs a domain for a method, which only relates variables of the
+	 * same pack.
+	 */
+	public ZoneDomain(ZonePacking packing) {
+		this.packing = packing;
 	}
 
 	@Override
@@ -62,19 +72,23 @@ public class ZoneDomain extends AbstractDomain<ZoneState, Unit> implements Equal
 			return second;
 		} else if (second == ZoneState.bottom || first == ZoneState.top) {
 			return first;
+		} else if (isPacked(first, second)) {
+			return applyPackwise(first, second, this::ub);
+		} else if (first.getDBM() == null) {
+			return first;
+		} else if (second.getDBM() == null) {
+			return second;
 		} else {
-			// Compute the max of the every entry of the two sets of {@link ZoneFactoids}.
-			// The obvious max is infinite, which is the default. so if a relation only
-			// appears in one difference matrix, we won't include it.
-			ZoneState result = new ZoneState();
-			for (ZoneFactoid fact : first.getFactoids()) {
-				if (fact.existIn(second)) {
-					ZoneFactoid newFact = fact.max(second);
-					if (newFact != null)
-						result.add(newFact);
-				}
-			}
-			return ZoneDomain.essential(result);
+			// Compute the max of every entry of the two closed matrices. An
+			// entry that is infinite in one matrix is infinite in the result,
+			// so the result only has the variables of both matrices.
+			DBM dbm1 = getClosedDBM(first);
+			if (dbm1 == null)
+				return second;
+			DBM dbm2 = getClosedDBM(second);
+			if (dbm2 == null)
+				return first;
+			return new ZoneState(dbm1.join(dbm2));
 		}
 	}
 
@@ -82,13 +96,16 @@ public class ZoneDomain extends AbstractDomain<ZoneState, Unit> implements Equal
 	public ZoneState lb(ZoneState first, ZoneState second) {
 		if (first == ZoneState.bottom || second == ZoneState.bottom) {
 			return ZoneState.bottom;
+		} else if (isPacked(first, second)) {
+			return applyPackwise(first, second, this::lb);
+		} else if (first.getDBM() == null) {
+			return second;
+		} else if (second.getDBM() == null) {
+			return first;
 		} else {
-			// Compute the min of the every entry of the two sets of {@link ZoneFactoids}.
-			ZoneState result = new ZoneState(first);
-			for (ZoneFactoid fact : second.getFactoids()) {
-				result.add(fact.min(first));
-			}
-			return ZoneDomain.essential(result);
+			// Compute the min of every entry of the two matrices.
+			DBM result = first.getDBM().meet(second.getDBM());
+			return result.close() ? new ZoneState(result) : ZoneState.bottom;
 		}
 	}
 
@@ -99,60 +116,72 @@ public class ZoneDomain extends AbstractDomain<ZoneState, Unit> implements Equal
 		} else if (second == ZoneState.bottom || first == ZoneState.top) {
 			// first != bottom
 			return false;
-		}
-		// a loop over second.factoids and make sure each fact is covered by one of this
-		// facts
-		for (ZoneFactoid secondFact : second.getFactoids()) {
-			boolean covered = false;
-			for (ZoneFactoid firstFact : first.getFactoids()) {
-				if (firstFact.imply(secondFact)) {
-					covered = true;
-					break;
-				}
+		} else if (isPacked(first, second)) {
+			ZonePacking packing = getPacking(first, second);
+			PackedZoneState packed1 = toPacked(first, packing);
+			PackedZoneState packed2 = toPacked(second, packing);
+			for (int i = 0; i < packing.getNumberOfPacks(); ++i) {
+				if (!leq(packed1.getPack(i), packed2.getPack(i)))
+					return false;
 			}
-			if (!covered)
-				return false;
+			return true;
+		} else if (second.getDBM() == null) {
+			return true;
 		}
-		return true;
+		// Every entry of the closure of the first matrix should be lower than
+		// or equal to the corresponding entry of the second matrix.
+		DBM dbm1 = getClosedDBM(first);
+		return dbm1 == null || dbm1.leq(second.getDBM());
 	}
 
 	@Override
 	public ZoneState widen(ZoneState first, ZoneState second) {
 		if (first == ZoneState.bottom) {
 			return second;
+		} else if (second == ZoneState.bottom) {
+			return first;
+		} else if (isPacked(first, second)) {
+			return applyPackwise(first, second, this::widen);
+		} else if (first.getDBM() == null) {
+			return first;
+		} else if (second.getDBM() == null) {
+			return second;
 		}
-		ZoneState newState = new ZoneState();
-		ZoneState reducedSecond = reduce(second); // getting rid of redundancy
-		for (ZoneFactoid f : first.getFactoids()) {
-			if (!f.ImpliedByNEQ(reducedSecond))
-				newState.add(f);
-		}
-		return newState;
-
+		// The first matrix is not closed, to guarantee termination.
+		DBM dbm2 = getClosedDBM(second);
+		if (dbm2 == null)
+			return first;
+		return new ZoneState(first.getDBM().widen(dbm2));
 	}
 
 	@Override
 	public ZoneState narrow(ZoneState first, ZoneState second) {
-		if (second == ZoneState.bottom) {
+		if (first == ZoneState.bottom || second == ZoneState.bottom) {
+			return first;
+		} else if (isPacked(first, second)) {
+			return applyPackwise(first, second, this::narrow);
+		} else if (first.getDBM() == null) {
+			return second;
+		} else if (second.getDBM() == null) {
 			return first;
 		}
-		ZoneState newState = reduce(first);
-		for (ZoneFactoid f : second.getFactoids()) {
-			if (!f.existIn(newState)) {
-				newState.add(f);
-			}
-		}
-		return newState;
+		DBM dbm1 = getClosedDBM(first);
+		if (dbm1 == null)
+			return ZoneState.bottom;
+		return new ZoneState(dbm1.narrow(second.getDBM()));
 	}
 
 	@Override
 	public UnaryOperation<ZoneState> getTransformer(Unit stmt) {
-		UnaryOperation<ZoneState> vanillaTransformer = matcher.getTransformer(stmt);
+		UnaryOperation<ZoneState> vanillaTransformer = new ZonesMatcher().getTransformer(stmt);
 		if (vanillaTransformer.equals(IdOperation.v())) {
 			// An optimization - no need to run a reduction after an identity
 			// transformer.
 			return vanillaTransformer;
 		} else {
+			// The variables of a statement always belong to a single pack.
+			if (packing != null)
+				vanillaTransformer = new PackTransformer(packing, packing.getPack(stmt), vanillaTransformer);
 			return ComposedOperation.compose(vanillaTransformer, getReductionOperation());
 		}
 	}
@@ -164,49 +193,77 @@ public class ZoneDomain extends AbstractDomain<ZoneState, Unit> implements Equal
 	@Override
 	public ZoneState reduce(ZoneState input) {
 		// Special treatment for bottom.
-		if (input.equals(ZoneState.bottom))
+		if (input == ZoneState.bottom)
 			return ZoneState.bottom;
-		if (input.equals(ZoneState.top))
-			return ZoneState.top;
-
-		ZoneState result = new ZoneState(input);
-		boolean changed = true;
-		while (changed) {
-			result = essential(result);
-			if (result.equivToBottom()) {
-				return ZoneState.bottom;
-			}
-			changed = false;
-			for (ZoneFactoid f1 : result.getFactoids()) {
-				for (ZoneFactoid f2 : result.getFactoids()) { // checking if f1 and f2 has a transitive fact for f1.lhs
-					if (f1.rhs.equals(f2.lhs)) {
-						IntConstant add = IntConstant.v(f1.bound.value + f2.bound.value);
-						ZoneFactoid transFact = new ZoneFactoid(f1.lhs, f2.rhs, add);
-						if (!transFact.ImpliedBy(result) && !transFact.lhs.equals(transFact.rhs)) {
-							result.add(transFact);
-							changed = true;
-							break; // loop invalid after changing result
-						}
-					}
-				}
-				if (changed)
-					break; // loop invalid after changing result
+		if (input instanceof PackedZoneState) {
+			PackedZoneState packed = (PackedZoneState) input;
+			PackedZoneState result = packed;
+			for (int i = 0; i < packed.packing.getNumberOfPacks(); ++i) {
+				ZoneState pack = packed.getPack(i);
+				ZoneState reducedPack = reduce(pack);
+				if (reducedPack == ZoneState.bottom)
+					return ZoneState.bottom;
+				if (reducedPack != pack)
+					result = result.withPack(i, reducedPack);
 			}
+			return result;
 		}
-		result = essential(result);
-		if (result.equivToBottom()) {
-			return ZoneState.bottom;
+		DBM dbm = input.getDBM();
+		if (dbm == null || dbm.isClosed())
+			return input;
+
+		DBM result = new DBM(dbm);
+		return result.close() ? new ZoneState(result) : ZoneState.bottom;
+	}
+
+	/**
+	 * Returns the given state as a packed state with the given packing.
+	 */
+	static PackedZoneState toPacked(ZoneState state, ZonePacking packing) {
+		if (state instanceof PackedZoneState) {
+			assert ((PackedZoneState) state).packing == packing;
+			return (PackedZoneState) state;
+		} else {
+			return new PackedZoneState(packing, state);
 		}
-		return result;
 	}
 
-	// removes redundant factoids.
-	static public ZoneState essential(ZoneState input) {
-		ZoneState finalRes = new ZoneState();
-		for (ZoneFactoid f1 : input.getFactoids()) {
-			finalRes.add(f1.min(input));
+	private static boolean isPacked(ZoneState first, ZoneState second) {
+		return first instanceof PackedZoneState || second instanceof PackedZoneState;
+	}
+
+	private static ZonePacking getPacking(ZoneState first, ZoneState second) {
+		if (first instanceof PackedZoneState)
+			return ((PackedZoneState) first).packing;
+		else
+			return ((PackedZoneState) second).packing;
+	}
+
+	/**
+	 * Applies the given operation to the states of each pack.
+	 */
+	protected ZoneState applyPackwise(ZoneState first, ZoneState second, BinaryOperator<ZoneState> op) {
+		ZonePacking packing = getPacking(first, second);
+		PackedZoneState packed1 = toPacked(first, packing);
+		PackedZoneState packed2 = toPacked(second, packing);
+		ZoneState[] result = new ZoneState[packing.getNumberOfPacks()];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = op.apply(packed1.getPack(i), packed2.getPack(i));
+			if (result[i] == ZoneState.bottom)
+				return ZoneState.bottom;
 		}
-		return finalRes;
+		return new PackedZoneState(packing, result);
+	}
+
+	/**
+	 * Returns a closed matrix with the factoids of the given state, which
+	 * should not be modified, or null if the state is equivalent to bottom.
+	 */
+	protected static DBM getClosedDBM(ZoneState state) {
+		DBM dbm = state.getDBM();
+		if (dbm != null && dbm.isClosed())
+			return dbm;
+		return state.copyClosedDBM();
 	}
 
 	@Override
@@ -214,14 +271,44 @@ public class ZoneDomain extends AbstractDomain<ZoneState, Unit> implements Equal
 		ZoneState state = (ZoneState) input;
 		if (state == getBottom())
 			return null;
+		if (state instanceof PackedZoneState) {
+			// Refine each pack with the equalities between its variables.
+			PackedZoneState packed = (PackedZoneState) state;
+			PackedZoneState result = packed;
+			for (int i = 0; i < packed.packing.getNumberOfPacks(); ++i) {
+				Collection<Pair<Local, Local>> packEqualities = new ArrayList<>();
+				for (Pair<Local, Local> equality : equalities) {
+					if (packed.packing.getPack(equality.first) == i && packed.packing.getPack(equality.second) == i)
+						packEqualities.add(equality);
+				}
+				if (packEqualities.isEmpty())
+					continue;
+				ZoneState refinedPack = refineByEqualities(packed.getPack(i), packEqualities);
+				if (refinedPack == getBottom())
+					return getBottom();
+				if (refinedPack != null)
+					result = result.withPack(i, refinedPack);
+			}
+			return result == packed ? null : result;
+		}
 
-		ZoneState result = state.copy();
+		DBM result = state.copyClosedDBM();
+		if (result == null)
+			return null;
 		boolean change = false;
 		for (Pair<Local, Local> equality : equalities) {
-			change |= result.addFactoid(equality.first, equality.second, IntConstant.v(0));
+			result.add(equality.first);
+			result.add(equality.second);
+			int i = result.find(equality.first);
+			int j = result.find(equality.second);
+			if (result.get(i, j) == 0 && result.get(j, i) == 0)
+				continue;
+			change = true;
+			if (!result.assume(i, j, 0) || !result.assume(j, i, 0))
+				return getBottom();
 		}
 		if (change)
-			return result;
+			return new ZoneState(result);
 		else
 			return null;
 	}
@@ -231,11 +318,24 @@ public class ZoneDomain extends AbstractDomain<ZoneState, Unit> implements Equal
 		ZoneState state = (ZoneState) input;
 		if (state == getBottom())
 			return Collections.emptyList();
+		if (state instanceof PackedZoneState) {
+			PackedZoneState packed = (PackedZoneState) state;
+			ArrayList<Pair<Local, Local>> result = new ArrayList<>();
+			for (int i = 0; i < packed.packing.getNumberOfPacks(); ++i)
+				result.addAll(inferEqualities(packed.getPack(i)));
+			return result;
+		}
+		DBM dbm = getClosedDBM(state);
+		if (dbm == null)
+			return Collections.emptyList();
 
+		// Skip ZERO_VAR, which is not a program variable.
 		ArrayList<Pair<Local, Local>> result = new ArrayList<>();
-		for (ZoneFactoid factoid : state.factoids) {
-			if (factoid.bound.equivTo(zero))
-				result.add(new Pair<>(factoid.lhs, factoid.rhs));
+		for (int i = 1; i < dbm.size(); ++i) {
+			for (int j = i + 1; j < dbm.size(); ++j) {
+				if (dbm.get(i, j) == 0 && dbm.get(j, i) == 0)
+					result.add(new Pair<>(dbm.getVar(i), dbm.getVar(j)));
+			}
 		}
 		return result;
 	}
@@ -244,6 +344,7 @@ public class ZoneDomain extends AbstractDomain<ZoneState, Unit> implements Equal
 	 * Singleton pattern.
 	 */
 	private ZoneDomain() {
+		this.packing = null;
 	}
 
 	/**
@@ -256,17 +357,17 @@ public class ZoneDomain extends AbstractDomain<ZoneState, Unit> implements Equal
 		public void matchAssignToLocal(AssignStmt stmt, Local lhs) {
 			super.matchAssignToLocal(stmt, lhs);
 			if (transformer == null)
-				transformer = new ForgetVarTransformer<ZoneFactoid, ZoneState>(lhs);
+				transformer = new TransformerForgetLocal(lhs);
 		}
 
 		@Override
 		public void matchIdentityStmt(IdentityStmt stmt, Local lhs, ParameterRef rhs) {
-			transformer = new ForgetVarTransformer<ZoneFactoid, ZoneState>(lhs);
+			transformer = new TransformerForgetLocal(lhs);
 		}
 
 		@Override
 		public void matchIdentityStmt(IdentityStmt stmt, Local lhs, ThisRef rhs) {
-			transformer = new ForgetVarTransformer<ZoneFactoid, ZoneState>(lhs);
+			transformer = new TransformerForgetLocal(lhs);
 		}
 
 		@Override
@@ -1,25 +1,71 @@
 package bgu.cs.absint.analyses.zone;
 
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import soot.Body;
 import soot.PackManager;
 import soot.Transform;
 import bgu.cs.absint.soot.BaseAnalysis;
 
 /**
  * Adds the ZoneMain transform to Soot.
- * 
+ *
  * @author romanm
  */
 public class ZoneMain {
 	public static void main(String[] args) {
-		PackManager.v().getPack("jtp").add(new Transform("jtp.ZonesAnalysis", new ZonesAnalysis()));
+		ZonesAnalysis analysis = new ZonesAnalysis();
+		PackManager.v().getPack("jtp").add(new Transform("jtp.ZonesAnalysis", analysis));
 		soot.Main.main(args);
+		if (analysis.usePacking)
+			System.out.println("Number of variable packs by size: " + analysis.getPackSizeDistribution());
 	}
-	
+
 
 	public static class ZonesAnalysis extends BaseAnalysis<ZoneState, ZoneDomain> {
+		/**
+		 * Set this property to "false" to relate all the variables of a
+		 * method, rather than only variables of the same pack.
+		 */
+		public static final String PACKING_PROPERTY = "absint.zone.packing";
+
+		protected boolean usePacking = !"false".equals(System.getProperty(PACKING_PROPERTY));
+
+		/**
+		 * The number of packs of each size, over all analyzed methods.
+		 */
+		protected final SortedMap<Integer, Integer> packSizeDistribution = new ConcurrentSkipListMap<>();
+
 		public ZonesAnalysis() {
 			super(ZoneDomain.v());
 			useWidening(true);
 		}
+
+		public void usePacking(boolean value) {
+			this.usePacking = value;
+		}
+
+		public SortedMap<Integer, Integer> getPackSizeDistribution() {
+			return packSizeDistribution;
+		}
+
+		@Override
+		protected String getConfiguration() {
+			return "packing=" + usePacking;
+		}
+
+		@Override
+		protected ZoneDomain getDomain(Body b) {
+			if (!usePacking)
+				return domain;
+			ZonePacking packing = new ZonePacking(b);
+			if (debug)
+				System.err.println("Variable packs: " + packing);
+			for (Map.Entry<Integer, Integer> entry : packing.getPackSizeDistribution().entrySet())
+				packSizeDistribution.merge(entry.getKey(), entry.getValue(), Integer::sum);
+			return new ZoneDomain(packing);
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,142 @@
+package bgu.cs.absint.analyses.zone;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import soot.Body;
+import soot.Local;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.IfStmt;
+import bgu.cs.absint.soot.Assume;
+
+/**
+ * A partition of the local variables of a method into packs of syntactically
+ * related variables, which are variables that appear together in an
+ * assignment or in a condition. A {@link ZoneDomain} with a packing only
+ * relates variables of the same pack, which is enough to handle every
+ * statement of the method, and the cost of its operations depends on the
+ * sizes of the packs rather than on the number of variables.
+ */
+public class ZonePacking {
+	/**
+	 * Maps each local variable of the method to the index of its pack.
+	 */
+	protected final Map<Local, Integer> localToPack = new HashMap<>();
+
+	/**
+	 * The number of variables in each pack.
+	 */
+	protected final int[] packSizes;
+
+	/**
+	 * Computes the packing of the locals of the given body.
+	 */
+	public ZonePacking(Body b) {
+		Local[] locals = b.getLocals().toArray(new Local[0]);
+		Map<Local, Integer> localToIndex = new HashMap<>();
+		for (Local local : locals)
+			localToIndex.put(local, localToIndex.size());
+		int[] parent = new int[locals.length];
+		for (int i = 0; i < parent.length; ++i)
+			parent[i] = i;
+
+		for (Unit u : b.getUnits()) {
+			if (!(u instanceof DefinitionStmt) && !(u instanceof IfStmt))
+				continue;
+			int first = -1;
+			for (ValueBox box : u.getUseAndDefBoxes()) {
+				Value value = box.getValue();
+				Integer index = localToIndex.get(value);
+				if (index == null)
+					continue;
+				if (first < 0)
+					first = index;
+				else
+					parent[find(parent, index)] = find(parent, first);
+			}
+		}
+
+		Map<Integer, Integer> rootToPack = new HashMap<>();
+		int[] sizes = new int[locals.length];
+		for (int i = 0; i < locals.length; ++i) {
+			int root = find(parent, i);
+			Integer pack = rootToPack.get(root);
+			if (pack == null) {
+				pack = rootToPack.size();
+				rootToPack.put(root, pack);
+			}
+			localToPack.put(locals[i], pack);
+			++sizes[pack];
+		}
+		packSizes = new int[rootToPack.size()];
+		System.arraycopy(sizes, 0, packSizes, 0, packSizes.length);
+	}
+
+	public int getNumberOfPacks() {
+		return packSizes.length;
+	}
+
+	public int getPackSize(int pack) {
+		return packSizes[pack];
+	}
+
+	/**
+	 * Returns the index of the pack of the given variable, or -1 if it is not
+	 * a local variable of the method.
+	 */
+	public int getPack(Local var) {
+		Integer pack = localToPack.get(var);
+		return pack == null ? -1 : pack;
+	}
+
+	/**
+	 * Returns the index of the pack of the variables of the given statement,
+	 * or -1 if the statement has no variables.
+	 */
+	public int getPack(Unit stmt) {
+		if (stmt instanceof Assume)
+			stmt = ((Assume) stmt).stmt;
+		int result = -1;
+		for (ValueBox box : stmt.getUseAndDefBoxes()) {
+			Value value = box.getValue();
+			if (value instanceof Local) {
+				int pack = getPack((Local) value);
+				assert result < 0 || pack == result : "The variables of "
+						+ stmt + " belong to different packs!";
+				result = pack;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of packs of each size.
+	 */
+	public SortedMap<Integer, Integer> getPackSizeDistribution() {
+		SortedMap<Integer, Integer> result = new TreeMap<>();
+		for (int size : packSizes) {
+			Integer count = result.get(size);
+			result.put(size, count == null ? 1 : count + 1);
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return getNumberOfPacks() + " packs, number of packs by size: "
+				+ getPackSizeDistribution();
+	}
+
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+}
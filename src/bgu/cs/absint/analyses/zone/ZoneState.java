@@ -1,5 +1,7 @@
 package bgu.cs.absint.analyses.zone;
 
+import java.util.Collection;
+
 import soot.Local;
 import soot.jimple.IntConstant;
 import bgu.cs.absint.constructor.ConjunctiveState;
@@ -7,10 +9,12 @@ import bgu.cs.absint.constructor.ConjunctiveState;
 /**
  * A set of {@link ZoneFactoid}s of the form {@code x - y <= c} for two local
  * variables. The (symbolic) meaning of a state is given by the conjunction of
- * the {@link ZoneFactoid}s.
- * 
+ * the {@link ZoneFactoid}s.<br>
+ * The factoids are stored in a {@link DBM}, and the set of factoids is only
+ * created when it is requested.
+ *
  * @author romanm
- * 
+ *
  */
 public class ZoneState extends ConjunctiveState<Local, ZoneFactoid> {
 	/**
@@ -53,10 +57,31 @@ public class ZoneState extends ConjunctiveState<Local, ZoneFactoid> {
 		}
 	};
 
+	/**
+	 * The factoids of this state, or null if there are none. The matrix of a
+	 * state that may be shared is never modified.
+	 */
+	protected DBM dbm;
+
+	/**
+	 * Indicates whether {@link factoids} holds the factoids of {@link dbm}.
+	 */
+	private volatile boolean factoidsValid = true;
+
 	public ZoneState() {
 		super();
 	}
 
+	/**
+	 * Constructs a state with the given factoids. The state takes ownership of
+	 * the matrix.
+	 */
+	public ZoneState(DBM dbm) {
+		super();
+		this.dbm = dbm;
+		this.factoidsValid = false;
+	}
+
 	@Override
 	public ZoneState copy() {
 		if (this == bottom)
@@ -65,36 +90,87 @@ public class ZoneState extends ConjunctiveState<Local, ZoneFactoid> {
 			return new ZoneState(this);
 	}
 
-	public boolean addFactoid(Local lhs, Local rhs, IntConstant bound) {
-		// TODO check if there's already a factoid with the same lhs and rhs, and choose
-		// minimum bound.
-		// also check if rhs=o.lhs and lhs=o.rhs and in this case this is bottom -
-		// but leave this for a later calc by the domain
-		return factoids.add(new ZoneFactoid(lhs, rhs, bound));
+	/**
+	 * Returns the matrix holding the factoids of this state, which should not
+	 * be modified, or null if this state has no factoids.
+	 */
+	public DBM getDBM() {
+		return dbm;
 	}
 
 	/**
-	 * Checks whether this state is equivalent to bottom. That is, if this bound +
-	 * the symmetrical bound <0.
+	 * Returns a closed copy of the matrix holding the factoids of this state,
+	 * which may be modified, or null if this state is equivalent to bottom.
 	 */
-	public boolean equivToBottom() {
+	public DBM copyClosedDBM() {
 		if (this == bottom)
-			return true;
-		for (ZoneFactoid f1 : getFactoids()) {
-			if (f1.lhs.equals(f1.rhs) && f1.bound.lessThan(IntConstant.v(0)).equals(IntConstant.v(1)))
-				return true;
-			for (ZoneFactoid f2 : getFactoids()) {
-				if (f1.rhs.equals(f2.lhs)) {
-					IntConstant add = IntConstant.v(f1.bound.value + f2.bound.value);
-					if (f1.lhs.equals(f2.rhs) && add.lessThan(IntConstant.v(0)).equals(IntConstant.v(1))) {
-						// its the same two vars in opposite order - the two consts sum should be
-						// non-negative for a valid solution.
-						return true;
-					}
+			return null;
+		DBM result = dbm == null ? new DBM() : new DBM(dbm);
+		return result.close() ? result : null;
+	}
+
+	public boolean addFactoid(Local lhs, Local rhs, IntConstant bound) {
+		if (dbm == null)
+			dbm = new DBM();
+		dbm.add(lhs);
+		dbm.add(rhs);
+		boolean result = dbm.addConstraint(dbm.find(lhs), dbm.find(rhs),
+				bound.value);
+		if (result)
+			invalidateFactoids();
+		return result;
+	}
+
+	@Override
+	public boolean add(ZoneFactoid factoid) {
+		return addFactoid(factoid.lhs, factoid.rhs, factoid.bound);
+	}
+
+	@Override
+	public boolean removeVar(Local lhs) {
+		if (dbm == null)
+			return false;
+		boolean result = dbm.forget(lhs);
+		if (result)
+			invalidateFactoids();
+		return result;
+	}
+
+	@Override
+	public Collection<ZoneFactoid> getFactoids() {
+		if (!factoidsValid) {
+			synchronized (factoids) {
+				if (!factoidsValid) {
+					factoids.clear();
+					addFactoidsTo(factoids);
+					factoidsValid = true;
 				}
 			}
 		}
-		return false;
+		return factoids;
+	}
+
+	/**
+	 * Adds the factoids of this state to the given collection.
+	 */
+	protected void addFactoidsTo(Collection<ZoneFactoid> result) {
+		if (dbm != null)
+			dbm.addFactoidsTo(result);
+	}
+
+	/**
+	 * Indicates that the factoids of this state have changed.
+	 */
+	protected void invalidateFactoids() {
+		factoidsValid = false;
+	}
+
+	/**
+	 * Checks whether this state is equivalent to bottom. That is, if the
+	 * closure of its factoids has a negative cycle.
+	 */
+	public boolean equivToBottom() {
+		return copyClosedDBM() == null;
 	}
 
 	protected ZoneState(boolean dummy) {
@@ -102,6 +178,10 @@ public class ZoneState extends ConjunctiveState<Local, ZoneFactoid> {
 	}
 
 	protected ZoneState(ZoneState copyFrom) {
-		super(copyFrom.factoids);
+		super();
+		if (copyFrom.dbm != null) {
+			this.dbm = new DBM(copyFrom.dbm);
+			this.factoidsValid = false;
+		}
 	}
-}
\ No newline at end of file
+}
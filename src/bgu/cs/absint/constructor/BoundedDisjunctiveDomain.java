@@ -0,0 +1,134 @@
+package bgu.cs.absint.constructor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import bgu.cs.absint.AbstractDomain;
+
+/**
+ * The disjunctive completion of a (base) abstract domain, where the number of
+ * disjuncts of each state is bounded by a constant 'k'. When the upper bound
+ * of two states has more than 'k' disjuncts, the closest pair of disjuncts
+ * (according to a {@link DisjunctDistance}) is repeatedly merged by the
+ * upper-bound operation of the base domain.
+ * 
+ * @param <StateType>
+ *            The type of abstract domain elements in the base domain.
+ */
+public class BoundedDisjunctiveDomain<StateType, ActionType> extends
+		DisjunctiveDomain<StateType, ActionType> {
+	/**
+	 * The maximal number of disjuncts in the upper bound of two states.
+	 */
+	protected final int maxDisjuncts;
+
+	protected final DisjunctDistance<StateType> distance;
+
+	/**
+	 * The number of pairs of disjuncts merged due to the bound.
+	 */
+	protected final AtomicLong merges = new AtomicLong();
+
+	/**
+	 * Constructs a bounded disjunctive completion of a given base domain.
+	 * 
+	 * @param baseDomain
+	 *            An implementation of the seed domain.
+	 * @param aggressiveUBAtLoopHeads
+	 *            Determines whether all disjuncts are joined at loop heads.
+	 * @param maxDisjuncts
+	 *            The maximal number of disjuncts in an upper bound.
+	 * @param distance
+	 *            Determines which disjuncts are merged first.
+	 */
+	public BoundedDisjunctiveDomain(
+			AbstractDomain<StateType, ActionType> baseDomain,
+			boolean aggressiveUBAtLoopHeads, int maxDisjuncts,
+			DisjunctDistance<StateType> distance) {
+		super(baseDomain, aggressiveUBAtLoopHeads);
+		assert maxDisjuncts > 0;
+		this.maxDisjuncts = maxDisjuncts;
+		this.distance = distance;
+	}
+
+	/**
+	 * Constructs a bounded disjunctive completion that merges disjuncts by the
+	 * distance of the base domain, if it provides one, and otherwise in an
+	 * arbitrary order.
+	 */
+	@SuppressWarnings("unchecked")
+	public BoundedDisjunctiveDomain(
+			AbstractDomain<StateType, ActionType> baseDomain,
+			boolean aggressiveUBAtLoopHeads, int maxDisjuncts) {
+		this(baseDomain, aggressiveUBAtLoopHeads, maxDisjuncts,
+				baseDomain instanceof DisjunctDistance ? (DisjunctDistance<StateType>) baseDomain
+						: (first, second) -> 0);
+	}
+
+	public int getMaxDisjuncts() {
+		return maxDisjuncts;
+	}
+
+	/**
+	 * Returns the number of pairs of disjuncts merged due to the bound so
+	 * far.
+	 */
+	public long getMerges() {
+		return merges.get();
+	}
+
+	@Override
+	public DisjunctiveState<StateType> ub(DisjunctiveState<StateType> elem1,
+			DisjunctiveState<StateType> elem2) {
+		DisjunctiveState<StateType> result = super.ub(elem1, elem2);
+		if (result.size() <= maxDisjuncts)
+			return result;
+		else
+			return bound(result);
+	}
+
+	/**
+	 * Merges the closest pairs of disjuncts of the given state until it has
+	 * at most {@link #maxDisjuncts} disjuncts.
+	 */
+	protected DisjunctiveState<StateType> bound(DisjunctiveState<StateType> elem) {
+		List<StateType> disjuncts = new ArrayList<>(elem.getDisjuncts());
+		while (disjuncts.size() > maxDisjuncts) {
+			int closest1 = 0;
+			int closest2 = 1;
+			int minDistance = Integer.MAX_VALUE;
+			for (int i = 0; i < disjuncts.size() && minDistance > 0; ++i) {
+				for (int j = i + 1; j < disjuncts.size(); ++j) {
+					int d = distance.distance(disjuncts.get(i),
+							disjuncts.get(j));
+					if (d < minDistance) {
+						minDistance = d;
+						closest1 = i;
+						closest2 = j;
+						if (d == 0)
+							break;
+					}
+				}
+			}
+			StateType merged = baseDomain.ub(disjuncts.get(closest1),
+					disjuncts.get(closest2));
+			merges.incrementAndGet();
+			// Remove the merged pair (the later index first) and any other
+			// disjunct that is subsumed by the merged disjunct.
+			disjuncts.remove(closest2);
+			disjuncts.remove(closest1);
+			for (Iterator<StateType> iter = disjuncts.iterator(); iter
+					.hasNext();) {
+				if (baseDomain.leq(iter.next(), merged))
+					iter.remove();
+			}
+			disjuncts.add(merged);
+		}
+		DisjunctIndex<StateType> index = new DisjunctIndex<>(baseDomain);
+		for (StateType disjunct : disjuncts)
+			index.add(disjunct);
+		return new DisjunctiveState<StateType>(index);
+	}
+}
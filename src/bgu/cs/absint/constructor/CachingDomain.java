@@ -0,0 +1,291 @@
+package bgu.cs.absint.constructor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import bgu.cs.absint.AbstractDomain;
+import bgu.cs.absint.IdOperation;
+import bgu.cs.absint.UnaryOperation;
+
+/**
+ * A domain that delegates its operations to a given domain and memoizes the
+ * results of {@link #leq}, {@link #ub}, {@link #widen} and {@link #reduce}.<br>
+ * The results are cached in bounded caches whose keys are the identities of the
+ * arguments, and the least recently used entries are evicted when a cache is
+ * full. Keying by identity avoids computing hash codes of (possibly large)
+ * states, and is sound since states are not modified after they are passed to
+ * domain operations. The caches hold their keys, so the identity of a cached
+ * state is never reused by another state.<br>
+ * Only calls made through this domain are memoized. Calls that the wrapped
+ * domain makes to its own operations, e.g., inside its transformers, are not.
+ *
+ * @param <StateType>
+ *            The implementation type of abstract states.
+ * @param <ActionType>
+ *            The implementation type of program statements.
+ */
+public class CachingDomain<StateType, ActionType> extends
+		AbstractDomain<StateType, ActionType> {
+	/**
+	 * The system property used to set the capacity of each cache. When it is
+	 * set to a positive number, the analyses wrap their domains with a caching
+	 * domain (see {@link bgu.cs.absint.soot.BaseAnalysis}).
+	 */
+	public static final String CAPACITY_PROPERTY = "absint.cachingDomain";
+
+	protected final AbstractDomain<StateType, ActionType> baseDomain;
+
+	protected final Cache<Boolean> leqCache;
+	protected final Cache<StateType> ubCache;
+	protected final Cache<StateType> widenCache;
+	protected final Cache<StateType> reduceCache;
+
+	private UnaryOperation<StateType> cachedReductionOperation = null;
+
+	/**
+	 * Constructs a caching domain for the given domain.
+	 *
+	 * @param baseDomain
+	 *            The domain whose operations are memoized.
+	 * @param capacity
+	 *            The maximal number of entries in each cache.
+	 */
+	public CachingDomain(AbstractDomain<StateType, ActionType> baseDomain,
+			int capacity) {
+		assert capacity > 0;
+		this.baseDomain = baseDomain;
+		leqCache = new Cache<>("leq", capacity);
+		ubCache = new Cache<>("ub", capacity);
+		widenCache = new Cache<>("widen", capacity);
+		reduceCache = new Cache<>("reduce", capacity);
+	}
+
+	/**
+	 * Returns the capacity given by the system property
+	 * {@value #CAPACITY_PROPERTY}, or 0 if the property is not set to a
+	 * positive number, in which case domains should not be wrapped.
+	 */
+	public static int capacityFromProperty() {
+		return Math.max(0, Integer.getInteger(CAPACITY_PROPERTY, 0));
+	}
+
+	public AbstractDomain<StateType, ActionType> getBaseDomain() {
+		return baseDomain;
+	}
+
+	@Override
+	public StateType getBottom() {
+		return baseDomain.getBottom();
+	}
+
+	@Override
+	public StateType getTop() {
+		return baseDomain.getTop();
+	}
+
+	@Override
+	public StateType ub(StateType elem1, StateType elem2) {
+		Key key = new Key(elem1, elem2);
+		StateType result = ubCache.get(key);
+		if (result == null) {
+			result = baseDomain.ub(elem1, elem2);
+			ubCache.put(key, result);
+		}
+		return result;
+	}
+
+	@Override
+	public StateType ubLoop(StateType elem1, StateType elem2) {
+		return baseDomain.ubLoop(elem1, elem2);
+	}
+
+	@Override
+	public StateType lb(StateType first, StateType second) {
+		return baseDomain.lb(first, second);
+	}
+
+	@Override
+	public boolean leq(StateType first, StateType second) {
+		if (first == second)
+			return true;
+		Key key = new Key(first, second);
+		Boolean result = leqCache.get(key);
+		if (result == null) {
+			result = baseDomain.leq(first, second);
+			leqCache.put(key, result);
+		}
+		return result;
+	}
+
+	@Override
+	public int size(StateType elem) {
+		return baseDomain.size(elem);
+	}
+
+	@Override
+	public StateType widen(StateType elem1, StateType elem2) {
+		Key key = new Key(elem1, elem2);
+		StateType result = widenCache.get(key);
+		if (result == null) {
+			result = baseDomain.widen(elem1, elem2);
+			widenCache.put(key, result);
+		}
+		return result;
+	}
+
+	@Override
+	public StateType narrow(StateType elem1, StateType elem2) {
+		return baseDomain.narrow(elem1, elem2);
+	}
+
+	@Override
+	public StateType reduce(StateType input) {
+		return reduce(input, null);
+	}
+
+	@Override
+	public UnaryOperation<StateType> getTransformer(ActionType action) {
+		return baseDomain.getTransformer(action);
+	}
+
+	/**
+	 * Returns the reduction operation of the wrapped domain, which may differ
+	 * from its {@link #reduce} method, with its results memoized.
+	 */
+	@Override
+	public UnaryOperation<StateType> getReductionOperation() {
+		if (cachedReductionOperation == null) {
+			final UnaryOperation<StateType> baseReduction = baseDomain
+					.getReductionOperation();
+			if (baseReduction instanceof IdOperation)
+				cachedReductionOperation = baseReduction;
+			else
+				cachedReductionOperation = new UnaryOperation<StateType>() {
+					@Override
+					public StateType apply(StateType input) {
+						assert input != null && arity() == 1;
+						return reduce(input, baseReduction);
+					}
+
+					@Override
+					public String toString() {
+						return "Caching" + baseReduction;
+					}
+				};
+		}
+		return cachedReductionOperation;
+	}
+
+	/**
+	 * Returns the percentage of the calls to each memoized operation that were
+	 * answered from its cache.
+	 */
+	public String getStatistics() {
+		return leqCache + ", " + ubCache + ", " + widenCache + ", "
+				+ reduceCache;
+	}
+
+	@Override
+	public String toString() {
+		return "Caching(" + baseDomain + ")";
+	}
+
+	/**
+	 * Reduces the given state by the given operation, or by the
+	 * {@link #reduce} method of the wrapped domain if the operation is null.
+	 * The results of the operation and the method are cached separately, since
+	 * they may differ.
+	 */
+	protected StateType reduce(StateType input,
+			UnaryOperation<StateType> operation) {
+		Key key = new Key(input, operation);
+		StateType result = reduceCache.get(key);
+		if (result == null) {
+			result = operation == null ? baseDomain.reduce(input) : operation
+					.apply(input);
+			reduceCache.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * A pair of objects compared by their identities.
+	 */
+	protected static final class Key {
+		private final Object first;
+		private final Object second;
+
+		public Key(Object first, Object second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(first)
+					+ System.identityHashCode(second);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			Key other = (Key) obj;
+			return first == other.first && second == other.second;
+		}
+	}
+
+	/**
+	 * A bounded cache that evicts its least recently used entry and counts its
+	 * hits and misses. The cache may be accessed concurrently by the parallel
+	 * solvers.
+	 */
+	protected static final class Cache<V> {
+		private final String name;
+		private final LinkedHashMap<Key, V> map;
+		private long hits;
+		private long misses;
+
+		@SuppressWarnings("serial")
+		public Cache(String name, final int capacity) {
+			this.name = name;
+			this.map = new LinkedHashMap<Key, V>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+					return size() > capacity;
+				}
+			};
+		}
+
+		/**
+		 * Returns the value cached for the given key, or null if there is no
+		 * such value.
+		 */
+		public synchronized V get(Key key) {
+			V result = map.get(key);
+			if (result != null)
+				++hits;
+			else
+				++misses;
+			return result;
+		}
+
+		public synchronized void put(Key key, V value) {
+			map.put(key, value);
+		}
+
+		public synchronized long getHits() {
+			return hits;
+		}
+
+		public synchronized long getMisses() {
+			return misses;
+		}
+
+		@Override
+		public synchronized String toString() {
+			long calls = hits + misses;
+			return name + " "
+					+ (calls == 0 ? "-" : String.format("%.1f%%", 100.0 * hits / calls))
+					+ " (" + hits + "/" + calls + ")";
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package bgu.cs.absint.constructor;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -24,16 +25,61 @@ import bgu.cs.util.StringUtils;
  */
 public abstract class ConjunctiveState<VarType, F extends Factoid<VarType>>
 		implements Iterable<F> {
+	/**
+	 * Set this property to "hash" to store factoids in a {@link HashSet}
+	 * rather than in a {@link PersistentHashSet}.
+	 */
+	public static final String FACTOID_SET_PROPERTY = "absint.factoidSet";
+
+	/**
+	 * Indicates whether factoids are stored in {@link PersistentHashSet}s,
+	 * which are copied in constant time and share their structure with their
+	 * copies.
+	 */
+	public static final boolean usePersistentSets = !"hash".equals(System
+			.getProperty(FACTOID_SET_PROPERTY));
+
 	/**
 	 * An element is a set of factoids.
 	 */
-	public final HashSet<F> factoids;
+	public final Set<F> factoids;
+
+	/**
+	 * Maps each variable to the factoids that contain it. The index is built
+	 * when it is first needed and is then maintained by {@link #add} and
+	 * {@link #remove}. The index is persistent, so copies of a state share it
+	 * and updating it takes time logarithmic in the number of variables.<br>
+	 * A state may be shared by threads that only read it, e.g., when it is
+	 * copied, so the index is built completely before it is published.
+	 */
+	private volatile PersistentHashSet<VarEntry<F>> varToFactoids;
 
 	/**
 	 * Constructs a state with an empty set of factoids.
 	 */
 	public ConjunctiveState() {
-		factoids = new HashSet<>();
+		factoids = newFactoidSet();
+	}
+
+	/**
+	 * Returns an empty set for storing factoids.
+	 */
+	public static <F> Set<F> newFactoidSet() {
+		if (usePersistentSets)
+			return new PersistentHashSet<>();
+		else
+			return new HashSet<>();
+	}
+
+	/**
+	 * Returns a set for storing factoids that contains the given factoids.
+	 * Copying a {@link PersistentHashSet} takes constant time.
+	 */
+	public static <F> Set<F> newFactoidSet(Collection<F> factoids) {
+		if (usePersistentSets)
+			return new PersistentHashSet<>(factoids);
+		else
+			return new HashSet<>(factoids);
 	}
 
 	/**
@@ -65,25 +111,167 @@ public abstract class ConjunctiveState<VarType, F extends Factoid<VarType>>
 	 * @return true if the element has changed due to the addition.
 	 */
 	public boolean add(F factoid) {
-		return factoids.add(factoid);
+		if (!factoids.add(factoid))
+			return false;
+		PersistentHashSet<VarEntry<F>> index = varToFactoids;
+		if (index != null)
+			updateIndex(index, factoid, true, null);
+		return true;
 	}
 
 	/**
-	 * Removes any factoid containing the given variable.
+	 * Removes a factoid from this state.
+	 * 
+	 * @return true if the element has changed due to the removal.
+	 */
+	public boolean remove(F factoid) {
+		if (!factoids.remove(factoid))
+			return false;
+		PersistentHashSet<VarEntry<F>> index = varToFactoids;
+		if (index != null)
+			updateIndex(index, factoid, false, null);
+		return true;
+	}
+
+	/**
+	 * Removes any factoid containing the given variable. The factoids are
+	 * found via the variable index, so the time is proportional to the number
+	 * of removed factoids.
 	 * 
 	 * @param lhs
 	 *            The variable to be removed from the state.
 	 */
 	public boolean removeVar(VarType lhs) {
+		PersistentHashSet<VarEntry<F>> index = getIndex();
+		VarEntry<F> entry = index.get(new VarEntry<F>(lhs, null));
+		if (entry == null)
+			return false;
+		index.remove(entry);
+		for (F factoid : entry.factoids) {
+			factoids.remove(factoid);
+			updateIndex(index, factoid, false, lhs);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the factoids of this state that contain the given variable,
+	 * for subclasses that store their factoids in {@link #factoids}.
+	 */
+	protected Collection<F> getVarFactoids(Local var) {
+		VarEntry<F> entry = getIndex().get(new VarEntry<F>(var, null));
+		if (entry == null)
+			return Collections.emptySet();
+		else
+			return Collections.unmodifiableSet(entry.factoids);
+	}
+
+	/**
+	 * Adds the factoids of the given state to this state.
+	 * 
+	 * @return true if the element has changed due to the addition.
+	 */
+	public boolean addAll(ConjunctiveState<VarType, F> other) {
+		if (varToFactoids == null)
+			return factoids.addAll(other.factoids);
 		boolean result = false;
-		for (Iterator<F> iter = factoids.iterator(); iter.hasNext();) {
-			F factoid = iter.next();
-			if (factoid.hasVar(lhs)) {
-				iter.remove();
-				result = true;
+		for (F factoid : other.factoids)
+			result |= add(factoid);
+		return result;
+	}
+
+	/**
+	 * Removes the factoids that are not in the given state from this state.
+	 * 
+	 * @return true if the element has changed due to the removal.
+	 */
+	public boolean retainAll(ConjunctiveState<VarType, F> other) {
+		if (varToFactoids == null)
+			return factoids.retainAll(other.factoids);
+		ArrayList<F> removed = new ArrayList<>();
+		for (F factoid : factoids) {
+			if (!other.factoids.contains(factoid))
+				removed.add(factoid);
+		}
+		for (F factoid : removed)
+			remove(factoid);
+		return !removed.isEmpty();
+	}
+
+	/**
+	 * Checks whether this state contains all the factoids of the given state.
+	 */
+	public boolean containsAll(ConjunctiveState<VarType, F> other) {
+		return factoids.containsAll(other.factoids);
+	}
+
+	/**
+	 * Returns the variable index, building it if necessary. The index is
+	 * built in a local set and published only when complete, so threads
+	 * reading a shared state never see a partially built index. Threads that
+	 * race to build it build equal indices.
+	 */
+	private PersistentHashSet<VarEntry<F>> getIndex() {
+		PersistentHashSet<VarEntry<F>> index = varToFactoids;
+		if (index == null) {
+			index = new PersistentHashSet<>();
+			for (F factoid : factoids)
+				updateIndex(index, factoid, true, null);
+			varToFactoids = index;
+		}
+		return index;
+	}
+
+	/**
+	 * Adds the given factoid to, or removes it from, the sets of its
+	 * variables in the given index, except for the set of the given variable.
+	 */
+	private void updateIndex(PersistentHashSet<VarEntry<F>> index, F factoid,
+			boolean add, Object skippedVar) {
+		HashSet<Local> vars = new HashSet<>(4);
+		factoid.addVarsTo(vars);
+		for (Local var : vars) {
+			if (var.equals(skippedVar))
+				continue;
+			VarEntry<F> entry = index.get(new VarEntry<F>(var, null));
+			PersistentHashSet<F> varFactoids;
+			if (entry != null) {
+				index.remove(entry);
+				varFactoids = entry.factoids.copy();
+			} else {
+				varFactoids = new PersistentHashSet<>();
 			}
+			if (add)
+				varFactoids.add(factoid);
+			else
+				varFactoids.remove(factoid);
+			if (!varFactoids.isEmpty())
+				index.add(new VarEntry<F>(var, varFactoids));
+		}
+	}
+
+	/**
+	 * The factoids of a variable in the variable index. Entries are equal when
+	 * their variables are equal.
+	 */
+	private static final class VarEntry<F> {
+		final Object var;
+		final PersistentHashSet<F> factoids;
+
+		VarEntry(Object var, PersistentHashSet<F> factoids) {
+			this.var = var;
+			this.factoids = factoids;
+		}
+
+		@Override
+		public int hashCode() {
+			return var.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return var.equals(((VarEntry<?>) obj).var);
 		}
-		return result;
 	}
 
 	/**
@@ -158,7 +346,17 @@ public abstract class ConjunctiveState<VarType, F extends Factoid<VarType>>
 	 * @param factoids
 	 */
 	protected ConjunctiveState(Collection<F> factoids) {
-		this.factoids = new HashSet<F>(factoids);
+		this.factoids = newFactoidSet(factoids);
+	}
+
+	/**
+	 * Constructs a state with the factoids of the given state, which shares
+	 * the variable index of the given state. The index of the given state is
+	 * built if necessary, so that it is built once rather than for each copy.
+	 */
+	protected ConjunctiveState(ConjunctiveState<VarType, F> copyFrom) {
+		this.factoids = newFactoidSet(copyFrom.factoids);
+		this.varToFactoids = copyFrom.getIndex().copy();
 	}
 
 	/**
@@ -0,0 +1,19 @@
+package bgu.cs.absint.constructor;
+
+/**
+ * An interface for measuring how much precision is lost by merging two
+ * disjuncts. Bounded disjunctive domains (see
+ * {@link BoundedDisjunctiveDomain}) merge the closest pair of disjuncts
+ * first. A base domain may implement this interface to provide its own
+ * distance.
+ * 
+ * @param <StateType>
+ *            The type of elements from the base domain.
+ */
+public interface DisjunctDistance<StateType> {
+	/**
+	 * Returns a non-negative distance between the given disjuncts, which is
+	 * smaller for disjuncts whose upper bound loses less precision.
+	 */
+	public int distance(StateType first, StateType second);
+}
@@ -0,0 +1,148 @@
+package bgu.cs.absint.constructor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import bgu.cs.absint.AbstractDomain;
+
+/**
+ * A set of disjuncts that is kept reduced with respect to the order of the
+ * base domain, i.e., no disjunct is less than or equal to another disjunct.
+ * The disjuncts are grouped by the signatures that the base domain assigns to
+ * them (see {@link SubsumptionSignature}), and subsumption checks only
+ * compare disjuncts from groups whose signatures may be ordered. When the
+ * base domain does not provide signatures, all disjuncts are in a single
+ * group.
+ * 
+ * @param <StateType>
+ *            The type of elements from the base domain.
+ */
+public class DisjunctIndex<StateType> {
+	/**
+	 * The group of disjuncts of base domains that do not provide signatures.
+	 */
+	private static final Object NO_SIGNATURE = new Object();
+
+	protected final AbstractDomain<StateType, ?> baseDomain;
+
+	/**
+	 * The signatures of the disjuncts, or null if the base domain does not
+	 * provide signatures.
+	 */
+	protected final SubsumptionSignature<StateType> signatures;
+
+	/**
+	 * Maps each signature to the disjuncts having it.
+	 */
+	protected final Map<Object, List<StateType>> groups;
+
+	protected int size;
+
+	@SuppressWarnings("unchecked")
+	public DisjunctIndex(AbstractDomain<StateType, ?> baseDomain) {
+		this.baseDomain = baseDomain;
+		this.signatures = baseDomain instanceof SubsumptionSignature ? (SubsumptionSignature<StateType>) baseDomain
+				: null;
+		this.groups = new HashMap<>();
+	}
+
+	/**
+	 * Constructs an index containing the disjuncts of the given index.
+	 */
+	public DisjunctIndex(DisjunctIndex<StateType> copyFrom) {
+		this.baseDomain = copyFrom.baseDomain;
+		this.signatures = copyFrom.signatures;
+		this.groups = new HashMap<>(copyFrom.groups.size());
+		for (Map.Entry<Object, List<StateType>> entry : copyFrom.groups
+				.entrySet())
+			groups.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+		this.size = copyFrom.size;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds the given disjunct unless it is less than or equal to a disjunct
+	 * in the index, and removes the disjuncts that are less than or equal to
+	 * it.
+	 * 
+	 * @return true if the disjunct was added.
+	 */
+	public boolean add(StateType disjunct) {
+		Object signature = getSignature(disjunct);
+		if (subsumes(disjunct, signature))
+			return false;
+		for (Iterator<Map.Entry<Object, List<StateType>>> groupIter = groups
+				.entrySet().iterator(); groupIter.hasNext();) {
+			Map.Entry<Object, List<StateType>> group = groupIter.next();
+			if (!mayBeLeq(group.getKey(), signature))
+				continue;
+			List<StateType> members = group.getValue();
+			for (Iterator<StateType> iter = members.iterator(); iter.hasNext();) {
+				if (baseDomain.leq(iter.next(), disjunct)) {
+					iter.remove();
+					--size;
+				}
+			}
+			if (members.isEmpty())
+				groupIter.remove();
+		}
+		List<StateType> members = groups.get(signature);
+		if (members == null) {
+			members = new ArrayList<>(2);
+			groups.put(signature, members);
+		}
+		members.add(disjunct);
+		++size;
+		return true;
+	}
+
+	/**
+	 * Checks whether the given element is less than or equal to a disjunct in
+	 * the index.
+	 */
+	public boolean subsumes(StateType elem) {
+		return subsumes(elem, getSignature(elem));
+	}
+
+	/**
+	 * Returns the disjuncts in the index.
+	 */
+	public Collection<StateType> getDisjuncts() {
+		ArrayList<StateType> result = new ArrayList<>(size);
+		for (List<StateType> members : groups.values())
+			result.addAll(members);
+		return result;
+	}
+
+	protected boolean subsumes(StateType elem, Object signature) {
+		for (Map.Entry<Object, List<StateType>> group : groups.entrySet()) {
+			if (!mayBeLeq(signature, group.getKey()))
+				continue;
+			for (StateType member : group.getValue()) {
+				if (baseDomain.leq(elem, member))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	protected Object getSignature(StateType disjunct) {
+		if (signatures == null)
+			return NO_SIGNATURE;
+		Object result = signatures.getSignature(disjunct);
+		return result == null ? NO_SIGNATURE : result;
+	}
+
+	protected boolean mayBeLeq(Object signature1, Object signature2) {
+		if (signature1 == NO_SIGNATURE || signature2 == NO_SIGNATURE)
+			return true;
+		return signatures.mayBeLeq(signature1, signature2);
+	}
+}
@@ -2,7 +2,7 @@ package bgu.cs.absint.constructor;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
 
 import bgu.cs.absint.AbstractDomain;
 import bgu.cs.absint.IdOperation;
@@ -35,6 +35,12 @@ public class DisjunctiveDomain<StateType, ActionType> extends
 
 	protected final boolean aggressiveUBAtLoopHeads;
 
+	/**
+	 * Applies transformers to the disjuncts of large states in parallel, or
+	 * null if transformers are applied sequentially.
+	 */
+	protected ParallelDisjuncts parallel = ParallelDisjuncts.fromProperty();
+
 	/**
 	 * Constructs an abstract domain that is the disjunctive completion of a
 	 * given base domain.
@@ -57,6 +63,14 @@ public class DisjunctiveDomain<StateType, ActionType> extends
 		this(subDomain, true);
 	}
 
+	/**
+	 * Sets the object used to apply transformers to the disjuncts of large
+	 * states in parallel, or null to apply them sequentially.
+	 */
+	public void setParallel(ParallelDisjuncts parallel) {
+		this.parallel = parallel;
+	}
+
 	/**
 	 * Returns a disjunctive state that is the empty set of elements from the
 	 * base domain.
@@ -82,19 +96,17 @@ public class DisjunctiveDomain<StateType, ActionType> extends
 	@Override
 	public DisjunctiveState<StateType> ub(DisjunctiveState<StateType> elem1,
 			DisjunctiveState<StateType> elem2) {
-		Collection<StateType> reducedUnion = new HashSet<StateType>(
-				elem1.getDisjuncts());
-		for (StateType sub2 : elem2) {
-			boolean subsumed = false;
-			for (StateType sub1 : elem1) {
-				if (baseDomain.leq(sub1, sub2)) {
-					subsumed = true;
-					break;
-				}
-			}
-			if (!subsumed)
-				reducedUnion.add(sub2);
-		}
+		if (elem1.size() == 0)
+			return elem2;
+		else if (elem2.size() == 0)
+			return elem1;
+		DisjunctIndex<StateType> reducedUnion = new DisjunctIndex<StateType>(
+				getIndex(elem1));
+		boolean changed = false;
+		for (StateType sub2 : elem2)
+			changed |= reducedUnion.add(sub2);
+		if (!changed)
+			return elem1;
 		DisjunctiveState<StateType> result = new DisjunctiveState<StateType>(
 				reducedUnion);
 		return result;
@@ -149,32 +161,51 @@ public class DisjunctiveDomain<StateType, ActionType> extends
 		}
 	}
 
+	@Override
+	public int size(DisjunctiveState<StateType> elem) {
+		return elem.size();
+	}
+
 	@Override
 	public boolean leq(DisjunctiveState<StateType> elem1,
 			DisjunctiveState<StateType> elem2) {
+		if (elem1.size() == 0)
+			return true;
+		DisjunctIndex<StateType> index2 = getIndex(elem2);
 		for (StateType sub1 : elem1) {
-			boolean subsumed = false;
-			for (StateType sub2 : elem2) {
-				if (baseDomain.leq(sub1, sub2)) {
-					subsumed = true;
-					break;
-				}
-			}
-			if (!subsumed)
+			if (!index2.subsumes(sub1))
 				return false;
 		}
 		return true;
 	}
 
+	/**
+	 * Returns the index of the disjuncts of the given state, which is built
+	 * when it is first needed.
+	 */
+	protected DisjunctIndex<StateType> getIndex(DisjunctiveState<StateType> elem) {
+		DisjunctIndex<StateType> result = elem.index;
+		if (result == null || result.baseDomain != baseDomain) {
+			result = new DisjunctIndex<StateType>(baseDomain);
+			for (StateType disjunct : elem)
+				result.add(disjunct);
+			elem.index = result;
+		}
+		return result;
+	}
+
 	/**
 	 * A transformer that operates by applying a sub-transformer to each
-	 * component separately.
+	 * component separately. When a {@link ParallelDisjuncts} object is set,
+	 * the disjuncts of large states are transformed and collected in
+	 * parallel.
 	 */
 	@Override
 	public UnaryOperation<DisjunctiveState<StateType>> getTransformer(
 			ActionType action) {
 		final UnaryOperation<StateType> subTransformer = baseDomain
 				.getTransformer(action);
+		final ParallelDisjuncts parallel = this.parallel;
 		if (subTransformer == IdOperation.v())
 			return IdOperation.v();
 		else
@@ -182,6 +213,10 @@ public class DisjunctiveDomain<StateType, ActionType> extends
 				@Override
 				public DisjunctiveState<StateType> apply(
 						DisjunctiveState<StateType> input) {
+					if (parallel != null && parallel.isParallel(input.size()))
+						return new DisjunctiveState<StateType>(
+								parallel.flatMapToSet(input.getDisjuncts(),
+										this::applyToDisjunct));
 					Collection<StateType> outputs = new ArrayList<StateType>(
 							input.size());
 					for (StateType subElem : input) {
@@ -194,6 +229,18 @@ public class DisjunctiveDomain<StateType, ActionType> extends
 					return result;
 				}
 
+				/**
+				 * Returns the output of the sub-transformer for the given
+				 * disjunct, or nothing if the output is bottom.
+				 */
+				private Collection<StateType> applyToDisjunct(StateType subElem) {
+					StateType subOutput = subTransformer.apply(subElem);
+					if (subOutput != baseDomain.getBottom())
+						return Collections.singletonList(subOutput);
+					else
+						return Collections.emptyList();
+				}
+
 				@Override
 				public String toString() {
 					return "P(" + subTransformer.toString() + ")";
@@ -18,6 +18,12 @@ import bgu.cs.util.StringUtils;
 public class DisjunctiveState<StateType> implements Iterable<StateType> {
 	protected final Set<StateType> disjuncts = new HashSet<>();
 
+	/**
+	 * The disjuncts grouped for subsumption checks, which is built by
+	 * {@link DisjunctiveDomain} when it is first needed.
+	 */
+	protected volatile DisjunctIndex<StateType> index;
+
 	public DisjunctiveState() {
 	}
 
@@ -35,6 +41,15 @@ public class DisjunctiveState<StateType> implements Iterable<StateType> {
 		this.disjuncts.addAll(disjuncts);
 	}
 
+	/**
+	 * Constructs a state with the disjuncts of the given index, which the
+	 * state takes ownership of.
+	 */
+	public DisjunctiveState(DisjunctIndex<StateType> index) {
+		this.disjuncts.addAll(index.getDisjuncts());
+		this.index = index;
+	}
+
 	public DisjunctiveState(Collection<StateType> disjuncts1,
 			Collection<StateType> disjuncts2) {
 		this.disjuncts.addAll(disjuncts1);
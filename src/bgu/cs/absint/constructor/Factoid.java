@@ -1,6 +1,7 @@
 package bgu.cs.absint.constructor;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Set;
 
 import soot.Local;
@@ -14,6 +15,22 @@ import soot.Local;
  *            The implementation type of program variables.
  */
 public abstract class Factoid<VarType> {
+	/**
+	 * The public fields of type {@link Local} of each factoid class, which are
+	 * looked up once per class.
+	 */
+	private static final ClassValue<Field[]> localFields = new ClassValue<Field[]>() {
+		@Override
+		protected Field[] computeValue(Class<?> type) {
+			ArrayList<Field> result = new ArrayList<>();
+			for (Field field : type.getFields()) {
+				if (field.getType().equals(Local.class))
+					result.add(field);
+			}
+			return result.toArray(new Field[result.size()]);
+		}
+	};
+
 	/**
 	 * Checks whether two objects refer to the same program variables.
 	 */
@@ -22,23 +39,22 @@ public abstract class Factoid<VarType> {
 	/**
 	 * Determines whether the fact contains the given variable. The default
 	 * implementation uses reflection to find variables in the fields of the
-	 * class implementing the factoid (the class extending this one).
+	 * class implementing the factoid (the class extending this one), so
+	 * factoids used on performance-critical paths should override it.
 	 * 
 	 * @param var
 	 *            A program variable.
 	 * @return true if the fact contains the given program variable.
 	 */
 	public boolean hasVar(VarType var) {
-		for (Field field : Factoid.class.getFields()) {
-			if (field.getType().equals(Local.class)) {
-				try {
-					@SuppressWarnings("unchecked")
-					VarType varInField = (VarType) field.get(this);
-					if (equalVars(var, varInField))
-						return true;
-				} catch (IllegalArgumentException | IllegalAccessException e) {
-					e.printStackTrace();
-				}
+		for (Field field : localFields.get(getClass())) {
+			try {
+				@SuppressWarnings("unchecked")
+				VarType varInField = (VarType) field.get(this);
+				if (equalVars(var, varInField))
+					return true;
+			} catch (IllegalArgumentException | IllegalAccessException e) {
+				e.printStackTrace();
 			}
 		}
 		return false;
@@ -48,20 +64,19 @@ public abstract class Factoid<VarType> {
 	 * Adds all local variables that appear in this factoid to the given
 	 * collection. The default implementation uses reflection to find local
 	 * variables in the fields of the class implementing the factoid (the class
-	 * extending this one).
+	 * extending this one), so factoids used on performance-critical paths
+	 * should override it.
 	 * 
 	 * @param c
 	 *            A collection of local variables.
 	 */
 	public void addVarsTo(Set<Local> c) {
-		for (Field field : Factoid.class.getFields()) {
-			if (field.getType().equals(Local.class)) {
-				try {
-					Local varInField = (Local) field.get(this);
-					c.add(varInField);
-				} catch (IllegalArgumentException | IllegalAccessException e) {
-					e.printStackTrace();
-				}
+		for (Field field : localFields.get(getClass())) {
+			try {
+				Local varInField = (Local) field.get(this);
+				c.add(varInField);
+			} catch (IllegalArgumentException | IllegalAccessException e) {
+				e.printStackTrace();
 			}
 		}
 	}
@@ -2,6 +2,7 @@ package bgu.cs.absint.constructor;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 
 import bgu.cs.absint.AbstractDomain;
 import bgu.cs.absint.UnaryOperation;
@@ -44,6 +45,12 @@ public class MapDomain<StateType1, StateType2, ActionType> extends
 	 */
 	protected final DisjunctiveState<Pair<StateType1, StateType2>> top;
 
+	/**
+	 * Applies transformers to the pairs of large states in parallel, or null
+	 * if transformers are applied sequentially.
+	 */
+	protected ParallelDisjuncts parallel = ParallelDisjuncts.fromProperty();
+
 	/**
 	 * Constructs an abstract domain that is the Cartesian combination of
 	 * {@link domain1} and {@link ops2}.
@@ -63,6 +70,14 @@ public class MapDomain<StateType1, StateType2, ActionType> extends
 						domain2.getTop()));
 	}
 
+	/**
+	 * Sets the object used to apply transformers to the pairs of large states
+	 * in parallel, or null to apply them sequentially.
+	 */
+	public void setParallel(ParallelDisjuncts parallel) {
+		this.parallel = parallel;
+	}
+
 	@Override
 	public DisjunctiveState<Pair<StateType1, StateType2>> getBottom() {
 		return bottom;
@@ -109,11 +124,16 @@ public class MapDomain<StateType1, StateType2, ActionType> extends
 				.getTransformer(stmt);
 		final UnaryOperation<StateType2> subTransformer2 = domain2
 				.getTransformer(stmt);
+		final ParallelDisjuncts parallel = this.parallel;
 
 		return new UnaryOperation<DisjunctiveState<Pair<StateType1, StateType2>>>() {
 			@Override
 			public DisjunctiveState<Pair<StateType1, StateType2>> apply(
 					DisjunctiveState<Pair<StateType1, StateType2>> input) {
+				if (parallel != null && parallel.isParallel(input.size()))
+					return new DisjunctiveState<Pair<StateType1, StateType2>>(
+							parallel.flatMapToSet(input.getDisjuncts(),
+									this::applyToPair));
 				Collection<Pair<StateType1, StateType2>> outputs = new ArrayList<Pair<StateType1, StateType2>>(
 						input.size());
 				for (Pair<StateType1, StateType2> subElem : input) {
@@ -134,6 +154,22 @@ public class MapDomain<StateType1, StateType2, ActionType> extends
 				return result;
 			}
 
+			/**
+			 * Returns the pair of outputs of the sub-transformers for the
+			 * given pair, or nothing if either output is bottom.
+			 */
+			private Collection<Pair<StateType1, StateType2>> applyToPair(
+					Pair<StateType1, StateType2> subElem) {
+				StateType1 subOutput1 = subTransformer1.apply(subElem.first);
+				StateType2 subOutput2 = subTransformer2.apply(subElem.second);
+				if (subOutput1 != domain1.getBottom()
+						&& subOutput2 != domain2.getBottom())
+					return Collections.singletonList(new Pair<>(subOutput1,
+							subOutput2));
+				else
+					return Collections.emptyList();
+			}
+
 			@Override
 			public String toString() {
 				return "P(" + subTransformer1.toString() + ","
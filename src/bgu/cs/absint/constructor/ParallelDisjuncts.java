@@ -0,0 +1,213 @@
+package bgu.cs.absint.constructor;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+/**
+ * Applies a function to the disjuncts of a state on a {@link ForkJoinPool}.
+ * States with fewer disjuncts than a given threshold are handled sequentially
+ * on the calling thread, since for them the cost of forking tasks outweighs
+ * the gain.<br>
+ * The parallel mode is enabled by setting the system property
+ * {@value #THRESHOLD_PROPERTY} to the least number of disjuncts that are
+ * handled in parallel (see {@link #fromProperty()}).<br>
+ * NOTE: the functions are applied concurrently and must therefore be safe for
+ * concurrent use.
+ */
+public class ParallelDisjuncts {
+	public static final String THRESHOLD_PROPERTY = "absint.parallelDisjuncts";
+
+	/**
+	 * The number of tasks created per worker thread of the pool, which
+	 * balances the load when some disjuncts are costlier than others.
+	 */
+	private static final int TASKS_PER_THREAD = 4;
+
+	/**
+	 * The pool on which the disjuncts are handled.
+	 */
+	protected final ForkJoinPool pool;
+
+	/**
+	 * The least number of disjuncts that are handled in parallel.
+	 */
+	protected final int threshold;
+
+	/**
+	 * Constructs an object that uses the common pool.
+	 */
+	public ParallelDisjuncts(int threshold) {
+		this(ForkJoinPool.commonPool(), threshold);
+	}
+
+	public ParallelDisjuncts(ForkJoinPool pool, int threshold) {
+		assert threshold > 0;
+		this.pool = pool;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Returns an object whose threshold is given by the system property
+	 * {@value #THRESHOLD_PROPERTY}, or null if the property is not set to a
+	 * positive number, in which case disjuncts should be handled
+	 * sequentially.
+	 */
+	public static ParallelDisjuncts fromProperty() {
+		int threshold = Integer.getInteger(THRESHOLD_PROPERTY, 0);
+		return threshold > 0 ? new ParallelDisjuncts(threshold) : null;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Checks whether the given number of disjuncts is handled in parallel.
+	 */
+	public boolean isParallel(int size) {
+		return size >= threshold;
+	}
+
+	/**
+	 * Applies the given function to each input and returns the list of
+	 * results, in the order of the inputs.
+	 */
+	@SuppressWarnings("unchecked")
+	public <S, T> List<T> map(Collection<S> inputs, Function<S, T> function) {
+		Object[] inputArray = inputs.toArray();
+		Object[] outputArray = new Object[inputArray.length];
+		if (!isParallel(inputArray.length)) {
+			for (int i = 0; i < inputArray.length; ++i)
+				outputArray[i] = function.apply((S) inputArray[i]);
+		} else {
+			pool.invoke(new MapTask<S, T>(inputArray, outputArray, function,
+					0, inputArray.length, grain(inputArray.length)));
+		}
+		return (List<T>) Arrays.asList(outputArray);
+	}
+
+	/**
+	 * Applies the given function to each input and returns the set of all
+	 * elements of the results. In parallel mode, each task collects the
+	 * elements of its own inputs, and the sets of the tasks are merged as the
+	 * tasks are joined.
+	 */
+	@SuppressWarnings("unchecked")
+	public <S, T> Set<T> flatMapToSet(Collection<S> inputs,
+			Function<S, ? extends Collection<T>> function) {
+		Object[] inputArray = inputs.toArray();
+		if (!isParallel(inputArray.length)) {
+			Set<T> result = new HashSet<>();
+			for (Object input : inputArray)
+				result.addAll(function.apply((S) input));
+			return result;
+		} else {
+			return pool.invoke(new FlatMapToSetTask<S, T>(inputArray,
+					function, 0, inputArray.length, grain(inputArray.length)));
+		}
+	}
+
+	/**
+	 * Returns the number of inputs below which a task does not fork.
+	 */
+	protected int grain(int size) {
+		return Math.max(1, size / (TASKS_PER_THREAD * pool.getParallelism()));
+	}
+
+	/**
+	 * A task that applies a function to a range of inputs.
+	 */
+	@SuppressWarnings("serial")
+	private static class MapTask<S, T> extends RecursiveTask<Void> {
+		private final Object[] inputs;
+		private final Object[] outputs;
+		private final Function<S, T> function;
+		private final int from;
+		private final int to;
+		private final int grain;
+
+		public MapTask(Object[] inputs, Object[] outputs,
+				Function<S, T> function, int from, int to, int grain) {
+			this.inputs = inputs;
+			this.outputs = outputs;
+			this.function = function;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		protected Void compute() {
+			if (to - from <= grain) {
+				for (int i = from; i < to; ++i)
+					outputs[i] = function.apply((S) inputs[i]);
+			} else {
+				int middle = (from + to) >>> 1;
+				MapTask<S, T> left = new MapTask<>(inputs, outputs, function,
+						from, middle, grain);
+				left.fork();
+				new MapTask<>(inputs, outputs, function, middle, to, grain)
+						.compute();
+				left.join();
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * A task that collects the results of applying a function to a range of
+	 * inputs into a set.
+	 */
+	@SuppressWarnings("serial")
+	private static class FlatMapToSetTask<S, T> extends RecursiveTask<Set<T>> {
+		private final Object[] inputs;
+		private final Function<S, ? extends Collection<T>> function;
+		private final int from;
+		private final int to;
+		private final int grain;
+
+		public FlatMapToSetTask(Object[] inputs,
+				Function<S, ? extends Collection<T>> function, int from,
+				int to, int grain) {
+			this.inputs = inputs;
+			this.function = function;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		protected Set<T> compute() {
+			if (to - from <= grain) {
+				Set<T> result = new HashSet<>();
+				for (int i = from; i < to; ++i)
+					result.addAll(function.apply((S) inputs[i]));
+				return result;
+			} else {
+				int middle = (from + to) >>> 1;
+				FlatMapToSetTask<S, T> left = new FlatMapToSetTask<>(inputs,
+						function, from, middle, grain);
+				left.fork();
+				Set<T> right = new FlatMapToSetTask<>(inputs, function,
+						middle, to, grain).compute();
+				Set<T> result = left.join();
+				// Merge the smaller set into the larger one.
+				if (result.size() < right.size()) {
+					right.addAll(result);
+					return right;
+				} else {
+					result.addAll(right);
+					return result;
+				}
+			}
+		}
+	}
+}
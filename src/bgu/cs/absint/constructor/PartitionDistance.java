@@ -0,0 +1,40 @@
+package bgu.cs.absint.constructor;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * A distance that partitions the disjuncts by a key, e.g., the values of
+ * designated control variables (as in trace partitioning), so that disjuncts
+ * with the same key are merged before disjuncts with different keys.
+ * Disjuncts of the same partition are compared by a secondary distance.
+ * 
+ * @param <StateType>
+ *            The type of elements from the base domain.
+ */
+public class PartitionDistance<StateType> implements
+		DisjunctDistance<StateType> {
+	protected final Function<StateType, Object> key;
+
+	/**
+	 * The distance between disjuncts, which is used for disjuncts in the same
+	 * partition and as a tie breaker otherwise.
+	 */
+	protected final DisjunctDistance<StateType> secondary;
+
+	public PartitionDistance(Function<StateType, Object> key,
+			DisjunctDistance<StateType> secondary) {
+		this.key = key;
+		this.secondary = secondary;
+	}
+
+	@Override
+	public int distance(StateType first, StateType second) {
+		int distance = secondary.distance(first, second);
+		if (Objects.equals(key.apply(first), key.apply(second)))
+			return distance;
+		else
+			return Integer.MAX_VALUE / 2
+					+ Math.min(distance, Integer.MAX_VALUE / 2);
+	}
+}
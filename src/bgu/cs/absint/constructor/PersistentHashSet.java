@@ -0,0 +1,705 @@
+package bgu.cs.absint.constructor;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set backed by an immutable hash array mapped trie (HAMT). Modifying the
+ * set replaces the path from the root to the modified entry and shares the
+ * rest of the trie, so additions and removals take O(log n) time and copying
+ * a set takes O(1) time. Sets obtained from each other by a few modifications
+ * share most of their subtrees, which lets {@link #addAll},
+ * {@link #retainAll} and {@link #containsAll} skip shared subtrees by
+ * reference equality.<br>
+ * Like {@link java.util.HashSet}, the set is not thread-safe, but it may be
+ * iterated while being modified, since iterators traverse the trie that
+ * existed when they were created.
+ *
+ * @param <E>
+ *            The type of elements.
+ */
+public class PersistentHashSet<E> extends AbstractSet<E> {
+	/**
+	 * The number of hash bits used at each level of the trie.
+	 */
+	private static final int BITS = 5;
+
+	/**
+	 * The shift at which all the hash bits are used, so elements with equal
+	 * hash codes are stored in a {@link CollisionNode}.
+	 */
+	private static final int MAX_SHIFT = 30;
+
+	/**
+	 * The root of the trie, or null if the set is empty.
+	 */
+	protected Node root;
+
+	/**
+	 * Constructs an empty set.
+	 */
+	public PersistentHashSet() {
+	}
+
+	/**
+	 * Constructs a set with the elements of the given collection, which shares
+	 * the trie of the collection if it is a {@link PersistentHashSet}.
+	 */
+	public PersistentHashSet(Collection<? extends E> c) {
+		if (c instanceof PersistentHashSet)
+			root = ((PersistentHashSet<?>) c).root;
+		else
+			addAll(c);
+	}
+
+	/**
+	 * Returns a copy of this set in constant time.
+	 */
+	public PersistentHashSet<E> copy() {
+		return new PersistentHashSet<>(this);
+	}
+
+	@Override
+	public int size() {
+		return root == null ? 0 : root.size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return root == null;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return root != null && root.contains(o, hash(o), 0);
+	}
+
+	/**
+	 * Returns the element of this set that is equal to the given object, or
+	 * null if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	public E get(Object o) {
+		return root == null ? null : (E) root.find(o, hash(o), 0);
+	}
+
+	@Override
+	public boolean add(E e) {
+		if (root == null) {
+			root = new BitmapNode(e, hash(e), 0);
+			return true;
+		}
+		Node newRoot = root.add(e, hash(e), 0);
+		if (newRoot == root)
+			return false;
+		root = newRoot;
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (root == null)
+			return false;
+		Node newRoot = root.remove(o, hash(o), 0);
+		if (newRoot == root)
+			return false;
+		root = newRoot;
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		root = null;
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends E> c) {
+		if (!(c instanceof PersistentHashSet))
+			return super.addAll(c);
+		Node other = ((PersistentHashSet<?>) c).root;
+		Node newRoot = union(root, other, 0);
+		if (newRoot == root)
+			return false;
+		root = newRoot;
+		return true;
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		if (!(c instanceof PersistentHashSet))
+			return super.retainAll(c);
+		Node other = ((PersistentHashSet<?>) c).root;
+		Node newRoot = intersection(root, other, 0);
+		if (newRoot == root)
+			return false;
+		root = newRoot;
+		return true;
+	}
+
+	@Override
+	public boolean containsAll(Collection<?> c) {
+		if (!(c instanceof PersistentHashSet))
+			return super.containsAll(c);
+		return subset(((PersistentHashSet<?>) c).root, root, 0);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof PersistentHashSet) {
+			Node other = ((PersistentHashSet<?>) o).root;
+			return size() == (other == null ? 0 : other.size)
+					&& subset(other, root, 0);
+		}
+		return super.equals(o);
+	}
+
+	@Override
+	public int hashCode() {
+		return root == null ? 0 : root.hashCode;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new TrieIterator();
+	}
+
+	private static int hash(Object o) {
+		int h = o.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private static int bit(int hash, int shift) {
+		return 1 << ((hash >>> shift) & 31);
+	}
+
+	// /////////////////////////////////////////////////////////////////////////
+	// Operations on entries, which are either elements or nodes.
+	// /////////////////////////////////////////////////////////////////////////
+
+	private static boolean isNode(Object entry) {
+		return entry instanceof Node;
+	}
+
+	private static int sizeOf(Object entry) {
+		return isNode(entry) ? ((Node) entry).size : 1;
+	}
+
+	private static int hashCodeOf(Object entry) {
+		return isNode(entry) ? ((Node) entry).hashCode : entry.hashCode();
+	}
+
+	private static boolean entryContains(Object entry, Object o, int hash,
+			int shift) {
+		if (isNode(entry))
+			return ((Node) entry).contains(o, hash, shift);
+		else
+			return entry.equals(o);
+	}
+
+	private static Object entryFind(Object entry, Object o, int hash,
+			int shift) {
+		if (isNode(entry))
+			return ((Node) entry).find(o, hash, shift);
+		else
+			return entry.equals(o) ? entry : null;
+	}
+
+	/**
+	 * Returns the union of two nodes at the given shift, which is the first
+	 * node if it contains the second.
+	 */
+	private static Node union(Node first, Node second, int shift) {
+		if (first == null)
+			return second;
+		if (second == null || first == second)
+			return first;
+		if (first instanceof BitmapNode && second instanceof BitmapNode)
+			return ((BitmapNode) first).union((BitmapNode) second, shift);
+		Node result = first;
+		for (Object e : second.elements())
+			result = result.add(e, hash(e), shift);
+		return result;
+	}
+
+	/**
+	 * Returns the intersection of two nodes at the given shift, which is the
+	 * first node if it is contained in the second, and null if the
+	 * intersection is empty.
+	 */
+	private static Node intersection(Node first, Node second, int shift) {
+		if (first == second || first == null)
+			return first;
+		if (second == null)
+			return null;
+		if (first instanceof BitmapNode && second instanceof BitmapNode)
+			return ((BitmapNode) first).intersection((BitmapNode) second,
+					shift);
+		Node result = first;
+		for (Object e : first.elements()) {
+			if (!second.contains(e, hash(e), shift))
+				result = result == null ? null : result.remove(e, hash(e),
+						shift);
+		}
+		return result;
+	}
+
+	/**
+	 * Checks whether the first node is contained in the second.
+	 */
+	private static boolean subset(Node first, Node second, int shift) {
+		if (first == second || first == null)
+			return true;
+		if (second == null || first.size > second.size)
+			return false;
+		if (first instanceof BitmapNode && second instanceof BitmapNode)
+			return ((BitmapNode) first).subset((BitmapNode) second, shift);
+		for (Object e : first.elements()) {
+			if (!second.contains(e, hash(e), shift))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * An immutable node of the trie.
+	 */
+	protected static abstract class Node {
+		/**
+		 * The number of elements under this node.
+		 */
+		protected int size;
+
+		/**
+		 * The sum of the hash codes of the elements under this node, which is
+		 * the hash code of a set with these elements.
+		 */
+		protected int hashCode;
+
+		abstract boolean contains(Object o, int hash, int shift);
+
+		/**
+		 * Returns the element under this node that is equal to the given
+		 * object, or null if there is none.
+		 */
+		abstract Object find(Object o, int hash, int shift);
+
+		/**
+		 * Returns a node that also contains the given element, which is this
+		 * node if it already contains the element.
+		 */
+		abstract Node add(Object e, int hash, int shift);
+
+		/**
+		 * Returns a node without the given element, which is this node if it
+		 * doesn't contain the element, and null if the result is empty.
+		 */
+		abstract Node remove(Object o, int hash, int shift);
+
+		/**
+		 * Returns the entries of this node.
+		 */
+		abstract Object[] entries();
+
+		/**
+		 * Returns the elements under this node.
+		 */
+		Object[] elements() {
+			Object[] result = new Object[size];
+			int i = 0;
+			for (Object entry : entries()) {
+				if (isNode(entry)) {
+					Object[] subElements = ((Node) entry).elements();
+					System.arraycopy(subElements, 0, result, i,
+							subElements.length);
+					i += subElements.length;
+				} else {
+					result[i++] = entry;
+				}
+			}
+			return result;
+		}
+
+		protected void computeSummary(Object[] entries) {
+			size = 0;
+			hashCode = 0;
+			for (Object entry : entries) {
+				size += sizeOf(entry);
+				hashCode += hashCodeOf(entry);
+			}
+		}
+	}
+
+	/**
+	 * A node whose entries are indexed by the bits of the hash code at the
+	 * node's level. Each entry is either an element or a sub-node.
+	 */
+	protected static class BitmapNode extends Node {
+		protected final int bitmap;
+		protected final Object[] entries;
+
+		BitmapNode(int bitmap, Object[] entries) {
+			this.bitmap = bitmap;
+			this.entries = entries;
+			computeSummary(entries);
+		}
+
+		BitmapNode(Object e, int hash, int shift) {
+			this(bit(hash, shift), new Object[] { e });
+		}
+
+		@Override
+		Object[] entries() {
+			return entries;
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		@Override
+		boolean contains(Object o, int hash, int shift) {
+			int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0)
+				return false;
+			return entryContains(entries[index(bit)], o, hash, shift + BITS);
+		}
+
+		@Override
+		Object find(Object o, int hash, int shift) {
+			int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0)
+				return null;
+			return entryFind(entries[index(bit)], o, hash, shift + BITS);
+		}
+
+		@Override
+		Node add(Object e, int hash, int shift) {
+			int bit = bit(hash, shift);
+			int index = index(bit);
+			if ((bitmap & bit) == 0) {
+				Object[] newEntries = new Object[entries.length + 1];
+				System.arraycopy(entries, 0, newEntries, 0, index);
+				newEntries[index] = e;
+				System.arraycopy(entries, index, newEntries, index + 1,
+						entries.length - index);
+				return new BitmapNode(bitmap | bit, newEntries);
+			}
+			Object entry = entries[index];
+			Object newEntry;
+			if (isNode(entry)) {
+				newEntry = ((Node) entry).add(e, hash, shift + BITS);
+			} else if (entry.equals(e)) {
+				return this;
+			} else {
+				newEntry = pair(entry, hash(entry), e, hash, shift + BITS);
+			}
+			if (newEntry == entry)
+				return this;
+			return with(index, newEntry);
+		}
+
+		@Override
+		Node remove(Object o, int hash, int shift) {
+			int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0)
+				return this;
+			int index = index(bit);
+			Object entry = entries[index];
+			if (isNode(entry)) {
+				Node newEntry = ((Node) entry).remove(o, hash, shift + BITS);
+				if (newEntry == entry)
+					return this;
+				if (newEntry != null) {
+					// Inline sub-nodes that are left with a single element.
+					if (newEntry.size == 1)
+						return with(index, newEntry.elements()[0]);
+					return with(index, newEntry);
+				}
+			} else if (!entry.equals(o)) {
+				return this;
+			}
+			if (entries.length == 1)
+				return null;
+			Object[] newEntries = new Object[entries.length - 1];
+			System.arraycopy(entries, 0, newEntries, 0, index);
+			System.arraycopy(entries, index + 1, newEntries, index,
+					entries.length - index - 1);
+			return new BitmapNode(bitmap & ~bit, newEntries);
+		}
+
+		private BitmapNode with(int index, Object newEntry) {
+			Object[] newEntries = entries.clone();
+			newEntries[index] = newEntry;
+			return new BitmapNode(bitmap, newEntries);
+		}
+
+		BitmapNode union(BitmapNode other, int shift) {
+			int newBitmap = bitmap | other.bitmap;
+			Object[] newEntries = new Object[Integer.bitCount(newBitmap)];
+			boolean changed = false;
+			int i = 0;
+			for (int bits = newBitmap; bits != 0; bits &= bits - 1) {
+				int bit = Integer.lowestOneBit(bits);
+				Object entry = (bitmap & bit) != 0 ? entries[index(bit)]
+						: null;
+				Object otherEntry = (other.bitmap & bit) != 0 ? other.entries[other
+						.index(bit)] : null;
+				Object newEntry = unionEntries(entry, otherEntry, shift + BITS);
+				changed |= newEntry != entry;
+				newEntries[i++] = newEntry;
+			}
+			return changed ? new BitmapNode(newBitmap, newEntries) : this;
+		}
+
+		BitmapNode intersection(BitmapNode other, int shift) {
+			int commonBitmap = bitmap & other.bitmap;
+			boolean changed = commonBitmap != bitmap;
+			int newBitmap = 0;
+			Object[] newEntries = new Object[Integer.bitCount(commonBitmap)];
+			int i = 0;
+			for (int bits = commonBitmap; bits != 0; bits &= bits - 1) {
+				int bit = Integer.lowestOneBit(bits);
+				Object entry = entries[index(bit)];
+				Object otherEntry = other.entries[other.index(bit)];
+				Object newEntry = intersectEntries(entry, otherEntry, shift
+						+ BITS);
+				changed |= newEntry != entry;
+				if (newEntry != null) {
+					newBitmap |= bit;
+					newEntries[i++] = newEntry;
+				}
+			}
+			if (!changed)
+				return this;
+			if (i == 0)
+				return null;
+			return new BitmapNode(newBitmap, Arrays.copyOf(newEntries, i));
+		}
+
+		boolean subset(BitmapNode other, int shift) {
+			if ((bitmap & ~other.bitmap) != 0)
+				return false;
+			for (int bits = bitmap; bits != 0; bits &= bits - 1) {
+				int bit = Integer.lowestOneBit(bits);
+				Object entry = entries[index(bit)];
+				Object otherEntry = other.entries[other.index(bit)];
+				if (entry == otherEntry)
+					continue;
+				if (isNode(entry)) {
+					if (isNode(otherEntry)) {
+						if (!PersistentHashSet.subset((Node) entry,
+								(Node) otherEntry, shift + BITS))
+							return false;
+					} else if (((Node) entry).size > 1
+							|| !otherEntry.equals(((Node) entry).elements()[0])) {
+						return false;
+					}
+				} else if (!entryContains(otherEntry, entry, hash(entry),
+						shift + BITS)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A node holding elements whose hash codes are equal.
+	 */
+	protected static class CollisionNode extends Node {
+		protected final int hash;
+		protected final Object[] elements;
+
+		CollisionNode(int hash, Object[] elements) {
+			this.hash = hash;
+			this.elements = elements;
+			computeSummary(elements);
+		}
+
+		@Override
+		Object[] entries() {
+			return elements;
+		}
+
+		@Override
+		boolean contains(Object o, int hash, int shift) {
+			if (hash != this.hash)
+				return false;
+			for (Object e : elements) {
+				if (e.equals(o))
+					return true;
+			}
+			return false;
+		}
+
+		@Override
+		Object find(Object o, int hash, int shift) {
+			if (hash != this.hash)
+				return null;
+			for (Object e : elements) {
+				if (e.equals(o))
+					return e;
+			}
+			return null;
+		}
+
+		@Override
+		Node add(Object e, int hash, int shift) {
+			if (hash != this.hash)
+				return pair(this, this.hash, e, hash, shift);
+			if (contains(e, hash, shift))
+				return this;
+			Object[] newElements = Arrays.copyOf(elements, elements.length + 1);
+			newElements[elements.length] = e;
+			return new CollisionNode(hash, newElements);
+		}
+
+		@Override
+		Node remove(Object o, int hash, int shift) {
+			if (hash != this.hash)
+				return this;
+			for (int i = 0; i < elements.length; ++i) {
+				if (elements[i].equals(o)) {
+					if (elements.length == 1)
+						return null;
+					Object[] newElements = new Object[elements.length - 1];
+					System.arraycopy(elements, 0, newElements, 0, i);
+					System.arraycopy(elements, i + 1, newElements, i,
+							elements.length - i - 1);
+					return new CollisionNode(hash, newElements);
+				}
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * Returns a node at the given shift holding two different entries, which
+	 * are elements or collision nodes with the given hashes.
+	 */
+	private static Node pair(Object e1, int hash1, Object e2, int hash2,
+			int shift) {
+		if (hash1 == hash2) {
+			assert !isNode(e1) && !isNode(e2);
+			return new CollisionNode(hash1, new Object[] { e1, e2 });
+		}
+		assert shift <= MAX_SHIFT;
+		int bit1 = bit(hash1, shift);
+		int bit2 = bit(hash2, shift);
+		if (bit1 == bit2)
+			return new BitmapNode(bit1, new Object[] { pair(e1, hash1, e2,
+					hash2, shift + BITS) });
+		Object[] entries = Integer.compareUnsigned(bit1, bit2) < 0 ? new Object[] {
+				e1, e2 }
+				: new Object[] { e2, e1 };
+		return new BitmapNode(bit1 | bit2, entries);
+	}
+
+	private static Object unionEntries(Object entry, Object otherEntry,
+			int shift) {
+		if (otherEntry == null || entry == otherEntry)
+			return entry;
+		if (entry == null)
+			return otherEntry;
+		if (isNode(entry)) {
+			if (isNode(otherEntry))
+				return union((Node) entry, (Node) otherEntry, shift);
+			return ((Node) entry).add(otherEntry, hash(otherEntry), shift);
+		} else if (isNode(otherEntry)) {
+			Node result = ((Node) otherEntry).add(entry, hash(entry), shift);
+			// Keep the entry of this set when it already holds the union.
+			return result.size == 1 ? entry : result;
+		} else if (entry.equals(otherEntry)) {
+			return entry;
+		} else {
+			return pair(entry, hash(entry), otherEntry, hash(otherEntry),
+					shift);
+		}
+	}
+
+	private static Object intersectEntries(Object entry, Object otherEntry,
+			int shift) {
+		if (entry == otherEntry)
+			return entry;
+		if (isNode(entry)) {
+			if (isNode(otherEntry)) {
+				Node result = intersection((Node) entry, (Node) otherEntry,
+						shift);
+				if (result != null && result != entry && result.size == 1)
+					return result.elements()[0];
+				return result;
+			}
+			return ((Node) entry).contains(otherEntry, hash(otherEntry), shift) ? otherEntry
+					: null;
+		} else {
+			return entryContains(otherEntry, entry, hash(entry), shift) ? entry
+					: null;
+		}
+	}
+
+	/**
+	 * Iterates over the trie that existed when the iterator was created.
+	 */
+	private class TrieIterator implements Iterator<E> {
+		private final Object[][] stack = new Object[8][];
+		private final int[] positions = new int[8];
+		private int depth = -1;
+		private Object next;
+		private Object last;
+
+		TrieIterator() {
+			if (root != null)
+				push(root.entries());
+			advance();
+		}
+
+		private void push(Object[] entries) {
+			++depth;
+			stack[depth] = entries;
+			positions[depth] = 0;
+		}
+
+		private void advance() {
+			next = null;
+			while (depth >= 0) {
+				if (positions[depth] == stack[depth].length) {
+					--depth;
+					continue;
+				}
+				Object entry = stack[depth][positions[depth]++];
+				if (isNode(entry)) {
+					push(((Node) entry).entries());
+				} else {
+					next = entry;
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public E next() {
+			if (next == null)
+				throw new NoSuchElementException();
+			last = next;
+			advance();
+			return (E) last;
+		}
+
+		@Override
+		public void remove() {
+			if (last == null)
+				throw new IllegalStateException();
+			PersistentHashSet.this.remove(last);
+			last = null;
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package bgu.cs.absint.constructor;
+
+/**
+ * An interface for abstract domains that can summarize their elements by
+ * cheap signatures, which rule out comparisons between elements that cannot
+ * be ordered. This is useful for abstract domains participating in a
+ * disjunctive completion, where it limits the subsumption checks between
+ * disjuncts to disjuncts with compatible signatures (see
+ * {@link DisjunctIndex}).
+ * 
+ * @param <StateType>
+ *            The type of abstract domain elements.
+ */
+public interface SubsumptionSignature<StateType> {
+	/**
+	 * Returns the signature of the given state. Equal signatures should be
+	 * equal objects, since states are grouped by their signatures.
+	 * 
+	 * @param state
+	 *            An abstract domain element.
+	 * @return An object that summarizes the state, or null if the state can
+	 *         be ordered with any other state.
+	 */
+	public Object getSignature(StateType state);
+
+	/**
+	 * Checks whether a state with the first signature may be less than or
+	 * equal to a state with the second signature. Returning true is always
+	 * sound, and returning false means that no such pair of states is
+	 * ordered.
+	 */
+	public boolean mayBeLeq(Object signature1, Object signature2);
+}
@@ -1,13 +1,17 @@
 package bgu.cs.absint.solver;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.PriorityQueue;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 import bgu.cs.absint.AnalysisVar;
 import bgu.cs.absint.AbstractDomain;
 import bgu.cs.absint.Equation;
 import bgu.cs.absint.EquationSystem;
+import bgu.cs.absint.solver.WeakTopologicalOrder.Component;
 import bgu.cs.util.StringUtils;
 
 /**
@@ -23,12 +27,265 @@ import bgu.cs.util.StringUtils;
  */
 public class ChaoticIterationSolver<StateType, ActionType> extends
 		Solver<StateType, ActionType> {
+	/**
+	 * The order in which equations are processed.
+	 */
+	public static enum IterationStrategy {
+		/**
+		 * A worklist ordered by the priorities of the equations.
+		 */
+		WORKLIST,
+
+		/**
+		 * Bourdoncle's recursive strategy over a weak topological ordering of
+		 * the equations: inner components are stabilized before outer ones.
+		 */
+		RECURSIVE
+	}
+
+	/**
+	 * The ways in which the solver gives up precision when its budget is
+	 * exhausted, in increasing order of severity.
+	 */
+	public static enum Degradation {
+		/**
+		 * The budget was not exhausted.
+		 */
+		NONE,
+
+		/**
+		 * The budget was exhausted while iterating down, which was stopped.
+		 * The values are sound, since iterating down from a post-fixed-point
+		 * yields post-fixed-points, but may be less precise.
+		 */
+		STOPPED_DESCENDING,
+
+		/**
+		 * The budget was exhausted while iterating up, and the iteration
+		 * continued by widening every updated value with its previous value.
+		 */
+		WIDENING,
+
+		/**
+		 * The budget was exhausted while widening every updated value, and the
+		 * variables of the equations that were not stable, and of the equations
+		 * depending on them, were set to top.
+		 */
+		TOP
+	}
+
+	/**
+	 * The strategy used by {@link iterateUp} and {@link iterateDown}.
+	 */
+	public IterationStrategy strategy = IterationStrategy.WORKLIST;
+
+	/**
+	 * Limits the work spent on solving a system. Budgets are not supported by
+	 * {@link ParallelSCCSolver}.
+	 */
+	public SolverBudget budget = SolverBudget.UNLIMITED;
+
+	/**
+	 * The most severe degradation that occurred while solving the last system.
+	 */
+	protected Degradation degradation = Degradation.NONE;
+
+	/**
+	 * The total number of disjuncts in the values of the variables, which is
+	 * maintained only when {@link budget} limits it.
+	 */
+	protected long disjunctCount = 0;
+
+	private int budgetStartIteration;
+	private long budgetStartTime;
+
 	protected int iterationCounter = 0;
 
+	/**
+	 * The number of times an equation was scheduled for evaluation while
+	 * already awaiting evaluation.
+	 */
+	protected int avoidedDuplicates = 0;
+
+	/**
+	 * The id of the left-hand side variable of each equation.
+	 */
+	protected int[] lhsIds;
+
+	/**
+	 * The CSR-encoded lists of equations containing each variable on their
+	 * right-hand side (see {@link EquationSystem#getDependentOffsets()}).
+	 */
+	protected int[] dependentOffsets;
+	protected int[] dependentIds;
+
+	/**
+	 * The position of each variable in the argument lists of its dependent
+	 * equations (see {@link EquationSystem#getDependentArgPositions()}).
+	 */
+	protected int[] dependentArgPositions;
+
+	/**
+	 * For each equation, the position of the only argument whose value has
+	 * been replaced since the equation was last evaluated,
+	 * {@link #NO_CHANGED_ARG} if there is none, or {@link #UNKNOWN_CHANGED_ARGS}
+	 * if several arguments may have been replaced. Values are only replaced
+	 * by {@link #evaluate} during an iteration, so the positions are exact
+	 * from the start of an iteration, where they are reset to unknown.
+	 */
+	protected int[] changedArgs;
+
+	protected static final int NO_CHANGED_ARG = -2;
+	protected static final int UNKNOWN_CHANGED_ARGS = -1;
+
+	/**
+	 * The worklist key of each equation, derived from its priority.
+	 */
+	protected int[] keys;
+
+	/**
+	 * The indices of equations that should be re-evaluated under the
+	 * recursive strategy, since at least one of their arguments has changed.
+	 */
+	protected BitSet dirtyEquations;
+
+	/**
+	 * The system for which {@link keys} was computed.
+	 */
+	private EquationSystem<StateType, ActionType> indexedSystem;
+
+	/**
+	 * Returns the number of equation evaluations performed so far.
+	 */
+	public int getIterationCounter() {
+		return iterationCounter;
+	}
+
+	/**
+	 * Returns the number of evaluations saved by not scheduling an equation
+	 * that was already awaiting evaluation.
+	 */
+	public int getAvoidedDuplicates() {
+		return avoidedDuplicates;
+	}
+
+	/**
+	 * Returns the most severe degradation that occurred while solving the last
+	 * system due to exhausting the budget.
+	 */
+	public Degradation getDegradation() {
+		return degradation;
+	}
+
 	protected void initializeValues() {
 		system.initializeValues(domain.getBottom());
 	}
 
+	/**
+	 * Starts tracking the budget for a new system, whose variables have been
+	 * initialized.
+	 */
+	protected void resetBudget() {
+		degradation = Degradation.NONE;
+		startBudget();
+	}
+
+	/**
+	 * Starts a new allotment of iterations and time, and recounts the
+	 * disjuncts in the values of the variables.
+	 */
+	protected void startBudget() {
+		budgetStartIteration = iterationCounter;
+		budgetStartTime = System.nanoTime();
+		if (budget.limitsDisjuncts()) {
+			disjunctCount = 0;
+			for (int i = 0; i < system.getNumberOfVars(); ++i) {
+				StateType value = system.getVar(i).value;
+				if (value != null)
+					disjunctCount += domain.size(value);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the current allotment of the budget is exhausted. The
+	 * number of disjuncts is only limited before degrading, since widening
+	 * every updated value is expected to merge disjuncts.
+	 */
+	protected boolean budgetExhausted() {
+		if (iterationCounter - budgetStartIteration >= budget.maxIterations)
+			return true;
+		if (budget.maxMillis != Long.MAX_VALUE
+				&& (System.nanoTime() - budgetStartTime) / 1000000 >= budget.maxMillis)
+			return true;
+		return degradation == Degradation.NONE && budget.limitsDisjuncts()
+				&& disjunctCount > budget.maxDisjuncts;
+	}
+
+	/**
+	 * Degrades the iteration after the budget is exhausted.
+	 * 
+	 * @param pending
+	 *            The indices of the equations awaiting evaluation.
+	 * @param ascending
+	 *            Determines whether the iteration is from below or from above.
+	 * @return true if the iteration should stop.
+	 */
+	protected boolean degrade(BitSet pending, boolean ascending) {
+		if (!ascending) {
+			printDebugMessage("Budget exhausted: stopping the descending iteration.");
+			if (degradation == Degradation.NONE)
+				degradation = Degradation.STOPPED_DESCENDING;
+			return true;
+		} else if (degradation.compareTo(Degradation.WIDENING) < 0) {
+			printDebugMessage("Budget exhausted: widening all updated values.");
+			degradation = Degradation.WIDENING;
+			startBudget();
+			return false;
+		} else {
+			degradation = Degradation.TOP;
+			setUnstableToTop(pending);
+			return true;
+		}
+	}
+
+	/**
+	 * Sets the variables of the given equations, and of all equations
+	 * depending on them, to top. The other equations were evaluated after the
+	 * last change to their arguments, so the resulting values are a
+	 * post-fixed-point.
+	 */
+	protected void setUnstableToTop(BitSet pending) {
+		BitSet affected = new BitSet(system.getNumberOfEquations());
+		int[] stack = new int[system.getNumberOfEquations()];
+		int stackTop = 0;
+		for (int index = pending.nextSetBit(0); index >= 0; index = pending
+				.nextSetBit(index + 1)) {
+			affected.set(index);
+			stack[stackTop++] = index;
+		}
+		while (stackTop > 0) {
+			int var = lhsIds[stack[--stackTop]];
+			for (int i = dependentOffsets[var]; i < dependentOffsets[var + 1]; ++i) {
+				int next = dependentIds[i];
+				if (!affected.get(next)) {
+					affected.set(next);
+					stack[stackTop++] = next;
+				}
+			}
+		}
+		printDebugMessage("Budget exhausted: setting " + affected.cardinality()
+				+ " variables to top.");
+		StateType top = domain.getTop();
+		for (int index = affected.nextSetBit(0); index >= 0; index = affected
+				.nextSetBit(index + 1)) {
+			AnalysisVar<StateType> lhs = system.getEquation(index).getLhs();
+			if (budget.limitsDisjuncts())
+				disjunctCount += domain.size(top) - domain.size(lhs.value);
+			lhs.value = top;
+		}
+	}
+
 	@Override
 	public void solve(EquationSystem<StateType, ActionType> system,
 			AbstractDomain<StateType, ActionType> domain) {
@@ -37,10 +294,12 @@ public class ChaoticIterationSolver<StateType, ActionType> extends
 		printDebugMessage("Solving the following equation system = "
 				+ StringUtils.newLine + system);
 		initializeValues();
+		resetBudget();
 		printDebugMessage("Starting chaotic iterations...");
 		iterateUp();
 		printDebugMessage("Reached fixed-point after " + iterationCounter
-				+ " iterations.");
+				+ " iterations (" + avoidedDuplicates
+				+ " duplicate evaluations avoided).");
 		printDebugSolution(system);
 
 		assert system.allVariablesInitialized() : "Solution resulted with null-valued variables!";
@@ -50,108 +309,285 @@ public class ChaoticIterationSolver<StateType, ActionType> extends
 	 * Computes the fixed-point solution of the given {@link system} from below,
 	 * using chaotic iterations. The solution is stored in the variables of the
 	 * system.
-	 * 
-	 * @param system
-	 *            The system of equations that needs to be solved.
-	 * @param domain
-	 *            Provides the partial order test operation.
 	 */
 	public void iterateUp() {
 		Collection<Equation<StateType>> initialEquations = system.getHeads();
 		if (initialEquations.isEmpty())
 			initialEquations.addAll(system.getEquations());
+		indexEquations();
+		if (strategy == IterationStrategy.RECURSIVE)
+			iterateRecursively(initialEquations, initialEquations, true);
+		else
+			iterateWorklist(initialEquations, true);
+	}
 
-		// Iterate until reaching a fixed-point.
-		PriorityQueue<Equation<StateType>> workSet = new PriorityQueue<>(
-				initialEquations);
-		while (!workSet.isEmpty()) {
-			++iterationCounter;
-			printDebugMessage("              workSet = "
-					+ equationsToLhsString(workSet));
-
-			Equation<StateType> equation = workSet.remove();
+	/**
+	 * Computes a fixed-point solution of the given {@link system} from above,
+	 * starting from the values currently stored in the variables of the
+	 * system.
+	 */
+	public void iterateDown() {
+		indexEquations();
+		if (strategy == IterationStrategy.RECURSIVE) {
+			// Start from the heads so that the ordering follows the flow of
+			// the program, and then pick up any remaining equations.
+			Collection<Equation<StateType>> roots = new LinkedHashSet<>(
+					system.getHeads());
+			roots.addAll(system.getEquations());
+			iterateRecursively(roots, system.getEquations(), false);
+		} else {
+			iterateWorklist(system.getEquations(), false);
+		}
+	}
 
-			printDebugMessage("Iteration " + iterationCounter + ": processing "
-					+ equation.toString());
+	/**
+	 * Obtains the dense representation of the system and computes the
+	 * worklist keys of the equations, unless this was already done for the
+	 * current system.
+	 */
+	protected void indexEquations() {
+		if (indexedSystem == system)
+			return;
+		indexedSystem = system;
+		lhsIds = system.getLhsIds();
+		dependentOffsets = system.getDependentOffsets();
+		dependentIds = system.getDependentIds();
+		dependentArgPositions = system.getDependentArgPositions();
+		int size = system.getNumberOfEquations();
+		changedArgs = new int[size];
+		keys = new int[size];
+		for (int i = 0; i < size; ++i) {
+			// Equation.compareTo processes equations with higher priorities
+			// first.
+			keys[i] = -system.getEquation(i).priority;
+		}
+	}
 
-			AnalysisVar<StateType> lhs = equation.getLhs();
-			StateType currentValue = lhs.value;
+	/**
+	 * Iterates over the equations using a worklist until reaching a
+	 * fixed-point.
+	 * 
+	 * @param initialEquations
+	 *            The equations that should be evaluated at least once.
+	 * @param ascending
+	 *            Determines whether the iteration is from below (a change is
+	 *            any value not lower or equal to the previous one) or from
+	 *            above (a change is a strictly lower value).
+	 */
+	protected void iterateWorklist(
+			Collection<Equation<StateType>> initialEquations, boolean ascending) {
+		Worklist workSet = new Worklist(keys);
+		for (Equation<StateType> equation : initialEquations)
+			workSet.add(equation.getId());
+		Arrays.fill(changedArgs, UNKNOWN_CHANGED_ARGS);
 
-			if (debug) {
-				printDebugMessage("              " + equation.getLhs() + " : "
-						+ equation.getLhs().value);
-				for (AnalysisVar<StateType> arg : equation.getArgs()) {
-					printDebugMessage("              " + arg + " : "
-							+ arg.value);
+		// Iterate until reaching a fixed-point.
+		while (!workSet.isEmpty()) {
+			if (budgetExhausted()) {
+				BitSet pending = new BitSet(system.getNumberOfEquations());
+				for (int i = 0; i < workSet.size(); ++i)
+					pending.set(workSet.get(i));
+				if (degrade(pending, ascending))
+					return;
+			}
+			if (debug)
+				printDebugMessage("              workSet = "
+						+ worklistToLhsString(workSet));
+			int index = workSet.remove();
+			if (evaluate(index, ascending)) {
+				int var = lhsIds[index];
+				int to = dependentOffsets[var + 1];
+				for (int i = dependentOffsets[var]; i < to; ++i) {
+					int next = dependentIds[i];
+					if (next != index && !workSet.add(next))
+						++avoidedDuplicates;
 				}
+				if (debug)
+					printDebugMessage("              Adding "
+							+ dependentsToString(index));
 			}
-			equation.update();
-			printDebugMessage("              " + equation.getLhs() + "' : "
-					+ equation.getLhs().value);
+		}
+	}
 
-			if (!domain.leq(lhs.value, currentValue)) {
-				Collection<Equation<StateType>> nextEquations = new ArrayList<>();
-				for (Equation<StateType> nextEquation : system
-						.getDependentEquations(lhs)) {
-					if (nextEquation == equation) {
-						continue;
-					} else {
-						workSet.add(nextEquation);
-						nextEquations.add(nextEquation);
-					}
-				}
+	/**
+	 * Iterates over the equations according to Bourdoncle's recursive
+	 * strategy until reaching a fixed-point.
+	 * 
+	 * @param roots
+	 *            The equations from which the weak topological ordering is
+	 *            computed.
+	 * @param initialEquations
+	 *            The equations that should be evaluated at least once.
+	 * @param ascending
+	 *            Determines whether the iteration is from below (a change is
+	 *            any value not lower or equal to the previous one) or from
+	 *            above (a change is a strictly lower value).
+	 */
+	protected void iterateRecursively(Collection<Equation<StateType>> roots,
+			Collection<Equation<StateType>> initialEquations, boolean ascending) {
+		WeakTopologicalOrder<StateType> wto = new WeakTopologicalOrder<>(
+				system, roots);
+		printDebugMessage("Weak topological order = " + wto);
+		dirtyEquations = new BitSet(system.getNumberOfEquations());
+		for (Equation<StateType> equation : initialEquations)
+			dirtyEquations.set(equation.getId());
+		Arrays.fill(changedArgs, UNKNOWN_CHANGED_ARGS);
+		stabilize(wto.getComponents(), ascending);
+		assert dirtyEquations.isEmpty() : "Fixed-point reached with unstable equations!";
+	}
 
-				printDebugMessage("              Adding " + nextEquations);
+	/**
+	 * Stabilizes the given list of components in order, where a component is
+	 * stabilized by iterating over its head and nested components until the
+	 * head is stable.
+	 */
+	protected void stabilize(List<Component<StateType>> components,
+			boolean ascending) {
+		for (int c = 0; c < components.size(); ++c) {
+			Component<StateType> component = components.get(c);
+			int head = component.head.getId();
+			if (component.isVertex()) {
+				evaluateIfDirty(head, ascending);
+			} else {
+				do {
+					evaluateIfDirty(head, ascending);
+					stabilize(component.elements, ascending);
+				} while (dirtyEquations.get(head));
 			}
 		}
 	}
 
-	public void iterateDown() {
-		// Iterate until reaching a fixed-point.
-		PriorityQueue<Equation<StateType>> workSet = new PriorityQueue<>(
-				system.getEquations());
-		while (!workSet.isEmpty()) {
-			++iterationCounter;
-			printDebugMessage("              workSet = "
-					+ equationsToLhsString(workSet));
-
-			Equation<StateType> equation = workSet.remove();
+	/**
+	 * Evaluates the equation with the given index if any of its arguments has
+	 * changed since it was last evaluated, and marks its dependent equations
+	 * if its value has changed.
+	 */
+	protected void evaluateIfDirty(int index, boolean ascending) {
+		if (!dirtyEquations.get(index))
+			return;
+		if (budgetExhausted() && degrade(dirtyEquations, ascending)) {
+			dirtyEquations.clear();
+			return;
+		}
+		dirtyEquations.clear(index);
+		if (evaluate(index, ascending)) {
+			int var = lhsIds[index];
+			int to = dependentOffsets[var + 1];
+			for (int i = dependentOffsets[var]; i < to; ++i) {
+				int next = dependentIds[i];
+				if (next == index)
+					continue;
+				if (dirtyEquations.get(next))
+					++avoidedDuplicates;
+				else
+					dirtyEquations.set(next);
+			}
+		}
+	}
 
-			printDebugMessage("Iteration " + iterationCounter + ": processing "
-					+ equation.toString());
+	/**
+	 * Updates the equation with the given index.
+	 * 
+	 * @param index
+	 *            The index of an equation.
+	 * @param ascending
+	 *            Determines whether a change means a value that is not lower
+	 *            or equal to the previous one or a strictly lower value.
+	 * @return true if the value of the equation has changed.
+	 */
+	protected boolean evaluate(int index, boolean ascending) {
+		++iterationCounter;
+		Equation<StateType> equation = system.getEquation(index);
+		if (debug)
+			printDebugMessage("Iteration " + iterationCounter
+					+ ": processing " + equation.toString());
 
-			AnalysisVar<StateType> lhs = equation.getLhs();
-			StateType currentValue = lhs.value;
+		AnalysisVar<StateType> lhs = equation.getLhs();
+		StateType currentValue = lhs.value;
 
-			if (debug) {
-				printDebugMessage("              " + equation.getLhs() + " : "
-						+ equation.getLhs().value);
-				for (AnalysisVar<StateType> arg : equation.getArgs()) {
-					printDebugMessage("              " + arg + " : "
-							+ arg.value);
-				}
+		if (debug) {
+			printDebugMessage("              " + equation.getLhs() + " : "
+					+ equation.getLhs().value);
+			for (AnalysisVar<StateType> arg : equation.getArgs()) {
+				printDebugMessage("              " + arg + " : " + arg.value);
 			}
+		}
+		int changedArg = changedArgs[index];
+		changedArgs[index] = NO_CHANGED_ARG;
+		if (changedArg >= 0)
+			equation.update(changedArg);
+		else
 			equation.update();
+		if (ascending && degradation == Degradation.WIDENING)
+			lhs.value = domain.widen(currentValue, lhs.value);
+		if (lhs.value != currentValue)
+			recordChangedArg(lhsIds[index]);
+		if (budget.limitsDisjuncts())
+			disjunctCount += domain.size(lhs.value) - domain.size(currentValue);
+		if (debug)
 			printDebugMessage("              " + equation.getLhs() + "' : "
 					+ equation.getLhs().value);
 
-			boolean newLeq = domain.leq(lhs.value, currentValue);
-			boolean newGeq = domain.leq(currentValue, lhs.value);
-			boolean neqLt = newLeq && !newGeq;
-			if (neqLt) {
-				Collection<Equation<StateType>> nextEquations = new ArrayList<>();
-				for (Equation<StateType> nextEquation : system
-						.getDependentEquations(lhs)) {
-					if (nextEquation == equation) {
-						continue;
-					} else {
-						workSet.add(nextEquation);
-						nextEquations.add(nextEquation);
-					}
-				}
+		return changed(lhs.value, currentValue, ascending);
+	}
 
-				printDebugMessage("              Adding " + nextEquations);
-			}
+	/**
+	 * Records that the value of the given variable has been replaced in the
+	 * changed arguments of the equations depending on it.
+	 */
+	protected void recordChangedArg(int var) {
+		int to = dependentOffsets[var + 1];
+		for (int i = dependentOffsets[var]; i < to; ++i) {
+			int next = dependentIds[i];
+			int position = dependentArgPositions[i];
+			int changedArg = changedArgs[next];
+			if (changedArg == NO_CHANGED_ARG)
+				changedArgs[next] = position;
+			else if (changedArg != position)
+				changedArgs[next] = UNKNOWN_CHANGED_ARGS;
+		}
+	}
+
+	/**
+	 * Determines whether the value of an equation has changed.
+	 * 
+	 * @param newValue
+	 *            The value of the equation after an update.
+	 * @param currentValue
+	 *            The value of the equation before the update.
+	 * @param ascending
+	 *            Determines whether a change means a value that is not lower
+	 *            or equal to the previous one or a strictly lower value.
+	 */
+	protected boolean changed(StateType newValue, StateType currentValue,
+			boolean ascending) {
+		if (ascending) {
+			return !domain.leq(newValue, currentValue);
+		} else {
+			boolean newLeq = domain.leq(newValue, currentValue);
+			boolean newGeq = domain.leq(currentValue, newValue);
+			return newLeq && !newGeq;
+		}
+	}
+
+	protected String worklistToLhsString(Worklist workSet) {
+		StringBuilder result = new StringBuilder("{");
+		for (int i = 0; i < workSet.size(); ++i) {
+			result.append(system.getEquation(workSet.get(i)).getLhs());
+			if (i < workSet.size() - 1)
+				result.append(", ");
+		}
+		result.append("}");
+		return result.toString();
+	}
+
+	protected String dependentsToString(int index) {
+		Collection<Equation<StateType>> result = new ArrayList<>();
+		int var = lhsIds[index];
+		for (int i = dependentOffsets[var]; i < dependentOffsets[var + 1]; ++i) {
+			if (dependentIds[i] != index)
+				result.add(system.getEquation(dependentIds[i]));
 		}
+		return result.toString();
 	}
-}
\ No newline at end of file
+}
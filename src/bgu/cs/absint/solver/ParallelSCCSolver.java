@@ -0,0 +1,390 @@
+package bgu.cs.absint.solver;
+
+import java.util.Arrays;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bgu.cs.absint.AbstractDomain;
+import bgu.cs.absint.AnalysisVar;
+import bgu.cs.absint.Equation;
+import bgu.cs.absint.EquationSystem;
+import bgu.cs.absint.Operation;
+import bgu.cs.util.StringUtils;
+
+/**
+ * A solver that condenses the dependency graph of the equations into its
+ * strongly connected components (SCCs) and solves the components on a
+ * {@link ForkJoinPool}. A component is solved once all of the components it
+ * depends on are solved, so independent components are solved concurrently.
+ * <br>
+ * Each component is solved locally by iterating up, and then, when narrowing
+ * is used, switching the {@link PhasedOperation}s of the component to their
+ * next phase and iterating down. Since a component only reads the final values
+ * of the components it depends on, the solution does not depend on the
+ * scheduling of the components.<br>
+ * NOTE: the operations of the domain are applied concurrently and must
+ * therefore be safe for concurrent use.
+ *
+ * @param <StateType>
+ *            The implementation type of abstract states.
+ * @param <ActionType>
+ *            The implementation type of program statements.
+ */
+public class ParallelSCCSolver<StateType, ActionType> extends
+		ChaoticIterationSolver<StateType, ActionType> {
+	/**
+	 * The pool on which components are solved.
+	 */
+	protected final ForkJoinPool pool;
+
+	/**
+	 * Determines whether each component iterates down after iterating up.
+	 */
+	protected final boolean useNarrowing;
+
+	/**
+	 * The indices of the equations in each component, in ascending order.
+	 */
+	protected int[][] components;
+
+	/**
+	 * Maps the index of each equation to the index of its component.
+	 */
+	protected int[] equationToComponent;
+
+	/**
+	 * Maps the index of each equation to its position in its component.
+	 */
+	protected int[] positionInComponent;
+
+	/**
+	 * The indices of the components depending on each component.
+	 */
+	protected int[][] componentSuccs;
+
+	/**
+	 * The number of components each component depends on.
+	 */
+	protected int[] componentPredCount;
+
+	/**
+	 * The equations that should be evaluated when iterating up, since at
+	 * least one of their arguments has changed or they have no arguments.
+	 */
+	protected boolean[] pending;
+
+	private final AtomicInteger sharedIterationCounter = new AtomicInteger();
+	private final AtomicInteger sharedAvoidedDuplicates = new AtomicInteger();
+
+	/**
+	 * Constructs a solver that uses the common pool.
+	 *
+	 * @param useNarrowing
+	 *            Determines whether each component iterates down after
+	 *            iterating up, as done by {@link WideningNarrowingSolver}.
+	 */
+	public ParallelSCCSolver(boolean useNarrowing) {
+		this(ForkJoinPool.commonPool(), useNarrowing);
+	}
+
+	/**
+	 * Constructs a solver that uses the given pool.
+	 *
+	 * @param pool
+	 *            The pool on which components are solved.
+	 * @param useNarrowing
+	 *            Determines whether each component iterates down after
+	 *            iterating up, as done by {@link WideningNarrowingSolver}.
+	 */
+	public ParallelSCCSolver(ForkJoinPool pool, boolean useNarrowing) {
+		assert pool != null;
+		this.pool = pool;
+		this.useNarrowing = useNarrowing;
+	}
+
+	@Override
+	public void solve(EquationSystem<StateType, ActionType> system,
+			AbstractDomain<StateType, ActionType> domain) {
+		this.system = system;
+		this.domain = domain;
+		printDebugMessage("Solving the following equation system = "
+				+ StringUtils.newLine + system);
+		initializeValues();
+		indexEquations();
+		computeComponents();
+		printDebugMessage("Starting parallel iterations over "
+				+ components.length + " components...");
+
+		int[] argOffsets = system.getArgOffsets();
+		pending = new boolean[system.getNumberOfEquations()];
+		boolean hasHeads = false;
+		for (int i = 0; i < pending.length; ++i) {
+			if (argOffsets[i] == argOffsets[i + 1]) {
+				pending[i] = true;
+				hasHeads = true;
+			}
+		}
+		if (!hasHeads)
+			Arrays.fill(pending, true);
+
+		sharedIterationCounter.set(0);
+		sharedAvoidedDuplicates.set(0);
+		if (components.length > 0)
+			pool.invoke(new SolveTask());
+		iterationCounter += sharedIterationCounter.get();
+		avoidedDuplicates += sharedAvoidedDuplicates.get();
+
+		printDebugMessage("Reached fixed-point after " + iterationCounter
+				+ " iterations (" + avoidedDuplicates
+				+ " duplicate evaluations avoided).");
+		printDebugSolution(system);
+
+		assert system.allVariablesInitialized() : "Solution resulted with null-valued variables!";
+	}
+
+	/**
+	 * Computes the strongly connected components of the dependency graph of
+	 * the equations by Tarjan's algorithm, and the graph of dependencies
+	 * between the components.
+	 */
+	protected void computeComponents() {
+		int size = system.getNumberOfEquations();
+		int[] dfn = new int[size];
+		int[] lowLink = new int[size];
+		boolean[] onStack = new boolean[size];
+		int[] stack = new int[size];
+		int stackTop = 0;
+		// The explicit call stack of the depth-first search: the equation and
+		// the position of the next dependent to visit in dependentIds.
+		int[] callStack = new int[size];
+		int[] callNext = new int[size];
+		int[][] componentsFound = new int[size][];
+		equationToComponent = new int[size];
+		int componentCount = 0;
+		int counter = 0;
+
+		for (int root = 0; root < size; ++root) {
+			if (dfn[root] != 0)
+				continue;
+			int depth = 0;
+			callStack[0] = root;
+			callNext[0] = dependentOffsets[lhsIds[root]];
+			dfn[root] = lowLink[root] = ++counter;
+			stack[stackTop++] = root;
+			onStack[root] = true;
+			while (depth >= 0) {
+				int vertex = callStack[depth];
+				if (callNext[depth] < dependentOffsets[lhsIds[vertex] + 1]) {
+					int succ = dependentIds[callNext[depth]++];
+					if (dfn[succ] == 0) {
+						dfn[succ] = lowLink[succ] = ++counter;
+						stack[stackTop++] = succ;
+						onStack[succ] = true;
+						++depth;
+						callStack[depth] = succ;
+						callNext[depth] = dependentOffsets[lhsIds[succ]];
+					} else if (onStack[succ]) {
+						lowLink[vertex] = Math.min(lowLink[vertex], dfn[succ]);
+					}
+				} else {
+					if (lowLink[vertex] == dfn[vertex]) {
+						int bottom = stackTop;
+						do {
+							--bottom;
+						} while (stack[bottom] != vertex);
+						int[] members = Arrays.copyOfRange(stack, bottom,
+								stackTop);
+						Arrays.sort(members);
+						for (int member : members) {
+							onStack[member] = false;
+							equationToComponent[member] = componentCount;
+						}
+						componentsFound[componentCount++] = members;
+						stackTop = bottom;
+					}
+					--depth;
+					if (depth >= 0) {
+						int parent = callStack[depth];
+						lowLink[parent] = Math.min(lowLink[parent],
+								lowLink[vertex]);
+					}
+				}
+			}
+		}
+		components = Arrays.copyOf(componentsFound, componentCount);
+
+		positionInComponent = new int[size];
+		for (int[] members : components) {
+			for (int i = 0; i < members.length; ++i)
+				positionInComponent[members[i]] = i;
+		}
+
+		componentPredCount = new int[componentCount];
+		componentSuccs = new int[componentCount][];
+		int[] lastSeen = new int[componentCount];
+		Arrays.fill(lastSeen, -1);
+		int[] succs = new int[componentCount];
+		for (int c = 0; c < componentCount; ++c) {
+			int succCount = 0;
+			for (int member : components[c]) {
+				int var = lhsIds[member];
+				for (int i = dependentOffsets[var]; i < dependentOffsets[var + 1]; ++i) {
+					int succComponent = equationToComponent[dependentIds[i]];
+					if (succComponent != c && lastSeen[succComponent] != c) {
+						lastSeen[succComponent] = c;
+						succs[succCount++] = succComponent;
+						++componentPredCount[succComponent];
+					}
+				}
+			}
+			componentSuccs[c] = Arrays.copyOf(succs, succCount);
+		}
+	}
+
+	/**
+	 * Solves the given component, assuming that all of the components it
+	 * depends on have been solved.
+	 */
+	protected void solveComponent(int component) {
+		int[] members = components[component];
+		int[] keys = null;
+		if (members.length > 1) {
+			keys = new int[members.length];
+			for (int i = 0; i < members.length; ++i)
+				keys[i] = this.keys[members[i]];
+		}
+		iterateComponent(component, keys, true);
+		if (useNarrowing) {
+			// Switch the widening operations of the component to narrowing
+			// operations.
+			for (int member : members) {
+				Operation<StateType> op = system.getEquation(member).getOp();
+				if (op instanceof PhasedOperation) {
+					PhasedOperation<StateType> wideningNarrowingOp = (PhasedOperation<StateType>) op;
+					wideningNarrowingOp.advance();
+				}
+			}
+			iterateComponent(component, keys, false);
+		}
+	}
+
+	/**
+	 * Iterates over the equations of the given component until reaching a
+	 * fixed-point, marking equations of other components as pending when their
+	 * arguments change.
+	 */
+	protected void iterateComponent(int component, int[] keys,
+			boolean ascending) {
+		int[] members = components[component];
+		int iterations = 0;
+		int duplicates = 0;
+		if (members.length == 1) {
+			// A single equation is stable after one evaluation, since
+			// self-dependencies are handled by the equation itself.
+			int index = members[0];
+			if (!ascending || pending[index]) {
+				++iterations;
+				if (update(index, ascending))
+					markSuccessors(index);
+			}
+		} else {
+			Worklist workSet = new Worklist(keys);
+			for (int i = 0; i < members.length; ++i) {
+				if (!ascending || pending[members[i]])
+					workSet.add(i);
+			}
+			while (!workSet.isEmpty()) {
+				int index = members[workSet.remove()];
+				++iterations;
+				if (update(index, ascending)) {
+					int var = lhsIds[index];
+					int to = dependentOffsets[var + 1];
+					for (int i = dependentOffsets[var]; i < to; ++i) {
+						int next = dependentIds[i];
+						if (next == index)
+							continue;
+						if (equationToComponent[next] == component) {
+							if (!workSet.add(positionInComponent[next]))
+								++duplicates;
+						} else {
+							pending[next] = true;
+						}
+					}
+				}
+			}
+		}
+		sharedIterationCounter.addAndGet(iterations);
+		sharedAvoidedDuplicates.addAndGet(duplicates);
+	}
+
+	private boolean update(int index, boolean ascending) {
+		Equation<StateType> equation = system.getEquation(index);
+		AnalysisVar<StateType> lhs = equation.getLhs();
+		StateType currentValue = lhs.value;
+		equation.update();
+		return changed(lhs.value, currentValue, ascending);
+	}
+
+	private void markSuccessors(int index) {
+		int var = lhsIds[index];
+		for (int i = dependentOffsets[var]; i < dependentOffsets[var + 1]; ++i) {
+			if (dependentIds[i] != index)
+				pending[dependentIds[i]] = true;
+		}
+	}
+
+	/**
+	 * The root task, which completes once all components are solved.
+	 */
+	@SuppressWarnings("serial")
+	protected class SolveTask extends CountedCompleter<Void> {
+		/**
+		 * The number of unsolved components each component depends on.
+		 */
+		protected final AtomicInteger[] remainingPreds;
+
+		protected SolveTask() {
+			remainingPreds = new AtomicInteger[components.length];
+			for (int c = 0; c < components.length; ++c)
+				remainingPreds[c] = new AtomicInteger(componentPredCount[c]);
+		}
+
+		@Override
+		public void compute() {
+			// Completes after this call and one call for each component.
+			setPendingCount(components.length);
+			for (int c = 0; c < components.length; ++c) {
+				if (componentPredCount[c] == 0)
+					new ComponentTask(this, c).fork();
+			}
+			tryComplete();
+		}
+	}
+
+	/**
+	 * A task that solves a single component and then schedules the components
+	 * that depend on it and have no other unsolved dependencies.
+	 */
+	@SuppressWarnings("serial")
+	protected class ComponentTask extends CountedCompleter<Void> {
+		protected final SolveTask root;
+		protected final int component;
+
+		protected ComponentTask(SolveTask root, int component) {
+			super(root);
+			this.root = root;
+			this.component = component;
+		}
+
+		@Override
+		public void compute() {
+			solveComponent(component);
+			for (int succ : componentSuccs[component]) {
+				if (root.remainingPreds[succ].decrementAndGet() == 0)
+					new ComponentTask(root, succ).fork();
+			}
+			tryComplete();
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package bgu.cs.absint.solver;
+
+/**
+ * Limits on the work a solver may spend on a single equation system: the
+ * number of equation evaluations, the elapsed time, and the total number of
+ * disjuncts in the values of the variables (see
+ * {@link bgu.cs.absint.AbstractDomain#size}).<br>
+ * When a limit is reached while iterating up, {@link ChaoticIterationSolver}
+ * first continues by widening every updated value, with a fresh allotment of
+ * iterations and time, and if the limits are reached again, sets the
+ * variables that are not stable to top (see
+ * {@link ChaoticIterationSolver.Degradation}).
+ */
+public class SolverBudget {
+	/**
+	 * A budget without limits.
+	 */
+	public static final SolverBudget UNLIMITED = new SolverBudget(
+			Integer.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+	/**
+	 * The maximal number of equation evaluations.
+	 */
+	public final int maxIterations;
+
+	/**
+	 * The maximal elapsed time in milliseconds.
+	 */
+	public final long maxMillis;
+
+	/**
+	 * The maximal total number of disjuncts in the values of the variables.
+	 */
+	public final long maxDisjuncts;
+
+	public SolverBudget(int maxIterations, long maxMillis, long maxDisjuncts) {
+		assert maxIterations > 0 && maxMillis > 0 && maxDisjuncts > 0;
+		this.maxIterations = maxIterations;
+		this.maxMillis = maxMillis;
+		this.maxDisjuncts = maxDisjuncts;
+	}
+
+	public boolean isUnlimited() {
+		return maxIterations == Integer.MAX_VALUE
+				&& maxMillis == Long.MAX_VALUE
+				&& maxDisjuncts == Long.MAX_VALUE;
+	}
+
+	public boolean limitsDisjuncts() {
+		return maxDisjuncts != Long.MAX_VALUE;
+	}
+
+	@Override
+	public String toString() {
+		return "budget(iterations=" + limitToString(maxIterations)
+				+ ", millis=" + limitToString(maxMillis) + ", disjuncts="
+				+ limitToString(maxDisjuncts) + ")";
+	}
+
+	private static String limitToString(long limit) {
+		return limit == Integer.MAX_VALUE || limit == Long.MAX_VALUE ? "unlimited"
+				: Long.toString(limit);
+	}
+}
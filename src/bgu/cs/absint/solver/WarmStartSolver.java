@@ -0,0 +1,187 @@
+package bgu.cs.absint.solver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import bgu.cs.absint.AbstractDomain;
+import bgu.cs.absint.AnalysisVar;
+import bgu.cs.absint.Equation;
+import bgu.cs.absint.EquationSystem;
+import bgu.cs.absint.EquationSystemSnapshot;
+import bgu.cs.absint.Operation;
+import bgu.cs.util.StringUtils;
+
+/**
+ * A solver that starts from a previously computed solution (the seed), e.g.,
+ * the solution of an earlier version of the same method.<br>
+ * The solver assigns the seed to the variables and evaluates every equation
+ * once to check that the seed is a post-fixed-point, i.e., that no equation
+ * produces a value that is not lower or equal to the value of its left-hand
+ * side. A post-fixed-point over-approximates the least fixed-point, so the
+ * solver then only iterates down from it (using narrowing if requested),
+ * which takes a few evaluations when the seed is close to the solution.
+ * Otherwise, the solver falls back to solving the system from bottom, like
+ * {@link ChaoticIterationSolver} or {@link WideningNarrowingSolver}.<br>
+ * NOTE: a solution obtained from a seed is sound, but may be less precise
+ * than the solution obtained from bottom when the seed is above the least
+ * fixed-point.
+ *
+ * @param <StateType>
+ *            The implementation type of abstract states.
+ * @param <ActionType>
+ *            The implementation type of program statements.
+ */
+public class WarmStartSolver<StateType, ActionType> extends
+		ChaoticIterationSolver<StateType, ActionType> {
+	/**
+	 * The values from which the solver starts, or null.
+	 */
+	protected final EquationSystemSnapshot<StateType> seed;
+
+	/**
+	 * Determines whether the {@link PhasedOperation}s are switched to their
+	 * next phase before iterating down.
+	 */
+	protected final boolean useNarrowing;
+
+	/**
+	 * Indicates whether the last call to {@link solve} started from the seed.
+	 */
+	protected boolean seedAccepted = false;
+
+	/**
+	 * Constructs a solver.
+	 *
+	 * @param seed
+	 *            The values from which the solver starts, or null to solve
+	 *            from bottom.
+	 * @param useNarrowing
+	 *            Determines whether the solver iterates down using narrowing,
+	 *            as done by {@link WideningNarrowingSolver}.
+	 */
+	public WarmStartSolver(EquationSystemSnapshot<StateType> seed,
+			boolean useNarrowing) {
+		this.seed = seed;
+		this.useNarrowing = useNarrowing;
+	}
+
+	/**
+	 * Returns true if the last call to {@link solve} started from the seed and
+	 * false if it solved the system from bottom.
+	 */
+	public boolean isSeedAccepted() {
+		return seedAccepted;
+	}
+
+	@Override
+	public void solve(EquationSystem<StateType, ActionType> system,
+			AbstractDomain<StateType, ActionType> domain) {
+		this.system = system;
+		this.domain = domain;
+		printDebugMessage("Solving the following equation system = "
+				+ StringUtils.newLine + system);
+		seedAccepted = false;
+		Collection<Equation<StateType>> changedEquations = null;
+		if (seed != null && seed.matches(system)) {
+			seed.restore(system);
+			resetBudget();
+			printDebugMessage("Checking the seed solution...");
+			changedEquations = checkSeed();
+			seedAccepted = changedEquations != null;
+		} else {
+			printDebugMessage("No matching seed solution.");
+		}
+
+		if (seedAccepted) {
+			printDebugMessage("The seed is a post-fixed-point after "
+					+ iterationCounter + " iterations.");
+			if (useNarrowing) {
+				for (Equation<StateType> equation : system.getEquations()) {
+					if (advancePhase(equation))
+						changedEquations.add(equation);
+				}
+			}
+			printDebugMessage("Starting chaotic iteration: descending phase...");
+			iterateWorklist(changedEquations, false);
+		} else {
+			system.resetBottom(domain);
+			resetBudget();
+			printDebugMessage("Starting chaotic iterations from bottom...");
+			iterateUp();
+			if (useNarrowing) {
+				printDebugMessage("Reached fixed-point after "
+						+ iterationCounter + " iterations ("
+						+ avoidedDuplicates + " duplicate evaluations avoided).");
+				for (Equation<StateType> equation : system.getEquations())
+					advancePhase(equation);
+				printDebugMessage("");
+				printDebugMessage("Starting chaotic iteration: narrowing phase...");
+				iterateDown();
+			}
+		}
+		printDebugMessage("Reached fixed-point after " + iterationCounter
+				+ " iterations (" + avoidedDuplicates
+				+ " duplicate evaluations avoided).");
+		printDebugSolution(system);
+
+		assert system.allVariablesInitialized() : "Solution resulted with null-valued variables!";
+	}
+
+	/**
+	 * Evaluates every equation once, starting from the seed values.
+	 *
+	 * @return null if some equation produces a value that is not lower or
+	 *         equal to its current value, and otherwise the equations that
+	 *         depend on variables whose values have decreased.
+	 */
+	protected Collection<Equation<StateType>> checkSeed() {
+		indexEquations();
+		Worklist changed = new Worklist(keys);
+		for (int index = 0; index < system.getNumberOfEquations(); ++index) {
+			++iterationCounter;
+			Equation<StateType> equation = system.getEquation(index);
+			AnalysisVar<StateType> lhs = equation.getLhs();
+			StateType currentValue = lhs.value;
+			equation.update();
+			if (budget.limitsDisjuncts())
+				disjunctCount += domain.size(lhs.value)
+						- domain.size(currentValue);
+			if (!domain.leq(lhs.value, currentValue)) {
+				printDebugMessage("The seed is not a post-fixed-point: "
+						+ equation + " yields " + lhs.value + " above "
+						+ currentValue);
+				return null;
+			}
+			if (!domain.leq(currentValue, lhs.value)) {
+				int var = lhsIds[index];
+				int to = dependentOffsets[var + 1];
+				for (int i = dependentOffsets[var]; i < to; ++i) {
+					int next = dependentIds[i];
+					if (next != index && !changed.add(next))
+						++avoidedDuplicates;
+				}
+			}
+		}
+		Collection<Equation<StateType>> result = new ArrayList<>(
+				changed.size());
+		while (!changed.isEmpty())
+			result.add(system.getEquation(changed.remove()));
+		return result;
+	}
+
+	/**
+	 * Switches the operation of the given equation to its next phase if it is
+	 * a {@link PhasedOperation}.
+	 *
+	 * @return true if the operation was switched.
+	 */
+	private boolean advancePhase(Equation<StateType> equation) {
+		Operation<StateType> op = equation.getOp();
+		if (op instanceof PhasedOperation) {
+			PhasedOperation<StateType> wideningNarrowingOp = (PhasedOperation<StateType>) op;
+			wideningNarrowingOp.advance();
+			return true;
+		}
+		return false;
+	}
+}
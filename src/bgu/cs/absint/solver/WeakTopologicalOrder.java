@@ -0,0 +1,181 @@
+package bgu.cs.absint.solver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import bgu.cs.absint.Equation;
+import bgu.cs.absint.EquationSystem;
+
+/**
+ * A weak topological ordering (WTO) of the equations of a system, computed by
+ * Bourdoncle's algorithm over the dependency graph of the system (an edge leads
+ * from an equation to every equation that uses its left-hand side variable).<br>
+ * A WTO is a hierarchical ordering of the equations where every cycle in the
+ * dependency graph is contained in a component whose head is the first
+ * equation of the component. Iterating the components from the inside out
+ * (stabilizing inner components before outer ones) is the recursive iteration
+ * strategy of Bourdoncle.
+ *
+ * @param <StateType>
+ *            The implementation type of abstract states.
+ */
+public class WeakTopologicalOrder<StateType> {
+	/**
+	 * The top-level components of the ordering.
+	 */
+	protected final List<Component<StateType>> components;
+
+	/**
+	 * Maps each visited equation to its depth-first number. Zero means the
+	 * equation has not been visited yet and {@link Integer#MAX_VALUE} means
+	 * that the equation has already been assigned to a component.
+	 */
+	private final Map<Equation<StateType>, Integer> dfn = new HashMap<>();
+
+	private final Deque<Equation<StateType>> stack = new ArrayDeque<>();
+	private final EquationSystem<StateType, ?> system;
+	private int num = 0;
+
+	/**
+	 * Computes the weak topological ordering of the equations reachable from
+	 * the given equations.
+	 *
+	 * @param system
+	 *            An equation system.
+	 * @param roots
+	 *            The equations from which the dependency graph is traversed,
+	 *            in the order of traversal.
+	 */
+	public WeakTopologicalOrder(EquationSystem<StateType, ?> system,
+			Collection<Equation<StateType>> roots) {
+		this.system = system;
+		LinkedList<Component<StateType>> partition = new LinkedList<>();
+		for (Equation<StateType> root : roots) {
+			if (getDfn(root) == 0)
+				visit(root, partition);
+		}
+		this.components = Collections.unmodifiableList(new ArrayList<>(
+				partition));
+	}
+
+	/**
+	 * Returns the top-level components of the ordering.
+	 */
+	public List<Component<StateType>> getComponents() {
+		return components;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (Component<StateType> component : components) {
+			if (result.length() > 0)
+				result.append(" ");
+			result.append(component);
+		}
+		return result.toString();
+	}
+
+	private int getDfn(Equation<StateType> equation) {
+		Integer result = dfn.get(equation);
+		return result == null ? 0 : result;
+	}
+
+	private int visit(Equation<StateType> vertex,
+			LinkedList<Component<StateType>> partition) {
+		stack.push(vertex);
+		dfn.put(vertex, ++num);
+		int head = num;
+		boolean loop = false;
+		for (Equation<StateType> succ : system.getDependentEquations(vertex
+				.getLhs())) {
+			// Self-dependencies are handled by the equations themselves
+			// (e.g., widening at loop heads) and do not form components.
+			if (succ == vertex)
+				continue;
+			int succDfn = getDfn(succ);
+			int min = succDfn == 0 ? visit(succ, partition) : succDfn;
+			if (min <= head) {
+				head = min;
+				loop = true;
+			}
+		}
+		if (head == getDfn(vertex)) {
+			dfn.put(vertex, Integer.MAX_VALUE);
+			Equation<StateType> element = stack.pop();
+			if (loop) {
+				while (element != vertex) {
+					dfn.put(element, 0);
+					element = stack.pop();
+				}
+				partition.addFirst(component(vertex));
+			} else {
+				partition.addFirst(new Component<StateType>(vertex, null));
+			}
+		}
+		return head;
+	}
+
+	private Component<StateType> component(Equation<StateType> vertex) {
+		LinkedList<Component<StateType>> partition = new LinkedList<>();
+		for (Equation<StateType> succ : system.getDependentEquations(vertex
+				.getLhs())) {
+			if (succ != vertex && getDfn(succ) == 0)
+				visit(succ, partition);
+		}
+		return new Component<StateType>(vertex, new ArrayList<>(partition));
+	}
+
+	/**
+	 * An element of a weak topological ordering: either a single equation or
+	 * a head equation followed by a list of nested components.
+	 *
+	 * @param <StateType>
+	 *            The implementation type of abstract states.
+	 */
+	public static class Component<StateType> {
+		/**
+		 * The single equation of a vertex or the head of a component.
+		 */
+		public final Equation<StateType> head;
+
+		/**
+		 * The nested components following the head or null for a vertex.
+		 */
+		public final List<Component<StateType>> elements;
+
+		protected Component(Equation<StateType> head,
+				List<Component<StateType>> elements) {
+			this.head = head;
+			this.elements = elements;
+		}
+
+		/**
+		 * Checks whether this component consists of a single equation.
+		 */
+		public boolean isVertex() {
+			return elements == null;
+		}
+
+		@Override
+		public String toString() {
+			if (isVertex())
+				return head.getLhs().toString();
+			StringBuilder result = new StringBuilder("(");
+			result.append(head.getLhs());
+			for (Component<StateType> element : elements) {
+				result.append(" ");
+				result.append(element);
+			}
+			result.append(")");
+			return result.toString();
+		}
+	}
+}
@@ -27,10 +27,12 @@ public class WideningNarrowingSolver<StateType, ActionType> extends
 		printDebugMessage("Solving the following equation system = "
 				+ StringUtils.newLine + system);
 		initializeValues();
+		resetBudget();
 		printDebugMessage("Starting chaotic iteration: widening phase...");
 		iterateUp();
 		printDebugMessage("Reached fixed-point after " + iterationCounter
-				+ " iterations.");
+				+ " iterations (" + avoidedDuplicates
+				+ " duplicate evaluations avoided).");
 		printDebugSolution(system);
 
 		// Switch all widening operations to narrowing operations.
@@ -46,7 +48,8 @@ public class WideningNarrowingSolver<StateType, ActionType> extends
 		printDebugMessage("Starting chaotic iteration: narrowing phase...");
 		iterateDown();
 		printDebugMessage("Reached fixed-point after " + iterationCounter
-				+ " iterations.");
+				+ " iterations (" + avoidedDuplicates
+				+ " duplicate evaluations avoided).");
 
 		printDebugSolution(system);
 
@@ -0,0 +1,119 @@
+package bgu.cs.absint.solver;
+
+import java.util.BitSet;
+
+/**
+ * A priority queue of equation indices that contains each index at most once.
+ * Indices with lower keys are removed first, and ties are broken in favor of
+ * lower indices. The queue is backed by a binary heap over a pre-allocated
+ * array, so adding and removing indices does not allocate memory.
+ */
+public class Worklist {
+	/**
+	 * The key of each index, determining the order of removal.
+	 */
+	protected final int[] keys;
+
+	/**
+	 * A binary heap of the indices in the queue.
+	 */
+	protected final int[] heap;
+
+	/**
+	 * The set of indices currently in the queue.
+	 */
+	protected final BitSet inQueue;
+
+	/**
+	 * The number of indices in the queue.
+	 */
+	protected int size = 0;
+
+	/**
+	 * Constructs an empty queue for the indices {@code 0..keys.length-1}.
+	 *
+	 * @param keys
+	 *            The key of each index.
+	 */
+	public Worklist(int[] keys) {
+		this.keys = keys;
+		this.heap = new int[keys.length];
+		this.inQueue = new BitSet(keys.length);
+	}
+
+	/**
+	 * Adds the given index unless it is already in the queue.
+	 *
+	 * @param index
+	 *            An index in the range of this queue.
+	 * @return true if the index was added and false if it was already in the
+	 *         queue.
+	 */
+	public boolean add(int index) {
+		if (inQueue.get(index))
+			return false;
+		inQueue.set(index);
+		int pos = size++;
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if (!before(index, heap[parent]))
+				break;
+			heap[pos] = heap[parent];
+			pos = parent;
+		}
+		heap[pos] = index;
+		return true;
+	}
+
+	/**
+	 * Removes and returns the index with the least key.
+	 */
+	public int remove() {
+		assert size > 0 : "remove called on an empty worklist!";
+		int result = heap[0];
+		inQueue.clear(result);
+		int last = heap[--size];
+		int pos = 0;
+		int half = size >>> 1;
+		while (pos < half) {
+			int child = 2 * pos + 1;
+			int right = child + 1;
+			if (right < size && before(heap[right], heap[child]))
+				child = right;
+			if (!before(heap[child], last))
+				break;
+			heap[pos] = heap[child];
+			pos = child;
+		}
+		if (size > 0)
+			heap[pos] = last;
+		return result;
+	}
+
+	public boolean contains(int index) {
+		return inQueue.get(index);
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the index at the given position of the underlying heap, which
+	 * is useful for iterating over the queue without removing indices.
+	 */
+	public int get(int position) {
+		assert position >= 0 && position < size;
+		return heap[position];
+	}
+
+	private boolean before(int index1, int index2) {
+		int key1 = keys[index1];
+		int key2 = keys[index2];
+		return key1 < key2 || (key1 == key2 && index1 < index2);
+	}
+}
@@ -0,0 +1,367 @@
+package bgu.cs.absint.soot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import soot.Body;
+import soot.Local;
+import soot.Trap;
+import soot.Unit;
+import soot.UnitBox;
+import soot.tagkit.StringTag;
+import soot.tagkit.Tag;
+
+/**
+ * An on-disk cache of the results of analyzing method bodies, which allows
+ * skipping the analysis of methods that did not change since a previous run.
+ * <br>
+ * Each entry is stored in a separate file, named after a hash of the body, the
+ * analysis, the domain, the configuration of the analysis and the analysis
+ * options, and holds the tags that the
+ * analysis attached to the units of the body and the units where possible
+ * errors were found. Units are identified by their position in the body.
+ * Entries that cannot be read are treated as missing, and failing to store an
+ * entry does not affect the analysis.
+ */
+public class AnalysisResultCache {
+	/**
+	 * Identifies cache files.
+	 */
+	private static final int MAGIC = 0xAB5CAC4E;
+
+	/**
+	 * Should be incremented whenever the format of the entries or the way keys
+	 * are computed changes.
+	 */
+	private static final int VERSION = 2;
+
+	private static final String FILE_SUFFIX = ".res";
+
+	/**
+	 * The directory holding the cache files.
+	 */
+	protected final File directory;
+
+	/**
+	 * Constructs a cache stored in the given directory, creating the directory
+	 * if needed.
+	 */
+	public AnalysisResultCache(File directory) {
+		assert directory != null;
+		this.directory = directory;
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new Error("Unable to create cache directory " + directory
+					+ "!");
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Computes the key of the results of analyzing a given body.
+	 *
+	 * @param b
+	 *            A method body.
+	 * @param analysis
+	 *            The analysis applied to the body.
+	 * @param domain
+	 *            The domain used by the analysis.
+	 * @param configuration
+	 *            A description of the parameters of the analysis and the
+	 *            domain that affect the results of the analysis.
+	 * @param options
+	 *            The values of the options affecting the results of the
+	 *            analysis.
+	 * @return A hexadecimal string that is stable across runs.
+	 */
+	public String getKey(Body b, Object analysis, Object domain,
+			String configuration, boolean... options) {
+		StringBuilder description = new StringBuilder();
+		description.append(VERSION).append('\n');
+		description.append(analysis.getClass().getName()).append('\n');
+		description.append(domain.getClass().getName()).append('\n');
+		description.append(configuration).append('\n');
+		for (boolean option : options)
+			description.append(option ? '1' : '0');
+		description.append('\n');
+		describeBody(b, description);
+
+		return hash(description.toString());
+	}
+
+	/**
+	 * Returns the SHA-1 hash of the given string as a hexadecimal string.
+	 */
+	public static String hash(String s) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new Error(e);
+		}
+		byte[] hash = digest.digest(s.getBytes(StandardCharsets.UTF_8));
+		StringBuilder result = new StringBuilder(2 * hash.length);
+		for (byte x : hash)
+			result.append(String.format("%02x", x & 0xff));
+		return result.toString();
+	}
+
+	/**
+	 * Returns the entry stored under the given key, or null if there is no
+	 * such entry or it cannot be read.
+	 */
+	public Entry load(String key) {
+		File file = new File(directory, key + FILE_SUFFIX);
+		if (!file.isFile())
+			return null;
+		try (DataInputStream in = new DataInputStream(new GZIPInputStream(
+				new BufferedInputStream(new FileInputStream(file))))) {
+			return Entry.read(in);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores an entry under the given key. The entry is first written to a
+	 * temporary file, which is then moved into place, so concurrent readers
+	 * never see partially written entries.
+	 */
+	public void store(String key, Entry entry) {
+		File file = new File(directory, key + FILE_SUFFIX);
+		File tempFile = null;
+		try {
+			tempFile = File.createTempFile(key, ".tmp", directory);
+			try (DataOutputStream out = new DataOutputStream(
+					new GZIPOutputStream(new BufferedOutputStream(
+							new FileOutputStream(tempFile))))) {
+				entry.write(out);
+			}
+			Files.move(tempFile.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("Unable to store cached results in " + file
+					+ ": " + e.getMessage());
+			if (tempFile != null)
+				tempFile.delete();
+		}
+	}
+
+	/**
+	 * Returns the number of tags of each unit of the given body, in the order
+	 * of the units, which is used by {@link Entry#record} to find the tags
+	 * added by the analysis.
+	 */
+	public static int[] countTags(Body b) {
+		int[] result = new int[b.getUnits().size()];
+		int index = 0;
+		for (Unit u : b.getUnits()) {
+			result[index++] = u.getTags().size();
+		}
+		return result;
+	}
+
+	/**
+	 * Appends a textual description of the given body to the given builder,
+	 * which identifies branch targets and traps by the positions of their units
+	 * in the body.
+	 */
+	protected static void describeBody(Body b, StringBuilder result) {
+		result.append(b.getMethod().getSignature()).append('\n');
+		for (Local local : b.getLocals()) {
+			result.append(local.getType()).append(' ').append(local.getName())
+					.append('\n');
+		}
+		Map<Unit, Integer> unitToIndex = indexUnits(b);
+		for (Unit u : b.getUnits()) {
+			result.append(u);
+			for (UnitBox box : u.getUnitBoxes()) {
+				result.append(" -> ").append(unitToIndex.get(box.getUnit()));
+			}
+			result.append('\n');
+		}
+		for (Trap trap : b.getTraps()) {
+			result.append("catch ").append(trap.getException().getName())
+					.append(' ').append(unitToIndex.get(trap.getBeginUnit()))
+					.append(' ').append(unitToIndex.get(trap.getEndUnit()))
+					.append(' ').append(unitToIndex.get(trap.getHandlerUnit()))
+					.append('\n');
+		}
+	}
+
+	protected static Map<Unit, Integer> indexUnits(Body b) {
+		Map<Unit, Integer> result = new HashMap<>();
+		for (Unit u : b.getUnits()) {
+			result.put(u, result.size());
+		}
+		return result;
+	}
+
+	/**
+	 * The results of analyzing a single body.
+	 */
+	public static class Entry {
+		/**
+		 * The position of the unit holding each tag.
+		 */
+		protected final int[] tagUnits;
+
+		/**
+		 * The contents of the tags.
+		 */
+		protected final String[] tagInfos;
+
+		/**
+		 * The analysis types of the tags.
+		 */
+		protected final String[] tagTypes;
+
+		/**
+		 * The positions of the units where possible errors were found.
+		 */
+		protected final int[] errorUnits;
+
+		protected Entry(int[] tagUnits, String[] tagInfos, String[] tagTypes,
+				int[] errorUnits) {
+			assert tagUnits.length == tagInfos.length
+					&& tagUnits.length == tagTypes.length;
+			this.tagUnits = tagUnits;
+			this.tagInfos = tagInfos;
+			this.tagTypes = tagTypes;
+			this.errorUnits = errorUnits;
+		}
+
+		/**
+		 * Creates an entry from the string tags that were added to the units
+		 * of the given body since their tags were counted.
+		 *
+		 * @param b
+		 *            A method body.
+		 * @param previousTagCounts
+		 *            The result of {@link AnalysisResultCache#countTags} before
+		 *            the analysis tagged the body.
+		 * @param errorUnits
+		 *            The units where possible errors were found.
+		 */
+		public static Entry record(Body b, int[] previousTagCounts,
+				Collection<Unit> errorUnits) {
+			List<Integer> units = new ArrayList<>();
+			List<String> infos = new ArrayList<>();
+			List<String> types = new ArrayList<>();
+			int index = 0;
+			for (Unit u : b.getUnits()) {
+				List<Tag> tags = u.getTags();
+				for (int i = previousTagCounts[index]; i < tags.size(); ++i) {
+					Tag tag = tags.get(i);
+					if (tag instanceof StringTag) {
+						StringTag stringTag = (StringTag) tag;
+						units.add(index);
+						infos.add(stringTag.getInfo());
+						types.add(stringTag.getAnalysisType());
+					}
+				}
+				++index;
+			}
+
+			int[] tagUnits = new int[units.size()];
+			for (int i = 0; i < tagUnits.length; ++i)
+				tagUnits[i] = units.get(i);
+
+			Map<Unit, Integer> unitToIndex = indexUnits(b);
+			int[] errorIndices = new int[errorUnits.size()];
+			int errorCount = 0;
+			for (Unit u : errorUnits)
+				errorIndices[errorCount++] = unitToIndex.get(u);
+
+			return new Entry(tagUnits, infos.toArray(new String[0]),
+					types.toArray(new String[0]), errorIndices);
+		}
+
+		/**
+		 * Adds the tags of this entry to the units of the given body.
+		 *
+		 * @return The units where possible errors were found.
+		 */
+		public Collection<Unit> replay(Body b) {
+			Unit[] units = b.getUnits().toArray(new Unit[0]);
+			for (int i = 0; i < tagUnits.length; ++i) {
+				units[tagUnits[i]].addTag(new StringTag(tagInfos[i],
+						tagTypes[i]));
+			}
+			Collection<Unit> result = new HashSet<>();
+			for (int index : errorUnits)
+				result.add(units[index]);
+			return result;
+		}
+
+		protected void write(DataOutputStream out) throws IOException {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(tagUnits.length);
+			for (int i = 0; i < tagUnits.length; ++i) {
+				out.writeInt(tagUnits[i]);
+				writeString(out, tagInfos[i]);
+				writeString(out, tagTypes[i]);
+			}
+			out.writeInt(errorUnits.length);
+			for (int index : errorUnits)
+				out.writeInt(index);
+		}
+
+		protected static Entry read(DataInputStream in) throws IOException {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Unexpected cache file format!");
+			int numTags = in.readInt();
+			int[] tagUnits = new int[numTags];
+			String[] tagInfos = new String[numTags];
+			String[] tagTypes = new String[numTags];
+			for (int i = 0; i < numTags; ++i) {
+				tagUnits[i] = in.readInt();
+				tagInfos[i] = readString(in);
+				tagTypes[i] = readString(in);
+			}
+			int[] errorUnits = new int[in.readInt()];
+			for (int i = 0; i < errorUnits.length; ++i)
+				errorUnits[i] = in.readInt();
+			return new Entry(tagUnits, tagInfos, tagTypes, errorUnits);
+		}
+
+		/**
+		 * Writes a string of arbitrary length, unlike
+		 * {@link DataOutputStream#writeUTF}, which is limited to 64K bytes.
+		 */
+		private static void writeString(DataOutputStream out, String s)
+				throws IOException {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		private static String readString(DataInputStream in) throws IOException {
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+}
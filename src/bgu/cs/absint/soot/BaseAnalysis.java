@@ -1,15 +1,34 @@
 package bgu.cs.absint.soot;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import bgu.cs.absint.AbstractDomain;
 import bgu.cs.absint.Equation;
 import bgu.cs.absint.EquationSystem;
+import bgu.cs.absint.EquationSystemSnapshot;
 import bgu.cs.absint.ErrorState;
+import bgu.cs.absint.StateCodec;
+import bgu.cs.absint.constructor.CachingDomain;
 import bgu.cs.absint.solver.ChaoticIterationSolver;
+import bgu.cs.absint.solver.ChaoticIterationSolver.Degradation;
+import bgu.cs.absint.solver.ChaoticIterationSolver.IterationStrategy;
+import bgu.cs.absint.solver.ParallelSCCSolver;
+import bgu.cs.absint.solver.SolverBudget;
+import bgu.cs.absint.solver.WarmStartSolver;
 import bgu.cs.absint.solver.WideningNarrowingSolver;
 import bgu.cs.util.StringUtils;
 import soot.Body;
@@ -20,7 +39,43 @@ import soot.tagkit.StringTag;
 
 /**
  * A {@link BodyTransformer} that applies the analysis to the given body and
- * stores the results as tags on the body units.
+ * stores the results as tags on the body units.<br>
+ * Different bodies may be analyzed concurrently (see
+ * {@link ParallelAnalysisRunner}). Building equation systems and tagging
+ * interact with Soot, which is not thread-safe, and are therefore serialized,
+ * while the equation systems are solved concurrently.<br>
+ * When a result cache is used (see {@link #useResultCache}), the results of
+ * methods that were analyzed in a previous run with the same options are read
+ * from the cache instead of solving their equation systems. The cache can also
+ * be enabled by setting the system property {@value #CACHE_DIRECTORY_PROPERTY}
+ * to a directory.<br>
+ * When warm starts are used (see {@link #useWarmStart}), the solution of each
+ * method is saved, unless it was degraded due to exhausting the budget, and
+ * the next analysis of the method starts from the saved solution (see
+ * {@link WarmStartSolver}), provided that the analysis supplies a
+ * {@link StateCodec} for its states. Warm starts can also be enabled by
+ * setting the system property {@value #SNAPSHOT_DIRECTORY_PROPERTY} to a
+ * directory.<br>
+ * A {@link SolverBudget} (see {@link #setBudget}) bounds the work spent on
+ * each method, and the methods whose solutions were degraded due to exhausting
+ * the budget are reported by {@link #reportErrors}. The budget can also be set
+ * by the system properties {@value #MAX_ITERATIONS_PROPERTY},
+ * {@value #MAX_MILLIS_PROPERTY} and {@value #MAX_DISJUNCTS_PROPERTY}.<br>
+ * When domain caching is used (see {@link #useCachingDomain}), the analysis
+ * accesses the domain through a {@link CachingDomain}, which memoizes the
+ * results of domain operations. Domain caching can also be enabled by setting
+ * the system property {@value CachingDomain#CAPACITY_PROPERTY} to the capacity
+ * of the caches.<br>
+ * The iteration strategy, the parallel solver and building systems at the
+ * level of basic blocks can also be chosen by the system properties
+ * {@value #ITERATION_STRATEGY_PROPERTY}, {@value #PARALLEL_SOLVER_PROPERTY}
+ * and {@value #BASIC_BLOCKS_PROPERTY}, which set the defaults of
+ * {@link #setIterationStrategy}, {@link #useParallelSolver} and
+ * {@link #useBasicBlocks}.<br>
+ * When more than one thread is used (see {@link #setNumThreads} and
+ * {@link ParallelAnalysisRunner#THREADS_PROPERTY}), the bodies handed to the
+ * analysis by Soot are collected and analyzed concurrently once the last one
+ * arrives.
  * 
  * @author romanm
  * 
@@ -29,23 +84,105 @@ import soot.tagkit.StringTag;
  */
 public class BaseAnalysis<StateType, DomType extends AbstractDomain<StateType, Unit>>
 		extends BodyTransformer {
+	/**
+	 * The system property used to set the directory of the result cache.
+	 */
+	public static final String CACHE_DIRECTORY_PROPERTY = "absint.cache";
+
+	/**
+	 * The system property used to set the directory of saved solutions.
+	 */
+	public static final String SNAPSHOT_DIRECTORY_PROPERTY = "absint.snapshots";
+
+	/**
+	 * The system properties used to set the limits of the budget.
+	 */
+	public static final String MAX_ITERATIONS_PROPERTY = "absint.maxIterations";
+	public static final String MAX_MILLIS_PROPERTY = "absint.maxMillis";
+	public static final String MAX_DISJUNCTS_PROPERTY = "absint.maxDisjuncts";
+
+	/**
+	 * The system property used to set the iteration strategy, e.g., to
+	 * "recursive".
+	 */
+	public static final String ITERATION_STRATEGY_PROPERTY = "absint.iterationStrategy";
+
+	/**
+	 * Set this property to "true" to solve systems with the parallel solver.
+	 */
+	public static final String PARALLEL_SOLVER_PROPERTY = "absint.parallelSolver";
+
+	/**
+	 * Set this property to "true" to build systems at the level of basic
+	 * blocks.
+	 */
+	public static final String BASIC_BLOCKS_PROPERTY = "absint.basicBlocks";
+
 	protected boolean debug = true;
 
 	protected boolean useWidening = false;
 	protected boolean useNarrowing = false;
+	protected IterationStrategy iterationStrategy = IterationStrategy.WORKLIST;
+	protected boolean useParallelSolver = false;
+	protected boolean useBasicBlocks = false;
+	protected AnalysisResultCache resultCache = null;
+	protected File snapshotDirectory = null;
+	protected SolverBudget budget = SolverBudget.UNLIMITED;
+	protected int cachingDomainCapacity = CachingDomain.capacityFromProperty();
+	protected int numThreads = Integer.getInteger(
+			ParallelAnalysisRunner.THREADS_PROPERTY, 1);
 
 	protected boolean ignoreStaticInitializers = true;
 	protected boolean ignoreConstructors = true;
 	protected boolean ignoreAnalysisPrefix = true;
 
-	protected int totalNumberOfErrors = 0;
+	protected final AtomicInteger totalNumberOfErrors = new AtomicInteger();
 
 	protected DomType domain;
-	protected Collection<Unit> errorUnits = new HashSet<>();
-	public static Map<Body, Collection<Unit>> bodyToErrorUnits = new HashMap<>();
+	public static Map<Body, Collection<Unit>> bodyToErrorUnits = new ConcurrentHashMap<>();
+	public static Map<Body, Degradation> bodyToDegradation = new ConcurrentHashMap<>();
+
+	/**
+	 * Guards the interaction with Soot.
+	 */
+	private static final Object sootLock = new Object();
+
+	/**
+	 * Collects the bodies to be analyzed concurrently, or null if a single
+	 * thread is used or no body has been transformed yet.
+	 */
+	private ParallelAnalysisRunner.BodyCollector bodyCollector;
 
 	public BaseAnalysis(DomType domain) {
 		this.domain = domain;
+		String cacheDirectory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+		if (cacheDirectory != null)
+			useResultCache(new File(cacheDirectory));
+		String snapshotDirectory = System
+				.getProperty(SNAPSHOT_DIRECTORY_PROPERTY);
+		if (snapshotDirectory != null)
+			useWarmStart(new File(snapshotDirectory));
+		Integer maxIterations = Integer.getInteger(MAX_ITERATIONS_PROPERTY);
+		Long maxMillis = Long.getLong(MAX_MILLIS_PROPERTY);
+		Long maxDisjuncts = Long.getLong(MAX_DISJUNCTS_PROPERTY);
+		if (maxIterations != null || maxMillis != null || maxDisjuncts != null)
+			setBudget(new SolverBudget(maxIterations != null ? maxIterations
+					: Integer.MAX_VALUE, maxMillis != null ? maxMillis
+					: Long.MAX_VALUE, maxDisjuncts != null ? maxDisjuncts
+					: Long.MAX_VALUE));
+		String iterationStrategy = System
+				.getProperty(ITERATION_STRATEGY_PROPERTY);
+		if (iterationStrategy != null) {
+			try {
+				setIterationStrategy(IterationStrategy
+						.valueOf(iterationStrategy.toUpperCase()));
+			} catch (IllegalArgumentException e) {
+				throw new Error("Unknown iteration strategy "
+						+ iterationStrategy + "!");
+			}
+		}
+		useParallelSolver(Boolean.getBoolean(PARALLEL_SOLVER_PROPERTY));
+		useBasicBlocks(Boolean.getBoolean(BASIC_BLOCKS_PROPERTY));
 	}
 
 	public void setDebug(boolean debug) {
@@ -60,6 +197,98 @@ public class BaseAnalysis<StateType, DomType extends AbstractDomain<StateType, U
 		this.useNarrowing = value;
 	}
 
+	public void useParallelSolver(boolean value) {
+		this.useParallelSolver = value;
+	}
+
+	/**
+	 * Determines whether equation systems are built at the level of basic
+	 * blocks rather than individual units.
+	 */
+	public void useBasicBlocks(boolean value) {
+		this.useBasicBlocks = value;
+	}
+
+	/**
+	 * Stores the results of analyzing methods in the given directory and reuses
+	 * them in subsequent runs, or disables the cache if the directory is null.
+	 */
+	public void useResultCache(File directory) {
+		this.resultCache = directory == null ? null : new AnalysisResultCache(
+				directory);
+	}
+
+	/**
+	 * Saves the solutions of methods in the given directory and starts the
+	 * analysis of each method from its saved solution, or disables warm starts
+	 * if the directory is null.
+	 */
+	public void useWarmStart(File directory) {
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+			throw new Error("Unable to create snapshot directory " + directory
+					+ "!");
+		this.snapshotDirectory = directory;
+	}
+
+	/**
+	 * Memoizes the results of the domain operations applied by the solver in
+	 * caches with the given capacity, or disables domain caching if the
+	 * capacity is 0.
+	 */
+	public void useCachingDomain(int capacity) {
+		assert capacity >= 0;
+		this.cachingDomainCapacity = capacity;
+	}
+
+	/**
+	 * Returns the domain used for analyzing the given body. Subclasses can
+	 * override this method to use a domain that is specialized for the body.
+	 */
+	protected DomType getDomain(Body b) {
+		return domain;
+	}
+
+	/**
+	 * Returns a description of the parameters of the analysis and its domain
+	 * that affect the results, which distinguishes the cached results and
+	 * saved solutions of differently configured analyses. Subclasses whose
+	 * results depend on such parameters should override this method.
+	 */
+	protected String getConfiguration() {
+		return "";
+	}
+
+	/**
+	 * Returns a codec for the states of the given body, which is used for
+	 * saving solutions, or null if solutions cannot be saved.
+	 */
+	protected StateCodec<StateType> getStateCodec(Body b) {
+		return null;
+	}
+
+	/**
+	 * Sets the budget for solving the equation system of each method. A
+	 * limited budget is not supported by the parallel solver, which is not
+	 * used when the budget is limited.
+	 */
+	public void setBudget(SolverBudget budget) {
+		assert budget != null;
+		this.budget = budget;
+	}
+
+	/**
+	 * Sets the number of threads used for analyzing the bodies handed to the
+	 * analysis by Soot.
+	 */
+	public void setNumThreads(int value) {
+		assert value > 0;
+		this.numThreads = value;
+	}
+
+	public void setIterationStrategy(IterationStrategy value) {
+		this.iterationStrategy = value;
+	}
+
 	public void setIgnoreStaticInitializers(boolean value) {
 		this.ignoreStaticInitializers = value;
 	}
@@ -73,8 +302,8 @@ public class BaseAnalysis<StateType, DomType extends AbstractDomain<StateType, U
 	}
 
 	public void reportErrors() {
-		System.err.println("*** Total number of errors: " + totalNumberOfErrors
-				+ " ***");
+		System.err.println("*** Total number of errors: "
+				+ totalNumberOfErrors.get() + " ***");
 		for (Map.Entry<Body, Collection<Unit>> entry : bodyToErrorUnits
 				.entrySet()) {
 			Body b = entry.getKey();
@@ -84,11 +313,55 @@ public class BaseAnalysis<StateType, DomType extends AbstractDomain<StateType, U
 			String errorLines = StringUtils.toString(errorUnits, "\n");
 			System.err.println(errorLines);
 		}
+		if (!bodyToDegradation.isEmpty()) {
+			System.err.println("*** Number of degraded methods: "
+					+ bodyToDegradation.size() + " ***");
+			for (Map.Entry<Body, Degradation> entry : bodyToDegradation
+					.entrySet()) {
+				System.err.println(entry.getKey().getMethod().getName() + ": "
+						+ entry.getValue());
+			}
+		}
 	}
 
 	@Override
 	protected void internalTransform(Body b, String phaseName,
 			@SuppressWarnings("rawtypes") Map options) {
+		if (numThreads > 1)
+			getBodyCollector().add(b);
+		else
+			analyze(b);
+	}
+
+	/**
+	 * Returns the collector of the bodies to be analyzed concurrently,
+	 * creating it on first use. Drivers that add the analysis to Soot directly
+	 * have no chance to analyze left over bodies before Soot writes its
+	 * output, so a shutdown hook warns about bodies that were never analyzed.
+	 */
+	private synchronized ParallelAnalysisRunner.BodyCollector getBodyCollector() {
+		if (bodyCollector == null) {
+			final ParallelAnalysisRunner.BodyCollector collector = new ParallelAnalysisRunner.BodyCollector(
+					this, numThreads);
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					collector.warnPending();
+				}
+			});
+			bodyCollector = collector;
+		}
+		return bodyCollector;
+	}
+
+	/**
+	 * Applies the analysis to the given body, unless it is filtered out. This
+	 * method may be called concurrently for different bodies.
+	 * 
+	 * @param b
+	 *            A method body.
+	 */
+	public void analyze(Body b) {
 		if (!filter(b))
 			return;
 
@@ -127,24 +400,153 @@ public class BaseAnalysis<StateType, DomType extends AbstractDomain<StateType, U
 	}
 
 	protected void analyzeAndTag(Body b) {
-		errorUnits = new HashSet<>();
-		BodyToEquationSystem<StateType> systemBuilder = new BodyToEquationSystem<>(
-				b, domain);
-		EquationSystem<StateType, Unit> system = systemBuilder
-				.build(useWidening);
-		system.resetBottom(domain); // Start analysis from bottom values.
-		ChaoticIterationSolver<StateType, Unit> solver = useWidening ? new WideningNarrowingSolver<StateType, Unit>()
-				: new ChaoticIterationSolver<StateType, Unit>();
+		String cacheKey = null;
+		if (resultCache != null) {
+			synchronized (sootLock) {
+				cacheKey = resultCache.getKey(b, this, domain,
+						getConfiguration(), useWidening, useNarrowing,
+						useBasicBlocks);
+			}
+			AnalysisResultCache.Entry cachedResult = resultCache
+					.load(cacheKey);
+			if (cachedResult != null) {
+				if (debug)
+					System.err.println("Using cached results.");
+				Collection<Unit> errorUnits;
+				synchronized (sootLock) {
+					errorUnits = cachedResult.replay(b);
+				}
+				reportErrors(b, errorUnits);
+				return;
+			}
+		}
+
+		BodyToEquationSystem<StateType> systemBuilder;
+		EquationSystem<StateType, Unit> system;
+		StateCodec<StateType> codec = null;
+		File snapshotFile = null;
+		AbstractDomain<StateType, Unit> bodyDomain;
+		synchronized (sootLock) {
+			bodyDomain = getDomain(b);
+			if (cachingDomainCapacity > 0)
+				bodyDomain = new CachingDomain<>(bodyDomain,
+						cachingDomainCapacity);
+			systemBuilder = new BodyToEquationSystem<>(b, bodyDomain);
+			system = systemBuilder.build(useWidening, useBasicBlocks);
+			if (snapshotDirectory != null) {
+				codec = getStateCodec(b);
+				if (codec != null)
+					snapshotFile = getSnapshotFile(b);
+			}
+		}
+		system.resetBottom(bodyDomain); // Start analysis from bottom values.
+		ChaoticIterationSolver<StateType, Unit> solver;
+		if (snapshotFile != null)
+			solver = new WarmStartSolver<StateType, Unit>(loadSnapshot(
+					snapshotFile, codec), useWidening);
+		else if (useParallelSolver && budget.isUnlimited())
+			solver = new ParallelSCCSolver<StateType, Unit>(useWidening);
+		else
+			solver = useWidening ? new WideningNarrowingSolver<StateType, Unit>()
+					: new ChaoticIterationSolver<StateType, Unit>();
 		solver.debug = this.debug;
-		solver.solve(system, domain);
-		Map<Equation<StateType>, Unit> equationToUnit = systemBuilder
-				.getEquationToUnit();
-		tagUnits(equationToUnit);
-		checkForErrors(b, equationToUnit);
+		solver.strategy = iterationStrategy;
+		solver.budget = budget;
+		solver.solve(system, bodyDomain);
+		if (debug && bodyDomain instanceof CachingDomain)
+			System.err.println("Domain cache hit rates: "
+					+ ((CachingDomain<StateType, Unit>) bodyDomain)
+							.getStatistics());
+		Degradation degradation = solver.getDegradation();
+		if (degradation != Degradation.NONE) {
+			bodyToDegradation.put(b, degradation);
+			if (debug)
+				System.err.println("Budget exhausted for method "
+						+ b.getMethod().getName() + ": " + degradation);
+		}
+		// A degraded solution would seed later runs with its lost precision,
+		// since the solver only descends from a saved solution.
+		if (snapshotFile != null && degradation == Degradation.NONE)
+			storeSnapshot(snapshotFile, EquationSystemSnapshot.of(system),
+					codec);
+		AnalysisResultCache.Entry result = null;
+		synchronized (sootLock) {
+			int[] tagCounts = cacheKey == null ? null : AnalysisResultCache
+					.countTags(b);
+			Map<Equation<StateType>, Unit> equationToUnit = systemBuilder
+					.getEquationToUnit();
+			tagUnits(equationToUnit);
+			Collection<Unit> errorUnits = checkForErrors(b, equationToUnit);
+			// Degraded results depend on the budget, which is not part of the
+			// key, so they are not cached.
+			if (cacheKey != null && degradation == Degradation.NONE)
+				result = AnalysisResultCache.Entry.record(b, tagCounts,
+						errorUnits);
+		}
+		if (result != null)
+			resultCache.store(cacheKey, result);
 	}
 
-	protected void checkForErrors(Body b,
+	/**
+	 * Returns the file holding the saved solution of the given body, which
+	 * depends on the method but not on its code, so that the solution of a
+	 * method can be used after the method changes.
+	 */
+	protected File getSnapshotFile(Body b) {
+		String description = getClass().getName() + "\n"
+				+ domain.getClass().getName() + "\n" + getConfiguration()
+				+ "\n" + useWidening + useNarrowing + useBasicBlocks + "\n"
+				+ b.getMethod().getSignature();
+		return new File(snapshotDirectory, AnalysisResultCache.hash(description)
+				+ ".snapshot");
+	}
+
+	/**
+	 * Returns the solution saved in the given file, or null if there is no
+	 * such file or it cannot be read.
+	 */
+	protected EquationSystemSnapshot<StateType> loadSnapshot(File file,
+			StateCodec<StateType> codec) {
+		if (!file.isFile())
+			return null;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)))) {
+			return EquationSystemSnapshot.read(in, codec);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	protected void storeSnapshot(File file,
+			EquationSystemSnapshot<StateType> snapshot,
+			StateCodec<StateType> codec) {
+		File tempFile = null;
+		try {
+			tempFile = File.createTempFile(file.getName(), ".tmp",
+					file.getParentFile());
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+				snapshot.write(out, codec);
+			}
+			Files.move(tempFile.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("Unable to save solution in " + file + ": "
+					+ e.getMessage());
+			if (tempFile != null)
+				tempFile.delete();
+		}
+	}
+
+	/**
+	 * Tags the units where possible errors are found and reports them.
+	 * 
+	 * @return The units where possible errors were found.
+	 */
+	protected Collection<Unit> checkForErrors(Body b,
 			Map<Equation<StateType>, Unit> equationToUnit) {
+		Collection<Unit> errorUnits = new HashSet<>();
 		for (Map.Entry<Equation<StateType>, Unit> entry : equationToUnit
 				.entrySet()) {
 			Equation<StateType> equation = entry.getKey();
@@ -165,9 +567,17 @@ public class BaseAnalysis<StateType, DomType extends AbstractDomain<StateType, U
 				u.addTag(new StringTag("Possible error!", "WarningMessage"));
 			}
 		}
+		reportErrors(b, errorUnits);
+		return errorUnits;
+	}
+
+	/**
+	 * Reports the possible errors found in a given body.
+	 */
+	protected void reportErrors(Body b, Collection<Unit> errorUnits) {
 		if (debug) {
 			System.err.println(errorUnits.size() + " possible error(s) found.");
-			totalNumberOfErrors += errorUnits.size();
+			totalNumberOfErrors.addAndGet(errorUnits.size());
 			if (!errorUnits.isEmpty()) {
 				System.err.println(errorUnits);
 				bodyToErrorUnits.put(b, errorUnits);
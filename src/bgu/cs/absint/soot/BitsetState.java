@@ -0,0 +1,257 @@
+package bgu.cs.absint.soot;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import soot.Local;
+import bgu.cs.absint.constructor.ConjunctiveState;
+
+/**
+ * A conjunctive state over a finite universe of factoids, represented by a
+ * bitset of factoid identifiers (see {@link FactoidUniverse}). Union,
+ * intersection and inclusion are computed word-wise, and removing the
+ * factoids of a variable uses the mask of the variable maintained by the
+ * universe.<br>
+ * Copies of a state share the bitset until one of them is modified, and the
+ * set of factoids is only created when it is requested.
+ *
+ * @param <F>
+ *            The implementation type of factoids.
+ */
+public abstract class BitsetState<F extends SootFactoid> extends
+		ConjunctiveState<Local, F> {
+	private static final long[] NO_BITS = new long[0];
+
+	/**
+	 * Assigns identifiers to the factoids of this state.
+	 */
+	protected final FactoidUniverse<F> universe;
+
+	/**
+	 * The identifiers of the factoids in this state, or null for the bottom
+	 * state. Words beyond the end of the array are considered to be zero.
+	 */
+	protected long[] bits;
+
+	/**
+	 * Indicates that the bitset may be shared with another state, and should
+	 * therefore be copied before it is modified.
+	 */
+	private volatile boolean shared;
+
+	/**
+	 * Indicates whether {@link factoids} holds the factoids of the bitset.
+	 */
+	private volatile boolean factoidsValid = true;
+
+	/**
+	 * Constructs a state with no factoids.
+	 */
+	public BitsetState(FactoidUniverse<F> universe) {
+		super();
+		assert universe != null;
+		this.universe = universe;
+		this.bits = NO_BITS;
+	}
+
+	public FactoidUniverse<F> getUniverse() {
+		return universe;
+	}
+
+	/**
+	 * Checks whether the state contains no factoids.
+	 */
+	public boolean isEmpty() {
+		for (long word : bits) {
+			if (word != 0)
+				return false;
+		}
+		return true;
+	}
+
+	public boolean contains(F factoid) {
+		int id = universe.find(factoid);
+		return id >= 0 && FactoidUniverse.wordIndex(id) < bits.length
+				&& (bits[FactoidUniverse.wordIndex(id)] & FactoidUniverse.bit(id)) != 0;
+	}
+
+	@Override
+	public boolean add(F factoid) {
+		assert factoid != null;
+		int id = universe.intern(factoid);
+		int word = FactoidUniverse.wordIndex(id);
+		long bit = FactoidUniverse.bit(id);
+		if (word < bits.length && (bits[word] & bit) != 0)
+			return false;
+		prepareForWrite(word + 1);
+		bits[word] |= bit;
+		factoidsValid = false;
+		return true;
+	}
+
+	/**
+	 * Removes any factoid containing the given variable.
+	 *
+	 * @param lhs
+	 *            The variable to be removed from the state.
+	 */
+	@Override
+	public boolean removeVar(Local lhs) {
+		return removeAll(universe.getMask(lhs));
+	}
+
+	/**
+	 * Removes the factoids whose identifiers are in the given mask.
+	 *
+	 * @return true if the state has changed.
+	 */
+	public boolean removeAll(long[] mask) {
+		int length = Math.min(bits.length, mask.length);
+		int word = 0;
+		while (word < length && (bits[word] & mask[word]) == 0)
+			++word;
+		if (word == length)
+			return false;
+		prepareForWrite(0);
+		for (; word < length; ++word)
+			bits[word] &= ~mask[word];
+		factoidsValid = false;
+		return true;
+	}
+
+	/**
+	 * Removes the factoids that are not in the given state.
+	 *
+	 * @return true if the state has changed.
+	 */
+	public boolean retainAll(BitsetState<F> other) {
+		long[] otherBits = bitsOf(other);
+		int word = 0;
+		while (word < bits.length
+				&& (bits[word] & ~wordOf(otherBits, word)) == 0)
+			++word;
+		if (word == bits.length)
+			return false;
+		prepareForWrite(0);
+		for (; word < bits.length; ++word)
+			bits[word] &= wordOf(otherBits, word);
+		factoidsValid = false;
+		return true;
+	}
+
+	/**
+	 * Adds the factoids of the given state.
+	 *
+	 * @return true if the state has changed.
+	 */
+	public boolean addAll(BitsetState<F> other) {
+		long[] otherBits = bitsOf(other);
+		int word = 0;
+		while (word < otherBits.length
+				&& (otherBits[word] & ~wordOf(bits, word)) == 0)
+			++word;
+		if (word == otherBits.length)
+			return false;
+		prepareForWrite(otherBits.length);
+		for (; word < otherBits.length; ++word)
+			bits[word] |= otherBits[word];
+		factoidsValid = false;
+		return true;
+	}
+
+	/**
+	 * Checks whether this state contains all the factoids of the given state.
+	 */
+	public boolean containsAll(BitsetState<F> other) {
+		long[] otherBits = bitsOf(other);
+		for (int word = 0; word < otherBits.length; ++word) {
+			if ((otherBits[word] & ~wordOf(bits, word)) != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the set of factoids in this state and null if this is the bottom
+	 * state.
+	 */
+	@Override
+	public Collection<F> getFactoids() {
+		if (bits == null)
+			return null;
+		if (!factoidsValid) {
+			synchronized (factoids) {
+				if (!factoidsValid) {
+					factoids.clear();
+					for (int word = 0; word < bits.length; ++word) {
+						long w = bits[word];
+						while (w != 0) {
+							int id = (word << 6) + Long.numberOfTrailingZeros(w);
+							factoids.add(universe.get(id));
+							w &= w - 1;
+						}
+					}
+					factoidsValid = true;
+				}
+			}
+		}
+		return factoids;
+	}
+
+	/**
+	 * Returns the bitset of the given state with respect to the universe of
+	 * this state.
+	 */
+	protected long[] bitsOf(BitsetState<F> other) {
+		if (other.universe == universe || other.isEmpty())
+			return other.bits;
+		// The states come from different universes, so the factoids of the
+		// other state are interned in this universe.
+		long[] result = NO_BITS;
+		for (F factoid : other.getFactoids()) {
+			int id = universe.intern(factoid);
+			int word = FactoidUniverse.wordIndex(id);
+			if (word >= result.length)
+				result = Arrays.copyOf(result, word + 1);
+			result[word] |= FactoidUniverse.bit(id);
+		}
+		return result;
+	}
+
+	private static long wordOf(long[] bits, int word) {
+		return word < bits.length ? bits[word] : 0;
+	}
+
+	/**
+	 * Makes the bitset of this state private and at least as long as the
+	 * given number of words.
+	 */
+	private void prepareForWrite(int minLength) {
+		if (shared || bits.length < minLength) {
+			bits = Arrays.copyOf(bits, Math.max(bits.length, minLength));
+			shared = false;
+		}
+	}
+
+	protected BitsetState(BitsetState<F> copyFrom) {
+		super(copyFrom.factoidsValid ? copyFrom.factoids : Collections.<F> emptySet());
+		this.universe = copyFrom.universe;
+		this.bits = copyFrom.bits;
+		this.factoidsValid = copyFrom.factoidsValid;
+		if (bits.length > 0) {
+			shared = true;
+			copyFrom.shared = true;
+		}
+	}
+
+	/**
+	 * A constructor just for initializing the bitset to null, used to
+	 * represent the bottom state.
+	 */
+	protected BitsetState(FactoidUniverse<F> universe, boolean dummy) {
+		super(false);
+		this.universe = universe;
+		this.bits = null;
+	}
+}
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -11,8 +12,11 @@ import java.util.Set;
 import bgu.cs.absint.AnalysisVar;
 import bgu.cs.absint.BinaryOperation;
 import bgu.cs.absint.AbstractDomain;
+import bgu.cs.absint.ComposedOperation;
 import bgu.cs.absint.Equation;
 import bgu.cs.absint.EquationSystem;
+import bgu.cs.absint.IdOperation;
+import bgu.cs.absint.JoinEquation;
 import bgu.cs.absint.Operation;
 import bgu.cs.absint.UnaryOperation;
 import bgu.cs.absint.solver.PhasedOperation;
@@ -52,8 +56,15 @@ public class BodyToEquationSystem<StateType> {
 	protected Map<Equation<StateType>, Unit> equationToUnit = new HashMap<>();
 
 	protected boolean useWidening;
+	protected boolean compressBlocks;
 	protected Operation<StateType> wideningNarrowingOperation;
 
+	/**
+	 * Maps the variables of units inside basic blocks, which are not part of
+	 * the system, to their defining unit equations.
+	 */
+	protected Map<AnalysisVar<StateType>, Equation<StateType>> interiorVarToEquation = new LinkedHashMap<>();
+
 	private Set<Unit> loopHeads = new HashSet<>();
 
 	public BodyToEquationSystem(Body b, AbstractDomain<StateType, Unit> dom) {
@@ -67,14 +78,40 @@ public class BodyToEquationSystem<StateType> {
 	}
 
 	public EquationSystem<StateType, Unit> build(boolean useWidening) {
+		return build(useWidening, false);
+	}
+
+	/**
+	 * Builds the equation system for the body.
+	 * 
+	 * @param useWidening
+	 *            Determines whether widening/narrowing equations are created at
+	 *            loop heads.
+	 * @param compressBlocks
+	 *            Determines whether the system is built at the level of basic
+	 *            blocks, in which case the values of units inside blocks are
+	 *            computed by {@link getEquationToUnit} after the system is
+	 *            solved.
+	 * @return An equation system.
+	 */
+	public EquationSystem<StateType, Unit> build(boolean useWidening, boolean compressBlocks) {
 		this.useWidening = useWidening;
+		this.compressBlocks = compressBlocks;
 		markLoopHeads();
 		assignPriorities();
 		allocateVars();
-		return createEquations();
+		return compressBlocks ? createBlockEquations() : createEquations();
 	}
 
+	/**
+	 * Returns the equations of the units of the body. When the system is built
+	 * at the level of basic blocks, these equations are not part of the system,
+	 * and the values of the variables inside blocks are computed from the
+	 * current values of the system variables.
+	 */
 	public Map<Equation<StateType>, Unit> getEquationToUnit() {
+		if (compressBlocks)
+			computeInteriorValues();
 		return equationToUnit;
 	}
 
@@ -92,95 +129,357 @@ public class BodyToEquationSystem<StateType> {
 		equationToUnit.put(setTopToEntryVar, g.getHeads().get(0));
 
 		for (Unit unit : b.getUnits()) {
-			// Handle control-flow joins
-			List<AnalysisVar<StateType>> predVarsForUnit = unitToPredVars.get(unit);
-			if (predVarsForUnit.size() == 2) {
-				AnalysisVar<StateType> var1 = predVarsForUnit.get(0);
-				AnalysisVar<StateType> var2 = predVarsForUnit.get(1);
-				AnalysisVar<StateType> joinVar = unitToJoinVar.get(unit);
-				BinaryOperation<StateType> joinOperation = loopHeads.contains(unit) ? domain.getUBLoopOperation()
-						: domain.getUBOperation();
-				Equation<StateType> joinEquation = new Equation<StateType>(joinVar, joinOperation, var1, var2);
+			for (Equation<StateType> equation : createUnitEquations(unit))
+				system.addEquation(equation);
+		}
+
+		for (Equation<StateType> equation : system.getEquations()) {
+			if (equation.sourceDescription == null)
+				equation.sourceDescription = equationToUnit.get(equation).toString();
+		}
+
+		// TODO: check that all variables in the system are reachable from
+		// entryVar.
+		system.freeze();
+		return system;
+	}
+
+	/**
+	 * Creates the equations of the given unit: the equations joining the
+	 * variables of its predecessors and the equations of its transformers.
+	 * 
+	 * @param unit
+	 *            A unit of the body.
+	 * @return The list of equations in the order they should be added to a
+	 *         system.
+	 */
+	protected List<Equation<StateType>> createUnitEquations(Unit unit) {
+		List<Equation<StateType>> result = new ArrayList<>(3);
+
+		// Handle control-flow joins
+		List<AnalysisVar<StateType>> predVarsForUnit = unitToPredVars.get(unit);
+		if (predVarsForUnit.size() > 1) {
+			AnalysisVar<StateType> joinVar = unitToJoinVar.get(unit);
+			Equation<StateType> joinEquation = createJoinEquation(joinVar, predVarsForUnit, loopHeads.contains(unit));
+			result.add(joinEquation);
+			equationToUnit.put(joinEquation, unit);
+
+			if (predVarsForUnit.size() == 2 && useWidening && loopHeads.contains(unit)) {
+				Equation<StateType> wideningEquation = createWideningEquation(unit);
+				result.add(wideningEquation);
+				equationToUnit.put(wideningEquation, unit);
+			}
+		}
+
+		AnalysisVar<StateType> inputVar = getInputVar(unit);
+
+		if (unit instanceof IfStmt) {
+			IfStmt ifStmt = (IfStmt) unit;
+			Assume trueAssume = new Assume(ifStmt, true);
+			Assume falseAssume = new Assume(ifStmt, false);
+
+			// Add assume equation for true polarity.
+			AnalysisVar<StateType> assumeTrueVar = unitToOutVar.get(unit);
+			UnaryOperation<StateType> assumeTrueTransformer = domain.getTransformer(trueAssume);
+			assert assumeTrueTransformer != null : domain.getClass().getSimpleName()
+					+ ".assumeTrueTransformer return null for " + unit + "!";
+
+			Equation<StateType> assumeTrueEquation = new Equation<>(assumeTrueVar, assumeTrueTransformer, inputVar);
+			assumeTrueEquation.sourceDescription = "assume " + ifStmt.getCondition();
+			result.add(assumeTrueEquation);
+			equationToUnit.put(assumeTrueEquation, unit);
+
+			// Add assume equation for false polarity.
+			AnalysisVar<StateType> assumeFalseVar = ifStmtToAssumeFalseVar.get(ifStmt);
+			UnaryOperation<StateType> assumeFalseTransformer = domain.getTransformer(falseAssume);
+			assert assumeFalseTransformer != null : domain.getClass().getSimpleName()
+					+ ".assumeFalseTransformer returned null for " + unit + "!";
+			Equation<StateType> assumeFalseEquation = new Equation<>(assumeFalseVar, assumeFalseTransformer,
+					inputVar);
+			assumeFalseEquation.sourceDescription = "assume !(" + ifStmt.getCondition() + ')';
+			result.add(assumeFalseEquation);
+			equationToUnit.put(assumeFalseEquation, unit);
+		} else {
+			AnalysisVar<StateType> lhsVar = unitToOutVar.get(unit);
+			UnaryOperation<StateType> unitTransformer = domain.getTransformer((Stmt) unit);
+			assert unitTransformer != null : domain.getClass().getSimpleName()
+					+ ".getTransformer returned null for " + unit + "!";
+			Equation<StateType> unitEquation = new Equation<>(lhsVar, unitTransformer, inputVar);
+			result.add(unitEquation);
+			equationToUnit.put(unitEquation, unit);
+		}
+		return result;
+	}
+
+	/**
+	 * Creates an equation joining the given variables.
+	 */
+	protected Equation<StateType> createJoinEquation(AnalysisVar<StateType> joinVar,
+			List<AnalysisVar<StateType>> predVars, boolean loopHead) {
+		if (predVars.size() == 1) {
+			return new Equation<StateType>(joinVar, IdOperation.<StateType>v(), predVars.get(0));
+		} else if (predVars.size() == 2) {
+			BinaryOperation<StateType> joinOperation = loopHead ? domain.getUBLoopOperation()
+					: domain.getUBOperation();
+			return new Equation<StateType>(joinVar, joinOperation, predVars.get(0), predVars.get(1));
+		} else {
+			Operation<StateType> joinOperation = loopHead ? domain.getMultiUBLoopOperation((byte) predVars.size())
+					: domain.getMultiUBOperation((byte) predVars.size());
+			BinaryOperation<StateType> binaryJoinOperation = loopHead ? domain.getUBLoopOperation()
+					: domain.getUBOperation();
+			// Join incrementally, re-joining only the changed predecessors.
+			return new JoinEquation<StateType>(joinVar, joinOperation, binaryJoinOperation, predVars);
+		}
+	}
+
+	/**
+	 * Creates the widening/narrowing equation of the given loop head.
+	 */
+	protected Equation<StateType> createWideningEquation(Unit unit) {
+		AnalysisVar<StateType> boxVar = loopHeadUnitToBoxVar.get(unit);
+		PhasedOperation<StateType> boxOperation = new PhasedOperation<StateType>(domain.getWideningOperation(),
+				domain.getNarrowingOperation()) {
+			@Override
+			public String toString() {
+				return domain.getClass().getSimpleName() + "[Widening|Narrowing]";
+			}
+		};
+		return new Equation<StateType>(boxVar, boxOperation, boxVar, unitToJoinVar.get(unit));
+	}
+
+	/**
+	 * Returns the variable holding the input state of the given unit.
+	 */
+	protected AnalysisVar<StateType> getInputVar(Unit unit) {
+		List<AnalysisVar<StateType>> predVarsForUnit = unitToPredVars.get(unit);
+		AnalysisVar<StateType> inputVar = predVarsForUnit.size() == 1 ? predVarsForUnit.get(0)
+				: unitToJoinVar.get(unit);
+		if (useWidening) {
+			AnalysisVar<StateType> boxVar = loopHeadUnitToBoxVar.get(unit);
+			if (boxVar != null)
+				inputVar = boxVar;
+		}
+		return inputVar;
+	}
+
+	/**
+	 * Creates an equation system at the level of basic blocks: the transformers
+	 * of the units in each block are composed into a single operation, blocks
+	 * whose transformers are all identities are replaced by their input
+	 * variables, and only the variables at block boundaries are added to the
+	 * system. The equations of the units are created as well, but are only used
+	 * for computing the values of variables inside blocks after the system is
+	 * solved.
+	 */
+	protected EquationSystem<StateType, Unit> createBlockEquations() {
+		EquationSystem<StateType, Unit> system = new EquationSystem<>();
+
+		// Add an equation to initialize the entry variable to top.
+		Equation<StateType> setTopToEntryVar = new Equation<StateType>(entryVar, domain.getTopOperation(),
+				new ArrayList<AnalysisVar<StateType>>());
+		setTopToEntryVar.sourceDescription = g.getHeads().get(0).toString();
+		system.addEquation(setTopToEntryVar);
+		equationToUnit.put(setTopToEntryVar, g.getHeads().get(0));
+
+		Map<AnalysisVar<StateType>, Equation<StateType>> varToUnitEquation = new HashMap<>();
+		for (Unit unit : b.getUnits()) {
+			for (Equation<StateType> equation : createUnitEquations(unit)) {
+				if (equation.sourceDescription == null)
+					equation.sourceDescription = unit.toString();
+				varToUnitEquation.put(equation.getLhs(), equation);
+			}
+		}
+
+		// Compose the transformers of each block and alias the outputs of
+		// blocks whose transformers are all identities.
+		List<List<Unit>> blocks = computeBlocks();
+		Map<AnalysisVar<StateType>, AnalysisVar<StateType>> aliases = new HashMap<>();
+		List<List<Equation<StateType>>> blockEquations = new ArrayList<>(blocks.size());
+		for (List<Unit> block : blocks) {
+			AnalysisVar<StateType> inputVar = getInputVar(block.get(0));
+			UnaryOperation<StateType> prefix = IdOperation.v();
+			StringBuilder description = new StringBuilder();
+			for (int i = 0; i < block.size() - 1; ++i) {
+				Unit unit = block.get(i);
+				prefix = ComposedOperation.compose(prefix, getUnitTransformer(varToUnitEquation, unitToOutVar.get(unit)));
+				description.append(unit).append("; ");
+			}
+			Unit last = block.get(block.size() - 1);
+			description.append(last);
+
+			List<AnalysisVar<StateType>> outVars = new ArrayList<>(2);
+			outVars.add(unitToOutVar.get(last));
+			if (last instanceof IfStmt)
+				outVars.add(ifStmtToAssumeFalseVar.get(last));
+			List<Equation<StateType>> equations = new ArrayList<>(2);
+			for (AnalysisVar<StateType> outVar : outVars) {
+				UnaryOperation<StateType> blockTransformer = ComposedOperation.compose(prefix,
+						getUnitTransformer(varToUnitEquation, outVar));
+				if (blockTransformer == IdOperation.v() && resolve(aliases, inputVar) != outVar) {
+					aliases.put(outVar, inputVar);
+				} else {
+					Equation<StateType> blockEquation = new Equation<>(outVar, blockTransformer, inputVar);
+					blockEquation.sourceDescription = description.toString();
+					equations.add(blockEquation);
+				}
+			}
+			blockEquations.add(equations);
+		}
+
+		for (int i = 0; i < blocks.size(); ++i) {
+			Unit head = blocks.get(i).get(0);
+			List<AnalysisVar<StateType>> predVarsForUnit = unitToPredVars.get(head);
+			if (predVarsForUnit.size() > 1) {
+				AnalysisVar<StateType> joinVar = unitToJoinVar.get(head);
+				List<AnalysisVar<StateType>> predVars = new ArrayList<>(predVarsForUnit.size());
+				for (AnalysisVar<StateType> predVar : predVarsForUnit) {
+					predVar = resolve(aliases, predVar);
+					// A block that leads back to its own head unchanged does
+					// not contribute to the join.
+					if (predVar != joinVar)
+						predVars.add(predVar);
+				}
+				if (predVars.isEmpty())
+					predVars.add(joinVar);
+				Equation<StateType> joinEquation = createJoinEquation(joinVar, predVars, loopHeads.contains(head));
+				joinEquation.sourceDescription = head.toString();
 				system.addEquation(joinEquation);
-				equationToUnit.put(joinEquation, unit);
 
-				if (useWidening && loopHeads.contains(unit)) {
-					AnalysisVar<StateType> boxVar = loopHeadUnitToBoxVar.get(unit);
-					PhasedOperation<StateType> boxOperation = new PhasedOperation<StateType>(
-							domain.getWideningOperation(), domain.getNarrowingOperation()) {
-						@Override
-						public String toString() {
-							return domain.getClass().getSimpleName() + "[Widening|Narrowing]";
-						}
-					};
-					Equation<StateType> wideningEquation = new Equation<StateType>(boxVar, boxOperation, boxVar,
-							joinVar);
+				if (useWidening && loopHeads.contains(head) && predVarsForUnit.size() == 2) {
+					Equation<StateType> wideningEquation = createWideningEquation(head);
+					wideningEquation.sourceDescription = head.toString();
 					system.addEquation(wideningEquation);
-					equationToUnit.put(wideningEquation, unit);
 				}
-			} else if (predVarsForUnit.size() > 2) {
-				AnalysisVar<StateType> joinVar = unitToJoinVar.get(unit);
-				Operation<StateType> joinOperation = loopHeads.contains(unit)
-						? domain.getMultiUBLoopOperation((byte) predVarsForUnit.size())
-						: domain.getMultiUBOperation((byte) predVarsForUnit.size());
-				Equation<StateType> joinEquation = new Equation<StateType>(joinVar, joinOperation, predVarsForUnit);
-				system.addEquation(joinEquation);
-				equationToUnit.put(joinEquation, unit);
 			}
 
-			AnalysisVar<StateType> inputVar = predVarsForUnit.size() == 1 ? predVarsForUnit.get(0)
-					: unitToJoinVar.get(unit);
-			if (useWidening) {
-				AnalysisVar<StateType> boxVar = loopHeadUnitToBoxVar.get(unit);
-				if (boxVar != null)
-					inputVar = boxVar;
+			for (Equation<StateType> blockEquation : blockEquations.get(i)) {
+				AnalysisVar<StateType> inputVar = blockEquation.getArgs().get(0);
+				AnalysisVar<StateType> resolvedVar = resolve(aliases, inputVar);
+				if (resolvedVar != inputVar) {
+					Equation<StateType> resolvedEquation = new Equation<>(blockEquation.getLhs(),
+							blockEquation.getOp(), resolvedVar);
+					resolvedEquation.sourceDescription = blockEquation.sourceDescription;
+					blockEquation = resolvedEquation;
+				}
+				system.addEquation(blockEquation);
 			}
+		}
 
-			if (unit instanceof IfStmt) {
-				IfStmt ifStmt = (IfStmt) unit;
-				Assume trueAssume = new Assume(ifStmt, true);
-				Assume falseAssume = new Assume(ifStmt, false);
-
-				// Add assume equation for true polarity.
-				AnalysisVar<StateType> assumeTrueVar = unitToOutVar.get(unit);
-				UnaryOperation<StateType> assumeTrueTransformer = domain.getTransformer(trueAssume);
-				assert assumeTrueTransformer != null : domain.getClass().getSimpleName()
-						+ ".assumeTrueTransformer return null for " + unit + "!";
-
-				Equation<StateType> assumeTrueEquation = new Equation<>(assumeTrueVar, assumeTrueTransformer, inputVar);
-				assumeTrueEquation.sourceDescription = "assume " + ifStmt.getCondition();
-				system.addEquation(assumeTrueEquation);
-				equationToUnit.put(assumeTrueEquation, unit);
-
-				// Add assume equation for false polarity.
-				AnalysisVar<StateType> assumeFalseVar = ifStmtToAssumeFalseVar.get(ifStmt);
-				UnaryOperation<StateType> assumeFalseTransformer = domain.getTransformer(falseAssume);
-				assert assumeFalseTransformer != null : domain.getClass().getSimpleName()
-						+ ".assumeFalseTransformer returned null for " + unit + "!";
-				Equation<StateType> assumeFalseEquation = new Equation<>(assumeFalseVar, assumeFalseTransformer,
-						inputVar);
-				assumeFalseEquation.sourceDescription = "assume !(" + ifStmt.getCondition() + ')';
-				system.addEquation(assumeFalseEquation);
-				equationToUnit.put(assumeFalseEquation, unit);
-			} else {
-				AnalysisVar<StateType> lhsVar = unitToOutVar.get(unit);
-				UnaryOperation<StateType> unitTransformer = domain.getTransformer((Stmt) unit);
-				assert unitTransformer != null : domain.getClass().getSimpleName()
-						+ ".getTransformer returned null for " + unit + "!";
-				Equation<StateType> unitEquation = new Equation<>(lhsVar, unitTransformer, inputVar);
-				system.addEquation(unitEquation);
-				equationToUnit.put(unitEquation, unit);
+		// The remaining unit equations define the variables inside blocks.
+		for (Equation<StateType> equation : equationToUnit.keySet()) {
+			AnalysisVar<StateType> lhs = equation.getLhs();
+			if (system.getDefiningEquation(lhs) == null)
+				interiorVarToEquation.put(lhs, equation);
+		}
+
+		system.freeze();
+		return system;
+	}
+
+	/**
+	 * Partitions the units of the body into basic blocks. A unit continues the
+	 * block of its predecessor if it is the only successor of a non-branching
+	 * predecessor and is not a loop head.
+	 * 
+	 * @return The list of blocks, each given as a list of units in execution
+	 *         order.
+	 */
+	protected List<List<Unit>> computeBlocks() {
+		Map<AnalysisVar<StateType>, Unit> outVarToUnit = new HashMap<>();
+		for (Unit unit : b.getUnits()) {
+			if (!(unit instanceof IfStmt))
+				outVarToUnit.put(unitToOutVar.get(unit), unit);
+		}
+		Map<AnalysisVar<StateType>, Integer> predVarUses = new HashMap<>();
+		for (List<AnalysisVar<StateType>> predVars : unitToPredVars.values()) {
+			for (AnalysisVar<StateType> predVar : predVars) {
+				Integer uses = predVarUses.get(predVar);
+				predVarUses.put(predVar, uses == null ? 1 : uses + 1);
 			}
 		}
 
-		for (Equation<StateType> equation : system.getEquations()) {
-			if (equation.sourceDescription == null)
-				equation.sourceDescription = equationToUnit.get(equation).toString();
+		// Map each unit that continues a block to its predecessor.
+		Map<Unit, Unit> nextInBlock = new HashMap<>();
+		Set<Unit> continuingUnits = new HashSet<>();
+		for (Unit unit : b.getUnits()) {
+			List<AnalysisVar<StateType>> predVars = unitToPredVars.get(unit);
+			if (predVars.size() != 1 || loopHeads.contains(unit))
+				continue;
+			AnalysisVar<StateType> predVar = predVars.get(0);
+			Unit pred = outVarToUnit.get(predVar);
+			if (pred != null && pred != unit && predVarUses.get(predVar) == 1) {
+				nextInBlock.put(pred, unit);
+				continuingUnits.add(unit);
+			}
 		}
 
-		// TODO: check that all variables in the system are reachable from
-		// entryVar.
-		return system;
+		List<List<Unit>> result = new ArrayList<>();
+		Set<Unit> assigned = new HashSet<>();
+		// Units of unreachable cycles may all continue blocks, so a second
+		// pass starts blocks at the units left unassigned.
+		for (int pass = 0; pass < 2; ++pass) {
+			for (Unit unit : b.getUnits()) {
+				if (assigned.contains(unit) || (pass == 0 && continuingUnits.contains(unit)))
+					continue;
+				List<Unit> block = new ArrayList<>();
+				for (Unit current = unit; current != null && assigned.add(current); current = nextInBlock
+						.get(current)) {
+					block.add(current);
+				}
+				result.add(block);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Computes the values of the variables inside blocks from the values of
+	 * the variables of the system. The values are recomputed on every call,
+	 * since the system may have been solved again since the last call.
+	 */
+	protected void computeInteriorValues() {
+		for (AnalysisVar<StateType> var : interiorVarToEquation.keySet())
+			var.value = null;
+		ArrayList<Equation<StateType>> chain = new ArrayList<>();
+		for (AnalysisVar<StateType> var : interiorVarToEquation.keySet()) {
+			// Collect the equations leading to the variable from the closest
+			// variable having a value and evaluate them in execution order.
+			chain.clear();
+			Equation<StateType> equation = interiorVarToEquation.get(var);
+			while (equation != null && equation.getLhs().value == null) {
+				chain.add(equation);
+				AnalysisVar<StateType> arg = equation.getArgs().get(0);
+				equation = arg.value == null ? interiorVarToEquation.get(arg) : null;
+			}
+			for (int i = chain.size() - 1; i >= 0; --i) {
+				equation = chain.get(i);
+				StateType argValue = equation.getArgs().get(0).value;
+				if (argValue == null)
+					break;
+				// Like the solvers, which never evaluate an equation whose
+				// argument has not risen above bottom.
+				if (domain.leq(argValue, domain.getBottom()))
+					equation.getLhs().value = domain.getBottom();
+				else
+					equation.update();
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private UnaryOperation<StateType> getUnitTransformer(
+			Map<AnalysisVar<StateType>, Equation<StateType>> varToUnitEquation, AnalysisVar<StateType> outVar) {
+		return (UnaryOperation<StateType>) varToUnitEquation.get(outVar).getOp();
+	}
+
+	private AnalysisVar<StateType> resolve(Map<AnalysisVar<StateType>, AnalysisVar<StateType>> aliases,
+			AnalysisVar<StateType> var) {
+		AnalysisVar<StateType> alias = aliases.get(var);
+		while (alias != null) {
+			var = alias;
+			alias = aliases.get(var);
+		}
+		return var;
 	}
 
 	/**
@@ -0,0 +1,129 @@
+package bgu.cs.absint.soot;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import soot.Local;
+
+/**
+ * Assigns a dense integer identifier to each distinct factoid, which allows
+ * representing sets of factoids as bitsets (see {@link BitsetState}). For each
+ * local variable, the universe also maintains the mask of the factoids that
+ * contain the variable, which is used to remove all of these factoids from a
+ * bitset in one pass.<br>
+ * A universe is usually created per analyzed method, which keeps the bitsets
+ * short. Interning is thread-safe, so a universe can also be shared by the
+ * analyses of several methods.
+ *
+ * @param <F>
+ *            The implementation type of factoids.
+ */
+public class FactoidUniverse<F extends SootFactoid> {
+	private static final long[] EMPTY_MASK = new long[0];
+
+	/**
+	 * Maps each factoid to its identifier. A factoid is added to this map
+	 * only after its identifier is added to the masks of its variables.
+	 */
+	protected final Map<F, Integer> factoidToId = new ConcurrentHashMap<>();
+
+	/**
+	 * Maps each identifier to its factoid.
+	 */
+	private volatile Object[] idToFactoid = new Object[16];
+
+	/**
+	 * Maps each variable to the mask of the factoids that contain it.
+	 */
+	protected final Map<Local, long[]> varToMask = new ConcurrentHashMap<>();
+
+	private int size = 0;
+
+	/**
+	 * Returns the identifier of the given factoid, assigning it a new
+	 * identifier if the factoid has not been seen before.
+	 */
+	public int intern(F factoid) {
+		Integer id = factoidToId.get(factoid);
+		if (id != null)
+			return id;
+		synchronized (this) {
+			id = factoidToId.get(factoid);
+			if (id != null)
+				return id;
+			int newId = size;
+			if (newId == idToFactoid.length)
+				idToFactoid = Arrays.copyOf(idToFactoid, 2 * newId);
+			idToFactoid[newId] = factoid;
+			Set<Local> vars = new HashSet<>();
+			factoid.addVarsTo(vars);
+			for (Local var : vars) {
+				// Masks are replaced rather than modified, since they may
+				// be read concurrently.
+				long[] mask = varToMask.get(var);
+				mask = mask == null ? new long[wordIndex(newId) + 1]
+						: Arrays.copyOf(mask,
+								Math.max(mask.length, wordIndex(newId) + 1));
+				mask[wordIndex(newId)] |= bit(newId);
+				varToMask.put(var, mask);
+			}
+			++size;
+			factoidToId.put(factoid, newId);
+			return newId;
+		}
+	}
+
+	/**
+	 * Returns the identifier of the given factoid or -1 if the factoid has
+	 * not been interned.
+	 */
+	public int find(F factoid) {
+		Integer id = factoidToId.get(factoid);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the factoid with the given identifier.
+	 */
+	@SuppressWarnings("unchecked")
+	public F get(int id) {
+		return (F) idToFactoid[id];
+	}
+
+	/**
+	 * Returns the mask of the factoids that contain the given variable.
+	 */
+	public long[] getMask(Local var) {
+		long[] mask = varToMask.get(var);
+		return mask == null ? EMPTY_MASK : mask;
+	}
+
+	/**
+	 * The number of factoids interned so far.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the index of the word holding the bit of the given identifier.
+	 */
+	public static int wordIndex(int id) {
+		return id >>> 6;
+	}
+
+	/**
+	 * Returns the bit of the given identifier within its word.
+	 */
+	public static long bit(int id) {
+		return 1L << id;
+	}
+
+	@Override
+	public String toString() {
+		return factoidToId.keySet().toString();
+	}
+}
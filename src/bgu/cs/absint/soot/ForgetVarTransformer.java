@@ -34,13 +34,14 @@ public class ForgetVarTransformer<F extends SootFactoid, StateType extends Conju
 		if (input.getFactoids() == null || input.getFactoids().isEmpty())
 			return input;
 
+		// Copying a state with persistent factoid sets takes constant time, and
+		// the factoids of the variable are found via the variable index, so
+		// they are removed from a copy.
 		@SuppressWarnings("unchecked")
-		StateType result = (StateType) input.empty();
-		for (F factoid : input.getFactoids()) {
-			if (!factoid.hasVar(lhs)) {
-				result.add(factoid);
-			}
-		}
-		return result;
+		StateType result = (StateType) input.copy();
+		if (result.removeVar(lhs))
+			return result;
+		else
+			return input;
 	}
 }
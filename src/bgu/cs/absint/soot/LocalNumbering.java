@@ -0,0 +1,77 @@
+package bgu.cs.absint.soot;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import soot.Local;
+
+/**
+ * A dense numbering of local variables, which lets abstract states index
+ * primitive arrays by variables. Numbers are assigned on demand, starting from
+ * 0, and never change, so states that share a numbering can be compared
+ * entry-by-entry.<br>
+ * A numbering is meant to be shared by the states of a single method, and may
+ * be extended concurrently by several threads.
+ */
+public class LocalNumbering {
+	protected final Map<Local, Integer> localToIndex = new ConcurrentHashMap<>();
+
+	/**
+	 * The variables by their numbers.
+	 */
+	protected volatile Local[] locals;
+
+	protected int size;
+
+	/**
+	 * Constructs a numbering where the given variables get the first numbers,
+	 * in the order in which they are given.
+	 */
+	public LocalNumbering(Local... initialLocals) {
+		locals = new Local[Math.max(8, initialLocals.length)];
+		for (Local local : initialLocals)
+			indexOf(local);
+	}
+
+	/**
+	 * Returns the number of the given variable, assigning it the next number
+	 * if it doesn't have one yet.
+	 */
+	public int indexOf(Local local) {
+		Integer index = localToIndex.get(local);
+		if (index != null)
+			return index;
+		synchronized (this) {
+			index = localToIndex.get(local);
+			if (index != null)
+				return index;
+			if (size == locals.length)
+				locals = Arrays.copyOf(locals, 2 * size);
+			locals[size] = local;
+			localToIndex.put(local, size);
+			return size++;
+		}
+	}
+
+	/**
+	 * Returns the number of the given variable, or -1 if it doesn't have one.
+	 */
+	public int find(Local local) {
+		Integer index = localToIndex.get(local);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * Returns the variable with the given number.
+	 */
+	public Local get(int index) {
+		Local result = locals[index];
+		assert result != null : "No local numbered " + index + "!";
+		return result;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+}
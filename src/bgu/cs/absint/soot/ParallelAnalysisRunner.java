@@ -0,0 +1,227 @@
+package bgu.cs.absint.soot;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import soot.Body;
+import soot.BodyTransformer;
+import soot.PackManager;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Transform;
+
+/**
+ * A convenience class for applying a given analysis to the methods of a class
+ * on a pool of threads.<br>
+ * Soot hands the bodies to the analysis transform one at a time, after
+ * finishing their construction. The transform collects the bodies of the
+ * application classes (see {@link BodyCollector}), and when it receives the
+ * last one, analyzes all of them concurrently, starting with the largest ones
+ * so that long analyses are not left for last. Soot writes its output only
+ * after the transform returns, so the output contains the tags of all bodies.
+ * <br>
+ * The number of threads can be set by the system property
+ * {@value #THREADS_PROPERTY}, which also makes {@link BaseAnalysis} analyze
+ * bodies concurrently when it is added to Soot directly.
+ */
+public class ParallelAnalysisRunner {
+	/**
+	 * The system property used to set the number of threads analyzing method
+	 * bodies.
+	 */
+	public static final String THREADS_PROPERTY = "absint.threads";
+
+	/**
+	 * Runs the given analysis with the number of threads given by
+	 * {@value #THREADS_PROPERTY}, or one thread per available processor.
+	 *
+	 * @param analysis
+	 *            An analysis.
+	 * @param args
+	 *            Expected to contain either a single class name or an
+	 *            alternative array of arguments to Soot.
+	 */
+	public static void run(BaseAnalysis<?, ?> analysis, String[] args) {
+		run(analysis, Integer.getInteger(THREADS_PROPERTY, Runtime
+				.getRuntime().availableProcessors()), args);
+	}
+
+	/**
+	 * Runs the given analysis with the given number of threads.
+	 *
+	 * @param analysis
+	 *            An analysis.
+	 * @param numThreads
+	 *            The number of threads used for analyzing method bodies.
+	 * @param args
+	 *            Expected to contain either a single class name or an
+	 *            alternative array of arguments to Soot.
+	 */
+	public static void run(final BaseAnalysis<?, ?> analysis,
+			final int numThreads, String[] args) {
+		String[] sootArgs = SimpleAnalysisRunner.getArgs(args);
+		String phaseName = "jtp." + analysis.getClass().getSimpleName();
+		final BodyCollector collector = new BodyCollector(analysis, numThreads);
+		BodyTransformer transformer = new BodyTransformer() {
+			@Override
+			protected void internalTransform(Body b, String phaseName,
+					@SuppressWarnings("rawtypes") Map options) {
+				collector.add(b);
+			}
+		};
+		PackManager.v().getPack("jtp").add(new Transform(phaseName, transformer));
+		soot.Main.main(sootArgs);
+		// Soot did not transform all of the expected bodies, so the bodies
+		// that were left over are only analyzed after Soot wrote its output.
+		collector.warnPending();
+		List<Body> pendingBodies = collector.getPendingBodies();
+		if (!pendingBodies.isEmpty())
+			analyze(analysis, pendingBodies, numThreads);
+	}
+
+	/**
+	 * Collects the bodies handed to the analysis by Soot, and analyzes all of
+	 * them concurrently when the last body of the application classes
+	 * arrives.
+	 */
+	public static class BodyCollector {
+		private final BaseAnalysis<?, ?> analysis;
+		private final int numThreads;
+		private final List<Body> bodies = new ArrayList<>();
+		private int remainingBodies = -1;
+
+		/**
+		 * Constructs a collector for the given analysis.
+		 *
+		 * @param analysis
+		 *            An analysis.
+		 * @param numThreads
+		 *            The number of threads used for analyzing method bodies.
+		 */
+		public BodyCollector(BaseAnalysis<?, ?> analysis, int numThreads) {
+			this.analysis = analysis;
+			this.numThreads = numThreads;
+		}
+
+		/**
+		 * Adds a body transformed by Soot, and analyzes the collected bodies
+		 * if it is the last one.
+		 */
+		public synchronized void add(Body b) {
+			if (remainingBodies < 0)
+				remainingBodies = countBodies();
+			bodies.add(b);
+			--remainingBodies;
+			if (remainingBodies == 0) {
+				analyze(analysis, bodies, numThreads);
+				bodies.clear();
+			}
+		}
+
+		/**
+		 * Returns the bodies that were collected but not analyzed, since Soot
+		 * transformed fewer bodies than expected, and forgets them.
+		 */
+		public synchronized List<Body> getPendingBodies() {
+			List<Body> result = new ArrayList<>(bodies);
+			bodies.clear();
+			return result;
+		}
+
+		/**
+		 * Warns about the bodies that were collected but not analyzed before
+		 * Soot wrote its output, and whose tags are therefore missing from
+		 * the output.
+		 */
+		public synchronized void warnPending() {
+			if (bodies.isEmpty())
+				return;
+			StringBuilder methods = new StringBuilder();
+			for (Body b : bodies)
+				methods.append("\n  ").append(b.getMethod().getSignature());
+			System.err.println("Warning: Soot transformed " + remainingBodies
+					+ " fewer bodies than expected, so the following "
+					+ bodies.size()
+					+ " methods were not analyzed before Soot wrote its output,"
+					+ " which lacks their tags:" + methods);
+		}
+	}
+
+	/**
+	 * Returns the number of concrete methods of the application classes, which
+	 * is the number of bodies Soot transforms.
+	 */
+	public static int countBodies() {
+		int result = 0;
+		for (SootClass c : Scene.v().getApplicationClasses()) {
+			for (SootMethod m : c.getMethods()) {
+				if (m.isConcrete())
+					++result;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Analyzes the given bodies on a pool of threads, in decreasing order of
+	 * their number of units, and waits for all of them to finish.
+	 *
+	 * @param analysis
+	 *            An analysis.
+	 * @param bodies
+	 *            The bodies to analyze.
+	 * @param numThreads
+	 *            The number of threads used for analyzing method bodies.
+	 */
+	public static void analyze(final BaseAnalysis<?, ?> analysis,
+			Collection<Body> bodies, int numThreads) {
+		assert numThreads > 0;
+		List<Body> orderedBodies = new ArrayList<>(bodies);
+		Collections.sort(orderedBodies, new Comparator<Body>() {
+			@Override
+			public int compare(Body b1, Body b2) {
+				return Integer.compare(b2.getUnits().size(), b1.getUnits()
+						.size());
+			}
+		});
+
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<?>> results = new ArrayList<>(orderedBodies.size());
+			for (final Body b : orderedBodies) {
+				results.add(pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						analysis.analyze(b);
+					}
+				}));
+			}
+			for (Future<?> result : results) {
+				try {
+					result.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new Error("Interrupted while analyzing!", e);
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof Error)
+						throw (Error) cause;
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					throw new Error(cause);
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}
@@ -5,7 +5,9 @@ import bgu.cs.absint.IdOperation;
 import bgu.cs.absint.UnaryOperation;
 
 /**
- * Obtains an abstract transformer for a given unit by pattern matching.
+ * Obtains an abstract transformer for a given unit by pattern matching.<br>
+ * A matcher stores the result of the current match in {@link transformer}, so
+ * domains that may be used from several threads create a matcher per match.
  * 
  * @author romanm
  */